@@ -0,0 +1,45 @@
+package ru.craftysoft.orderingsystem.customer.builder.operation;
+
+import ru.craftysoft.orderingsystem.customer.proto.CustomerBalanceUpdateResult;
+import ru.craftysoft.orderingsystem.customer.proto.UpdateCustomerBalancesRequest;
+import ru.craftysoft.orderingsystem.customer.proto.UpdateCustomerBalancesResponse;
+import ru.craftysoft.orderingsystem.customer.proto.UpdateCustomerBalancesResponseData;
+import ru.craftysoft.orderingsystem.util.error.exception.BaseException;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.math.BigDecimal;
+import java.util.List;
+
+@Singleton
+public class UpdateCustomerBalancesResponseBuilder {
+
+    private final ErrorBuilder errorBuilder;
+    private final UpdateCustomerBalanceResponseBuilder updateCustomerBalanceResponseBuilder;
+
+    @Inject
+    public UpdateCustomerBalancesResponseBuilder(ErrorBuilder errorBuilder,
+                                                 UpdateCustomerBalanceResponseBuilder updateCustomerBalanceResponseBuilder) {
+        this.errorBuilder = errorBuilder;
+        this.updateCustomerBalanceResponseBuilder = updateCustomerBalanceResponseBuilder;
+    }
+
+    public UpdateCustomerBalancesResponse build(BaseException baseException) {
+        return UpdateCustomerBalancesResponse.newBuilder()
+                .setError(errorBuilder.build(baseException))
+                .build();
+    }
+
+    public UpdateCustomerBalancesResponse build(UpdateCustomerBalancesRequest request, List<BigDecimal> balances) {
+        var data = UpdateCustomerBalancesResponseData.newBuilder();
+        for (int i = 0; i < request.getUpdatesCount(); i++) {
+            data.addResults(CustomerBalanceUpdateResult.newBuilder()
+                    .setOperationId(request.getUpdates(i).getOperationId())
+                    .setData(updateCustomerBalanceResponseBuilder.build(balances.get(i)).getUpdateCustomerBalanceResponseData())
+            );
+        }
+        return UpdateCustomerBalancesResponse.newBuilder()
+                .setUpdateCustomerBalancesResponseData(data)
+                .build();
+    }
+}
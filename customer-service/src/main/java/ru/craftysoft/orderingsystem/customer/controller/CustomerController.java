@@ -5,9 +5,11 @@ import io.grpc.stub.StreamObserver;
 import lombok.extern.slf4j.Slf4j;
 import ru.craftysoft.orderingsystem.customer.builder.operation.GetCustomerResponseBuilder;
 import ru.craftysoft.orderingsystem.customer.builder.operation.UpdateCustomerBalanceResponseBuilder;
+import ru.craftysoft.orderingsystem.customer.builder.operation.UpdateCustomerBalancesResponseBuilder;
 import ru.craftysoft.orderingsystem.customer.error.operation.ModuleOperationCode;
 import ru.craftysoft.orderingsystem.customer.logic.GetCustomerOperation;
 import ru.craftysoft.orderingsystem.customer.logic.UpdateCustomerBalanceOperation;
+import ru.craftysoft.orderingsystem.customer.logic.UpdateCustomerBalancesOperation;
 import ru.craftysoft.orderingsystem.customer.proto.*;
 import ru.craftysoft.orderingsystem.util.grpc.ExceptionHelper;
 
@@ -16,6 +18,7 @@ import javax.inject.Singleton;
 
 import static ru.craftysoft.orderingsystem.customer.error.operation.ModuleOperationCode.GET_CUSTOMER;
 import static ru.craftysoft.orderingsystem.customer.error.operation.ModuleOperationCode.UPDATE_CUSTOMER_BALANCE;
+import static ru.craftysoft.orderingsystem.customer.error.operation.ModuleOperationCode.UPDATE_CUSTOMER_BALANCES;
 import static ru.craftysoft.orderingsystem.util.error.exception.ExceptionFactory.mapException;
 import static ru.craftysoft.orderingsystem.util.error.logging.ExceptionLoggerHelper.logError;
 import static ru.craftysoft.orderingsystem.util.mdc.MdcKey.OPERATION_NAME_KEY;
@@ -28,18 +31,24 @@ public class CustomerController extends CustomerServiceGrpc.CustomerServiceImplB
 
     private final GetCustomerOperation getCustomerOperation;
     private final UpdateCustomerBalanceOperation updateCustomerBalanceOperation;
+    private final UpdateCustomerBalancesOperation updateCustomerBalancesOperation;
     private final GetCustomerResponseBuilder getCustomerResponseBuilder;
     private final UpdateCustomerBalanceResponseBuilder updateCustomerBalanceResponseBuilder;
+    private final UpdateCustomerBalancesResponseBuilder updateCustomerBalancesResponseBuilder;
 
     @Inject
     public CustomerController(GetCustomerOperation getCustomerOperation,
                               UpdateCustomerBalanceOperation updateCustomerBalanceOperation,
+                              UpdateCustomerBalancesOperation updateCustomerBalancesOperation,
                               GetCustomerResponseBuilder getCustomerResponseBuilder,
-                              UpdateCustomerBalanceResponseBuilder updateCustomerBalanceResponseBuilder) {
+                              UpdateCustomerBalanceResponseBuilder updateCustomerBalanceResponseBuilder,
+                              UpdateCustomerBalancesResponseBuilder updateCustomerBalancesResponseBuilder) {
         this.getCustomerOperation = getCustomerOperation;
         this.updateCustomerBalanceOperation = updateCustomerBalanceOperation;
+        this.updateCustomerBalancesOperation = updateCustomerBalancesOperation;
         this.getCustomerResponseBuilder = getCustomerResponseBuilder;
         this.updateCustomerBalanceResponseBuilder = updateCustomerBalanceResponseBuilder;
+        this.updateCustomerBalancesResponseBuilder = updateCustomerBalancesResponseBuilder;
     }
 
     @Override
@@ -73,4 +82,20 @@ public class CustomerController extends CustomerServiceGrpc.CustomerServiceImplB
             }
         }));
     }
+
+    @Override
+    public void updateBalances(UpdateCustomerBalancesRequest request, StreamObserver<UpdateCustomerBalancesResponse> responseObserver) {
+        var context = Context.current().withValue(OPERATION_NAME_KEY, UPDATE_CUSTOMER_BALANCES.name());
+        withContext(context, () -> updateCustomerBalancesOperation.process(request)).whenComplete(withMdc((response, throwable) -> {
+            if (throwable == null) {
+                responseObserver.onNext(response);
+                responseObserver.onCompleted();
+            } else {
+                var baseException = mapException(throwable, ModuleOperationCode::resolve);
+                logError(log, "CustomerController.updateBalances", baseException);
+                var errorResponse = updateCustomerBalancesResponseBuilder.build(baseException);
+                responseObserver.onError(ExceptionHelper.messageToException(errorResponse));
+            }
+        }));
+    }
 }
@@ -21,6 +21,7 @@ public enum ModuleOperationCode implements OperationCode {
 
     GET_CUSTOMER("01"),
     UPDATE_CUSTOMER_BALANCE("02"),
+    UPDATE_CUSTOMER_BALANCES("03"),
     ;
 
     private final String code;
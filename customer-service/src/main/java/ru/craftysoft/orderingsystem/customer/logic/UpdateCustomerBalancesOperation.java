@@ -0,0 +1,46 @@
+package ru.craftysoft.orderingsystem.customer.logic;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.craftysoft.orderingsystem.customer.builder.operation.UpdateCustomerBalancesResponseBuilder;
+import ru.craftysoft.orderingsystem.customer.error.operation.ModuleOperationCode;
+import ru.craftysoft.orderingsystem.customer.proto.UpdateCustomerBalancesRequest;
+import ru.craftysoft.orderingsystem.customer.proto.UpdateCustomerBalancesResponse;
+import ru.craftysoft.orderingsystem.customer.service.dao.CustomerDaoAdapter;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.CompletableFuture;
+
+import static ru.craftysoft.orderingsystem.util.error.exception.ExceptionFactory.mapException;
+import static ru.craftysoft.orderingsystem.util.mdc.MdcUtils.withMdc;
+
+/**
+ * изменение балансов нескольких заказчиков одним вызовом.
+ * все изменения применяются в одной транзакции, результат возвращается по каждому изменению.
+ */
+@Singleton
+@Slf4j
+public class UpdateCustomerBalancesOperation {
+
+    private final CustomerDaoAdapter customerDaoAdapter;
+    private final UpdateCustomerBalancesResponseBuilder responseBuilder;
+
+    @Inject
+    public UpdateCustomerBalancesOperation(CustomerDaoAdapter customerDaoAdapter, UpdateCustomerBalancesResponseBuilder responseBuilder) {
+        this.customerDaoAdapter = customerDaoAdapter;
+        this.responseBuilder = responseBuilder;
+    }
+
+    public CompletableFuture<UpdateCustomerBalancesResponse> process(UpdateCustomerBalancesRequest request) {
+        log.info("UpdateCustomerBalancesOperation.process.in size={}", request.getUpdatesCount());
+        return customerDaoAdapter.updateBalances(request)
+                .handleAsync(withMdc((balances, throwable) -> {
+                    if (throwable != null) {
+                        log.error("UpdateCustomerBalancesOperation.process.thrown {}", throwable.getMessage());
+                        throw mapException(throwable, ModuleOperationCode::resolve);
+                    }
+                    log.info("UpdateCustomerBalancesOperation.process.out");
+                    return responseBuilder.build(request, balances);
+                }));
+    }
+}
@@ -1,13 +1,16 @@
 package ru.craftysoft.orderingsystem.customer.service.dao;
 
+import ru.craftysoft.orderingsystem.customer.dto.BalanceUpdate;
 import ru.craftysoft.orderingsystem.customer.dto.Customer;
 import ru.craftysoft.orderingsystem.customer.proto.GetCustomerRequest;
 import ru.craftysoft.orderingsystem.customer.proto.UpdateCustomerBalanceRequest;
+import ru.craftysoft.orderingsystem.customer.proto.UpdateCustomerBalancesRequest;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 import java.math.BigDecimal;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 import java.util.function.Supplier;
@@ -38,13 +41,40 @@ public class CustomerDaoAdapter {
         );
     }
 
+    /**
+     * изменение с operationId выполняется через {@link CustomerDao#updateBalances} и применяется не больше одного раза
+     */
     public CompletableFuture<BigDecimal> updateCustomerBalance(UpdateCustomerBalanceRequest request) {
-        Supplier<BigDecimal> callback = request.hasIncrementAmount()
-                ? () -> dao.incrementAmount(request.getId(), moneyToBigDecimal(request.getIncrementAmount()))
-                : () -> dao.decreaseAmount(request.getId(), moneyToBigDecimal(request.getDecreaseAmount()));
+        Supplier<BigDecimal> callback;
+        if (!request.getOperationId().isEmpty()) {
+            var delta = request.hasIncrementAmount()
+                    ? moneyToBigDecimal(request.getIncrementAmount())
+                    : moneyToBigDecimal(request.getDecreaseAmount()).negate();
+            var update = new BalanceUpdate(request.getId(), delta, request.getOperationId());
+            callback = () -> dao.updateBalances(List.of(update)).get(0);
+        } else {
+            callback = request.hasIncrementAmount()
+                    ? () -> dao.incrementAmount(request.getId(), moneyToBigDecimal(request.getIncrementAmount()))
+                    : () -> dao.decreaseAmount(request.getId(), moneyToBigDecimal(request.getDecreaseAmount()));
+        }
         return CompletableFuture.supplyAsync(
                 withMdc(callback),
                 dbExecutor
         );
     }
+
+    /**
+     * свёрнутое изменение передаёт идентификаторы входящих в него операций в operationIds
+     */
+    public CompletableFuture<List<BigDecimal>> updateBalances(UpdateCustomerBalancesRequest request) {
+        var updates = request.getUpdatesList().stream()
+                .map(update -> update.getOperationIdsCount() > 0
+                        ? new BalanceUpdate(update.getId(), moneyToBigDecimal(update.getDelta()), update.getOperationIdsList())
+                        : new BalanceUpdate(update.getId(), moneyToBigDecimal(update.getDelta()), update.getOperationId()))
+                .toList();
+        return CompletableFuture.supplyAsync(
+                withMdc(() -> dao.updateBalances(updates)),
+                dbExecutor
+        );
+    }
 }
@@ -0,0 +1,150 @@
+package ru.craftysoft.orderingsystem.customer.service.dao;
+
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.postgresql.ds.PGSimpleDataSource;
+import ru.craftysoft.orderingsystem.customer.dto.BalanceUpdate;
+import ru.craftysoft.orderingsystem.customer.extension.DbExtension;
+import ru.craftysoft.orderingsystem.customer.testcontainer.DbContainer;
+import ru.craftysoft.orderingsystem.util.db.DbHelper;
+import ru.craftysoft.orderingsystem.util.error.exception.ExceptionFactory;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@ExtendWith({
+        DbExtension.class,
+})
+public class CustomerDaoTest {
+
+    private static final long MISSING_CUSTOMER_ID = 999_999L;
+
+    static {
+        new ExceptionFactory("003");
+    }
+
+    private DbHelper dbHelper;
+    private CustomerDao customerDao;
+
+    @BeforeEach
+    void setUp() {
+        var dataSource = new PGSimpleDataSource();
+        dataSource.setURL(DbContainer.INSTANCE.getUrl());
+        dataSource.setUser(DbContainer.INSTANCE.getUsername());
+        dataSource.setPassword(DbContainer.INSTANCE.getPassword());
+        dbHelper = new DbHelper(dataSource);
+        customerDao = new CustomerDao(dbHelper);
+    }
+
+    @Test
+    void updateBalances() {
+        var firstCustomerId = addCustomer(new BigDecimal("100"));
+        var secondCustomerId = addCustomer(new BigDecimal("10"));
+
+        var balances = customerDao.updateBalances(List.of(
+                new BalanceUpdate(secondCustomerId, new BigDecimal("-5"), "1"),
+                new BalanceUpdate(firstCustomerId, new BigDecimal("-70"), "2"),
+                new BalanceUpdate(firstCustomerId, new BigDecimal("-50"), "3"),
+                new BalanceUpdate(firstCustomerId, new BigDecimal("20"), "4"),
+                new BalanceUpdate(MISSING_CUSTOMER_ID, new BigDecimal("20"), "5"),
+                new BalanceUpdate(secondCustomerId, new BigDecimal("-5"), "6")
+        ));
+
+        assertEquals(Arrays.asList(
+                new BigDecimal("5.00"),
+                new BigDecimal("30.00"),
+                null,
+                new BigDecimal("50.00"),
+                null,
+                new BigDecimal("0.00")
+        ), balances);
+        assertEquals(new BigDecimal("50.00"), balance(firstCustomerId));
+        assertEquals(new BigDecimal("0.00"), balance(secondCustomerId));
+    }
+
+    @Test
+    void updateBalancesIdempotent() {
+        var customerId = addCustomer(new BigDecimal("100"));
+
+        var first = customerDao.updateBalances(List.of(
+                new BalanceUpdate(customerId, new BigDecimal("30"), "refund-1"),
+                new BalanceUpdate(customerId, new BigDecimal("5"), "")
+        ));
+        var second = customerDao.updateBalances(List.of(
+                new BalanceUpdate(customerId, new BigDecimal("30"), "refund-1"),
+                new BalanceUpdate(customerId, new BigDecimal("-10"), "refund-2"),
+                new BalanceUpdate(customerId, new BigDecimal("-10"), "refund-2"),
+                new BalanceUpdate(customerId, new BigDecimal("-1000"), "debit-1")
+        ));
+        var third = customerDao.updateBalances(List.of(
+                new BalanceUpdate(customerId, new BigDecimal("-100"), "debit-1")
+        ));
+
+        assertEquals(List.of(new BigDecimal("130.00"), new BigDecimal("135.00")), first);
+        assertEquals(Arrays.asList(
+                new BigDecimal("130.00"),
+                new BigDecimal("125.00"),
+                new BigDecimal("125.00"),
+                null
+        ), second);
+        assertEquals(List.of(new BigDecimal("25.00")), third);
+        assertEquals(new BigDecimal("25.00"), balance(customerId));
+    }
+
+    @Test
+    void updateBalancesNetted() {
+        var customerId = addCustomer(new BigDecimal("100"));
+
+        var first = customerDao.updateBalances(List.of(
+                new BalanceUpdate(customerId, new BigDecimal("-30"), "debit-1")
+        ));
+        var second = customerDao.updateBalances(List.of(
+                new BalanceUpdate(customerId, new BigDecimal("-50"), List.of("debit-1", "debit-2")),
+                new BalanceUpdate(customerId, new BigDecimal("-30"), List.of("debit-3", "debit-4")),
+                new BalanceUpdate(customerId, new BigDecimal("-10"), "debit-4")
+        ));
+        var third = customerDao.updateBalances(List.of(
+                new BalanceUpdate(customerId, new BigDecimal("-20"), "debit-2"),
+                new BalanceUpdate(customerId, new BigDecimal("-10"), "debit-4"),
+                new BalanceUpdate(customerId, new BigDecimal("-30"), List.of("debit-5", "debit-6"))
+        ));
+        var fourth = customerDao.updateBalances(List.of(
+                new BalanceUpdate(customerId, new BigDecimal("-15"), "debit-5"),
+                new BalanceUpdate(customerId, new BigDecimal("-20"), List.of("debit-6", "debit-7"))
+        ));
+
+        assertEquals(List.of(new BigDecimal("70.00")), first);
+        assertEquals(Arrays.asList(null, null, new BigDecimal("60.00")), second);
+        assertEquals(List.of(new BigDecimal("40.00"), new BigDecimal("60.00"), new BigDecimal("10.00")), third);
+        assertEquals(Arrays.asList(new BigDecimal("10.00"), null), fourth);
+        assertEquals(new BigDecimal("10.00"), balance(customerId));
+    }
+
+    @Test
+    void updateBalancesEmpty() {
+        assertEquals(List.of(), customerDao.updateBalances(List.of()));
+    }
+
+    @SneakyThrows
+    private long addCustomer(BigDecimal balance) {
+        var sql = """
+                INSERT INTO customers.customers (user_id, balance)
+                VALUES (0, ?)
+                RETURNING id""";
+        return (long) dbHelper.insert(sql, balance);
+    }
+
+    @SneakyThrows
+    private BigDecimal balance(long id) {
+        var sql = """
+                SELECT balance
+                FROM customers.customers
+                WHERE id = ?""";
+        return dbHelper.selectOne(sql, resultSet -> resultSet.getBigDecimal("balance"), id);
+    }
+}
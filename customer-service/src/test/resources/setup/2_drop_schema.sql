@@ -0,0 +1,19 @@
+DROP SCHEMA IF EXISTS users CASCADE;
+DROP SCHEMA IF EXISTS customers CASCADE;
+
+DO
+$$
+    BEGIN
+        IF EXISTS(SELECT FROM pg_roles WHERE rolname = 'users') THEN
+            EXECUTE 'REASSIGN OWNED BY users TO postgres;';
+            EXECUTE 'DROP OWNED BY users;';
+        END IF;
+        IF EXISTS(SELECT FROM pg_roles WHERE rolname = 'customers') THEN
+            EXECUTE 'REASSIGN OWNED BY customers TO postgres;';
+            EXECUTE 'DROP OWNED BY customers;';
+        END IF;
+    END
+$$;
+
+DROP USER IF EXISTS users;
+DROP USER IF EXISTS customers;
\ No newline at end of file
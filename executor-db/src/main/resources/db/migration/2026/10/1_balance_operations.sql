@@ -0,0 +1,8 @@
+CREATE TABLE executors.balance_operations
+(
+    operation_id VARCHAR(100)
+        CONSTRAINT balance_operations_pk PRIMARY KEY NOT NULL,
+    executor_id  BIGINT                   NOT NULL,
+    balance      NUMERIC(12, 2)           NOT NULL,
+    created_at   TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT now()
+);
\ No newline at end of file
@@ -0,0 +1,44 @@
+package ru.craftysoft.orderingsystem.executor.builder.operation;
+
+import ru.craftysoft.orderingsystem.executor.proto.ExecutorBalanceUpdateResult;
+import ru.craftysoft.orderingsystem.executor.proto.UpdateExecutorBalancesRequest;
+import ru.craftysoft.orderingsystem.executor.proto.UpdateExecutorBalancesResponse;
+import ru.craftysoft.orderingsystem.executor.proto.UpdateExecutorBalancesResponseData;
+import ru.craftysoft.orderingsystem.util.error.exception.BaseException;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.List;
+
+@Singleton
+public class UpdateExecutorBalancesResponseBuilder {
+
+    private final ErrorBuilder errorBuilder;
+    private final UpdateExecutorBalanceResponseBuilder updateExecutorBalanceResponseBuilder;
+
+    @Inject
+    public UpdateExecutorBalancesResponseBuilder(ErrorBuilder errorBuilder,
+                                                 UpdateExecutorBalanceResponseBuilder updateExecutorBalanceResponseBuilder) {
+        this.errorBuilder = errorBuilder;
+        this.updateExecutorBalanceResponseBuilder = updateExecutorBalanceResponseBuilder;
+    }
+
+    public UpdateExecutorBalancesResponse build(BaseException baseException) {
+        return UpdateExecutorBalancesResponse.newBuilder()
+                .setError(errorBuilder.build(baseException))
+                .build();
+    }
+
+    public UpdateExecutorBalancesResponse build(UpdateExecutorBalancesRequest request, List<Integer> counts) {
+        var data = UpdateExecutorBalancesResponseData.newBuilder();
+        for (int i = 0; i < request.getUpdatesCount(); i++) {
+            data.addResults(ExecutorBalanceUpdateResult.newBuilder()
+                    .setOperationId(request.getUpdates(i).getOperationId())
+                    .setData(updateExecutorBalanceResponseBuilder.build(counts.get(i)).getUpdateExecutorBalanceResponseData())
+            );
+        }
+        return UpdateExecutorBalancesResponse.newBuilder()
+                .setUpdateExecutorBalancesResponseData(data)
+                .build();
+    }
+}
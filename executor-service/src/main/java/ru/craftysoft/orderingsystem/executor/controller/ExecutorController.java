@@ -5,9 +5,11 @@ import io.grpc.stub.StreamObserver;
 import lombok.extern.slf4j.Slf4j;
 import ru.craftysoft.orderingsystem.executor.builder.operation.GetExecutorResponseBuilder;
 import ru.craftysoft.orderingsystem.executor.builder.operation.UpdateExecutorBalanceResponseBuilder;
+import ru.craftysoft.orderingsystem.executor.builder.operation.UpdateExecutorBalancesResponseBuilder;
 import ru.craftysoft.orderingsystem.executor.error.operation.ModuleOperationCode;
 import ru.craftysoft.orderingsystem.executor.logic.GetExecutorOperation;
 import ru.craftysoft.orderingsystem.executor.logic.UpdateExecutorBalanceOperation;
+import ru.craftysoft.orderingsystem.executor.logic.UpdateExecutorBalancesOperation;
 import ru.craftysoft.orderingsystem.executor.proto.*;
 import ru.craftysoft.orderingsystem.util.grpc.ExceptionHelper;
 
@@ -16,6 +18,7 @@ import javax.inject.Singleton;
 
 import static ru.craftysoft.orderingsystem.executor.error.operation.ModuleOperationCode.GET_EXECUTOR;
 import static ru.craftysoft.orderingsystem.executor.error.operation.ModuleOperationCode.UPDATE_EXECUTOR_BALANCE;
+import static ru.craftysoft.orderingsystem.executor.error.operation.ModuleOperationCode.UPDATE_EXECUTOR_BALANCES;
 import static ru.craftysoft.orderingsystem.util.error.exception.ExceptionFactory.mapException;
 import static ru.craftysoft.orderingsystem.util.error.logging.ExceptionLoggerHelper.logError;
 import static ru.craftysoft.orderingsystem.util.mdc.MdcKey.OPERATION_NAME_KEY;
@@ -27,18 +30,24 @@ import static ru.craftysoft.orderingsystem.util.mdc.MdcUtils.withMdc;
 public class ExecutorController extends ExecutorServiceGrpc.ExecutorServiceImplBase {
 
     private final UpdateExecutorBalanceOperation updateExecutorBalanceOperation;
+    private final UpdateExecutorBalancesOperation updateExecutorBalancesOperation;
     private final GetExecutorOperation getExecutorOperation;
     private final UpdateExecutorBalanceResponseBuilder updateExecutorBalanceResponseBuilder;
+    private final UpdateExecutorBalancesResponseBuilder updateExecutorBalancesResponseBuilder;
     private final GetExecutorResponseBuilder getExecutorResponseBuilder;
 
     @Inject
     public ExecutorController(UpdateExecutorBalanceOperation updateExecutorBalanceOperation,
+                              UpdateExecutorBalancesOperation updateExecutorBalancesOperation,
                               GetExecutorOperation getExecutorOperation,
                               UpdateExecutorBalanceResponseBuilder updateExecutorBalanceResponseBuilder,
+                              UpdateExecutorBalancesResponseBuilder updateExecutorBalancesResponseBuilder,
                               GetExecutorResponseBuilder getExecutorResponseBuilder) {
         this.updateExecutorBalanceOperation = updateExecutorBalanceOperation;
+        this.updateExecutorBalancesOperation = updateExecutorBalancesOperation;
         this.getExecutorOperation = getExecutorOperation;
         this.updateExecutorBalanceResponseBuilder = updateExecutorBalanceResponseBuilder;
+        this.updateExecutorBalancesResponseBuilder = updateExecutorBalancesResponseBuilder;
         this.getExecutorResponseBuilder = getExecutorResponseBuilder;
     }
 
@@ -58,6 +67,22 @@ public class ExecutorController extends ExecutorServiceGrpc.ExecutorServiceImplB
         }));
     }
 
+    @Override
+    public void updateBalances(UpdateExecutorBalancesRequest request, StreamObserver<UpdateExecutorBalancesResponse> responseObserver) {
+        var context = Context.current().withValue(OPERATION_NAME_KEY, UPDATE_EXECUTOR_BALANCES.name());
+        withContext(context, () -> updateExecutorBalancesOperation.process(request)).whenComplete(withMdc((response, throwable) -> {
+            if (throwable == null) {
+                responseObserver.onNext(response);
+                responseObserver.onCompleted();
+            } else {
+                var baseException = mapException(throwable, ModuleOperationCode::resolve);
+                logError(log, "ExecutorController.updateBalances", baseException);
+                var errorResponse = updateExecutorBalancesResponseBuilder.build(baseException);
+                responseObserver.onError(ExceptionHelper.messageToException(errorResponse));
+            }
+        }));
+    }
+
     @Override
     public void getExecutor(GetExecutorRequest request, StreamObserver<GetExecutorResponse> responseObserver) {
         var context = Context.current().withValue(OPERATION_NAME_KEY, GET_EXECUTOR.name());
@@ -0,0 +1,17 @@
+package ru.craftysoft.orderingsystem.executor.dto;
+
+import javax.annotation.Nonnull;
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * @param delta        положительное значение увеличивает баланс, отрицательное - уменьшает, если баланса достаточно
+ * @param operationIds идентификаторы операций, из которых состоит изменение: пустой список - изменение без
+ *                     идентификатора, несколько идентификаторов - свёрнутое изменение нескольких операций
+ */
+public record BalanceUpdate(long id, @Nonnull BigDecimal delta, @Nonnull List<String> operationIds) {
+
+    public BalanceUpdate(long id, @Nonnull BigDecimal delta, @Nonnull String operationId) {
+        this(id, delta, operationId.isEmpty() ? List.of() : List.of(operationId));
+    }
+}
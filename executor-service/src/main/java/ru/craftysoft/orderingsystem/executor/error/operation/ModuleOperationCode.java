@@ -21,6 +21,7 @@ public enum ModuleOperationCode implements OperationCode {
 
     GET_EXECUTOR("01"),
     UPDATE_EXECUTOR_BALANCE("02"),
+    UPDATE_EXECUTOR_BALANCES("03"),
     ;
 
     private final String code;
@@ -0,0 +1,46 @@
+package ru.craftysoft.orderingsystem.executor.logic;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.craftysoft.orderingsystem.executor.builder.operation.UpdateExecutorBalancesResponseBuilder;
+import ru.craftysoft.orderingsystem.executor.error.operation.ModuleOperationCode;
+import ru.craftysoft.orderingsystem.executor.proto.UpdateExecutorBalancesRequest;
+import ru.craftysoft.orderingsystem.executor.proto.UpdateExecutorBalancesResponse;
+import ru.craftysoft.orderingsystem.executor.service.dao.ExecutorDaoAdapter;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.CompletableFuture;
+
+import static ru.craftysoft.orderingsystem.util.error.exception.ExceptionFactory.mapException;
+import static ru.craftysoft.orderingsystem.util.mdc.MdcUtils.withMdc;
+
+/**
+ * изменение балансов нескольких исполнителей одним вызовом.
+ * все изменения применяются в одной транзакции, результат возвращается по каждому изменению.
+ */
+@Singleton
+@Slf4j
+public class UpdateExecutorBalancesOperation {
+
+    private final ExecutorDaoAdapter executorDaoAdapter;
+    private final UpdateExecutorBalancesResponseBuilder responseBuilder;
+
+    @Inject
+    public UpdateExecutorBalancesOperation(ExecutorDaoAdapter executorDaoAdapter, UpdateExecutorBalancesResponseBuilder responseBuilder) {
+        this.executorDaoAdapter = executorDaoAdapter;
+        this.responseBuilder = responseBuilder;
+    }
+
+    public CompletableFuture<UpdateExecutorBalancesResponse> process(UpdateExecutorBalancesRequest request) {
+        log.info("UpdateExecutorBalancesOperation.process.in size={}", request.getUpdatesCount());
+        return executorDaoAdapter.updateBalances(request)
+                .handleAsync(withMdc((counts, throwable) -> {
+                    if (throwable != null) {
+                        log.error("UpdateExecutorBalancesOperation.process.thrown {}", throwable.getMessage());
+                        throw mapException(throwable, ModuleOperationCode::resolve);
+                    }
+                    log.info("UpdateExecutorBalancesOperation.process.out");
+                    return responseBuilder.build(request, counts);
+                }));
+    }
+}
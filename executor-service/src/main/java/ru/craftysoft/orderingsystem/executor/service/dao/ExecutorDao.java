@@ -1,14 +1,19 @@
 package ru.craftysoft.orderingsystem.executor.service.dao;
 
 import lombok.extern.slf4j.Slf4j;
+import ru.craftysoft.orderingsystem.executor.dto.BalanceUpdate;
 import ru.craftysoft.orderingsystem.executor.dto.Executor;
 import ru.craftysoft.orderingsystem.util.db.DbHelper;
 import ru.craftysoft.orderingsystem.util.db.DbLoggerHelper;
+import ru.craftysoft.orderingsystem.util.error.exception.BaseException;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.math.BigDecimal;
-import java.util.List;
+import java.sql.Connection;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static ru.craftysoft.orderingsystem.executor.error.exception.InvocationExceptionCode.DB;
 import static ru.craftysoft.orderingsystem.executor.error.operation.ModuleOperationCode.resolve;
@@ -96,4 +101,194 @@ public class ExecutorDao {
                 }
         );
     }
+
+    /**
+     * применение пачки изменений баланса в одной транзакции.
+     * строки исполнителей блокируются в порядке возрастания id, чтобы параллельные пачки не взаимоблокировались.
+     * изменения одного исполнителя применяются по очереди: каждый запрос UPDATE ... FROM (VALUES ...) содержит
+     * не больше одного изменения на исполнителя.
+     * изменение с непустым operationId применяется не больше одного раза: применённые изменения записываются
+     * в executors.balance_operations, а повторное изменение с тем же идентификатором (в том числе в той же пачке)
+     * не применяется и считается применённым.
+     * свёрнутое изменение записывается под идентификатором каждой входящей в него операции. если хотя бы одна из них
+     * уже применена или встречается в пачке отдельно, свёрнутое изменение не применяется, и отправитель повторяет
+     * операции по одной
+     *
+     * @return количество изменённых строк (1 или 0) для каждого изменения в порядке следования
+     */
+    public List<Integer> updateBalances(List<BalanceUpdate> updates) {
+        try {
+            return dbHelper.executeInTransaction(connection -> {
+                lockExecutors(connection, updates.stream().mapToLong(BalanceUpdate::id).distinct().sorted().toArray());
+                var counts = new ArrayList<Integer>(Collections.nCopies(updates.size(), 0));
+                var balances = new HashMap<Integer, BigDecimal>();
+                var appliedOperationIds = appliedOperations(connection, updates.stream()
+                        .flatMap(update -> update.operationIds().stream())
+                        .distinct()
+                        .toArray(String[]::new));
+                var singleOperationIds = updates.stream()
+                        .map(BalanceUpdate::operationIds)
+                        .filter(operationIds -> operationIds.size() == 1)
+                        .map(operationIds -> operationIds.get(0))
+                        .collect(Collectors.toSet());
+                var firstByOperationId = new HashMap<String, Integer>();
+                var pending = new ArrayList<Integer>();
+                for (int i = 0; i < updates.size(); i++) {
+                    var operationIds = updates.get(i).operationIds();
+                    if (operationIds.isEmpty()) {
+                        pending.add(i);
+                    } else if (operationIds.size() == 1) {
+                        var operationId = operationIds.get(0);
+                        if (appliedOperationIds.contains(operationId)) {
+                            counts.set(i, 1);
+                        } else if (firstByOperationId.putIfAbsent(operationId, i) == null) {
+                            pending.add(i);
+                        }
+                    } else if (operationIds.stream().noneMatch(operationId -> appliedOperationIds.contains(operationId)
+                            || singleOperationIds.contains(operationId)
+                            || firstByOperationId.containsKey(operationId))) {
+                        var index = i;
+                        operationIds.forEach(operationId -> firstByOperationId.put(operationId, index));
+                        pending.add(i);
+                    }
+                }
+                for (var round : rounds(updates, pending)) {
+                    var balancesById = updateBalances(connection, round.stream().map(updates::get).toList());
+                    for (var index : round) {
+                        var balance = balancesById.get(updates.get(index).id());
+                        if (balance != null) {
+                            counts.set(index, 1);
+                            balances.put(index, balance);
+                        }
+                    }
+                }
+                var applied = new ArrayList<Map.Entry<BalanceUpdate, BigDecimal>>();
+                for (int i = 0; i < updates.size(); i++) {
+                    var operationIds = updates.get(i).operationIds();
+                    var first = operationIds.isEmpty() ? null : firstByOperationId.get(operationIds.get(0));
+                    if (first == null || first != i && operationIds.size() > 1) {
+                        continue;
+                    }
+                    if (first != i) {
+                        counts.set(i, counts.get(first));
+                    } else if (balances.containsKey(i)) {
+                        applied.add(Map.entry(updates.get(i), balances.get(i)));
+                    }
+                }
+                recordOperations(connection, applied);
+                return counts;
+            });
+        } catch (BaseException e) {
+            throw e;
+        } catch (Exception e) {
+            throw mapSqlException(e, resolve(), DB);
+        }
+    }
+
+    private void lockExecutors(Connection connection, long[] ids) {
+        var sql = """
+                SELECT id
+                FROM executors.executors
+                WHERE id = ANY (?)
+                ORDER BY id
+                FOR UPDATE""";
+        DbLoggerHelper.executeWithLogging(
+                log, "ExecutorDao.lockExecutors", () -> sql, () -> Arrays.toString(ids),
+                () -> {
+                    try {
+                        return dbHelper.select(connection, sql, resultSet -> resultSet.getLong("id"), (Object) ids);
+                    } catch (Exception e) {
+                        throw mapSqlException(e, resolve(), DB);
+                    }
+                }
+        );
+    }
+
+    private Set<String> appliedOperations(Connection connection, String[] operationIds) {
+        if (operationIds.length == 0) {
+            return Set.of();
+        }
+        var sql = """
+                SELECT operation_id
+                FROM executors.balance_operations
+                WHERE operation_id = ANY (?)""";
+        return DbLoggerHelper.executeWithLogging(
+                log, "ExecutorDao.appliedOperations", () -> sql, () -> Arrays.toString(operationIds),
+                () -> {
+                    try {
+                        return new HashSet<>(dbHelper.select(connection, sql, resultSet -> resultSet.getString("operation_id"), (Object) operationIds));
+                    } catch (Exception e) {
+                        throw mapSqlException(e, resolve(), DB);
+                    }
+                }
+        );
+    }
+
+    private void recordOperations(Connection connection, List<Map.Entry<BalanceUpdate, BigDecimal>> operations) {
+        if (operations.isEmpty()) {
+            return;
+        }
+        var parameters = operations.stream()
+                .flatMap(operation -> operation.getKey().operationIds().stream()
+                        .flatMap(operationId -> Stream.of(operationId, operation.getKey().id(), operation.getValue())))
+                .toArray();
+        var sql = """
+                INSERT INTO executors.balance_operations (operation_id, executor_id, balance)
+                VALUES %s""".formatted(String.join(", ", Collections.nCopies(parameters.length / 3, "(?, ?, ?)")));
+        DbLoggerHelper.executeWithLogging(
+                log, "ExecutorDao.recordOperations", () -> sql, () -> List.of(parameters),
+                () -> {
+                    try {
+                        return dbHelper.update(connection, sql, parameters);
+                    } catch (Exception e) {
+                        throw mapSqlException(e, resolve(), DB);
+                    }
+                }
+        );
+    }
+
+    private Map<Long, BigDecimal> updateBalances(Connection connection, List<BalanceUpdate> updates) {
+        var sql = """
+                UPDATE executors.executors e
+                SET balance = e.balance + v.delta
+                FROM (VALUES %s) AS v(id, delta)
+                WHERE e.id = v.id
+                  AND (v.delta >= 0 OR e.balance >= -v.delta)
+                RETURNING e.id, e.balance""".formatted(String.join(", ", Collections.nCopies(updates.size(), "(?::BIGINT, ?::NUMERIC)")));
+        var parameters = updates.stream()
+                .flatMap(update -> Stream.of(update.id(), update.delta()))
+                .toArray();
+        return DbLoggerHelper.executeWithLogging(
+                log, "ExecutorDao.updateBalances", () -> sql, () -> List.of(parameters),
+                () -> {
+                    try {
+                        return dbHelper.execute(connection, sql, resultSet -> Map.entry(
+                                resultSet.getLong("id"),
+                                resultSet.getBigDecimal("balance")
+                        ), parameters).stream().collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+                    } catch (Exception e) {
+                        throw mapSqlException(e, resolve(), DB);
+                    }
+                }
+        );
+    }
+
+    /**
+     * разбиение изменений на очереди, в каждой из которых исполнитель встречается не больше одного раза
+     *
+     * @param indexes индексы применяемых изменений в порядке следования
+     * @return индексы изменений по очередям
+     */
+    private static List<List<Integer>> rounds(List<BalanceUpdate> updates, List<Integer> indexes) {
+        var rounds = new ArrayList<List<Integer>>();
+        var occurrences = new HashMap<Long, Integer>();
+        for (var index : indexes) {
+            var round = occurrences.merge(updates.get(index).id(), 1, Integer::sum) - 1;
+            if (round == rounds.size()) {
+                rounds.add(new ArrayList<>());
+            }
+            rounds.get(round).add(index);
+        }
+        return rounds;
+    }
 }
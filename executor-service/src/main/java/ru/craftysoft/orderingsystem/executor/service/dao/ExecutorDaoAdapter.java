@@ -1,11 +1,14 @@
 package ru.craftysoft.orderingsystem.executor.service.dao;
 
+import ru.craftysoft.orderingsystem.executor.dto.BalanceUpdate;
 import ru.craftysoft.orderingsystem.executor.proto.GetExecutorRequest;
 import ru.craftysoft.orderingsystem.executor.proto.UpdateExecutorBalanceRequest;
+import ru.craftysoft.orderingsystem.executor.proto.UpdateExecutorBalancesRequest;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 import java.util.function.Supplier;
@@ -36,13 +39,40 @@ public class ExecutorDaoAdapter {
         );
     }
 
+    /**
+     * изменение с operationId выполняется через {@link ExecutorDao#updateBalances} и применяется не больше одного раза
+     */
     public CompletableFuture<Integer> updateExecutorBalance(UpdateExecutorBalanceRequest request) {
-        Supplier<Integer> callback = request.hasIncrementAmount()
-                ? () -> dao.incrementAmount(request.getId(), moneyToBigDecimal(request.getIncrementAmount()))
-                : () -> dao.decreaseAmount(request.getId(), moneyToBigDecimal(request.getDecreaseAmount()));
+        Supplier<Integer> callback;
+        if (!request.getOperationId().isEmpty()) {
+            var delta = request.hasIncrementAmount()
+                    ? moneyToBigDecimal(request.getIncrementAmount())
+                    : moneyToBigDecimal(request.getDecreaseAmount()).negate();
+            var update = new BalanceUpdate(request.getId(), delta, request.getOperationId());
+            callback = () -> dao.updateBalances(List.of(update)).get(0);
+        } else {
+            callback = request.hasIncrementAmount()
+                    ? () -> dao.incrementAmount(request.getId(), moneyToBigDecimal(request.getIncrementAmount()))
+                    : () -> dao.decreaseAmount(request.getId(), moneyToBigDecimal(request.getDecreaseAmount()));
+        }
         return CompletableFuture.supplyAsync(
                 withMdc(callback),
                 dbExecutor
         );
     }
+
+    /**
+     * свёрнутое изменение передаёт идентификаторы входящих в него операций в operationIds
+     */
+    public CompletableFuture<List<Integer>> updateBalances(UpdateExecutorBalancesRequest request) {
+        var updates = request.getUpdatesList().stream()
+                .map(update -> update.getOperationIdsCount() > 0
+                        ? new BalanceUpdate(update.getId(), moneyToBigDecimal(update.getDelta()), update.getOperationIdsList())
+                        : new BalanceUpdate(update.getId(), moneyToBigDecimal(update.getDelta()), update.getOperationId()))
+                .toList();
+        return CompletableFuture.supplyAsync(
+                withMdc(() -> dao.updateBalances(updates)),
+                dbExecutor
+        );
+    }
 }
@@ -0,0 +1,137 @@
+package ru.craftysoft.orderingsystem.executor.service.dao;
+
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.postgresql.ds.PGSimpleDataSource;
+import ru.craftysoft.orderingsystem.executor.dto.BalanceUpdate;
+import ru.craftysoft.orderingsystem.executor.extension.DbExtension;
+import ru.craftysoft.orderingsystem.executor.testcontainer.DbContainer;
+import ru.craftysoft.orderingsystem.util.db.DbHelper;
+import ru.craftysoft.orderingsystem.util.error.exception.ExceptionFactory;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@ExtendWith({
+        DbExtension.class,
+})
+public class ExecutorDaoTest {
+
+    private static final long MISSING_EXECUTOR_ID = 999_999L;
+
+    static {
+        new ExceptionFactory("004");
+    }
+
+    private DbHelper dbHelper;
+    private ExecutorDao executorDao;
+
+    @BeforeEach
+    void setUp() {
+        var dataSource = new PGSimpleDataSource();
+        dataSource.setURL(DbContainer.INSTANCE.getUrl());
+        dataSource.setUser(DbContainer.INSTANCE.getUsername());
+        dataSource.setPassword(DbContainer.INSTANCE.getPassword());
+        dbHelper = new DbHelper(dataSource);
+        executorDao = new ExecutorDao(dbHelper);
+    }
+
+    @Test
+    void updateBalances() {
+        var firstExecutorId = addExecutor(new BigDecimal("100"));
+        var secondExecutorId = addExecutor(new BigDecimal("10"));
+
+        var counts = executorDao.updateBalances(List.of(
+                new BalanceUpdate(secondExecutorId, new BigDecimal("-5"), "1"),
+                new BalanceUpdate(firstExecutorId, new BigDecimal("-70"), "2"),
+                new BalanceUpdate(firstExecutorId, new BigDecimal("-50"), "3"),
+                new BalanceUpdate(firstExecutorId, new BigDecimal("20"), "4"),
+                new BalanceUpdate(MISSING_EXECUTOR_ID, new BigDecimal("20"), "5"),
+                new BalanceUpdate(secondExecutorId, new BigDecimal("-5"), "6")
+        ));
+
+        assertEquals(List.of(1, 1, 0, 1, 0, 1), counts);
+        assertEquals(new BigDecimal("50.00"), balance(firstExecutorId));
+        assertEquals(new BigDecimal("0.00"), balance(secondExecutorId));
+    }
+
+    @Test
+    void updateBalancesIdempotent() {
+        var executorId = addExecutor(new BigDecimal("100"));
+
+        var first = executorDao.updateBalances(List.of(
+                new BalanceUpdate(executorId, new BigDecimal("30"), "refund-1"),
+                new BalanceUpdate(executorId, new BigDecimal("5"), "")
+        ));
+        var second = executorDao.updateBalances(List.of(
+                new BalanceUpdate(executorId, new BigDecimal("30"), "refund-1"),
+                new BalanceUpdate(executorId, new BigDecimal("-10"), "refund-2"),
+                new BalanceUpdate(executorId, new BigDecimal("-10"), "refund-2"),
+                new BalanceUpdate(executorId, new BigDecimal("-1000"), "debit-1")
+        ));
+        var third = executorDao.updateBalances(List.of(
+                new BalanceUpdate(executorId, new BigDecimal("-100"), "debit-1")
+        ));
+
+        assertEquals(List.of(1, 1), first);
+        assertEquals(List.of(1, 1, 1, 0), second);
+        assertEquals(List.of(1), third);
+        assertEquals(new BigDecimal("25.00"), balance(executorId));
+    }
+
+    @Test
+    void updateBalancesNetted() {
+        var executorId = addExecutor(new BigDecimal("100"));
+
+        var first = executorDao.updateBalances(List.of(
+                new BalanceUpdate(executorId, new BigDecimal("-30"), "debit-1")
+        ));
+        var second = executorDao.updateBalances(List.of(
+                new BalanceUpdate(executorId, new BigDecimal("-50"), List.of("debit-1", "debit-2")),
+                new BalanceUpdate(executorId, new BigDecimal("-30"), List.of("debit-3", "debit-4")),
+                new BalanceUpdate(executorId, new BigDecimal("-10"), "debit-4")
+        ));
+        var third = executorDao.updateBalances(List.of(
+                new BalanceUpdate(executorId, new BigDecimal("-20"), "debit-2"),
+                new BalanceUpdate(executorId, new BigDecimal("-10"), "debit-4"),
+                new BalanceUpdate(executorId, new BigDecimal("-30"), List.of("debit-5", "debit-6"))
+        ));
+        var fourth = executorDao.updateBalances(List.of(
+                new BalanceUpdate(executorId, new BigDecimal("-15"), "debit-5"),
+                new BalanceUpdate(executorId, new BigDecimal("-20"), List.of("debit-6", "debit-7"))
+        ));
+
+        assertEquals(List.of(1), first);
+        assertEquals(List.of(0, 0, 1), second);
+        assertEquals(List.of(1, 1, 1), third);
+        assertEquals(List.of(1, 0), fourth);
+        assertEquals(new BigDecimal("10.00"), balance(executorId));
+    }
+
+    @Test
+    void updateBalancesEmpty() {
+        assertEquals(List.of(), executorDao.updateBalances(List.of()));
+    }
+
+    @SneakyThrows
+    private long addExecutor(BigDecimal balance) {
+        var sql = """
+                INSERT INTO executors.executors (user_id, balance)
+                VALUES (0, ?)
+                RETURNING id""";
+        return (long) dbHelper.insert(sql, balance);
+    }
+
+    @SneakyThrows
+    private BigDecimal balance(long id) {
+        var sql = """
+                SELECT balance
+                FROM executors.executors
+                WHERE id = ?""";
+        return dbHelper.selectOne(sql, resultSet -> resultSet.getBigDecimal("balance"), id);
+    }
+}
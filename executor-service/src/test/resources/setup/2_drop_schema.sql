@@ -0,0 +1,19 @@
+DROP SCHEMA IF EXISTS users CASCADE;
+DROP SCHEMA IF EXISTS executors CASCADE;
+
+DO
+$$
+    BEGIN
+        IF EXISTS(SELECT FROM pg_roles WHERE rolname = 'users') THEN
+            EXECUTE 'REASSIGN OWNED BY users TO postgres;';
+            EXECUTE 'DROP OWNED BY users;';
+        END IF;
+        IF EXISTS(SELECT FROM pg_roles WHERE rolname = 'executors') THEN
+            EXECUTE 'REASSIGN OWNED BY executors TO postgres;';
+            EXECUTE 'DROP OWNED BY executors;';
+        END IF;
+    END
+$$;
+
+DROP USER IF EXISTS users;
+DROP USER IF EXISTS executors;
\ No newline at end of file
@@ -0,0 +1,27 @@
+CREATE SCHEMA users;
+
+CREATE USER users WITH
+    LOGIN
+    NOSUPERUSER
+    NOCREATEDB
+    NOCREATEROLE
+    INHERIT
+    NOREPLICATION
+    CONNECTION LIMIT -1
+    PASSWORD 'users';
+
+GRANT CONNECT ON DATABASE ordering_system TO users;
+
+CREATE SCHEMA executors;
+
+CREATE USER executors WITH
+    LOGIN
+    NOSUPERUSER
+    NOCREATEDB
+    NOCREATEROLE
+    INHERIT
+    NOREPLICATION
+    CONNECTION LIMIT -1
+    PASSWORD 'executors';
+
+GRANT CONNECT ON DATABASE ordering_system TO executors;
\ No newline at end of file
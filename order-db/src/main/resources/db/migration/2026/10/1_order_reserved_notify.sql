@@ -0,0 +1,26 @@
+CREATE OR REPLACE FUNCTION orders.notify_order_reserved() RETURNS TRIGGER AS
+$$
+BEGIN
+    -- полезная нагрузка одинаковая, поэтому за транзакцию отправляется одно уведомление
+    PERFORM pg_notify('orders_reserved', '');
+    RETURN NULL;
+END;
+$$
+    LANGUAGE plpgsql;;
+
+CREATE TRIGGER orders_reserved_insert_notify
+    AFTER INSERT
+    ON orders.orders
+    FOR EACH ROW
+    WHEN (NEW.status = 'reserved'::orders.order_status)
+EXECUTE PROCEDURE orders.notify_order_reserved();;
+
+-- возврат заказа из in_processing (откат саги, нехватка средств при расчёте) не уведомляет, такой заказ забирается
+-- периодическим извлечением, иначе заказ, который заказчик не может оплатить, извлекался бы повторно без паузы
+CREATE TRIGGER orders_reserved_update_notify
+    AFTER UPDATE OF status
+    ON orders.orders
+    FOR EACH ROW
+    WHEN (NEW.status = 'reserved'::orders.order_status
+        AND OLD.status IS DISTINCT FROM 'in_processing'::orders.order_status)
+EXECUTE PROCEDURE orders.notify_order_reserved();;
\ No newline at end of file
@@ -0,0 +1,3 @@
+CREATE INDEX orders_reserved_idx
+    ON orders.orders (id)
+    WHERE status = 'reserved'::orders.order_status;
\ No newline at end of file
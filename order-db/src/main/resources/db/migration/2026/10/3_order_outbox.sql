@@ -0,0 +1,10 @@
+CREATE TABLE orders.outbox
+(
+    id          BIGSERIAL
+        CONSTRAINT outbox_pk PRIMARY KEY NOT NULL,
+    order_id    BIGINT                   NOT NULL,
+    price       NUMERIC(12, 2)           NOT NULL,
+    customer_id BIGINT                   NOT NULL,
+    executor_id BIGINT                   NOT NULL,
+    created_at  TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT now()
+);
\ No newline at end of file
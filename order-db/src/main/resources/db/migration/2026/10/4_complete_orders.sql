@@ -0,0 +1,34 @@
+CREATE OR REPLACE FUNCTION orders.complete_orders(in_order_ids BIGINT[],
+                                                  in_customer_ids BIGINT[],
+                                                  in_customer_balances NUMERIC[])
+    RETURNS TABLE
+            (
+                completed_order_id BIGINT
+            )
+AS
+$$
+-- доступность заказов пересчитывается один раз на заказчика по балансу из последнего его заказа в пачке
+WITH input AS (SELECT *
+               FROM unnest(in_order_ids, in_customer_ids, in_customer_balances)
+                        WITH ORDINALITY AS i(order_id, customer_id, customer_balance, pos)),
+     completed AS (
+         UPDATE orders.orders o
+             SET status = 'complete'::orders.order_status
+             FROM input i
+             WHERE o.id = i.order_id
+             RETURNING o.id, o.customer_id),
+     balances AS (SELECT DISTINCT ON (i.customer_id) i.customer_id, i.customer_balance
+                  FROM input i
+                  WHERE i.order_id IN (SELECT c.id FROM completed c)
+                  ORDER BY i.customer_id, i.pos DESC),
+     unavailable AS (
+         UPDATE orders.orders o
+             SET status = 'unavailable'::orders.order_status
+             FROM balances b
+             WHERE o.customer_id = b.customer_id
+               AND o.status = 'active'::orders.order_status
+               AND o.price > b.customer_balance)
+SELECT c.id
+FROM completed c;
+$$
+    LANGUAGE sql;;
\ No newline at end of file
@@ -0,0 +1,53 @@
+-- функция выполняется с правами владельца, т.к. у пользователя orders нет прав на схемы customers и executors.
+-- тело на plpgsql проверяется только при вызове, поэтому функция создаётся и при раздельном размещении схем
+CREATE OR REPLACE FUNCTION orders.settle_orders(in_order_ids BIGINT[],
+                                                in_executor_fee_part NUMERIC)
+    RETURNS TABLE
+            (
+                settled_order_id BIGINT
+            )
+AS
+$$
+DECLARE
+    o                RECORD;
+    customer_balance NUMERIC(12, 2);
+BEGIN
+    FOR o IN SELECT oo.id, oo.price, oo.customer_id, oo.executor_id
+             FROM orders.orders oo
+             WHERE oo.id = ANY (in_order_ids)
+               AND oo.status = 'in_processing'::orders.order_status
+             ORDER BY oo.id
+             FOR UPDATE
+        LOOP
+            UPDATE customers.customers c
+            SET balance = c.balance - o.price
+            WHERE c.id = o.customer_id
+              AND c.balance >= o.price
+              AND EXISTS(SELECT 1 FROM executors.executors e WHERE e.id = o.executor_id)
+            RETURNING c.balance INTO customer_balance;
+            IF NOT FOUND THEN
+                -- как и откат саги, заказ возвращается в статус reserved
+                UPDATE orders.orders
+                SET status = 'reserved'::orders.order_status
+                WHERE id = o.id;
+                CONTINUE;
+            END IF;
+            UPDATE executors.executors e
+            SET balance = e.balance + o.price * in_executor_fee_part
+            WHERE e.id = o.executor_id;
+            UPDATE orders.orders
+            SET status = 'complete'::orders.order_status
+            WHERE id = o.id;
+            UPDATE orders.orders
+            SET status = 'unavailable'::orders.order_status
+            WHERE customer_id = o.customer_id
+              AND status = 'active'::orders.order_status
+              AND price > customer_balance;
+            settled_order_id := o.id;
+            RETURN NEXT;
+        END LOOP;
+END;
+$$
+    LANGUAGE plpgsql
+    SECURITY DEFINER
+    SET search_path = pg_catalog, pg_temp;;
\ No newline at end of file
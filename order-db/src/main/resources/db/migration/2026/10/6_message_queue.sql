@@ -0,0 +1,12 @@
+CREATE TABLE orders.message_queue
+(
+    id           BIGSERIAL
+        CONSTRAINT message_queue_pk PRIMARY KEY NOT NULL,
+    stream       VARCHAR(100)             NOT NULL,
+    envelope     BYTEA                    NOT NULL,
+    visible_at   TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT now(),
+    locked_by    VARCHAR(100),
+    locked_until TIMESTAMP WITH TIME ZONE
+);
+
+CREATE INDEX message_queue_stream_idx ON orders.message_queue (stream, id);
\ No newline at end of file
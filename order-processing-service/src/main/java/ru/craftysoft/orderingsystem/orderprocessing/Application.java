@@ -1,45 +1,78 @@
 package ru.craftysoft.orderingsystem.orderprocessing;
 
 import lombok.extern.slf4j.Slf4j;
+import ru.craftysoft.orderingsystem.orderprocessing.logic.ExtractOrderTrigger;
+import ru.craftysoft.orderingsystem.orderprocessing.logic.OutboxRelayTrigger;
 import ru.craftysoft.orderingsystem.util.error.exception.ExceptionFactory;
 
-import static java.util.concurrent.TimeUnit.SECONDS;
-
 @Slf4j
 public class Application {
 
     public static void main(String[] args) {
         new ExceptionFactory("005");
         var component = DaggerApplicationComponent.builder().build();
-        component.redisConsumerGroupInitOperation().process();
-        component.extractOrderExecutor()
-                .scheduleWithFixedDelay(component.extractOrderOperation()::process, 0, 5, SECONDS);
-        component.completeOrderExecutor()
-                .scheduleWithFixedDelay(component.completeOrderOperation()::process, 0, 5, SECONDS);
-        component.reserveOrderExecutor()
-                .scheduleWithFixedDelay(component.reserveOrderOperation()::process, 0, 5, SECONDS);
-        component.decreaseCustomerAmountExecutor()
-                .scheduleWithFixedDelay(component.decreaseCustomerAmountOperation()::process, 0, 5, SECONDS);
-        component.decreaseExecutorAmountExecutor()
-                .scheduleWithFixedDelay(component.decreaseExecutorAmountOperation()::process, 0, 5, SECONDS);
-        component.incrementCustomerAmountExecutor()
-                .scheduleWithFixedDelay(component.incrementCustomerAmountOperation()::process, 0, 5, SECONDS);
-        component.incrementExecutorAmountExecutor()
-                .scheduleWithFixedDelay(component.incrementExecutorAmountOperation()::process, 0, 5, SECONDS);
+        var propertyResolver = component.propertyResolver();
+        var isRedisTransport = "redis".equals(propertyResolver.getStringProperty("transport.type"));
+        if (isRedisTransport) {
+            component.redisConsumerGroupInitOperation().process();
+        }
+        var streamPartitioner = component.streamPartitioner();
+        var stageRuntime = component.stageRuntime();
+        var extractOrderTrigger = component.extractOrderTrigger();
+        var orderNotificationListener = component.orderNotificationListener();
+        orderNotificationListener.start(extractOrderTrigger::request);
+        var extractSweepIntervalMillis = propertyResolver.getIntProperty("db.extract.sweep-interval-millis");
+        stageRuntime.scheduleWithFixedDelay(ExtractOrderTrigger.STAGE, extractOrderTrigger::request, extractSweepIntervalMillis, extractSweepIntervalMillis);
+        var outboxSweepIntervalMillis = propertyResolver.getIntProperty("db.outbox.sweep-interval-millis");
+        stageRuntime.scheduleWithFixedDelay(OutboxRelayTrigger.STAGE, component.outboxRelayTrigger()::request, outboxSweepIntervalMillis, outboxSweepIntervalMillis);
+        var redisStreamListener = component.redisStreamListener();
+        redisStreamListener.listen("complete-order",
+                streamPartitioner.consumers(propertyResolver.getStringProperty("redis.stream.complete-order.name")), component.completeOrderOperation()::process);
+        redisStreamListener.listen("reserve-order",
+                streamPartitioner.consumers(propertyResolver.getStringProperty("redis.stream.reserve-order.name")), component.reserveOrderOperation()::process);
+        redisStreamListener.listen("decrease-customer-amount",
+                streamPartitioner.consumers(propertyResolver.getStringProperty("redis.stream.decrease-customer-amount.name")), component.decreaseCustomerAmountOperation()::process);
+        redisStreamListener.listen("decrease-executor-amount",
+                streamPartitioner.consumers(propertyResolver.getStringProperty("redis.stream.decrease-executor-amount.name")), component.decreaseExecutorAmountOperation()::process);
+        redisStreamListener.listen("increment-customer-amount",
+                streamPartitioner.consumers(propertyResolver.getStringProperty("redis.stream.increment-customer-amount.name")), component.incrementCustomerAmountOperation()::process);
+        redisStreamListener.listen("increment-executor-amount",
+                streamPartitioner.consumers(propertyResolver.getStringProperty("redis.stream.increment-executor-amount.name")), component.incrementExecutorAmountOperation()::process);
+        if (isRedisTransport) {
+            var reclaimIntervalMillis = propertyResolver.getIntProperty("redis.reclaim.interval-millis");
+            stageRuntime.scheduleWithFixedDelay("reclaim-pending-messages", component.reclaimPendingMessagesOperation()::process, reclaimIntervalMillis, reclaimIntervalMillis);
+            var delayQueuePollIntervalMillis = propertyResolver.getIntProperty("redis.retry.delay-queue.poll-interval-millis");
+            stageRuntime.scheduleWithFixedDelay("move-delayed-messages", component.moveDelayedMessagesOperation()::process, delayQueuePollIntervalMillis, delayQueuePollIntervalMillis);
+            var trimIntervalMillis = propertyResolver.getIntProperty("redis.trim.interval-millis");
+            stageRuntime.scheduleWithFixedDelay("trim-streams", component.trimStreamsOperation()::process, trimIntervalMillis, trimIntervalMillis);
+            if (propertyResolver.getBooleanProperty("saga.deadline.enabled")) {
+                var compensateExpiredSagasOperation = component.compensateExpiredSagasOperation();
+                var sagaDeadlineTickMillis = propertyResolver.getIntProperty("saga.deadline.tick-millis");
+                stageRuntime.scheduleWithFixedDelay("expire-saga-deadlines", compensateExpiredSagasOperation::process, sagaDeadlineTickMillis, sagaDeadlineTickMillis);
+                var sagaDeadlineSweepIntervalMillis = propertyResolver.getIntProperty("saga.deadline.sweep-interval-millis");
+                stageRuntime.scheduleWithFixedDelay("sweep-saga-deadlines", compensateExpiredSagasOperation::sweep, sagaDeadlineSweepIntervalMillis, sagaDeadlineSweepIntervalMillis);
+            }
+        }
+        var stateLogIntervalMillis = propertyResolver.getIntProperty("stage-runtime.state-log-interval-millis");
+        stageRuntime.scheduleWithFixedDelay("state-log", () -> {
+            stageRuntime.logState();
+            component.inFlightLimiters().logState();
+        }, stateLogIntervalMillis, stateLogIntervalMillis);
         log.info("Приложение запущено");
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            component.extractOrderExecutor().shutdownNow();
-            component.completeOrderExecutor().shutdownNow();
-            component.reserveOrderExecutor().shutdownNow();
-            component.decreaseCustomerAmountExecutor().shutdownNow();
-            component.decreaseExecutorAmountExecutor().shutdownNow();
-            component.incrementCustomerAmountExecutor().shutdownNow();
-            component.incrementExecutorAmountExecutor().shutdownNow();
+            orderNotificationListener.stop();
+            redisStreamListener.stop();
+            stageRuntime.shutdown();
             component.customerServiceManagedChannel().shutdownNow();
             component.executorServiceManagedChannel().shutdownNow();
             component.redisPool().close();
             log.info("Приложение остановлено");
         }));
+        try {
+            stageRuntime.awaitTermination();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
 }
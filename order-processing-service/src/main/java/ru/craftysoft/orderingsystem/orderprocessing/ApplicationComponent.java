@@ -5,58 +5,69 @@ import io.grpc.ManagedChannel;
 import io.lettuce.core.RedisClient;
 import io.lettuce.core.api.StatefulRedisConnection;
 import io.lettuce.core.support.BoundedAsyncPool;
+import ru.craftysoft.orderingsystem.orderprocessing.logic.CompensateExpiredSagasOperation;
 import ru.craftysoft.orderingsystem.orderprocessing.logic.ExtractOrderOperation;
+import ru.craftysoft.orderingsystem.orderprocessing.logic.ExtractOrderTrigger;
+import ru.craftysoft.orderingsystem.orderprocessing.logic.MoveDelayedMessagesOperation;
+import ru.craftysoft.orderingsystem.orderprocessing.logic.OutboxRelayTrigger;
+import ru.craftysoft.orderingsystem.orderprocessing.logic.ReclaimPendingMessagesOperation;
 import ru.craftysoft.orderingsystem.orderprocessing.logic.RedisConsumerGroupInitOperation;
+import ru.craftysoft.orderingsystem.orderprocessing.logic.TrimStreamsOperation;
 import ru.craftysoft.orderingsystem.orderprocessing.logic.messagedriven.*;
 import ru.craftysoft.orderingsystem.orderprocessing.module.DbModule;
 import ru.craftysoft.orderingsystem.orderprocessing.module.ExecutorModule;
 import ru.craftysoft.orderingsystem.orderprocessing.module.GrpcClientModule;
+import ru.craftysoft.orderingsystem.orderprocessing.module.InstanceModule;
 import ru.craftysoft.orderingsystem.orderprocessing.module.RedisModule;
+import ru.craftysoft.orderingsystem.orderprocessing.module.TransportModule;
+import ru.craftysoft.orderingsystem.orderprocessing.service.dao.OrderNotificationListener;
+import ru.craftysoft.orderingsystem.orderprocessing.service.redis.DeadLetterReplayer;
+import ru.craftysoft.orderingsystem.orderprocessing.service.redis.InFlightLimiters;
+import ru.craftysoft.orderingsystem.orderprocessing.service.redis.RedisStreamListener;
+import ru.craftysoft.orderingsystem.orderprocessing.service.redis.StreamPartitioner;
+import ru.craftysoft.orderingsystem.orderprocessing.service.stage.StageRuntime;
 import ru.craftysoft.orderingsystem.util.properties.PropertyModule;
+import ru.craftysoft.orderingsystem.util.properties.PropertyResolver;
 
 import javax.inject.Named;
 import javax.inject.Singleton;
-import java.util.concurrent.ScheduledExecutorService;
 
 @Component(modules = {
         PropertyModule.class,
 
         DbModule.class,
         ExecutorModule.class,
+        InstanceModule.class,
         RedisModule.class,
+        TransportModule.class,
         GrpcClientModule.class,
 })
 @Singleton
 public interface ApplicationComponent {
 
+    PropertyResolver propertyResolver();
+
     RedisClient redisClient();
 
     BoundedAsyncPool<StatefulRedisConnection<String, byte[]>> redisPool();
 
-    @Named("extractOrderExecutor")
-    ScheduledExecutorService extractOrderExecutor();
+    RedisConsumerGroupInitOperation redisConsumerGroupInitOperation();
 
-    @Named("incrementCustomerAmountExecutor")
-    ScheduledExecutorService incrementCustomerAmountExecutor();
+    ExtractOrderOperation extractOrderOperation();
 
-    @Named("decreaseCustomerAmountExecutor")
-    ScheduledExecutorService decreaseCustomerAmountExecutor();
+    ExtractOrderTrigger extractOrderTrigger();
 
-    @Named("incrementExecutorAmountExecutor")
-    ScheduledExecutorService incrementExecutorAmountExecutor();
+    OutboxRelayTrigger outboxRelayTrigger();
 
-    @Named("decreaseExecutorAmountExecutor")
-    ScheduledExecutorService decreaseExecutorAmountExecutor();
+    OrderNotificationListener orderNotificationListener();
 
-    @Named("reserveOrderExecutor")
-    ScheduledExecutorService reserveOrderExecutor();
+    ReclaimPendingMessagesOperation reclaimPendingMessagesOperation();
 
-    @Named("completeOrderExecutor")
-    ScheduledExecutorService completeOrderExecutor();
+    MoveDelayedMessagesOperation moveDelayedMessagesOperation();
 
-    RedisConsumerGroupInitOperation redisConsumerGroupInitOperation();
+    TrimStreamsOperation trimStreamsOperation();
 
-    ExtractOrderOperation extractOrderOperation();
+    CompensateExpiredSagasOperation compensateExpiredSagasOperation();
 
     CompleteOrderOperation completeOrderOperation();
 
@@ -70,6 +81,16 @@ public interface ApplicationComponent {
 
     ReserveOrderOperation reserveOrderOperation();
 
+    RedisStreamListener redisStreamListener();
+
+    StreamPartitioner streamPartitioner();
+
+    DeadLetterReplayer deadLetterReplayer();
+
+    InFlightLimiters inFlightLimiters();
+
+    StageRuntime stageRuntime();
+
     @Named("customerServiceManagedChannel")
     ManagedChannel customerServiceManagedChannel();
 
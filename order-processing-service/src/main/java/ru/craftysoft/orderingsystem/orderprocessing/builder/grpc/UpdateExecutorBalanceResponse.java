@@ -25,6 +25,13 @@ public class UpdateExecutorBalanceResponse {
                 .divide(BigDecimal.valueOf(100), RoundingMode.HALF_DOWN);
     }
 
+    /**
+     * @return доля суммы заказа, которая зачисляется исполнителю за вычетом комиссии
+     */
+    public BigDecimal getExecutorFeePart() {
+        return executorFeePart;
+    }
+
     public UpdateExecutorBalanceRequest build(IncrementExecutorAmountRequest incrementExecutorAmountRequest) {
         var fee = bigDecimalToMoney(moneyToBigDecimal(incrementExecutorAmountRequest.getAmount()).multiply(executorFeePart));
         return UpdateExecutorBalanceRequest.newBuilder()
@@ -2,6 +2,7 @@ package ru.craftysoft.orderingsystem.orderprocessing.builder.redis;
 
 import lombok.SneakyThrows;
 import ru.craftysoft.orderingsystem.orderprocessing.proto.CompleteOrderRequest;
+import ru.craftysoft.orderingsystem.orderprocessing.proto.Envelope;
 import ru.craftysoft.orderingsystem.orderprocessing.proto.IncrementExecutorAmountRequest;
 import ru.craftysoft.orderingsystem.orderprocessing.proto.RetryData;
 
@@ -15,11 +16,9 @@ public class CompleteOrderRequestBuilder {
     public CompleteOrderRequestBuilder() {
     }
 
-    public CompleteOrderRequest build(CompleteOrderRequest request, int counter) {
+    public CompleteOrderRequest build(CompleteOrderRequest request, RetryData retryData) {
         return CompleteOrderRequest.newBuilder(request)
-                .setRetryData(RetryData.newBuilder()
-                        .setCounter(counter)
-                        .build())
+                .setRetryData(retryData)
                 .build();
     }
 
@@ -37,4 +36,11 @@ public class CompleteOrderRequestBuilder {
     public CompleteOrderRequest fromBytes(byte[] bytes) {
         return CompleteOrderRequest.parseFrom(bytes);
     }
+
+    public CompleteOrderRequest fromEnvelope(Envelope envelope) {
+        if (envelope.getBodyCase() != Envelope.BodyCase.COMPLETE_ORDER_REQUEST) {
+            throw new IllegalArgumentException("Ожидалось сообщение CompleteOrderRequest, получено " + envelope.getBodyCase());
+        }
+        return envelope.getCompleteOrderRequest();
+    }
 }
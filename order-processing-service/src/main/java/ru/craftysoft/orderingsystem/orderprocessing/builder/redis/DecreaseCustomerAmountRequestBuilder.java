@@ -3,6 +3,7 @@ package ru.craftysoft.orderingsystem.orderprocessing.builder.redis;
 import lombok.SneakyThrows;
 import ru.craftysoft.orderingsystem.orderprocessing.dto.Order;
 import ru.craftysoft.orderingsystem.orderprocessing.proto.DecreaseCustomerAmountRequest;
+import ru.craftysoft.orderingsystem.orderprocessing.proto.Envelope;
 import ru.craftysoft.orderingsystem.orderprocessing.proto.RetryData;
 
 import javax.inject.Inject;
@@ -26,11 +27,9 @@ public class DecreaseCustomerAmountRequestBuilder {
                 .build();
     }
 
-    public DecreaseCustomerAmountRequest build(DecreaseCustomerAmountRequest request, int counter) {
+    public DecreaseCustomerAmountRequest build(DecreaseCustomerAmountRequest request, RetryData retryData) {
         return DecreaseCustomerAmountRequest.newBuilder(request)
-                .setRetryData(RetryData.newBuilder()
-                        .setCounter(counter)
-                        .build())
+                .setRetryData(retryData)
                 .build();
     }
 
@@ -38,4 +37,11 @@ public class DecreaseCustomerAmountRequestBuilder {
     public DecreaseCustomerAmountRequest fromBytes(byte[] bytes) {
         return DecreaseCustomerAmountRequest.parseFrom(bytes);
     }
+
+    public DecreaseCustomerAmountRequest fromEnvelope(Envelope envelope) {
+        if (envelope.getBodyCase() != Envelope.BodyCase.DECREASE_CUSTOMER_AMOUNT_REQUEST) {
+            throw new IllegalArgumentException("Ожидалось сообщение DecreaseCustomerAmountRequest, получено " + envelope.getBodyCase());
+        }
+        return envelope.getDecreaseCustomerAmountRequest();
+    }
 }
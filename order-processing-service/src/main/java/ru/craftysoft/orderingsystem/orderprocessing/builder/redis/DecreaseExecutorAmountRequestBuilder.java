@@ -3,6 +3,7 @@ package ru.craftysoft.orderingsystem.orderprocessing.builder.redis;
 import lombok.SneakyThrows;
 import ru.craftysoft.orderingsystem.orderprocessing.proto.CompleteOrderRequest;
 import ru.craftysoft.orderingsystem.orderprocessing.proto.DecreaseExecutorAmountRequest;
+import ru.craftysoft.orderingsystem.orderprocessing.proto.Envelope;
 import ru.craftysoft.orderingsystem.orderprocessing.proto.RetryData;
 
 import javax.inject.Inject;
@@ -20,6 +21,13 @@ public class DecreaseExecutorAmountRequestBuilder {
         return DecreaseExecutorAmountRequest.parseFrom(bytes);
     }
 
+    public DecreaseExecutorAmountRequest fromEnvelope(Envelope envelope) {
+        if (envelope.getBodyCase() != Envelope.BodyCase.DECREASE_EXECUTOR_AMOUNT_REQUEST) {
+            throw new IllegalArgumentException("Ожидалось сообщение DecreaseExecutorAmountRequest, получено " + envelope.getBodyCase());
+        }
+        return envelope.getDecreaseExecutorAmountRequest();
+    }
+
     public DecreaseExecutorAmountRequest build(CompleteOrderRequest completeOrderRequest) {
         return DecreaseExecutorAmountRequest.newBuilder()
                 .setOrderId(completeOrderRequest.getOrderId())
@@ -29,11 +37,9 @@ public class DecreaseExecutorAmountRequestBuilder {
                 .build();
     }
 
-    public DecreaseExecutorAmountRequest build(DecreaseExecutorAmountRequest request, int counter) {
+    public DecreaseExecutorAmountRequest build(DecreaseExecutorAmountRequest request, RetryData retryData) {
         return DecreaseExecutorAmountRequest.newBuilder(request)
-                .setRetryData(RetryData.newBuilder()
-                        .setCounter(counter)
-                        .build())
+                .setRetryData(retryData)
                 .build();
     }
 }
@@ -2,6 +2,7 @@ package ru.craftysoft.orderingsystem.orderprocessing.builder.redis;
 
 import lombok.SneakyThrows;
 import ru.craftysoft.orderingsystem.orderprocessing.proto.*;
+import ru.craftysoft.orderingsystem.orderprocessing.proto.Envelope;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -13,11 +14,9 @@ public class IncrementCustomerAmountRequestBuilder {
     public IncrementCustomerAmountRequestBuilder() {
     }
 
-    public IncrementCustomerAmountRequest build(IncrementCustomerAmountRequest request, int counter) {
+    public IncrementCustomerAmountRequest build(IncrementCustomerAmountRequest request, RetryData retryData) {
         return IncrementCustomerAmountRequest.newBuilder(request)
-                .setRetryData(RetryData.newBuilder()
-                        .setCounter(counter)
-                        .build())
+                .setRetryData(retryData)
                 .build();
     }
 
@@ -43,4 +42,11 @@ public class IncrementCustomerAmountRequestBuilder {
     public IncrementCustomerAmountRequest fromBytes(byte[] bytes) {
         return IncrementCustomerAmountRequest.parseFrom(bytes);
     }
+
+    public IncrementCustomerAmountRequest fromEnvelope(Envelope envelope) {
+        if (envelope.getBodyCase() != Envelope.BodyCase.INCREMENT_CUSTOMER_AMOUNT_REQUEST) {
+            throw new IllegalArgumentException("Ожидалось сообщение IncrementCustomerAmountRequest, получено " + envelope.getBodyCase());
+        }
+        return envelope.getIncrementCustomerAmountRequest();
+    }
 }
@@ -3,6 +3,7 @@ package ru.craftysoft.orderingsystem.orderprocessing.builder.redis;
 import lombok.SneakyThrows;
 import ru.craftysoft.orderingsystem.customer.proto.UpdateCustomerBalanceResponse;
 import ru.craftysoft.orderingsystem.orderprocessing.proto.DecreaseCustomerAmountRequest;
+import ru.craftysoft.orderingsystem.orderprocessing.proto.Envelope;
 import ru.craftysoft.orderingsystem.orderprocessing.proto.IncrementExecutorAmountRequest;
 import ru.craftysoft.orderingsystem.orderprocessing.proto.RetryData;
 
@@ -26,11 +27,9 @@ public class IncrementExecutorAmountRequestBuilder {
                 .build();
     }
 
-    public IncrementExecutorAmountRequest build(IncrementExecutorAmountRequest request, int counter) {
+    public IncrementExecutorAmountRequest build(IncrementExecutorAmountRequest request, RetryData retryData) {
         return IncrementExecutorAmountRequest.newBuilder(request)
-                .setRetryData(RetryData.newBuilder()
-                        .setCounter(counter)
-                        .build())
+                .setRetryData(retryData)
                 .build();
     }
 
@@ -38,4 +37,11 @@ public class IncrementExecutorAmountRequestBuilder {
     public IncrementExecutorAmountRequest fromBytes(byte[] bytes) {
         return IncrementExecutorAmountRequest.parseFrom(bytes);
     }
+
+    public IncrementExecutorAmountRequest fromEnvelope(Envelope envelope) {
+        if (envelope.getBodyCase() != Envelope.BodyCase.INCREMENT_EXECUTOR_AMOUNT_REQUEST) {
+            throw new IllegalArgumentException("Ожидалось сообщение IncrementExecutorAmountRequest, получено " + envelope.getBodyCase());
+        }
+        return envelope.getIncrementExecutorAmountRequest();
+    }
 }
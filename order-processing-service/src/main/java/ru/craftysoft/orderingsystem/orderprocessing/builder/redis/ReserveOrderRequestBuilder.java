@@ -2,6 +2,7 @@ package ru.craftysoft.orderingsystem.orderprocessing.builder.redis;
 
 import lombok.SneakyThrows;
 import ru.craftysoft.orderingsystem.orderprocessing.proto.DecreaseCustomerAmountRequest;
+import ru.craftysoft.orderingsystem.orderprocessing.proto.Envelope;
 import ru.craftysoft.orderingsystem.orderprocessing.proto.IncrementCustomerAmountRequest;
 import ru.craftysoft.orderingsystem.orderprocessing.proto.ReserveOrderRequest;
 import ru.craftysoft.orderingsystem.orderprocessing.proto.RetryData;
@@ -21,11 +22,16 @@ public class ReserveOrderRequestBuilder {
         return ReserveOrderRequest.parseFrom(bytes);
     }
 
-    public ReserveOrderRequest build(ReserveOrderRequest request, int counter) {
+    public ReserveOrderRequest fromEnvelope(Envelope envelope) {
+        if (envelope.getBodyCase() != Envelope.BodyCase.RESERVE_ORDER_REQUEST) {
+            throw new IllegalArgumentException("Ожидалось сообщение ReserveOrderRequest, получено " + envelope.getBodyCase());
+        }
+        return envelope.getReserveOrderRequest();
+    }
+
+    public ReserveOrderRequest build(ReserveOrderRequest request, RetryData retryData) {
         return ReserveOrderRequest.newBuilder(request)
-                .setRetryData(RetryData.newBuilder()
-                        .setCounter(counter)
-                        .build())
+                .setRetryData(retryData)
                 .build();
     }
 
@@ -0,0 +1,71 @@
+package ru.craftysoft.orderingsystem.orderprocessing.cli;
+
+import lombok.extern.slf4j.Slf4j;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import ru.craftysoft.orderingsystem.orderprocessing.DaggerApplicationComponent;
+import ru.craftysoft.orderingsystem.util.error.exception.ExceptionFactory;
+
+import java.util.concurrent.Callable;
+
+/**
+ * возврат сообщений из стрима недоставленных сообщений этапа в исходный стрим.
+ * сообщения переносятся пачками по --batch-size с паузой --pause-millis между пачками, чтобы не создавать всплеск
+ * нагрузки на сервисы, вызываемые этапом.
+ */
+@Command(name = "replay-dead-letters", mixinStandardHelpOptions = true,
+        description = "Возвращает сообщения из стрима {стрим}_dlq в исходный стрим")
+@Slf4j
+public class ReplayDeadLettersCommand implements Callable<Integer> {
+
+    @Option(names = "--stream", required = true, description = "Имя стрима этапа, например decrease_customer_amount")
+    private String stream;
+
+    @Option(names = "--batch-size", defaultValue = "100", description = "Размер пачки")
+    private int batchSize;
+
+    @Option(names = "--pause-millis", defaultValue = "1000", description = "Пауза между пачками, мс")
+    private long pauseMillis;
+
+    @Option(names = "--limit", defaultValue = "0", description = "Максимальное количество сообщений, 0 - без ограничения")
+    private int limit;
+
+    @Option(names = "--keep-retry-data", description = "Не обнулять счётчик попыток")
+    private boolean keepRetryData;
+
+    public static void main(String[] args) {
+        System.exit(new CommandLine(new ReplayDeadLettersCommand()).execute(args));
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        new ExceptionFactory("005");
+        var component = DaggerApplicationComponent.builder().build();
+        var replayer = component.deadLetterReplayer();
+        var lastId = "0";
+        var read = 0;
+        var replayed = 0;
+        try {
+            while (limit == 0 || read < limit) {
+                var size = limit == 0 ? batchSize : Math.min(batchSize, limit - read);
+                var result = replayer.replay(stream, lastId, size, !keepRetryData).toCompletableFuture().get();
+                if (result.read() == 0) {
+                    break;
+                }
+                lastId = result.lastId();
+                read += result.read();
+                replayed += result.replayed();
+                log.info("ReplayDeadLettersCommand.call stream={} read={} replayed={} lastId={}", stream, read, replayed, lastId);
+                if (result.read() < size) {
+                    break;
+                }
+                Thread.sleep(pauseMillis);
+            }
+        } finally {
+            component.redisPool().close();
+        }
+        log.info("ReplayDeadLettersCommand.call.out stream={} read={} replayed={}", stream, read, replayed);
+        return read == replayed ? 0 : 1;
+    }
+}
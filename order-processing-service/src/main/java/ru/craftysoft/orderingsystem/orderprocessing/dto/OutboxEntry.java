@@ -0,0 +1,5 @@
+package ru.craftysoft.orderingsystem.orderprocessing.dto;
+
+public record OutboxEntry(long id,
+                          Order order) {
+}
@@ -0,0 +1,9 @@
+package ru.craftysoft.orderingsystem.orderprocessing.dto;
+
+/**
+ * @param envelope конверт сообщения (см. {@link ru.craftysoft.orderingsystem.orderprocessing.proto.Envelope})
+ */
+public record QueuedMessage(long id,
+                            String stream,
+                            byte[] envelope) {
+}
@@ -14,6 +14,10 @@ public enum InvocationExceptionCode implements ExceptionCode<InvocationException
     EXECUTOR_SERVICE("03", "Ошибка при вызове executor-service"),
     REDIS_SEND("04", "Ошибка при отправке сообщения в Redis"),
     REDIS_SUBSCRIBE("05", "Ошибка получении сообщений из Redis"),
+    REDIS_ACK("06", "Ошибка при подтверждении сообщений в Redis"),
+    REDIS_TRIM("07", "Ошибка при очистке стрима в Redis"),
+    MEMORY_QUEUE_FULL("08", "Очередь сообщений в памяти заполнена"),
+    REDIS_DECODE("09", "Сообщение из Redis не может быть разобрано"),
     ;
 
     private final String code;
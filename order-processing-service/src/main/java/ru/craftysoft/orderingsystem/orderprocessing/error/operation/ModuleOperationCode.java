@@ -24,6 +24,7 @@ public enum ModuleOperationCode implements OperationCode {
     DECREASE_EXECUTOR_AMOUNT("05"),
     INCREMENT_CUSTOMER_AMOUNT("06"),
     RESERVE_ORDER("07"),
+    RELAY_OUTBOX("08"),
     ;
 
     private final String code;
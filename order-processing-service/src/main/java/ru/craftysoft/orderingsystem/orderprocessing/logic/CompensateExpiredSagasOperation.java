@@ -0,0 +1,59 @@
+package ru.craftysoft.orderingsystem.orderprocessing.logic;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.craftysoft.orderingsystem.orderprocessing.service.saga.SagaDeadlineTracker;
+import ru.craftysoft.orderingsystem.util.properties.PropertyResolver;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import static ru.craftysoft.orderingsystem.util.error.logging.ExceptionLoggerHelper.logError;
+
+/**
+ * отправка компенсаций саг, не завершившихся в срок (см. {@link SagaDeadlineTracker}).
+ * {@link #process()} обрабатывает сработавшие таймеры экземпляра приложения и запускается каждые
+ * saga.deadline.tick-millis, {@link #sweep()} забирает из Redis все просроченные саги пачками до тех пор, пока
+ * не вернётся неполная пачка, и запускается каждые saga.deadline.sweep-interval-millis.
+ */
+@Singleton
+@Slf4j
+public class CompensateExpiredSagasOperation {
+
+    private final SagaDeadlineTracker sagaDeadlineTracker;
+    private final int batchSize;
+    private final String processPoint = "CompensateExpiredSagasOperation.process";
+    private final String sweepPoint = "CompensateExpiredSagasOperation.sweep";
+
+    @Inject
+    public CompensateExpiredSagasOperation(SagaDeadlineTracker sagaDeadlineTracker, PropertyResolver propertyResolver) {
+        this.sagaDeadlineTracker = sagaDeadlineTracker;
+        this.batchSize = propertyResolver.getIntProperty("saga.deadline.batch-size");
+    }
+
+    public void process() {
+        try {
+            var size = sagaDeadlineTracker.expire().toCompletableFuture().join();
+            if (size > 0) {
+                log.info("{}.out size={}", processPoint, size);
+            }
+        } catch (Exception e) {
+            logError(log, processPoint, e);
+        }
+    }
+
+    public void sweep() {
+        try {
+            int claimed;
+            int total = 0;
+            do {
+                claimed = sagaDeadlineTracker.claimOverdue().toCompletableFuture().join();
+                total += claimed;
+            } while (claimed == batchSize);
+            if (total > 0) {
+                log.info("{}.out size={}", sweepPoint, total);
+            }
+        } catch (Exception e) {
+            logError(log, sweepPoint, e);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package ru.craftysoft.orderingsystem.orderprocessing.logic;
+
+import ru.craftysoft.orderingsystem.orderprocessing.service.dao.OrderDaoAdapter;
+import ru.craftysoft.orderingsystem.orderprocessing.service.stage.StageRuntime;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * запуск {@link ExtractOrderOperation} по уведомлению о резервировании заказа и по расписанию.
+ * в экземпляре приложения одновременно выполняется не больше одного извлечения, запросы, пришедшие во время
+ * извлечения, объединяются в один повторный запуск. если извлечена полная пачка, извлечение сразу запускается снова,
+ * пока очередь заказов не будет разобрана. после извлечения непустой пачки запрашивается отправка outbox.
+ */
+@Singleton
+public class ExtractOrderTrigger {
+
+    public static final String STAGE = "extract-order";
+
+    private final ExtractOrderOperation extractOrderOperation;
+    private final OutboxRelayTrigger outboxRelayTrigger;
+    private final OrderDaoAdapter orderDaoAdapter;
+    private final StageRuntime stageRuntime;
+    private final AtomicBoolean isRequested = new AtomicBoolean();
+    private final AtomicBoolean isRunning = new AtomicBoolean();
+
+    @Inject
+    public ExtractOrderTrigger(ExtractOrderOperation extractOrderOperation,
+                               OutboxRelayTrigger outboxRelayTrigger,
+                               OrderDaoAdapter orderDaoAdapter,
+                               StageRuntime stageRuntime) {
+        this.extractOrderOperation = extractOrderOperation;
+        this.outboxRelayTrigger = outboxRelayTrigger;
+        this.orderDaoAdapter = orderDaoAdapter;
+        this.stageRuntime = stageRuntime;
+    }
+
+    public void request() {
+        isRequested.set(true);
+        if (isRunning.compareAndSet(false, true)) {
+            stageRuntime.execute(STAGE, this::extract);
+        }
+    }
+
+    private void extract() {
+        isRequested.set(false);
+        CompletableFuture<Integer> result;
+        try {
+            result = extractOrderOperation.process();
+        } catch (Exception e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        result.whenComplete((size, throwable) -> {
+            isRunning.set(false);
+            if (throwable == null && size > 0) {
+                outboxRelayTrigger.request();
+            }
+            if (throwable == null && (isRequested.get() || orderDaoAdapter.isLastBatchFull())) {
+                request();
+            }
+        });
+    }
+}
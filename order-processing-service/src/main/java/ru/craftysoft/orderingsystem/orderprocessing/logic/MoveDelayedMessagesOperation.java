@@ -0,0 +1,45 @@
+package ru.craftysoft.orderingsystem.orderprocessing.logic;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.craftysoft.orderingsystem.orderprocessing.service.redis.RedisDelayQueue;
+import ru.craftysoft.orderingsystem.util.properties.PropertyResolver;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import static ru.craftysoft.orderingsystem.util.error.logging.ExceptionLoggerHelper.logError;
+
+/**
+ * перенос сообщений, время повторной обработки которых наступило, из очереди отложенной отправки в их стримы.
+ * пачки забираются до тех пор, пока очередь не вернёт неполную пачку.
+ */
+@Singleton
+@Slf4j
+public class MoveDelayedMessagesOperation {
+
+    private final RedisDelayQueue redisDelayQueue;
+    private final int batchSize;
+    private final String processPoint = "MoveDelayedMessagesOperation.process";
+
+    @Inject
+    public MoveDelayedMessagesOperation(RedisDelayQueue redisDelayQueue, PropertyResolver propertyResolver) {
+        this.redisDelayQueue = redisDelayQueue;
+        this.batchSize = propertyResolver.getIntProperty("redis.retry.delay-queue.batch-size");
+    }
+
+    public void process() {
+        try {
+            int moved;
+            int total = 0;
+            do {
+                moved = redisDelayQueue.moveDue().toCompletableFuture().join();
+                total += moved;
+            } while (moved == batchSize);
+            if (total > 0) {
+                log.info("{}.out size={}", processPoint, total);
+            }
+        } catch (Exception e) {
+            logError(log, processPoint, e);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package ru.craftysoft.orderingsystem.orderprocessing.logic;
+
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
+import ru.craftysoft.orderingsystem.orderprocessing.builder.grpc.UpdateExecutorBalanceResponse;
+import ru.craftysoft.orderingsystem.orderprocessing.dto.OutboxEntry;
+import ru.craftysoft.orderingsystem.orderprocessing.error.operation.ModuleOperationCode;
+import ru.craftysoft.orderingsystem.orderprocessing.service.dao.OrderDaoAdapter;
+import ru.craftysoft.orderingsystem.orderprocessing.service.redis.RedisClientAdapter;
+import ru.craftysoft.orderingsystem.util.properties.PropertyResolver;
+import ru.craftysoft.orderingsystem.util.uuid.UuidUtils;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static ru.craftysoft.orderingsystem.orderprocessing.error.operation.ModuleOperationCode.RELAY_OUTBOX;
+import static ru.craftysoft.orderingsystem.util.error.exception.ExceptionFactory.mapException;
+import static ru.craftysoft.orderingsystem.util.error.logging.ExceptionLoggerHelper.logError;
+import static ru.craftysoft.orderingsystem.util.mdc.MdcKey.*;
+import static ru.craftysoft.orderingsystem.util.mdc.MdcUtils.withMdc;
+
+/**
+ * отправка заявок, записанных в orders.outbox при извлечении, в работу.
+ * пачка записей отправляется одним конвейером XADD и удаляется одним запросом в той же транзакции, в которой была
+ * выбрана. в случае успеха переходим к {@link ru.craftysoft.orderingsystem.orderprocessing.logic.messagedriven.DecreaseCustomerAmountOperation}.
+ * записи, которые не удалось отправить, остаются в outbox и отправляются при следующем запуске.
+ * при settlement.mode=fused, если схемы заказчиков и исполнителей размещены в БД заказов, расчёт по пачке проводится
+ * в БД одной транзакцией без саги (см. {@link OrderDaoAdapter#settleOrders}). при раздельном размещении схем
+ * используется сага.
+ */
+@Singleton
+@Slf4j
+public class OutboxRelayOperation {
+
+    private final RedisClientAdapter redisClientAdapter;
+    private final OrderDaoAdapter orderDaoAdapter;
+    private final UpdateExecutorBalanceResponse updateExecutorBalanceRequestBuilder;
+    private final boolean isFusedSettlementRequested;
+    private volatile Boolean isFusedSettlement;
+    private final String point = "OutboxRelayOperation.process";
+
+    @Inject
+    public OutboxRelayOperation(RedisClientAdapter redisClientAdapter,
+                                OrderDaoAdapter orderDaoAdapter,
+                                UpdateExecutorBalanceResponse updateExecutorBalanceRequestBuilder,
+                                PropertyResolver propertyResolver) {
+        this.redisClientAdapter = redisClientAdapter;
+        this.orderDaoAdapter = orderDaoAdapter;
+        this.updateExecutorBalanceRequestBuilder = updateExecutorBalanceRequestBuilder;
+        var settlementMode = propertyResolver.getStringProperty("settlement.mode");
+        this.isFusedSettlementRequested = switch (settlementMode) {
+            case "saga" -> false;
+            case "fused" -> true;
+            default -> throw new IllegalArgumentException("Неизвестный режим расчёта settlement.mode=" + settlementMode);
+        };
+    }
+
+    /**
+     * @return количество отправленных заявок
+     */
+    public int process() {
+        MDC.setContextMap(Map.of(
+                TRACE_ID, UuidUtils.generateDefaultUuid(),
+                SPAN_ID, UuidUtils.generateDefaultUuid(),
+                OPERATION_NAME, RELAY_OUTBOX.name()
+        ));
+        log.info("{}.in", point);
+        try {
+            var size = orderDaoAdapter.relayOutbox(this::send);
+            log.info("{}.out size={}", point, size);
+            return size;
+        } catch (Exception e) {
+            var baseException = mapException(e, ModuleOperationCode::resolve);
+            logError(log, point, baseException);
+            throw baseException;
+        } finally {
+            MDC.clear();
+        }
+    }
+
+    private List<OutboxEntry> send(List<OutboxEntry> entries) {
+        if (isFusedSettlement()) {
+            return settle(entries);
+        }
+        var sendResults = redisClientAdapter.sendMessagesToDecreaseCustomerAmountStream(entries);
+        var sent = new ArrayList<OutboxEntry>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            var isSent = sendResults.get(i)
+                    .handle(withMdc((messageId, throwable) -> {
+                        if (throwable != null) {
+                            logError(log, point + ".processOrder", throwable);
+                            return false;
+                        }
+                        return true;
+                    }))
+                    .join();
+            if (isSent) {
+                sent.add(entries.get(i));
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * заказы, по которым расчёт не проведён, возвращаются в статус reserved в той же транзакции, поэтому вся пачка
+     * считается отправленной. при ошибке пачка остаётся в outbox
+     */
+    private List<OutboxEntry> settle(List<OutboxEntry> entries) {
+        var orders = entries.stream()
+                .map(OutboxEntry::order)
+                .toList();
+        try {
+            var settled = orderDaoAdapter.settleOrders(orders, updateExecutorBalanceRequestBuilder.getExecutorFeePart());
+            log.info("{}.settle size={} settled={}", point, orders.size(), settled.size());
+            return entries;
+        } catch (Exception e) {
+            logError(log, point + ".settle", e);
+            return List.of();
+        }
+    }
+
+    /**
+     * доступность схем проверяется при первой отправке
+     */
+    private boolean isFusedSettlement() {
+        if (!isFusedSettlementRequested) {
+            return false;
+        }
+        var result = isFusedSettlement;
+        if (result == null) {
+            result = orderDaoAdapter.isSettlementAvailable();
+            if (!result) {
+                log.warn("{}.settle схемы customers и executors недоступны в БД заказов, используется сага", point);
+            }
+            isFusedSettlement = result;
+        }
+        return result;
+    }
+}
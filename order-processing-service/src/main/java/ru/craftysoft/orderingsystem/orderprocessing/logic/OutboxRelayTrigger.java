@@ -0,0 +1,58 @@
+package ru.craftysoft.orderingsystem.orderprocessing.logic;
+
+import ru.craftysoft.orderingsystem.orderprocessing.service.dao.OrderDaoAdapter;
+import ru.craftysoft.orderingsystem.orderprocessing.service.stage.StageRuntime;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * запуск {@link OutboxRelayOperation} после извлечения заказов и по расписанию.
+ * по аналогии с {@link ExtractOrderTrigger} в экземпляре приложения одновременно выполняется не больше одной отправки,
+ * запросы, пришедшие во время отправки, объединяются в один повторный запуск, а после полной пачки, отправленной
+ * целиком, отправка сразу запускается снова.
+ */
+@Singleton
+public class OutboxRelayTrigger {
+
+    public static final String STAGE = "relay-outbox";
+
+    private final OutboxRelayOperation outboxRelayOperation;
+    private final OrderDaoAdapter orderDaoAdapter;
+    private final StageRuntime stageRuntime;
+    private final AtomicBoolean isRequested = new AtomicBoolean();
+    private final AtomicBoolean isRunning = new AtomicBoolean();
+
+    @Inject
+    public OutboxRelayTrigger(OutboxRelayOperation outboxRelayOperation,
+                              OrderDaoAdapter orderDaoAdapter,
+                              StageRuntime stageRuntime) {
+        this.outboxRelayOperation = outboxRelayOperation;
+        this.orderDaoAdapter = orderDaoAdapter;
+        this.stageRuntime = stageRuntime;
+    }
+
+    public void request() {
+        isRequested.set(true);
+        if (isRunning.compareAndSet(false, true)) {
+            stageRuntime.execute(STAGE, this::relay);
+        }
+    }
+
+    private void relay() {
+        isRequested.set(false);
+        var isSucceeded = false;
+        try {
+            outboxRelayOperation.process();
+            isSucceeded = true;
+        } catch (Exception ignored) {
+            // ошибка залогирована операцией, повтор выполнится по расписанию
+        } finally {
+            isRunning.set(false);
+        }
+        if (isSucceeded && (isRequested.get() || orderDaoAdapter.isLastOutboxBatchFull())) {
+            request();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package ru.craftysoft.orderingsystem.orderprocessing.logic;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.craftysoft.orderingsystem.orderprocessing.logic.messagedriven.*;
+import ru.craftysoft.orderingsystem.orderprocessing.service.redis.RedisClient;
+import ru.craftysoft.orderingsystem.orderprocessing.service.redis.StreamPartitioner;
+import ru.craftysoft.orderingsystem.util.properties.PropertyResolver;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static ru.craftysoft.orderingsystem.util.error.logging.ExceptionLoggerHelper.logError;
+
+/**
+ * возврат в обработку сообщений, зависших в списке ожидающих подтверждения.
+ * для каждого стрима сообщения, не подтверждённые дольше redis.reclaim.min-idle-millis, перехватываются через XAUTOCLAIM
+ * и передаются в соответствующую операцию. стримы обрабатываются последовательно, чтобы не создавать всплеск нагрузки.
+ * по каждому стриму хранится общее количество перехваченных сообщений и размер списка ожидающих подтверждения на момент
+ * последней проверки, для партиционированных стримов - суммарно по всем партициям.
+ */
+@Singleton
+@Slf4j
+public class ReclaimPendingMessagesOperation {
+
+    private final RedisClient redisClient;
+    private final StreamPartitioner streamPartitioner;
+    private final Map<String, Supplier<CompletionStage<Integer>>> reclaimersByStream = new LinkedHashMap<>();
+    private final Map<String, AtomicLong> reclaimedCounts = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> pendingCounts = new ConcurrentHashMap<>();
+    private final String processPoint = "ReclaimPendingMessagesOperation.process";
+
+    @Inject
+    public ReclaimPendingMessagesOperation(RedisClient redisClient,
+                                           StreamPartitioner streamPartitioner,
+                                           IncrementCustomerAmountOperation incrementCustomerAmountOperation,
+                                           DecreaseCustomerAmountOperation decreaseCustomerAmountOperation,
+                                           IncrementExecutorAmountOperation incrementExecutorAmountOperation,
+                                           DecreaseExecutorAmountOperation decreaseExecutorAmountOperation,
+                                           ReserveOrderOperation reserveOrderOperation,
+                                           CompleteOrderOperation completeOrderOperation,
+                                           PropertyResolver propertyResolver) {
+        this.redisClient = redisClient;
+        this.streamPartitioner = streamPartitioner;
+        reclaimersByStream.put(propertyResolver.getStringProperty("redis.stream.increment-customer-amount.name"), incrementCustomerAmountOperation::reclaim);
+        reclaimersByStream.put(propertyResolver.getStringProperty("redis.stream.decrease-customer-amount.name"), decreaseCustomerAmountOperation::reclaim);
+        reclaimersByStream.put(propertyResolver.getStringProperty("redis.stream.increment-executor-amount.name"), incrementExecutorAmountOperation::reclaim);
+        reclaimersByStream.put(propertyResolver.getStringProperty("redis.stream.decrease-executor-amount.name"), decreaseExecutorAmountOperation::reclaim);
+        reclaimersByStream.put(propertyResolver.getStringProperty("redis.stream.reserve-order.name"), reserveOrderOperation::reclaim);
+        reclaimersByStream.put(propertyResolver.getStringProperty("redis.stream.complete-order.name"), completeOrderOperation::reclaim);
+        reclaimersByStream.keySet().forEach(streamName -> {
+            reclaimedCounts.put(streamName, new AtomicLong());
+            pendingCounts.put(streamName, new AtomicLong());
+        });
+    }
+
+    public void process() {
+        try {
+            CompletionStage<Void> result = CompletableFuture.completedFuture(null);
+            for (var reclaimer : reclaimersByStream.entrySet()) {
+                result = result.thenCompose(v -> reclaim(reclaimer.getKey(), reclaimer.getValue()));
+            }
+            result.toCompletableFuture().join();
+        } catch (Exception e) {
+            logError(log, processPoint, e);
+        }
+    }
+
+    public long getReclaimedCount(String streamName) {
+        return reclaimedCounts.get(streamName).get();
+    }
+
+    public long getPendingCount(String streamName) {
+        return pendingCounts.get(streamName).get();
+    }
+
+    private CompletionStage<Void> reclaim(String streamName, Supplier<CompletionStage<Integer>> reclaimer) {
+        return reclaimer.get()
+                .thenCompose(reclaimed -> {
+                    var total = reclaimedCounts.get(streamName).addAndGet(reclaimed);
+                    return redisClient.pendingCount(streamPartitioner.partitions(streamName))
+                            .thenAccept(pending -> {
+                                pendingCounts.get(streamName).set(pending);
+                                if (reclaimed > 0 || pending > 0) {
+                                    log.info("{}.out stream={} reclaimed={} reclaimedTotal={} pending={}", processPoint, streamName, reclaimed, total, pending);
+                                }
+                            });
+                })
+                .exceptionally(throwable -> {
+                    logError(log, processPoint, throwable);
+                    return null;
+                });
+    }
+}
@@ -2,9 +2,11 @@ package ru.craftysoft.orderingsystem.orderprocessing.logic;
 
 import io.lettuce.core.RedisBusyException;
 import io.lettuce.core.RedisClient;
+import io.lettuce.core.XGroupCreateArgs;
 import io.lettuce.core.XReadArgs;
 import io.lettuce.core.api.StatefulRedisConnection;
 import lombok.extern.slf4j.Slf4j;
+import ru.craftysoft.orderingsystem.orderprocessing.service.redis.StreamPartitioner;
 import ru.craftysoft.orderingsystem.util.properties.PropertyResolver;
 
 import javax.inject.Inject;
@@ -13,6 +15,8 @@ import java.util.List;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 
+import static ru.craftysoft.orderingsystem.orderprocessing.service.redis.RedisClient.ACK_AND_FORWARD_SCRIPT;
+
 @Singleton
 @Slf4j
 public class RedisConsumerGroupInitOperation {
@@ -23,6 +27,7 @@ public class RedisConsumerGroupInitOperation {
 
     @Inject
     public RedisConsumerGroupInitOperation(Supplier<StatefulRedisConnection<String, String>> redisConnectionFactory,
+                                           StreamPartitioner streamPartitioner,
                                            PropertyResolver propertyResolver) {
         this.redisConnectionFactory = redisConnectionFactory;
         this.consumerGroupName = propertyResolver.getStringProperty("redis.consumer.group.name");
@@ -36,6 +41,7 @@ public class RedisConsumerGroupInitOperation {
                         "redis.stream.complete-order.name"
                 )
                 .map(propertyResolver::getStringProperty)
+                .flatMap(streamName -> streamPartitioner.partitions(streamName).stream())
                 .toList();
     }
 
@@ -44,13 +50,13 @@ public class RedisConsumerGroupInitOperation {
             var commands = connection.sync();
             streamsNames.forEach(streamName -> {
                 try {
-                    var messageId = commands.xadd(streamName, "testKey", "testValue");
-                    commands.xdel(streamName, messageId);
-                    commands.xgroupCreate(XReadArgs.StreamOffset.from(streamName, "0-0"), consumerGroupName);
+                    commands.xgroupCreate(XReadArgs.StreamOffset.from(streamName, "0-0"), consumerGroupName, XGroupCreateArgs.Builder.mkstream());
                 } catch (RedisBusyException e) {
                     log.info(e.getMessage());
                 }
             });
+            var digest = commands.scriptLoad(ACK_AND_FORWARD_SCRIPT);
+            log.info("RedisConsumerGroupInitOperation.process ack-and-forward script sha={}", digest);
         } catch (Exception e) {
             log.error("Ошибка при инициализации консьюмер-группы", e);
             throw new RuntimeException(e);
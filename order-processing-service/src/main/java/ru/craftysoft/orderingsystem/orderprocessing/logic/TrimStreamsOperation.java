@@ -0,0 +1,107 @@
+package ru.craftysoft.orderingsystem.orderprocessing.logic;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.craftysoft.orderingsystem.orderprocessing.service.redis.RedisClient;
+import ru.craftysoft.orderingsystem.orderprocessing.service.redis.StreamPartitioner;
+import ru.craftysoft.orderingsystem.util.properties.PropertyResolver;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import static ru.craftysoft.orderingsystem.orderprocessing.service.redis.RedisClientAdapter.deadLetterStream;
+import static ru.craftysoft.orderingsystem.util.error.logging.ExceptionLoggerHelper.logError;
+
+/**
+ * очистка стримов этапов от обработанных сообщений.
+ * каждая партиция очищается через {@link RedisClient#trim} до первого сообщения, которое ещё не выдано или
+ * не подтверждено хотя бы одной группой, сообщения моложе redis.trim.min-retention-millis сохраняются.
+ * после очистки по каждому стриму сохраняются длина и занимаемая память (суммарно по партициям) и пишутся в лог
+ * вместе с размером стрима недоставленных сообщений.
+ */
+@Singleton
+@Slf4j
+public class TrimStreamsOperation {
+
+    private final RedisClient redisClient;
+    private final StreamPartitioner streamPartitioner;
+    private final List<String> streamNames;
+    private final long minRetentionMillis;
+    private final Map<String, RedisClient.StreamStats> statsByStream = new ConcurrentHashMap<>();
+    private final String processPoint = "TrimStreamsOperation.process";
+
+    @Inject
+    public TrimStreamsOperation(RedisClient redisClient,
+                                StreamPartitioner streamPartitioner,
+                                PropertyResolver propertyResolver) {
+        this.redisClient = redisClient;
+        this.streamPartitioner = streamPartitioner;
+        this.minRetentionMillis = propertyResolver.getIntProperty("redis.trim.min-retention-millis");
+        this.streamNames = Stream
+                .of(
+                        "redis.stream.increment-customer-amount.name",
+                        "redis.stream.decrease-customer-amount.name",
+                        "redis.stream.increment-executor-amount.name",
+                        "redis.stream.decrease-executor-amount.name",
+                        "redis.stream.reserve-order.name",
+                        "redis.stream.complete-order.name"
+                )
+                .map(propertyResolver::getStringProperty)
+                .toList();
+    }
+
+    public void process() {
+        try {
+            CompletionStage<Void> result = CompletableFuture.completedFuture(null);
+            for (var streamName : streamNames) {
+                result = result.thenCompose(v -> trim(streamName));
+            }
+            result.toCompletableFuture().join();
+        } catch (Exception e) {
+            logError(log, processPoint, e);
+        }
+    }
+
+    /**
+     * @return длина и занимаемая память стрима по результатам последней очистки
+     */
+    public RedisClient.StreamStats getStats(String streamName) {
+        return statsByStream.get(streamName);
+    }
+
+    private CompletionStage<Void> trim(String streamName) {
+        var partitions = streamPartitioner.partitions(streamName);
+        CompletionStage<Long> trimmed = CompletableFuture.completedFuture(0L);
+        for (var partition : partitions) {
+            trimmed = trimmed.thenCompose(total -> redisClient.trim(partition, minRetentionMillis).thenApply(count -> total + count));
+        }
+        return trimmed
+                .thenCompose(total -> stats(partitions)
+                        .thenCombine(stats(List.of(deadLetterStream(streamName))), (stats, deadLetterStats) -> {
+                            statsByStream.put(streamName, stats);
+                            log.info("{}.out stream={} trimmed={} length={} memoryBytes={} deadLetters={}",
+                                    processPoint, streamName, total, stats.length(), stats.memoryBytes(), deadLetterStats.length());
+                            return (Void) null;
+                        }))
+                .exceptionally(throwable -> {
+                    logError(log, processPoint, throwable);
+                    return null;
+                });
+    }
+
+    private CompletionStage<RedisClient.StreamStats> stats(List<String> streamKeys) {
+        CompletionStage<RedisClient.StreamStats> result = CompletableFuture.completedFuture(new RedisClient.StreamStats(0, 0));
+        for (var streamKey : streamKeys) {
+            result = result.thenCombine(redisClient.stats(streamKey), (total, stats) -> new RedisClient.StreamStats(
+                    total.length() + stats.length(),
+                    total.memoryBytes() + stats.memoryBytes()
+            ));
+        }
+        return result;
+    }
+}
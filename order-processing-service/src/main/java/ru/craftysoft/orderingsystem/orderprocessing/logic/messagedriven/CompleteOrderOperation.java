@@ -23,7 +23,9 @@ import static ru.craftysoft.orderingsystem.util.mdc.MdcKey.*;
 import static ru.craftysoft.orderingsystem.util.mdc.MdcUtils.withMdc;
 
 /**
- * заказ помечается как выполненный
+ * заказ помечается как выполненный, срок саги снимается.
+ * срок снимается до выполнения заказа: если он уже истёк и отправлено списание с исполнителя, заказ не выполняется.
+ * повторы выполнения заказа идут уже без срока саги, сообщение остаётся в стриме до подтверждения.
  * при возникновении ошибки пытаемся выполнить повторный вызов. после истечения всех попыток переходим к {@link DecreaseExecutorAmountOperation}
  */
 @Singleton
@@ -33,6 +35,7 @@ public class CompleteOrderOperation {
     private final RedisClientAdapter redisClientAdapter;
     private final OrderDaoAdapter orderDaoAdapter;
     private final String processPoint = "CompleteOrderOperation.process";
+    private final String reclaimPoint = "CompleteOrderOperation.reclaim";
     private final String processMessagePoint = "CompleteOrderOperation.processMessage";
 
     @Inject
@@ -41,28 +44,42 @@ public class CompleteOrderOperation {
         this.orderDaoAdapter = orderDaoAdapter;
     }
 
-    public CompletionStage<Void> process() {
+    public CompletionStage<Integer> process() {
+        return process(0);
+    }
+
+    /**
+     * @param consumerIndex номер потребителя стрима внутри экземпляра приложения
+     */
+    public CompletionStage<Integer> process(int consumerIndex) {
         try (var ignored1 = MDC.putCloseable(TRACE_ID, UuidUtils.generateDefaultUuid());
              var ignored2 = MDC.putCloseable(SPAN_ID, UuidUtils.generateDefaultUuid());
              var ignored3 = MDC.putCloseable(OPERATION_NAME, COMPLETE_ORDER.name())) {
-            return redisClientAdapter.listenCompleteOrderRequestMessages()
-                    .whenComplete(withMdc((unused, throwable) -> {
+            return redisClientAdapter.listenCompleteOrderRequestMessages(consumerIndex, this::processMessage)
+                    .whenComplete(withMdc((size, throwable) -> {
                         if (throwable != null) {
                             logError(log, processPoint, throwable);
+                        } else if (size > 0) {
+                            log.info("{}.out size={}", processPoint, size);
                         }
-                    }))
-                    .thenCompose(withMdc(requests -> {
-                        if (!requests.isEmpty()) {
-                            log.info("{}.in size={}", processPoint, requests.size());
-                            var futures = requests.stream()
-                                    .map(this::processMessage)
-                                    .toArray(value -> new CompletableFuture<?>[requests.size()]);
-                            return CompletableFuture.allOf(futures)
-                                    .whenComplete(withMdc((v, t) -> {
-                                        log.info("{}.out", processPoint);
-                                    }));
+                    }));
+        }
+    }
+
+    /**
+     * обработка сообщений, перехваченных у потребителей, которые не подтвердили их в течение redis.reclaim.min-idle-millis
+     */
+    public CompletionStage<Integer> reclaim() {
+        try (var ignored1 = MDC.putCloseable(TRACE_ID, UuidUtils.generateDefaultUuid());
+             var ignored2 = MDC.putCloseable(SPAN_ID, UuidUtils.generateDefaultUuid());
+             var ignored3 = MDC.putCloseable(OPERATION_NAME, COMPLETE_ORDER.name())) {
+            return redisClientAdapter.reclaimCompleteOrderRequestMessages(this::processMessage)
+                    .whenComplete(withMdc((size, throwable) -> {
+                        if (throwable != null) {
+                            logError(log, reclaimPoint, throwable);
+                        } else if (size > 0) {
+                            log.info("{}.out size={}", reclaimPoint, size);
                         }
-                        return new CompletableFuture<>();
                     }));
         }
     }
@@ -70,9 +87,17 @@ public class CompleteOrderOperation {
     private CompletableFuture<String> processMessage(Map.Entry<String, CompleteOrderRequest> entry) {
         try {
             MDC.put(REDIS_MESSAGE_ID, entry.getKey());
-            return orderDaoAdapter.completeOrder(entry.getValue())
-                    .thenApply(withMdc(v -> {
-                        return "nop"; //тут может быть отправка какого-то уведомления на почту исполнителю и заказчику
+            return redisClientAdapter.finishSaga(entry.getKey()).toCompletableFuture()
+                    .thenCompose(withMdc(isFinished -> {
+                        if (!isFinished) {
+                            log.warn("{} срок саги истёк, заказ не выполняется", processMessagePoint);
+                            return CompletableFuture.completedFuture("nop");
+                        }
+                        return orderDaoAdapter.completeOrder(entry.getValue())
+                                .thenApply(withMdc(v -> {
+                                    redisClientAdapter.completeSaga(entry.getKey());
+                                    return "nop"; //тут может быть отправка какого-то уведомления на почту исполнителю и заказчику
+                                }));
                     }))
                     .exceptionallyCompose(withMdc(throwable -> {
                         logError(log, processMessagePoint, throwable);
@@ -102,6 +127,25 @@ public class CompleteOrderOperation {
                     } else {
                         log.info("{}.rollback.out", processMessagePoint);
                     }
+                }))
+                .exceptionallyCompose(withMdc(rollbackThrowable -> {
+                    return deadLetter(entry, rollbackThrowable);
                 }));
     }
+
+    /**
+     * сообщение, обработку которого не удалось ни повторить, ни откатить, сохраняется в стриме недоставленных сообщений.
+     * если не удалось и это, сообщение остаётся неподтверждённым и будет перехвачено повторно
+     */
+    private CompletionStage<String> deadLetter(Map.Entry<String, CompleteOrderRequest> entry, Throwable throwable) {
+        return redisClientAdapter.sendCompleteOrderRequestToDeadLetterStream(entry, throwable)
+                .whenComplete(withMdc((ignored, deadLetterThrowable) -> {
+                    if (deadLetterThrowable != null) {
+                        logError(log, processMessagePoint + ".deadLetter", deadLetterThrowable);
+                    } else {
+                        log.info("{}.deadLetter.out", processMessagePoint);
+                    }
+                }));
+    }
+
 }
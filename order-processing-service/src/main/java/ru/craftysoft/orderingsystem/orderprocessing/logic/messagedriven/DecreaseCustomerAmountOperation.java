@@ -34,6 +34,7 @@ public class DecreaseCustomerAmountOperation {
     private final RedisClientAdapter redisClientAdapter;
     private final CustomerServiceClientAdapter customerServiceClientAdapter;
     private final String processPoint = "DecreaseCustomerAmountOperation.process";
+    private final String reclaimPoint = "DecreaseCustomerAmountOperation.reclaim";
     private final String processMessagePoint = "DecreaseCustomerAmountOperation.processMessage";
 
     @Inject
@@ -43,28 +44,42 @@ public class DecreaseCustomerAmountOperation {
         this.customerServiceClientAdapter = customerServiceClientAdapter;
     }
 
-    public CompletionStage<Void> process() {
+    public CompletionStage<Integer> process() {
+        return process(0);
+    }
+
+    /**
+     * @param consumerIndex номер потребителя стрима внутри экземпляра приложения
+     */
+    public CompletionStage<Integer> process(int consumerIndex) {
         try (var ignored1 = MDC.putCloseable(TRACE_ID, UuidUtils.generateDefaultUuid());
              var ignored2 = MDC.putCloseable(SPAN_ID, UuidUtils.generateDefaultUuid());
              var ignored3 = MDC.putCloseable(OPERATION_NAME, DECREASE_CUSTOMER_AMOUNT.name())) {
-            return redisClientAdapter.listenDecreaseCustomerAmountRequestMessages()
-                    .whenComplete(withMdc((unused, throwable) -> {
+            return redisClientAdapter.listenDecreaseCustomerAmountRequestMessages(consumerIndex, this::processMessage)
+                    .whenComplete(withMdc((size, throwable) -> {
                         if (throwable != null) {
                             logError(log, processPoint, throwable);
+                        } else if (size > 0) {
+                            log.info("{}.out size={}", processPoint, size);
                         }
-                    }))
-                    .thenCompose(withMdc(requests -> {
-                        if (!requests.isEmpty()) {
-                            log.info("{}.in size={}", processPoint, requests.size());
-                            var futures = requests.stream()
-                                    .map(this::processMessage)
-                                    .toArray(value -> new CompletableFuture<?>[requests.size()]);
-                            return CompletableFuture.allOf(futures)
-                                    .whenComplete(withMdc((v, t) -> {
-                                        log.info("{}.out", processPoint);
-                                    }));
+                    }));
+        }
+    }
+
+    /**
+     * обработка сообщений, перехваченных у потребителей, которые не подтвердили их в течение redis.reclaim.min-idle-millis
+     */
+    public CompletionStage<Integer> reclaim() {
+        try (var ignored1 = MDC.putCloseable(TRACE_ID, UuidUtils.generateDefaultUuid());
+             var ignored2 = MDC.putCloseable(SPAN_ID, UuidUtils.generateDefaultUuid());
+             var ignored3 = MDC.putCloseable(OPERATION_NAME, DECREASE_CUSTOMER_AMOUNT.name())) {
+            return redisClientAdapter.reclaimDecreaseCustomerAmountRequestMessages(this::processMessage)
+                    .whenComplete(withMdc((size, throwable) -> {
+                        if (throwable != null) {
+                            logError(log, reclaimPoint, throwable);
+                        } else if (size > 0) {
+                            log.info("{}.out size={}", reclaimPoint, size);
                         }
-                        return new CompletableFuture<>();
                     }));
         }
     }
@@ -72,7 +87,7 @@ public class DecreaseCustomerAmountOperation {
     private CompletableFuture<String> processMessage(Map.Entry<String, DecreaseCustomerAmountRequest> entry) {
         try (var ignored = MDC.putCloseable(REDIS_MESSAGE_ID, entry.getKey())) {
             var request = entry.getValue();
-            return customerServiceClientAdapter.decreaseAmount(request)
+            return customerServiceClientAdapter.decreaseAmount(entry.getKey(), request)
                     .thenCompose(withMdc(updateCustomerBalanceResponse -> {
                         return redisClientAdapter.sendMessageToIncrementExecutorAmountStream(updateCustomerBalanceResponse, entry)
                                 .exceptionallyCompose(withMdc(nextStepThrowable -> {
@@ -109,6 +124,24 @@ public class DecreaseCustomerAmountOperation {
                     } else {
                         log.info("{}.rollback.out", processMessagePoint);
                     }
+                }))
+                .exceptionallyCompose(withMdc(rollbackThrowable -> {
+                    return deadLetter(entry, rollbackThrowable);
+                }));
+    }
+
+    /**
+     * сообщение, обработку которого не удалось ни повторить, ни откатить, сохраняется в стриме недоставленных сообщений.
+     * если не удалось и это, сообщение остаётся неподтверждённым и будет перехвачено повторно
+     */
+    private CompletionStage<String> deadLetter(Map.Entry<String, DecreaseCustomerAmountRequest> entry, Throwable throwable) {
+        return redisClientAdapter.sendDecreaseCustomerAmountRequestToDeadLetterStream(entry, throwable)
+                .whenComplete(withMdc((ignored, deadLetterThrowable) -> {
+                    if (deadLetterThrowable != null) {
+                        logError(log, processMessagePoint + ".deadLetter", deadLetterThrowable);
+                    } else {
+                        log.info("{}.deadLetter.out", processMessagePoint);
+                    }
                 }));
     }
 
@@ -31,6 +31,7 @@ public class DecreaseExecutorAmountOperation {
     private final RedisClientAdapter redisClientAdapter;
     private final ExecutorServiceClientAdapter executorServiceClientAdapter;
     private final String processPoint = "DecreaseExecutorAmountOperation.process";
+    private final String reclaimPoint = "DecreaseExecutorAmountOperation.reclaim";
     private final String processMessagePoint = "DecreaseExecutorAmountOperation.processMessage";
 
     @Inject
@@ -39,35 +40,49 @@ public class DecreaseExecutorAmountOperation {
         this.executorServiceClientAdapter = executorServiceClientAdapter;
     }
 
-    public CompletionStage<Void> process() {
+    public CompletionStage<Integer> process() {
+        return process(0);
+    }
+
+    /**
+     * @param consumerIndex номер потребителя стрима внутри экземпляра приложения
+     */
+    public CompletionStage<Integer> process(int consumerIndex) {
         try (var ignored1 = MDC.putCloseable(TRACE_ID, UuidUtils.generateDefaultUuid());
              var ignored2 = MDC.putCloseable(SPAN_ID, UuidUtils.generateDefaultUuid());
              var ignored3 = MDC.putCloseable(OPERATION_NAME, DECREASE_EXECUTOR_AMOUNT.name())) {
-            return redisClientAdapter.listenDecreaseExecutorAmountRequestMessages()
-                    .whenComplete(withMdc((unused, throwable) -> {
+            return redisClientAdapter.listenDecreaseExecutorAmountRequestMessages(consumerIndex, this::processMessage)
+                    .whenComplete(withMdc((size, throwable) -> {
                         if (throwable != null) {
                             logError(log, processPoint, throwable);
+                        } else if (size > 0) {
+                            log.info("{}.out size={}", processPoint, size);
                         }
-                    }))
-                    .thenCompose(withMdc(requests -> {
-                        if (!requests.isEmpty()) {
-                            log.info("{}.in size={}", processPoint, requests.size());
-                            var futures = requests.stream()
-                                    .map(this::processMessage)
-                                    .toArray(value -> new CompletableFuture<?>[requests.size()]);
-                            return CompletableFuture.allOf(futures)
-                                    .whenComplete(withMdc((v, t) -> {
-                                        log.info("{}.out", processPoint);
-                                    }));
+                    }));
+        }
+    }
+
+    /**
+     * обработка сообщений, перехваченных у потребителей, которые не подтвердили их в течение redis.reclaim.min-idle-millis
+     */
+    public CompletionStage<Integer> reclaim() {
+        try (var ignored1 = MDC.putCloseable(TRACE_ID, UuidUtils.generateDefaultUuid());
+             var ignored2 = MDC.putCloseable(SPAN_ID, UuidUtils.generateDefaultUuid());
+             var ignored3 = MDC.putCloseable(OPERATION_NAME, DECREASE_EXECUTOR_AMOUNT.name())) {
+            return redisClientAdapter.reclaimDecreaseExecutorAmountRequestMessages(this::processMessage)
+                    .whenComplete(withMdc((size, throwable) -> {
+                        if (throwable != null) {
+                            logError(log, reclaimPoint, throwable);
+                        } else if (size > 0) {
+                            log.info("{}.out size={}", reclaimPoint, size);
                         }
-                        return new CompletableFuture<>();
                     }));
         }
     }
 
     private CompletableFuture<String> processMessage(Map.Entry<String, DecreaseExecutorAmountRequest> entry) {
         try (var ignored = MDC.putCloseable(REDIS_MESSAGE_ID, entry.getKey())) {
-            return executorServiceClientAdapter.decreaseAmount(entry.getValue())
+            return executorServiceClientAdapter.decreaseAmount(entry.getKey(), entry.getValue())
                     .thenCompose(withMdc(updateCustomerBalanceResponse -> {
                         return redisClientAdapter.sendMessageToIncrementCustomerAmountStreamInRollback(entry)
                                 .exceptionallyCompose(withMdc(nextStepThrowable -> {
@@ -90,6 +105,25 @@ public class DecreaseExecutorAmountOperation {
                     } else {
                         log.info("{}.retry.out", processMessagePoint);
                     }
+                }))
+                .exceptionallyCompose(withMdc(retryThrowable -> {
+                    return deadLetter(entry, retryThrowable);
+                }));
+    }
+
+    /**
+     * сообщение, обработку которого не удалось ни повторить, ни откатить, сохраняется в стриме недоставленных сообщений.
+     * если не удалось и это, сообщение остаётся неподтверждённым и будет перехвачено повторно
+     */
+    private CompletionStage<String> deadLetter(Map.Entry<String, DecreaseExecutorAmountRequest> entry, Throwable throwable) {
+        return redisClientAdapter.sendDecreaseExecutorAmountRequestToDeadLetterStream(entry, throwable)
+                .whenComplete(withMdc((ignored, deadLetterThrowable) -> {
+                    if (deadLetterThrowable != null) {
+                        logError(log, processMessagePoint + ".deadLetter", deadLetterThrowable);
+                    } else {
+                        log.info("{}.deadLetter.out", processMessagePoint);
+                    }
                 }));
     }
+
 }
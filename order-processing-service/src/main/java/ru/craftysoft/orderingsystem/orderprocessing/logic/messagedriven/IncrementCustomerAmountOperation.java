@@ -31,6 +31,7 @@ public class IncrementCustomerAmountOperation {
     private final RedisClientAdapter redisClientAdapter;
     private final CustomerServiceClientAdapter customerServiceClientAdapter;
     private final String processPoint = "IncrementCustomerAmountOperation.process";
+    private final String reclaimPoint = "IncrementCustomerAmountOperation.reclaim";
     private final String processMessagePoint = "IncrementCustomerAmountOperation.processMessage";
 
     @Inject
@@ -39,35 +40,49 @@ public class IncrementCustomerAmountOperation {
         this.customerServiceClientAdapter = customerServiceClientAdapter;
     }
 
-    public CompletionStage<Void> process() {
+    public CompletionStage<Integer> process() {
+        return process(0);
+    }
+
+    /**
+     * @param consumerIndex номер потребителя стрима внутри экземпляра приложения
+     */
+    public CompletionStage<Integer> process(int consumerIndex) {
         try (var ignored1 = MDC.putCloseable(TRACE_ID, UuidUtils.generateDefaultUuid());
              var ignored2 = MDC.putCloseable(SPAN_ID, UuidUtils.generateDefaultUuid());
              var ignored3 = MDC.putCloseable(OPERATION_NAME, INCREMENT_CUSTOMER_AMOUNT.name())) {
-            return redisClientAdapter.listenIncrementCustomerAmountRequestMessages()
-                    .whenComplete(withMdc((unused, throwable) -> {
+            return redisClientAdapter.listenIncrementCustomerAmountRequestMessages(consumerIndex, this::processMessage)
+                    .whenComplete(withMdc((size, throwable) -> {
                         if (throwable != null) {
                             logError(log, processPoint, throwable);
+                        } else if (size > 0) {
+                            log.info("{}.out size={}", processPoint, size);
                         }
-                    }))
-                    .thenCompose(withMdc(requests -> {
-                        if (!requests.isEmpty()) {
-                            log.info("{}.in size={}", processPoint, requests.size());
-                            var futures = requests.stream()
-                                    .map(this::processMessage)
-                                    .toArray(value -> new CompletableFuture<?>[requests.size()]);
-                            return CompletableFuture.allOf(futures)
-                                    .whenComplete(withMdc((v, t) -> {
-                                        log.info("{}.out", processPoint);
-                                    }));
+                    }));
+        }
+    }
+
+    /**
+     * обработка сообщений, перехваченных у потребителей, которые не подтвердили их в течение redis.reclaim.min-idle-millis
+     */
+    public CompletionStage<Integer> reclaim() {
+        try (var ignored1 = MDC.putCloseable(TRACE_ID, UuidUtils.generateDefaultUuid());
+             var ignored2 = MDC.putCloseable(SPAN_ID, UuidUtils.generateDefaultUuid());
+             var ignored3 = MDC.putCloseable(OPERATION_NAME, INCREMENT_CUSTOMER_AMOUNT.name())) {
+            return redisClientAdapter.reclaimIncrementCustomerAmountRequestMessages(this::processMessage)
+                    .whenComplete(withMdc((size, throwable) -> {
+                        if (throwable != null) {
+                            logError(log, reclaimPoint, throwable);
+                        } else if (size > 0) {
+                            log.info("{}.out size={}", reclaimPoint, size);
                         }
-                        return new CompletableFuture<>();
                     }));
         }
     }
 
     private CompletableFuture<String> processMessage(Map.Entry<String, IncrementCustomerAmountRequest> entry) {
         try (var ignored = MDC.putCloseable(REDIS_MESSAGE_ID, entry.getKey())) {
-            return customerServiceClientAdapter.incrementAmount(entry.getValue())
+            return customerServiceClientAdapter.incrementAmount(entry.getKey(), entry.getValue())
                     .thenCompose(withMdc(updateCustomerBalanceResponse -> {
                         return redisClientAdapter.sendMessageToReserveOrderStreamInRollback(entry)
                                 .whenComplete(withMdc((unused, nextStepThrowable) -> {
@@ -92,6 +107,25 @@ public class IncrementCustomerAmountOperation {
                     } else {
                         log.info("{}.retry.out", processMessagePoint);
                     }
+                }))
+                .exceptionallyCompose(withMdc(retryThrowable -> {
+                    return deadLetter(entry, retryThrowable);
+                }));
+    }
+
+    /**
+     * сообщение, обработку которого не удалось ни повторить, ни откатить, сохраняется в стриме недоставленных сообщений.
+     * если не удалось и это, сообщение остаётся неподтверждённым и будет перехвачено повторно
+     */
+    private CompletionStage<String> deadLetter(Map.Entry<String, IncrementCustomerAmountRequest> entry, Throwable throwable) {
+        return redisClientAdapter.sendIncrementCustomerAmountRequestToDeadLetterStream(entry, throwable)
+                .whenComplete(withMdc((ignored, deadLetterThrowable) -> {
+                    if (deadLetterThrowable != null) {
+                        logError(log, processMessagePoint + ".deadLetter", deadLetterThrowable);
+                    } else {
+                        log.info("{}.deadLetter.out", processMessagePoint);
+                    }
                 }));
     }
+
 }
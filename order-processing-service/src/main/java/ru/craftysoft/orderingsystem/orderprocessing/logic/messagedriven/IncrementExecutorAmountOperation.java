@@ -34,6 +34,7 @@ public class IncrementExecutorAmountOperation {
     private final RedisClientAdapter redisClientAdapter;
     private final ExecutorServiceClientAdapter executorServiceClientAdapter;
     private final String processPoint = "IncrementExecutorAmountOperation.process";
+    private final String reclaimPoint = "IncrementExecutorAmountOperation.reclaim";
     private final String processMessagePoint = "IncrementExecutorAmountOperation.processMessage";
 
     @Inject
@@ -42,35 +43,49 @@ public class IncrementExecutorAmountOperation {
         this.executorServiceClientAdapter = executorServiceClientAdapter;
     }
 
-    public void process() {
+    public CompletionStage<Integer> process() {
+        return process(0);
+    }
+
+    /**
+     * @param consumerIndex номер потребителя стрима внутри экземпляра приложения
+     */
+    public CompletionStage<Integer> process(int consumerIndex) {
         try (var ignored1 = MDC.putCloseable(TRACE_ID, UuidUtils.generateDefaultUuid());
              var ignored2 = MDC.putCloseable(SPAN_ID, UuidUtils.generateDefaultUuid());
              var ignored3 = MDC.putCloseable(OPERATION_NAME, INCREMENT_EXECUTOR_AMOUNT.name())) {
-            redisClientAdapter.listenIncrementExecutorAmountRequestMessages()
-                    .whenComplete(withMdc((unused, throwable) -> {
+            return redisClientAdapter.listenIncrementExecutorAmountRequestMessages(consumerIndex, this::processMessage)
+                    .whenComplete(withMdc((size, throwable) -> {
                         if (throwable != null) {
                             logError(log, processPoint, throwable);
+                        } else if (size > 0) {
+                            log.info("{}.out size={}", processPoint, size);
                         }
-                    }))
-                    .thenCompose(withMdc(requests -> {
-                        if (!requests.isEmpty()) {
-                            log.info("{}.in size={}", processPoint, requests.size());
-                            var futures = requests.stream()
-                                    .map(this::processMessage)
-                                    .toArray(value -> new CompletableFuture<?>[requests.size()]);
-                            return CompletableFuture.allOf(futures)
-                                    .whenComplete(withMdc((v, t) -> {
-                                        log.info("{}.out", processPoint);
-                                    }));
+                    }));
+        }
+    }
+
+    /**
+     * обработка сообщений, перехваченных у потребителей, которые не подтвердили их в течение redis.reclaim.min-idle-millis
+     */
+    public CompletionStage<Integer> reclaim() {
+        try (var ignored1 = MDC.putCloseable(TRACE_ID, UuidUtils.generateDefaultUuid());
+             var ignored2 = MDC.putCloseable(SPAN_ID, UuidUtils.generateDefaultUuid());
+             var ignored3 = MDC.putCloseable(OPERATION_NAME, INCREMENT_EXECUTOR_AMOUNT.name())) {
+            return redisClientAdapter.reclaimIncrementExecutorAmountRequestMessages(this::processMessage)
+                    .whenComplete(withMdc((size, throwable) -> {
+                        if (throwable != null) {
+                            logError(log, reclaimPoint, throwable);
+                        } else if (size > 0) {
+                            log.info("{}.out size={}", reclaimPoint, size);
                         }
-                        return new CompletableFuture<>();
                     }));
         }
     }
 
     private CompletableFuture<String> processMessage(Map.Entry<String, IncrementExecutorAmountRequest> entry) {
         try (var ignored = MDC.putCloseable(REDIS_MESSAGE_ID, entry.getKey())) {
-            return executorServiceClientAdapter.incrementAmount(entry.getValue())
+            return executorServiceClientAdapter.incrementAmount(entry.getKey(), entry.getValue())
                     .thenCompose(withMdc(updateExecutorBalanceResponse -> {
                         return redisClientAdapter.sendMessageToCompleteOrderStream(entry)
                                 .exceptionallyCompose(withMdc(nextStepThrowable -> {
@@ -107,6 +122,25 @@ public class IncrementExecutorAmountOperation {
                     } else {
                         log.info("{}.rollback.out", processMessagePoint);
                     }
+                }))
+                .exceptionallyCompose(withMdc(rollbackThrowable -> {
+                    return deadLetter(entry, rollbackThrowable);
+                }));
+    }
+
+    /**
+     * сообщение, обработку которого не удалось ни повторить, ни откатить, сохраняется в стриме недоставленных сообщений.
+     * если не удалось и это, сообщение остаётся неподтверждённым и будет перехвачено повторно
+     */
+    private CompletionStage<String> deadLetter(Map.Entry<String, IncrementExecutorAmountRequest> entry, Throwable throwable) {
+        return redisClientAdapter.sendIncrementExecutorAmountRequestToDeadLetterStream(entry, throwable)
+                .whenComplete(withMdc((ignored, deadLetterThrowable) -> {
+                    if (deadLetterThrowable != null) {
+                        logError(log, processMessagePoint + ".deadLetter", deadLetterThrowable);
+                    } else {
+                        log.info("{}.deadLetter.out", processMessagePoint);
+                    }
                 }));
     }
+
 }
@@ -20,7 +20,7 @@ import static ru.craftysoft.orderingsystem.util.mdc.MdcKey.*;
 import static ru.craftysoft.orderingsystem.util.mdc.MdcUtils.withMdc;
 
 /**
- * заказ снова резервируется. последняя операция при откате
+ * заказ снова резервируется. последняя операция при откате, после неё срок саги снимается
  */
 @Singleton
 @Slf4j
@@ -29,6 +29,7 @@ public class ReserveOrderOperation {
     private final RedisClientAdapter redisClientAdapter;
     private final OrderDaoAdapter orderDaoAdapter;
     private final String processPoint = "ReserveOrderOperation.process";
+    private final String reclaimPoint = "ReserveOrderOperation.reclaim";
     private final String processMessagePoint = "ReserveOrderOperation.processMessage";
 
     @Inject
@@ -37,28 +38,42 @@ public class ReserveOrderOperation {
         this.orderDaoAdapter = orderDaoAdapter;
     }
 
-    public CompletionStage<Void> process() {
+    public CompletionStage<Integer> process() {
+        return process(0);
+    }
+
+    /**
+     * @param consumerIndex номер потребителя стрима внутри экземпляра приложения
+     */
+    public CompletionStage<Integer> process(int consumerIndex) {
         try (var ignored1 = MDC.putCloseable(TRACE_ID, UuidUtils.generateDefaultUuid());
              var ignored2 = MDC.putCloseable(SPAN_ID, UuidUtils.generateDefaultUuid());
              var ignored3 = MDC.putCloseable(OPERATION_NAME, RESERVE_ORDER.name())) {
-            return redisClientAdapter.listenReserveOrderRequestMessages()
-                    .whenComplete(withMdc((unused, throwable) -> {
+            return redisClientAdapter.listenReserveOrderRequestMessages(consumerIndex, this::processMessage)
+                    .whenComplete(withMdc((size, throwable) -> {
                         if (throwable != null) {
                             logError(log, processPoint, throwable);
+                        } else if (size > 0) {
+                            log.info("{}.out size={}", processPoint, size);
                         }
-                    }))
-                    .thenCompose(withMdc(requests -> {
-                        if (!requests.isEmpty()) {
-                            log.info("{}.in size={}", processPoint, requests.size());
-                            var futures = requests.stream()
-                                    .map(this::processMessage)
-                                    .toArray(value -> new CompletableFuture<?>[requests.size()]);
-                            return CompletableFuture.allOf(futures)
-                                    .whenComplete(withMdc((v, t) -> {
-                                        log.info("{}.out", processPoint);
-                                    }));
+                    }));
+        }
+    }
+
+    /**
+     * обработка сообщений, перехваченных у потребителей, которые не подтвердили их в течение redis.reclaim.min-idle-millis
+     */
+    public CompletionStage<Integer> reclaim() {
+        try (var ignored1 = MDC.putCloseable(TRACE_ID, UuidUtils.generateDefaultUuid());
+             var ignored2 = MDC.putCloseable(SPAN_ID, UuidUtils.generateDefaultUuid());
+             var ignored3 = MDC.putCloseable(OPERATION_NAME, RESERVE_ORDER.name())) {
+            return redisClientAdapter.reclaimReserveOrderRequestMessages(this::processMessage)
+                    .whenComplete(withMdc((size, throwable) -> {
+                        if (throwable != null) {
+                            logError(log, reclaimPoint, throwable);
+                        } else if (size > 0) {
+                            log.info("{}.out size={}", reclaimPoint, size);
                         }
-                        return new CompletableFuture<>();
                     }));
         }
     }
@@ -67,7 +82,10 @@ public class ReserveOrderOperation {
         try {
             MDC.put(REDIS_MESSAGE_ID, entry.getKey());
             return orderDaoAdapter.reserveOrder(entry.getValue())
-                    .thenApply(v -> "nop")
+                    .thenApply(withMdc(v -> {
+                        redisClientAdapter.completeSaga(entry.getKey());
+                        return "nop";
+                    }))
                     .exceptionallyCompose(withMdc(throwable -> {
                         return redisClientAdapter.retryReserveOrderRequestMessage(entry, throwable)
                                 .whenComplete(withMdc((ignored, retryThrowable) -> {
@@ -76,6 +94,9 @@ public class ReserveOrderOperation {
                                     } else {
                                         log.info("{}.retry.out", processMessagePoint);
                                     }
+                                }))
+                                .exceptionallyCompose(withMdc(retryThrowable -> {
+                                    return deadLetter(entry, retryThrowable);
                                 }));
                     }));
         } finally {
@@ -83,4 +104,19 @@ public class ReserveOrderOperation {
         }
     }
 
+    /**
+     * сообщение, обработку которого не удалось ни повторить, ни откатить, сохраняется в стриме недоставленных сообщений.
+     * если не удалось и это, сообщение остаётся неподтверждённым и будет перехвачено повторно
+     */
+    private CompletionStage<String> deadLetter(Map.Entry<String, ReserveOrderRequest> entry, Throwable throwable) {
+        return redisClientAdapter.sendReserveOrderRequestToDeadLetterStream(entry, throwable)
+                .whenComplete(withMdc((ignored, deadLetterThrowable) -> {
+                    if (deadLetterThrowable != null) {
+                        logError(log, processMessagePoint + ".deadLetter", deadLetterThrowable);
+                    } else {
+                        log.info("{}.deadLetter.out", processMessagePoint);
+                    }
+                }));
+    }
+
 }
@@ -4,9 +4,11 @@ import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 import dagger.Module;
 import dagger.Provides;
+import org.postgresql.ds.PGSimpleDataSource;
 import ru.craftysoft.orderingsystem.util.db.DbHelper;
 import ru.craftysoft.orderingsystem.util.properties.PropertyResolver;
 
+import javax.inject.Named;
 import javax.inject.Singleton;
 import javax.sql.DataSource;
 
@@ -24,6 +26,20 @@ public class DbModule {
         return new HikariDataSource(config);
     }
 
+    /**
+     * источник соединений вне пула для подписки на уведомления БД, т.к. соединение с LISTEN занято постоянно
+     */
+    @Provides
+    @Singleton
+    @Named("dbNotificationDataSource")
+    static DataSource dbNotificationDataSource(PropertyResolver propertyResolver) {
+        var dataSource = new PGSimpleDataSource();
+        dataSource.setURL(propertyResolver.getStringProperty("db.url"));
+        dataSource.setUser(propertyResolver.getStringProperty("db.username"));
+        dataSource.setPassword(propertyResolver.getStringProperty("db.password"));
+        return dataSource;
+    }
+
     @Provides
     @Singleton
     static DbHelper dbHelper(DataSource dataSource) {
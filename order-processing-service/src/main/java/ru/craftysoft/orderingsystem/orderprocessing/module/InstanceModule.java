@@ -0,0 +1,43 @@
+package ru.craftysoft.orderingsystem.orderprocessing.module;
+
+import dagger.Module;
+import dagger.Provides;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import static java.util.Optional.ofNullable;
+
+@Module
+@Slf4j
+public class InstanceModule {
+
+    /**
+     * идентификатор экземпляра приложения: имя хоста (в кубере совпадает с именем пода) и pid процесса.
+     * используется для формирования имён потребителей Redis, поэтому должен быть уникальным среди запущенных экземпляров.
+     */
+    @Provides
+    @Singleton
+    @Named("instanceId")
+    static String instanceId() {
+        var host = ofNullable(System.getenv("HOSTNAME"))
+                .filter(hostname -> !hostname.isBlank())
+                .orElseGet(InstanceModule::resolveHostName);
+        var instanceId = host + "-" + ProcessHandle.current().pid();
+        log.info("InstanceModule.instanceId {}", instanceId);
+        return instanceId;
+    }
+
+    private static String resolveHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            log.warn("InstanceModule.resolveHostName.thrown {}", e.getMessage());
+            return "unknown";
+        }
+    }
+
+}
@@ -0,0 +1,38 @@
+package ru.craftysoft.orderingsystem.orderprocessing.module;
+
+import dagger.Module;
+import dagger.Provides;
+import lombok.extern.slf4j.Slf4j;
+import ru.craftysoft.orderingsystem.orderprocessing.service.redis.RedisMessageTransport;
+import ru.craftysoft.orderingsystem.orderprocessing.service.transport.InMemoryMessageTransport;
+import ru.craftysoft.orderingsystem.orderprocessing.service.transport.MessageTransport;
+import ru.craftysoft.orderingsystem.orderprocessing.service.transport.PgMessageTransport;
+import ru.craftysoft.orderingsystem.util.properties.PropertyResolver;
+
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+@Module
+@Slf4j
+public class TransportModule {
+
+    /**
+     * транспорт сообщений саги, выбирается в transport.type: redis, postgres или memory
+     */
+    @Provides
+    @Singleton
+    static MessageTransport messageTransport(PropertyResolver propertyResolver,
+                                             Provider<RedisMessageTransport> redisMessageTransport,
+                                             Provider<PgMessageTransport> pgMessageTransport,
+                                             Provider<InMemoryMessageTransport> inMemoryMessageTransport) {
+        var type = propertyResolver.getStringProperty("transport.type");
+        log.info("TransportModule.messageTransport type={}", type);
+        return switch (type) {
+            case "redis" -> redisMessageTransport.get();
+            case "postgres" -> pgMessageTransport.get();
+            case "memory" -> inMemoryMessageTransport.get();
+            default -> throw new IllegalArgumentException("Неизвестный тип транспорта transport.type=" + type);
+        };
+    }
+
+}
@@ -0,0 +1,122 @@
+package ru.craftysoft.orderingsystem.orderprocessing.service.dao;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.craftysoft.orderingsystem.orderprocessing.dto.QueuedMessage;
+import ru.craftysoft.orderingsystem.util.db.DbHelper;
+import ru.craftysoft.orderingsystem.util.db.DbLoggerHelper;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static ru.craftysoft.orderingsystem.orderprocessing.error.exception.InvocationExceptionCode.DB;
+import static ru.craftysoft.orderingsystem.orderprocessing.error.operation.ModuleOperationCode.resolve;
+import static ru.craftysoft.orderingsystem.util.error.exception.ExceptionFactory.mapSqlException;
+
+/**
+ * очередь сообщений саги в таблице orders.message_queue.
+ * выданное потребителю сообщение арендуется до locked_until и удаляется после подтверждения. сообщение,
+ * аренда которого истекла без подтверждения, выдаётся повторно.
+ */
+@Singleton
+@Slf4j
+public class MessageQueueDao {
+
+    private final DbHelper dbHelper;
+
+    @Inject
+    public MessageQueueDao(DbHelper dbHelper) {
+        this.dbHelper = dbHelper;
+    }
+
+    /**
+     * @param delaysMillis задержка выдачи каждого сообщения относительно текущего времени БД
+     * @return id сообщений в порядке следования
+     */
+    public List<Long> enqueue(List<String> streams, List<byte[]> envelopes, long[] delaysMillis) {
+        var sql = """
+                INSERT INTO orders.message_queue (stream, envelope, visible_at)
+                VALUES %s
+                RETURNING id""".formatted(String.join(", ", Collections.nCopies(streams.size(), "(?, ?, now() + ? * INTERVAL '1 millisecond')")));
+        var parameters = new ArrayList<>(streams.size() * 3);
+        for (int i = 0; i < streams.size(); i++) {
+            parameters.add(streams.get(i));
+            parameters.add(envelopes.get(i));
+            parameters.add(delaysMillis[i]);
+        }
+        return DbLoggerHelper.executeWithLogging(
+                log, "MessageQueueDao.enqueue", () -> sql, () -> List.of(streams, Arrays.toString(delaysMillis)),
+                () -> {
+                    try {
+                        var ids = dbHelper.execute(sql, resultSet -> resultSet.getLong("id"), parameters.toArray());
+                        // RETURNING возвращает строки в порядке VALUES, id выдаются последовательностью по возрастанию
+                        Collections.sort(ids);
+                        return ids;
+                    } catch (Exception e) {
+                        throw mapSqlException(e, resolve(), DB);
+                    }
+                }
+        );
+    }
+
+    /**
+     * выдача не более limit сообщений стримов, время выдачи которых наступило и которые не арендованы.
+     * сообщения выбираются с FOR UPDATE SKIP LOCKED, поэтому потребители, читающие одновременно, получают
+     * непересекающиеся пачки
+     *
+     * @return сообщения в порядке отправки
+     */
+    public List<QueuedMessage> dequeue(String[] streams, String consumer, long leaseMillis, int limit) {
+        var sql = """
+                WITH next AS (SELECT id
+                              FROM orders.message_queue
+                              WHERE stream = ANY (?)
+                                AND visible_at <= now()
+                                AND (locked_until IS NULL OR locked_until < now())
+                              ORDER BY id
+                              LIMIT ? FOR UPDATE SKIP LOCKED)
+                UPDATE orders.message_queue q
+                SET locked_by    = ?,
+                    locked_until = now() + ? * INTERVAL '1 millisecond'
+                FROM next
+                WHERE q.id = next.id
+                RETURNING q.id, q.stream, q.envelope""";
+        return DbLoggerHelper.executeWithLogging(
+                log, "MessageQueueDao.dequeue", () -> sql, () -> List.of(Arrays.toString(streams), limit, consumer, leaseMillis),
+                () -> {
+                    try {
+                        var messages = dbHelper.execute(sql, resultSet -> new QueuedMessage(
+                                resultSet.getLong("id"),
+                                resultSet.getString("stream"),
+                                resultSet.getBytes("envelope")
+                        ), streams, limit, consumer, leaseMillis);
+                        messages.sort(Comparator.comparingLong(QueuedMessage::id));
+                        return messages;
+                    } catch (Exception e) {
+                        throw mapSqlException(e, resolve(), DB);
+                    }
+                }
+        );
+    }
+
+    public int delete(long[] ids) {
+        var sql = """
+                DELETE
+                FROM orders.message_queue
+                WHERE id = ANY (?)""";
+        return DbLoggerHelper.executeWithLogging(
+                log, "MessageQueueDao.delete", () -> sql, () -> List.of(Arrays.toString(ids)),
+                () -> {
+                    try {
+                        return dbHelper.update(sql, (Object) ids);
+                    } catch (Exception e) {
+                        throw mapSqlException(e, resolve(), DB);
+                    }
+                }
+        );
+    }
+}
@@ -8,7 +8,10 @@ import ru.craftysoft.orderingsystem.util.db.DbLoggerHelper;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import static ru.craftysoft.orderingsystem.orderprocessing.error.exception.InvocationExceptionCode.DB;
 import static ru.craftysoft.orderingsystem.orderprocessing.error.operation.ModuleOperationCode.resolve;
@@ -25,26 +28,38 @@ public class OrderDao {
         this.dbHelper = dbHelper;
     }
 
+    /**
+     * заказы захватываются с FOR UPDATE SKIP LOCKED, поэтому экземпляры, извлекающие заказы одновременно,
+     * получают непересекающиеся пачки и не ждут друг друга.
+     * смена статуса и запись в orders.outbox выполняются одним запросом, т.е. в одной транзакции
+     */
     public List<Order> processOrders(String oldStatus, String newStatus, int limit) {
         var sql = """
-                UPDATE orders.orders
-                SET status = ?::orders.order_status
-                WHERE id IN (SELECT id
-                             FROM orders.orders
-                             WHERE status = ?::orders.order_status
-                             ORDER BY id
-                             LIMIT ? OFFSET 0)
-                RETURNING id, price, customer_id, executor_id""";
+                WITH claimed AS (SELECT id
+                                 FROM orders.orders
+                                 WHERE status = ?::orders.order_status
+                                 ORDER BY id
+                                 LIMIT ? FOR UPDATE SKIP LOCKED),
+                     updated AS (UPDATE orders.orders o
+                                 SET status = ?::orders.order_status
+                                 FROM claimed
+                                 WHERE o.id = claimed.id
+                                 RETURNING o.id, o.price, o.customer_id, o.executor_id)
+                INSERT
+                INTO orders.outbox (order_id, price, customer_id, executor_id)
+                SELECT id, price, customer_id, executor_id
+                FROM updated
+                RETURNING order_id, price, customer_id, executor_id""";
         return DbLoggerHelper.executeWithLogging(
-                log, "OrderDao.processOrders", () -> sql, () -> List.of(newStatus, oldStatus, limit),
+                log, "OrderDao.processOrders", () -> sql, () -> List.of(oldStatus, limit, newStatus),
                 () -> {
                     try {
                         return dbHelper.execute(sql, resultSet -> new Order(
-                                resultSet.getLong("id"),
+                                resultSet.getLong("order_id"),
                                 resultSet.getBigDecimal("price"),
                                 resultSet.getLong("customer_id"),
                                 resultSet.getLong("executor_id")
-                        ), newStatus, oldStatus, limit);
+                        ), oldStatus, limit, newStatus);
                     } catch (Exception e) {
                         throw mapSqlException(e, resolve(), DB);
                     }
@@ -52,16 +67,67 @@ public class OrderDao {
         );
     }
 
-    public int updateOrderStatus(long id, String status) {
+    /**
+     * статус меняется, только если заказ находится в статусе oldStatus
+     *
+     * @return количество изменённых строк (1 или 0)
+     */
+    public int updateOrderStatus(long id, String oldStatus, String newStatus) {
         var sql = """
                 UPDATE orders.orders
                 SET status = ?::orders.order_status
-                WHERE id = ?""";
+                WHERE id = ? AND status = ?::orders.order_status""";
+        return DbLoggerHelper.executeWithLogging(
+                log, "OrderDao.updateOrderStatus", () -> sql, () -> List.of(newStatus, id, oldStatus),
+                () -> {
+                    try {
+                        return dbHelper.update(sql, newStatus, id, oldStatus);
+                    } catch (Exception e) {
+                        throw mapSqlException(e, resolve(), DB);
+                    }
+                }
+        );
+    }
+
+    /**
+     * завершение пачки заказов одним запросом, доступность активных заказов пересчитывается один раз на заказчика.
+     * балансы передаются строками, т.к. драйвер не передаёт BigDecimal[] как массив
+     *
+     * @return id завершённых заказов
+     */
+    public Set<Long> completeOrders(long[] ids, long[] customerIds, BigDecimal[] customerBalances) {
+        var sql = """
+                SELECT completed_order_id
+                FROM orders.complete_orders(?, ?, ?::NUMERIC[])""";
+        var balances = Arrays.stream(customerBalances).map(BigDecimal::toPlainString).toArray(String[]::new);
+        return DbLoggerHelper.executeWithLogging(
+                log, "OrderDao.completeOrders", () -> sql, () -> List.of(Arrays.toString(ids), Arrays.toString(customerIds), Arrays.toString(balances)),
+                () -> {
+                    try {
+                        return new HashSet<>(dbHelper.execute(sql, resultSet -> resultSet.getLong("completed_order_id"), ids, customerIds, balances));
+                    } catch (Exception e) {
+                        throw mapSqlException(e, resolve(), DB);
+                    }
+                }
+        );
+    }
+
+    /**
+     * проведение расчёта по пачке заказов одной транзакцией: списание с баланса заказчика, зачисление исполнителю
+     * и завершение заказа (см. orders.settle_orders). заказы, по которым расчёт не проведён, возвращаются
+     * в статус reserved
+     *
+     * @return id завершённых заказов
+     */
+    public Set<Long> settleOrders(long[] ids, BigDecimal executorFeePart) {
+        var sql = """
+                SELECT settled_order_id
+                FROM orders.settle_orders(?, ?)""";
         return DbLoggerHelper.executeWithLogging(
-                log, "OrderDao.updateOrderStatus", () -> sql, () -> List.of(status, id),
+                log, "OrderDao.settleOrders", () -> sql, () -> List.of(Arrays.toString(ids), executorFeePart),
                 () -> {
                     try {
-                        return dbHelper.update(sql, status, id);
+                        return new HashSet<>(dbHelper.execute(sql, resultSet -> resultSet.getLong("settled_order_id"), ids, executorFeePart));
                     } catch (Exception e) {
                         throw mapSqlException(e, resolve(), DB);
                     }
@@ -69,15 +135,19 @@ public class OrderDao {
         );
     }
 
-    public int completeOrder(long id, long customerId, BigDecimal customerBalance) {
+    /**
+     * @return доступны ли в БД приложения схемы заказчиков и исполнителей и функция orders.settle_orders
+     */
+    public boolean isSettlementAvailable() {
         var sql = """
-                SELECT complete_order
-                FROM orders.complete_order(?, ?, ?)""";
+                SELECT to_regclass('customers.customers') IS NOT NULL
+                           AND to_regclass('executors.executors') IS NOT NULL
+                           AND to_regprocedure('orders.settle_orders(bigint[], numeric)') IS NOT NULL AS available""";
         return DbLoggerHelper.executeWithLogging(
-                log, "OrderDao.completeOrder", () -> sql, () -> List.of(id, customerId, customerBalance),
+                log, "OrderDao.isSettlementAvailable", () -> sql, () -> List.of(),
                 () -> {
                     try {
-                        return dbHelper.executeOne(sql, resultSet -> resultSet.getInt("complete_order"), id, customerId, customerBalance);
+                        return Boolean.TRUE.equals(dbHelper.selectOne(sql, resultSet -> resultSet.getBoolean("available")));
                     } catch (Exception e) {
                         throw mapSqlException(e, resolve(), DB);
                     }
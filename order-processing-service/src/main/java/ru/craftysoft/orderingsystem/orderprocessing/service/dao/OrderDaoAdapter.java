@@ -1,73 +1,173 @@
 package ru.craftysoft.orderingsystem.orderprocessing.service.dao;
 
+import lombok.extern.slf4j.Slf4j;
 import ru.craftysoft.orderingsystem.orderprocessing.dto.Order;
+import ru.craftysoft.orderingsystem.orderprocessing.dto.OutboxEntry;
 import ru.craftysoft.orderingsystem.orderprocessing.proto.CompleteOrderRequest;
 import ru.craftysoft.orderingsystem.orderprocessing.proto.ReserveOrderRequest;
+import ru.craftysoft.orderingsystem.orderprocessing.service.stage.RequestBatcher;
+import ru.craftysoft.orderingsystem.orderprocessing.service.stage.StageRuntime;
 import ru.craftysoft.orderingsystem.util.properties.PropertyResolver;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
+import java.math.BigDecimal;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
+import java.util.function.Function;
 
 import static ru.craftysoft.orderingsystem.orderprocessing.error.exception.BusinessExceptionCode.ORDER_HAS_NOT_BEEN_COMPLETED;
-import static ru.craftysoft.orderingsystem.orderprocessing.error.exception.BusinessExceptionCode.ORDER_HAS_NOT_BEEN_RESERVED;
 import static ru.craftysoft.orderingsystem.orderprocessing.error.operation.ModuleOperationCode.resolve;
 import static ru.craftysoft.orderingsystem.util.error.exception.ExceptionFactory.newBusinessException;
 import static ru.craftysoft.orderingsystem.util.mdc.MdcUtils.withMdc;
 import static ru.craftysoft.orderingsystem.util.proto.ProtoUtils.moneyToBigDecimal;
 
 @Singleton
+@Slf4j
 public class OrderDaoAdapter {
 
+    public static final String COMPLETE_ORDER_BATCH_STAGE = "complete-order-batch";
+
     private final OrderDao dao;
     private final Executor dbExecutor;
     private final String statusReserved;
     private final String statusInProcessing;
-    private final int limit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final OutboxDao outboxDao;
+    private final int outboxLimit;
+    private final RequestBatcher<CompleteOrderRequest, Boolean> completeOrderBatcher;
+    private volatile int limit;
+    private volatile boolean lastBatchFull;
+    private volatile boolean lastOutboxBatchFull;
 
     @Inject
     public OrderDaoAdapter(OrderDao dao,
+                           OutboxDao outboxDao,
                            @Named("dbExecutor") Executor dbExecutor,
+                           StageRuntime stageRuntime,
                            PropertyResolver propertyResolver) {
         this.dao = dao;
+        this.outboxDao = outboxDao;
         this.dbExecutor = dbExecutor;
         this.statusReserved = propertyResolver.getStringProperty("db.query-parameter.orders.order-status.reserved");
         this.statusInProcessing = propertyResolver.getStringProperty("db.query-parameter.orders.order-status.in-processing");
-        this.limit = 10;
+        this.minLimit = propertyResolver.getIntProperty("db.extract.min-batch-size");
+        this.maxLimit = propertyResolver.getIntProperty("db.extract.max-batch-size");
+        this.limit = minLimit;
+        this.outboxLimit = propertyResolver.getIntProperty("db.outbox.batch-size");
+        this.completeOrderBatcher = new RequestBatcher<>(
+                COMPLETE_ORDER_BATCH_STAGE,
+                stageRuntime,
+                propertyResolver.getIntProperty("db.complete-order.max-batch-size"),
+                propertyResolver.getIntProperty("db.complete-order.linger-millis"),
+                this::completeOrders,
+                null
+        );
     }
 
+    /**
+     * размер пачки подстраивается под количество ожидающих заказов: после полной пачки удваивается
+     * до db.extract.max-batch-size, после пачки, заполненной меньше чем наполовину, уменьшается вдвое
+     * до db.extract.min-batch-size.
+     * извлечённые заказы записываются в orders.outbox и отправляются через {@link #relayOutbox}
+     */
     public List<Order> processOrders() {
-        return dao.processOrders(statusReserved, statusInProcessing, limit);
+        var currentLimit = limit;
+        var orders = dao.processOrders(statusReserved, statusInProcessing, currentLimit);
+        lastBatchFull = orders.size() >= currentLimit;
+        if (lastBatchFull) {
+            limit = Math.min(currentLimit * 2, maxLimit);
+        } else if (orders.size() < currentLimit / 2) {
+            limit = Math.max(currentLimit / 2, minLimit);
+        }
+        return orders;
     }
 
-    public CompletableFuture<Void> reserveOrder(Order order) {
-        return CompletableFuture.supplyAsync(withMdc(() -> dao.updateOrderStatus(order.id(), statusReserved)), dbExecutor)
-                .thenAccept(withMdc(count -> {
-                    if (count == 0) {
-                        throw newBusinessException(resolve(), ORDER_HAS_NOT_BEEN_RESERVED, "id='%s'".formatted(order.id()));
-                    }
-                }));
+    /**
+     * @return была ли последняя извлечённая пачка полной, т.е. остались ли, вероятно, ещё заказы
+     */
+    public boolean isLastBatchFull() {
+        return lastBatchFull;
+    }
+
+    /**
+     * отправка пачки записей orders.outbox размером db.outbox.batch-size, успешно отправленные записи удаляются
+     *
+     * @param sender отправка пачки, возвращает успешно отправленные записи
+     * @return количество удалённых записей
+     */
+    public int relayOutbox(Function<List<OutboxEntry>, List<OutboxEntry>> sender) {
+        var result = outboxDao.relay(outboxLimit, sender);
+        lastOutboxBatchFull = result.selected() >= outboxLimit && result.deleted() == result.selected();
+        return result.deleted();
+    }
 
+    /**
+     * @return была ли последняя пачка outbox полной и отправленной целиком, т.е. остались ли, вероятно, ещё записи
+     */
+    public boolean isLastOutboxBatchFull() {
+        return lastOutboxBatchFull;
     }
 
+    /**
+     * проведение расчёта по заказам в БД без саги (см. {@link OrderDao#settleOrders})
+     *
+     * @param executorFeePart доля суммы заказа, зачисляемая исполнителю
+     * @return id завершённых заказов
+     */
+    public Set<Long> settleOrders(List<Order> orders, BigDecimal executorFeePart) {
+        var ids = orders.stream().mapToLong(Order::id).toArray();
+        return dao.settleOrders(ids, executorFeePart);
+    }
+
+    public boolean isSettlementAvailable() {
+        return dao.isSettlementAvailable();
+    }
+
+    /**
+     * возврат в резерв выполняется только для заказа в статусе in_processing. компенсация может быть доставлена
+     * повторно, поэтому заказ в другом статусе считается уже возвращённым (или завершённым) и не изменяется
+     */
     public CompletableFuture<Void> reserveOrder(ReserveOrderRequest request) {
-        return CompletableFuture.supplyAsync(withMdc(() -> dao.updateOrderStatus(request.getOrderId(), statusReserved)), dbExecutor)
+        return CompletableFuture.supplyAsync(withMdc(() -> dao.updateOrderStatus(request.getOrderId(), statusInProcessing, statusReserved)), dbExecutor)
                 .thenAccept(withMdc(count -> {
                     if (count == 0) {
-                        throw newBusinessException(resolve(), ORDER_HAS_NOT_BEEN_RESERVED, "id='%s'".formatted(request.getOrderId()));
+                        log.info("OrderDaoAdapter.reserveOrder.out заказ id='{}' не в обработке, компенсация уже выполнена", request.getOrderId());
                     }
                 }));
     }
 
+    /**
+     * заказы, завершаемые одновременно, объединяются в пачки размером до db.complete-order.max-batch-size,
+     * пачка накапливается не дольше db.complete-order.linger-millis и завершается одним запросом
+     */
     public CompletableFuture<Void> completeOrder(CompleteOrderRequest request) {
-        return CompletableFuture.supplyAsync(withMdc(() -> dao.completeOrder(request.getOrderId(), request.getCustomerId(), moneyToBigDecimal(request.getCustomerBalance()))), dbExecutor)
-                .thenAccept(withMdc(count -> {
-                    if (count == 0) {
+        return completeOrderBatcher.submit(request)
+                .thenAccept(withMdc(isCompleted -> {
+                    if (!isCompleted) {
                         throw newBusinessException(resolve(), ORDER_HAS_NOT_BEEN_COMPLETED, "id='%s'".formatted(request.getOrderId()));
                     }
                 }));
     }
+
+    /**
+     * @return признак завершения по каждому заказу пачки
+     */
+    private CompletableFuture<List<Boolean>> completeOrders(List<CompleteOrderRequest> requests) {
+        var ids = requests.stream().mapToLong(CompleteOrderRequest::getOrderId).toArray();
+        var customerIds = requests.stream().mapToLong(CompleteOrderRequest::getCustomerId).toArray();
+        var customerBalances = requests.stream()
+                .map(request -> moneyToBigDecimal(request.getCustomerBalance()))
+                .toArray(BigDecimal[]::new);
+        return CompletableFuture.supplyAsync(withMdc(() -> {
+            var completedIds = dao.completeOrders(ids, customerIds, customerBalances);
+            return requests.stream()
+                    .map(request -> completedIds.contains(request.getOrderId()))
+                    .toList();
+        }), dbExecutor);
+    }
 }
@@ -0,0 +1,103 @@
+package ru.craftysoft.orderingsystem.orderprocessing.service.dao;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import ru.craftysoft.orderingsystem.util.properties.PropertyResolver;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * подписка на уведомления о резервировании заказов (LISTEN {@link #CHANNEL}).
+ * уведомления отправляют триггеры orders.orders_reserved_insert_notify и orders.orders_reserved_update_notify,
+ * заказы, возвращённые в резерв из in_processing, забираются только периодическим извлечением.
+ * соединение с подпиской ждёт уведомлений в отдельном потоке не дольше db.notification.poll-timeout-millis за раз.
+ * после разрыва соединения подписка восстанавливается через db.notification.error-delay-millis, а обработчик
+ * вызывается сразу после восстановления, т.к. уведомления за время разрыва потеряны.
+ */
+@Singleton
+@Slf4j
+public class OrderNotificationListener {
+
+    /**
+     * канал задан в функции orders.notify_order_reserved миграции ORDERS_6 и меняется только вместе с ней
+     */
+    public static final String CHANNEL = "orders_reserved";
+
+    private final DataSource dataSource;
+    private final int pollTimeoutMillis;
+    private final long errorDelayMillis;
+    private volatile boolean isRunning;
+    private Thread thread;
+
+    @Inject
+    public OrderNotificationListener(@Named("dbNotificationDataSource") DataSource dataSource, PropertyResolver propertyResolver) {
+        this.dataSource = dataSource;
+        this.pollTimeoutMillis = propertyResolver.getIntProperty("db.notification.poll-timeout-millis");
+        this.errorDelayMillis = propertyResolver.getIntProperty("db.notification.error-delay-millis");
+    }
+
+    /**
+     * @param onNotification вызывается один раз на каждую полученную пачку уведомлений
+     */
+    public synchronized void start(Runnable onNotification) {
+        if (isRunning) {
+            return;
+        }
+        isRunning = true;
+        thread = new ThreadFactoryBuilder()
+                .setNameFormat("orders-notification-thread-%d")
+                .setDaemon(true)
+                .build()
+                .newThread(() -> listen(onNotification));
+        thread.start();
+        log.info("OrderNotificationListener.start channel={}", CHANNEL);
+    }
+
+    public synchronized void stop() {
+        isRunning = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void listen(Runnable onNotification) {
+        while (isRunning) {
+            try (var connection = dataSource.getConnection()) {
+                subscribe(connection);
+                onNotification.run();
+                var pgConnection = connection.unwrap(PGConnection.class);
+                while (isRunning) {
+                    var notifications = pgConnection.getNotifications(pollTimeoutMillis);
+                    if (notifications != null && notifications.length > 0) {
+                        log.debug("OrderNotificationListener.listen size={}", notifications.length);
+                        onNotification.run();
+                    }
+                }
+            } catch (Exception e) {
+                if (!isRunning) {
+                    return;
+                }
+                log.error("OrderNotificationListener.listen.thrown {}", e.getMessage());
+                try {
+                    Thread.sleep(errorDelayMillis);
+                } catch (InterruptedException interruptedException) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void subscribe(Connection connection) throws SQLException {
+        connection.setAutoCommit(true);
+        try (var statement = connection.createStatement()) {
+            statement.execute("LISTEN " + CHANNEL);
+        }
+    }
+}
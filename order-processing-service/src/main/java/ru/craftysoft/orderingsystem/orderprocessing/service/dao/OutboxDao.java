@@ -0,0 +1,107 @@
+package ru.craftysoft.orderingsystem.orderprocessing.service.dao;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.craftysoft.orderingsystem.orderprocessing.dto.Order;
+import ru.craftysoft.orderingsystem.orderprocessing.dto.OutboxEntry;
+import ru.craftysoft.orderingsystem.util.db.DbHelper;
+import ru.craftysoft.orderingsystem.util.db.DbLoggerHelper;
+import ru.craftysoft.orderingsystem.util.error.exception.BaseException;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import static ru.craftysoft.orderingsystem.orderprocessing.error.exception.InvocationExceptionCode.DB;
+import static ru.craftysoft.orderingsystem.orderprocessing.error.operation.ModuleOperationCode.resolve;
+import static ru.craftysoft.orderingsystem.util.error.exception.ExceptionFactory.mapSqlException;
+
+@Singleton
+@Slf4j
+public class OutboxDao {
+
+    private final DbHelper dbHelper;
+
+    @Inject
+    public OutboxDao(DbHelper dbHelper) {
+        this.dbHelper = dbHelper;
+    }
+
+    /**
+     * пачка записей выбирается с FOR UPDATE SKIP LOCKED и удаляется в той же транзакции после отправки,
+     * поэтому каждую запись отправляет только один экземпляр. если экземпляр остановился до фиксации транзакции,
+     * блокировки снимаются вместе с соединением и записи отправляются повторно
+     *
+     * @param sender отправка пачки, возвращает успешно отправленные записи
+     * @return количество выбранных и количество удалённых записей
+     */
+    public RelayResult relay(int limit, Function<List<OutboxEntry>, List<OutboxEntry>> sender) {
+        try {
+            return dbHelper.executeInTransaction(connection -> {
+                var entries = selectEntries(connection, limit);
+                if (entries.isEmpty()) {
+                    return new RelayResult(0, 0);
+                }
+                var ids = sender.apply(entries).stream()
+                        .mapToLong(OutboxEntry::id)
+                        .toArray();
+                if (ids.length == 0) {
+                    return new RelayResult(entries.size(), 0);
+                }
+                return new RelayResult(entries.size(), deleteEntries(connection, ids));
+            });
+        } catch (BaseException e) {
+            throw e;
+        } catch (Exception e) {
+            throw mapSqlException(e, resolve(), DB);
+        }
+    }
+
+    private List<OutboxEntry> selectEntries(Connection connection, int limit) {
+        var sql = """
+                SELECT id, order_id, price, customer_id, executor_id
+                FROM orders.outbox
+                ORDER BY id
+                LIMIT ? FOR UPDATE SKIP LOCKED""";
+        return DbLoggerHelper.executeWithLogging(
+                log, "OutboxDao.selectEntries", () -> sql, () -> List.of(limit),
+                () -> {
+                    try {
+                        return dbHelper.select(connection, sql, resultSet -> new OutboxEntry(
+                                resultSet.getLong("id"),
+                                new Order(
+                                        resultSet.getLong("order_id"),
+                                        resultSet.getBigDecimal("price"),
+                                        resultSet.getLong("customer_id"),
+                                        resultSet.getLong("executor_id")
+                                )
+                        ), limit);
+                    } catch (Exception e) {
+                        throw mapSqlException(e, resolve(), DB);
+                    }
+                }
+        );
+    }
+
+    private int deleteEntries(Connection connection, long[] ids) {
+        var sql = """
+                DELETE
+                FROM orders.outbox
+                WHERE id = ANY (?)""";
+        return DbLoggerHelper.executeWithLogging(
+                log, "OutboxDao.deleteEntries", () -> sql, () -> List.of(Arrays.toString(ids)),
+                () -> {
+                    try {
+                        return dbHelper.update(connection, sql, (Object) ids);
+                    } catch (Exception e) {
+                        throw mapSqlException(e, resolve(), DB);
+                    }
+                }
+        );
+    }
+
+    public record RelayResult(int selected, int deleted) {
+    }
+}
@@ -8,6 +8,8 @@ import org.slf4j.MDC;
 import ru.craftysoft.orderingsystem.customer.proto.CustomerServiceGrpc;
 import ru.craftysoft.orderingsystem.customer.proto.UpdateCustomerBalanceRequest;
 import ru.craftysoft.orderingsystem.customer.proto.UpdateCustomerBalanceResponse;
+import ru.craftysoft.orderingsystem.customer.proto.UpdateCustomerBalancesRequest;
+import ru.craftysoft.orderingsystem.customer.proto.UpdateCustomerBalancesResponse;
 import ru.craftysoft.orderingsystem.util.error.exception.BaseException;
 import ru.craftysoft.orderingsystem.util.error.exception.InvocationException;
 import ru.craftysoft.orderingsystem.util.grpc.LoggingClientInterceptor;
@@ -42,6 +44,14 @@ public class CustomerServiceClient {
             .ifPresent(error -> baseException
                     .setOriginalCode(error.getCode())
                     .setOriginalMessage(error.getMessage()));
+    private final Metadata.Key<byte[]> updateCustomerBalancesResponseErrorKey = buildKey(UpdateCustomerBalancesResponse.class);
+    private final Function<StatusRuntimeException, UpdateCustomerBalancesResponse> balancesErrorResponseBuilder = statusRuntimeException -> extractErrorResponse(statusRuntimeException, updateCustomerBalancesResponseErrorKey, UpdateCustomerBalancesResponse::parseFrom);
+    private final BiConsumer<UpdateCustomerBalancesResponse, BaseException> balancesBaseExceptionFiller = (errorResponse, baseException) -> ofNullable(errorResponse)
+            .filter(UpdateCustomerBalancesResponse::hasError)
+            .map(UpdateCustomerBalancesResponse::getError)
+            .ifPresent(error -> baseException
+                    .setOriginalCode(error.getCode())
+                    .setOriginalMessage(error.getMessage()));
 
     @Inject
     public CustomerServiceClient(CustomerServiceGrpc.CustomerServiceStub customerServiceStub) {
@@ -82,4 +92,39 @@ public class CustomerServiceClient {
                 });
         return result;
     }
+
+    public CompletableFuture<UpdateCustomerBalancesResponse> updateBalances(UpdateCustomerBalancesRequest request) {
+        var mdc = MDC.getCopyOfContextMap();
+        var metadata = MetadataBuilder.build(mdc);
+        var result = new CompletableFuture<UpdateCustomerBalancesResponse>();
+        customerServiceStub
+                .withInterceptors(new LoggingClientInterceptor(metadata))
+                .updateBalances(request, new StreamObserver<>() {
+                    private UpdateCustomerBalancesResponse response;
+                    private final String point = "CustomerServiceClient.updateBalances";
+
+                    @Override
+                    public void onNext(UpdateCustomerBalancesResponse response) {
+                        this.response = response;
+                    }
+
+                    @Override
+                    public void onError(Throwable throwable) {
+                        var baseException = withMdc(mdc, () -> {
+                            log.error("{}.onError.thrown {}", point, throwable.getMessage());
+                            return mapException(
+                                    log, point, mdc, throwable,
+                                    balancesErrorResponseBuilder, invocationExceptionFactory, retryableExceptionFactory, balancesBaseExceptionFiller
+                            );
+                        }).get();
+                        result.completeExceptionally(baseException);
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        result.complete(this.response);
+                    }
+                });
+        return result;
+    }
 }
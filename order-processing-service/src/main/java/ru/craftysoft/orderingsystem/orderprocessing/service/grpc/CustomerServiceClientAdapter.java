@@ -1,36 +1,79 @@
 package ru.craftysoft.orderingsystem.orderprocessing.service.grpc;
 
+import com.google.type.Money;
+import ru.craftysoft.orderingsystem.customer.proto.CustomerBalanceUpdate;
+import ru.craftysoft.orderingsystem.customer.proto.CustomerBalanceUpdateResult;
 import ru.craftysoft.orderingsystem.customer.proto.UpdateCustomerBalanceResponse;
+import ru.craftysoft.orderingsystem.customer.proto.UpdateCustomerBalancesRequest;
+import ru.craftysoft.orderingsystem.customer.proto.UpdateCustomerBalancesResponse;
+import ru.craftysoft.orderingsystem.customer.proto.UpdateCustomerBalancesResponseData;
 import ru.craftysoft.orderingsystem.orderprocessing.builder.grpc.UpdateCustomerBalanceRequestBuilder;
+import ru.craftysoft.orderingsystem.orderprocessing.error.operation.ModuleOperationCode;
 import ru.craftysoft.orderingsystem.orderprocessing.proto.DecreaseCustomerAmountRequest;
 import ru.craftysoft.orderingsystem.orderprocessing.proto.IncrementCustomerAmountRequest;
+import ru.craftysoft.orderingsystem.orderprocessing.service.stage.RequestBatcher;
+import ru.craftysoft.orderingsystem.orderprocessing.service.stage.StageRuntime;
+import ru.craftysoft.orderingsystem.util.properties.PropertyResolver;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.math.BigDecimal;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
+import static ru.craftysoft.orderingsystem.customer.proto.UpdateCustomerBalanceResponseData.Result.BALANCE_HAS_BEEN_CHANGED;
 import static ru.craftysoft.orderingsystem.customer.proto.UpdateCustomerBalanceResponseData.Result.BALANCE_HAS_NOT_BEEN_CHANGED;
 import static ru.craftysoft.orderingsystem.orderprocessing.error.exception.BusinessExceptionCode.CUSTOMER_BALANCE_HAS_NOT_BEEN_DECREASED;
 import static ru.craftysoft.orderingsystem.orderprocessing.error.exception.BusinessExceptionCode.CUSTOMER_BALANCE_HAS_NOT_BEEN_INCREMENTED;
+import static ru.craftysoft.orderingsystem.orderprocessing.error.operation.ModuleOperationCode.DECREASE_CUSTOMER_AMOUNT;
+import static ru.craftysoft.orderingsystem.orderprocessing.error.operation.ModuleOperationCode.INCREMENT_CUSTOMER_AMOUNT;
 import static ru.craftysoft.orderingsystem.orderprocessing.error.operation.ModuleOperationCode.resolve;
 import static ru.craftysoft.orderingsystem.util.error.exception.ExceptionFactory.newBusinessException;
 import static ru.craftysoft.orderingsystem.util.mdc.MdcUtils.withMdc;
+import static ru.craftysoft.orderingsystem.util.proto.ProtoUtils.bigDecimalToMoney;
+import static ru.craftysoft.orderingsystem.util.proto.ProtoUtils.moneyToBigDecimal;
 
+/**
+ * изменения баланса заказчиков, выполняемые одновременно, объединяются в пачки и отправляются одним вызовом
+ * updateBalances (см. {@link RequestBatcher}), размер пачки и время её накопления задаются в
+ * grpc.customer-service.update-balances.max-batch-size и grpc.customer-service.update-balances.linger-millis.
+ * при grpc.customer-service.update-balances.netting-enabled=true изменения одного заказчика в пачке сворачиваются
+ * в одно изменение на итоговую сумму. сворачиваются только изменения шагов саги, откаты отправляются отдельно.
+ * каждое изменение отправляется с идентификатором операции, который зависит только от саги и её шага, поэтому
+ * повторно доставленное сообщение саги не изменяет баланс дважды. свёрнутое изменение передаёт идентификаторы
+ * всех входящих в него операций, и сервис не применяет его, если какая-то из них уже применена.
+ */
 @Singleton
 public class CustomerServiceClientAdapter {
 
-    private final CustomerServiceClient client;
+    public static final String UPDATE_BALANCES_STAGE = "update-customer-balances";
+
     private final UpdateCustomerBalanceRequestBuilder requestBuilder;
+    private final RequestBatcher<CustomerBalanceUpdate, CustomerBalanceUpdateResult> batcher;
 
     @Inject
-    public CustomerServiceClientAdapter(CustomerServiceClient client, UpdateCustomerBalanceRequestBuilder requestBuilder) {
-        this.client = client;
+    public CustomerServiceClientAdapter(CustomerServiceClient client,
+                                        UpdateCustomerBalanceRequestBuilder requestBuilder,
+                                        StageRuntime stageRuntime,
+                                        PropertyResolver propertyResolver) {
         this.requestBuilder = requestBuilder;
+        this.batcher = new RequestBatcher<>(
+                UPDATE_BALANCES_STAGE,
+                stageRuntime,
+                propertyResolver.getIntProperty("grpc.customer-service.update-balances.max-batch-size"),
+                propertyResolver.getIntProperty("grpc.customer-service.update-balances.linger-millis"),
+                updates -> client.updateBalances(UpdateCustomerBalancesRequest.newBuilder().addAllUpdates(updates).build())
+                        .thenApply(UpdateCustomerBalancesResponse::getUpdateCustomerBalancesResponseData)
+                        .thenApply(UpdateCustomerBalancesResponseData::getResultsList),
+                propertyResolver.getBooleanProperty("grpc.customer-service.update-balances.netting-enabled")
+                        ? new CustomerBalanceNetting()
+                        : null
+        );
     }
 
-    public CompletableFuture<UpdateCustomerBalanceResponse> decreaseAmount(DecreaseCustomerAmountRequest decreaseCustomerAmountRequest) {
+    public CompletableFuture<UpdateCustomerBalanceResponse> decreaseAmount(String messageId, DecreaseCustomerAmountRequest decreaseCustomerAmountRequest) {
         var request = requestBuilder.build(decreaseCustomerAmountRequest);
-        return client.updateCustomerBalance(request)
+        return updateBalance(request.getId(), bigDecimalToMoney(moneyToBigDecimal(request.getDecreaseAmount()).negate()), operationId(messageId, DECREASE_CUSTOMER_AMOUNT), true)
                 .thenApply(withMdc(updateCustomerBalanceResponse -> {
                     if (BALANCE_HAS_NOT_BEEN_CHANGED.equals(updateCustomerBalanceResponse.getUpdateCustomerBalanceResponseData().getResult())) {
                         throw newBusinessException(resolve(), CUSTOMER_BALANCE_HAS_NOT_BEEN_DECREASED);
@@ -39,9 +82,9 @@ public class CustomerServiceClientAdapter {
                 }));
     }
 
-    public CompletableFuture<UpdateCustomerBalanceResponse> incrementAmount(IncrementCustomerAmountRequest incrementCustomerAmountRequest) {
+    public CompletableFuture<UpdateCustomerBalanceResponse> incrementAmount(String messageId, IncrementCustomerAmountRequest incrementCustomerAmountRequest) {
         var request = requestBuilder.build(incrementCustomerAmountRequest);
-        return client.updateCustomerBalance(request)
+        return updateBalance(request.getId(), request.getIncrementAmount(), operationId(messageId, INCREMENT_CUSTOMER_AMOUNT), false)
                 .thenApply(withMdc(updateCustomerBalanceResponse -> {
                     if (BALANCE_HAS_NOT_BEEN_CHANGED.equals(updateCustomerBalanceResponse.getUpdateCustomerBalanceResponseData().getResult())) {
                         throw newBusinessException(resolve(), CUSTOMER_BALANCE_HAS_NOT_BEEN_INCREMENTED);
@@ -49,4 +92,52 @@ public class CustomerServiceClientAdapter {
                     return updateCustomerBalanceResponse;
                 }));
     }
+
+    private CompletableFuture<UpdateCustomerBalanceResponse> updateBalance(long id, Money delta, String operationId, boolean isNettable) {
+        var update = CustomerBalanceUpdate.newBuilder()
+                .setId(id)
+                .setDelta(delta)
+                .setOperationId(operationId)
+                .build();
+        return batcher.submit(update, isNettable)
+                .thenApply(result -> UpdateCustomerBalanceResponse.newBuilder()
+                        .setUpdateCustomerBalanceResponseData(result.getData())
+                        .build());
+    }
+
+    private static String operationId(String messageId, ModuleOperationCode operationCode) {
+        return messageId + "/" + operationCode.name();
+    }
+
+    private static class CustomerBalanceNetting implements RequestBatcher.Netting<CustomerBalanceUpdate, CustomerBalanceUpdateResult> {
+
+        @Override
+        public Object key(CustomerBalanceUpdate update) {
+            return update.getId();
+        }
+
+        @Override
+        public CustomerBalanceUpdate merge(List<CustomerBalanceUpdate> updates) {
+            var delta = updates.stream()
+                    .map(update -> moneyToBigDecimal(update.getDelta()))
+                    .reduce(BigDecimal.ZERO, BigDecimal::add);
+            return CustomerBalanceUpdate.newBuilder()
+                    .setId(updates.get(0).getId())
+                    .setDelta(bigDecimalToMoney(delta))
+                    .addAllOperationIds(updates.stream().map(CustomerBalanceUpdate::getOperationId).toList())
+                    .build();
+        }
+
+        @Override
+        public boolean isApplied(CustomerBalanceUpdateResult result) {
+            return BALANCE_HAS_BEEN_CHANGED.equals(result.getData().getResult());
+        }
+
+        @Override
+        public CustomerBalanceUpdateResult result(CustomerBalanceUpdateResult mergedResult, CustomerBalanceUpdate update) {
+            return CustomerBalanceUpdateResult.newBuilder(mergedResult)
+                    .setOperationId(update.getOperationId())
+                    .build();
+        }
+    }
 }
@@ -8,6 +8,8 @@ import org.slf4j.MDC;
 import ru.craftysoft.orderingsystem.executor.proto.ExecutorServiceGrpc;
 import ru.craftysoft.orderingsystem.executor.proto.UpdateExecutorBalanceRequest;
 import ru.craftysoft.orderingsystem.executor.proto.UpdateExecutorBalanceResponse;
+import ru.craftysoft.orderingsystem.executor.proto.UpdateExecutorBalancesRequest;
+import ru.craftysoft.orderingsystem.executor.proto.UpdateExecutorBalancesResponse;
 import ru.craftysoft.orderingsystem.util.error.exception.BaseException;
 import ru.craftysoft.orderingsystem.util.error.exception.InvocationException;
 import ru.craftysoft.orderingsystem.util.grpc.LoggingClientInterceptor;
@@ -42,6 +44,14 @@ public class ExecutorServiceClient {
             .ifPresent(error -> baseException
                     .setOriginalCode(error.getCode())
                     .setOriginalMessage(error.getMessage()));
+    private final Metadata.Key<byte[]> updateExecutorBalancesResponseErrorKey = buildKey(UpdateExecutorBalancesResponse.class);
+    private final Function<StatusRuntimeException, UpdateExecutorBalancesResponse> balancesErrorResponseBuilder = statusRuntimeException -> extractErrorResponse(statusRuntimeException, updateExecutorBalancesResponseErrorKey, UpdateExecutorBalancesResponse::parseFrom);
+    private final BiConsumer<UpdateExecutorBalancesResponse, BaseException> balancesBaseExceptionFiller = (errorResponse, baseException) -> ofNullable(errorResponse)
+            .filter(UpdateExecutorBalancesResponse::hasError)
+            .map(UpdateExecutorBalancesResponse::getError)
+            .ifPresent(error -> baseException
+                    .setOriginalCode(error.getCode())
+                    .setOriginalMessage(error.getMessage()));
 
     @Inject
     public ExecutorServiceClient(ExecutorServiceGrpc.ExecutorServiceStub executorServiceStub) {
@@ -82,4 +92,39 @@ public class ExecutorServiceClient {
                 });
         return result;
     }
+
+    public CompletableFuture<UpdateExecutorBalancesResponse> updateBalances(UpdateExecutorBalancesRequest request) {
+        var mdc = MDC.getCopyOfContextMap();
+        var metadata = MetadataBuilder.build(mdc);
+        var result = new CompletableFuture<UpdateExecutorBalancesResponse>();
+        executorServiceStub
+                .withInterceptors(new LoggingClientInterceptor(metadata))
+                .updateBalances(request, new StreamObserver<>() {
+                    private UpdateExecutorBalancesResponse response;
+                    private final String point = "ExecutorServiceClient.updateBalances";
+
+                    @Override
+                    public void onNext(UpdateExecutorBalancesResponse response) {
+                        this.response = response;
+                    }
+
+                    @Override
+                    public void onError(Throwable throwable) {
+                        var baseException = withMdc(mdc, () -> {
+                            log.error("{}.onError.thrown {}", point, throwable.getMessage());
+                            return mapException(
+                                    log, point, mdc, throwable,
+                                    balancesErrorResponseBuilder, invocationExceptionFactory, retryableExceptionFactory, balancesBaseExceptionFiller
+                            );
+                        }).get();
+                        result.completeExceptionally(baseException);
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        result.complete(this.response);
+                    }
+                });
+        return result;
+    }
 }
@@ -1,35 +1,78 @@
 package ru.craftysoft.orderingsystem.orderprocessing.service.grpc;
 
+import com.google.type.Money;
+import ru.craftysoft.orderingsystem.executor.proto.ExecutorBalanceUpdate;
+import ru.craftysoft.orderingsystem.executor.proto.ExecutorBalanceUpdateResult;
+import ru.craftysoft.orderingsystem.executor.proto.UpdateExecutorBalancesRequest;
+import ru.craftysoft.orderingsystem.executor.proto.UpdateExecutorBalancesResponse;
+import ru.craftysoft.orderingsystem.executor.proto.UpdateExecutorBalancesResponseData;
 import ru.craftysoft.orderingsystem.orderprocessing.builder.grpc.UpdateExecutorBalanceResponse;
+import ru.craftysoft.orderingsystem.orderprocessing.error.operation.ModuleOperationCode;
 import ru.craftysoft.orderingsystem.orderprocessing.proto.DecreaseExecutorAmountRequest;
 import ru.craftysoft.orderingsystem.orderprocessing.proto.IncrementExecutorAmountRequest;
+import ru.craftysoft.orderingsystem.orderprocessing.service.stage.RequestBatcher;
+import ru.craftysoft.orderingsystem.orderprocessing.service.stage.StageRuntime;
+import ru.craftysoft.orderingsystem.util.properties.PropertyResolver;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.math.BigDecimal;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
+import static ru.craftysoft.orderingsystem.executor.proto.UpdateExecutorBalanceResponseData.Result.BALANCE_HAS_BEEN_CHANGED;
 import static ru.craftysoft.orderingsystem.executor.proto.UpdateExecutorBalanceResponseData.Result.BALANCE_HAS_NOT_BEEN_CHANGED;
 import static ru.craftysoft.orderingsystem.orderprocessing.error.exception.BusinessExceptionCode.EXECUTOR_BALANCE_HAS_NOT_BEEN_DECREASED;
 import static ru.craftysoft.orderingsystem.orderprocessing.error.exception.BusinessExceptionCode.EXECUTOR_BALANCE_HAS_NOT_BEEN_INCREMENTED;
+import static ru.craftysoft.orderingsystem.orderprocessing.error.operation.ModuleOperationCode.DECREASE_EXECUTOR_AMOUNT;
+import static ru.craftysoft.orderingsystem.orderprocessing.error.operation.ModuleOperationCode.INCREMENT_EXECUTOR_AMOUNT;
 import static ru.craftysoft.orderingsystem.orderprocessing.error.operation.ModuleOperationCode.resolve;
 import static ru.craftysoft.orderingsystem.util.error.exception.ExceptionFactory.newBusinessException;
 import static ru.craftysoft.orderingsystem.util.mdc.MdcUtils.withMdc;
+import static ru.craftysoft.orderingsystem.util.proto.ProtoUtils.bigDecimalToMoney;
+import static ru.craftysoft.orderingsystem.util.proto.ProtoUtils.moneyToBigDecimal;
 
+/**
+ * изменения баланса исполнителей, выполняемые одновременно, объединяются в пачки и отправляются одним вызовом
+ * updateBalances (см. {@link RequestBatcher}), размер пачки и время её накопления задаются в
+ * grpc.executor-service.update-balances.max-batch-size и grpc.executor-service.update-balances.linger-millis.
+ * при grpc.executor-service.update-balances.netting-enabled=true изменения одного исполнителя в пачке сворачиваются
+ * в одно изменение на итоговую сумму. сворачиваются только изменения шагов саги, откаты отправляются отдельно.
+ * каждое изменение отправляется с идентификатором операции, который зависит только от саги и её шага, поэтому
+ * повторно доставленное сообщение саги не изменяет баланс дважды. свёрнутое изменение передаёт идентификаторы
+ * всех входящих в него операций, и сервис не применяет его, если какая-то из них уже применена.
+ */
 @Singleton
 public class ExecutorServiceClientAdapter {
 
-    private final ExecutorServiceClient client;
+    public static final String UPDATE_BALANCES_STAGE = "update-executor-balances";
+
     private final UpdateExecutorBalanceResponse requestBuilder;
+    private final RequestBatcher<ExecutorBalanceUpdate, ExecutorBalanceUpdateResult> batcher;
 
     @Inject
-    public ExecutorServiceClientAdapter(ExecutorServiceClient client, UpdateExecutorBalanceResponse requestBuilder) {
-        this.client = client;
+    public ExecutorServiceClientAdapter(ExecutorServiceClient client,
+                                        UpdateExecutorBalanceResponse requestBuilder,
+                                        StageRuntime stageRuntime,
+                                        PropertyResolver propertyResolver) {
         this.requestBuilder = requestBuilder;
+        this.batcher = new RequestBatcher<>(
+                UPDATE_BALANCES_STAGE,
+                stageRuntime,
+                propertyResolver.getIntProperty("grpc.executor-service.update-balances.max-batch-size"),
+                propertyResolver.getIntProperty("grpc.executor-service.update-balances.linger-millis"),
+                updates -> client.updateBalances(UpdateExecutorBalancesRequest.newBuilder().addAllUpdates(updates).build())
+                        .thenApply(UpdateExecutorBalancesResponse::getUpdateExecutorBalancesResponseData)
+                        .thenApply(UpdateExecutorBalancesResponseData::getResultsList),
+                propertyResolver.getBooleanProperty("grpc.executor-service.update-balances.netting-enabled")
+                        ? new ExecutorBalanceNetting()
+                        : null
+        );
     }
 
-    public CompletableFuture<ru.craftysoft.orderingsystem.executor.proto.UpdateExecutorBalanceResponse> incrementAmount(IncrementExecutorAmountRequest incrementExecutorAmountRequest) {
+    public CompletableFuture<ru.craftysoft.orderingsystem.executor.proto.UpdateExecutorBalanceResponse> incrementAmount(String messageId, IncrementExecutorAmountRequest incrementExecutorAmountRequest) {
         var request = requestBuilder.build(incrementExecutorAmountRequest);
-        return client.updateExecutorBalance(request)
+        return updateBalance(request.getId(), request.getIncrementAmount(), operationId(messageId, INCREMENT_EXECUTOR_AMOUNT), true)
                 .thenApply(withMdc((updateExecutorBalanceResponse) -> {
                     if (BALANCE_HAS_NOT_BEEN_CHANGED.equals(updateExecutorBalanceResponse.getUpdateExecutorBalanceResponseData().getResult())) {
                         throw newBusinessException(resolve(), EXECUTOR_BALANCE_HAS_NOT_BEEN_INCREMENTED);
@@ -38,9 +81,9 @@ public class ExecutorServiceClientAdapter {
                 }));
     }
 
-    public CompletableFuture<ru.craftysoft.orderingsystem.executor.proto.UpdateExecutorBalanceResponse> decreaseAmount(DecreaseExecutorAmountRequest decreaseExecutorAmountRequest) {
+    public CompletableFuture<ru.craftysoft.orderingsystem.executor.proto.UpdateExecutorBalanceResponse> decreaseAmount(String messageId, DecreaseExecutorAmountRequest decreaseExecutorAmountRequest) {
         var request = requestBuilder.build(decreaseExecutorAmountRequest);
-        return client.updateExecutorBalance(request)
+        return updateBalance(request.getId(), bigDecimalToMoney(moneyToBigDecimal(request.getDecreaseAmount()).negate()), operationId(messageId, DECREASE_EXECUTOR_AMOUNT), false)
                 .thenApply(withMdc((updateExecutorBalanceResponse) -> {
                     if (BALANCE_HAS_NOT_BEEN_CHANGED.equals(updateExecutorBalanceResponse.getUpdateExecutorBalanceResponseData().getResult())) {
                         throw newBusinessException(resolve(), EXECUTOR_BALANCE_HAS_NOT_BEEN_DECREASED);
@@ -48,4 +91,52 @@ public class ExecutorServiceClientAdapter {
                     return updateExecutorBalanceResponse;
                 }));
     }
+
+    private CompletableFuture<ru.craftysoft.orderingsystem.executor.proto.UpdateExecutorBalanceResponse> updateBalance(long id, Money delta, String operationId, boolean isNettable) {
+        var update = ExecutorBalanceUpdate.newBuilder()
+                .setId(id)
+                .setDelta(delta)
+                .setOperationId(operationId)
+                .build();
+        return batcher.submit(update, isNettable)
+                .thenApply(result -> ru.craftysoft.orderingsystem.executor.proto.UpdateExecutorBalanceResponse.newBuilder()
+                        .setUpdateExecutorBalanceResponseData(result.getData())
+                        .build());
+    }
+
+    private static String operationId(String messageId, ModuleOperationCode operationCode) {
+        return messageId + "/" + operationCode.name();
+    }
+
+    private static class ExecutorBalanceNetting implements RequestBatcher.Netting<ExecutorBalanceUpdate, ExecutorBalanceUpdateResult> {
+
+        @Override
+        public Object key(ExecutorBalanceUpdate update) {
+            return update.getId();
+        }
+
+        @Override
+        public ExecutorBalanceUpdate merge(List<ExecutorBalanceUpdate> updates) {
+            var delta = updates.stream()
+                    .map(update -> moneyToBigDecimal(update.getDelta()))
+                    .reduce(BigDecimal.ZERO, BigDecimal::add);
+            return ExecutorBalanceUpdate.newBuilder()
+                    .setId(updates.get(0).getId())
+                    .setDelta(bigDecimalToMoney(delta))
+                    .addAllOperationIds(updates.stream().map(ExecutorBalanceUpdate::getOperationId).toList())
+                    .build();
+        }
+
+        @Override
+        public boolean isApplied(ExecutorBalanceUpdateResult result) {
+            return BALANCE_HAS_BEEN_CHANGED.equals(result.getData().getResult());
+        }
+
+        @Override
+        public ExecutorBalanceUpdateResult result(ExecutorBalanceUpdateResult mergedResult, ExecutorBalanceUpdate update) {
+            return ExecutorBalanceUpdateResult.newBuilder(mergedResult)
+                    .setOperationId(update.getOperationId())
+                    .build();
+        }
+    }
 }
@@ -0,0 +1,134 @@
+package ru.craftysoft.orderingsystem.orderprocessing.service.redis;
+
+import com.google.protobuf.GeneratedMessageV3;
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.lettuce.core.StreamMessage;
+import lombok.extern.slf4j.Slf4j;
+import ru.craftysoft.orderingsystem.orderprocessing.builder.redis.*;
+import ru.craftysoft.orderingsystem.util.properties.PropertyResolver;
+import ru.craftysoft.orderingsystem.util.proto.ProtoUtils;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+import static ru.craftysoft.orderingsystem.orderprocessing.service.redis.RedisClient.ENVELOPE_FIELD;
+import static ru.craftysoft.orderingsystem.orderprocessing.service.redis.RedisClientAdapter.deadLetterStream;
+import static ru.craftysoft.orderingsystem.util.mdc.MdcUtils.withMdc;
+
+/**
+ * возврат сообщений из стрима недоставленных сообщений этапа в исходный стрим.
+ * сообщения читаются пачками через XRANGE, отправляются в партицию исходного стрима одним конвейером и после успешной
+ * отправки удаляются из стрима недоставленных сообщений. сообщения, которые не удалось разобрать или отправить,
+ * остаются на месте.
+ */
+@Singleton
+@Slf4j
+public class DeadLetterReplayer {
+
+    private static final String RETRY_DATA_FIELD = "retryData";
+
+    private final RedisClient redisClient;
+    private final StreamPartitioner streamPartitioner;
+    private final Map<String, Function<byte[], GeneratedMessageV3>> parsersByStream = new HashMap<>();
+
+    @Inject
+    public DeadLetterReplayer(RedisClient redisClient,
+                              StreamPartitioner streamPartitioner,
+                              IncrementCustomerAmountRequestBuilder incrementCustomerAmountRequestBuilder,
+                              DecreaseCustomerAmountRequestBuilder decreaseCustomerAmountRequestBuilder,
+                              IncrementExecutorAmountRequestBuilder incrementExecutorAmountRequestBuilder,
+                              DecreaseExecutorAmountRequestBuilder decreaseExecutorAmountRequestBuilder,
+                              ReserveOrderRequestBuilder reserveOrderRequestBuilder,
+                              CompleteOrderRequestBuilder completeOrderRequestBuilder,
+                              PropertyResolver propertyResolver) {
+        this.redisClient = redisClient;
+        this.streamPartitioner = streamPartitioner;
+        parsersByStream.put(propertyResolver.getStringProperty("redis.stream.increment-customer-amount.name"), incrementCustomerAmountRequestBuilder::fromBytes);
+        parsersByStream.put(propertyResolver.getStringProperty("redis.stream.decrease-customer-amount.name"), decreaseCustomerAmountRequestBuilder::fromBytes);
+        parsersByStream.put(propertyResolver.getStringProperty("redis.stream.increment-executor-amount.name"), incrementExecutorAmountRequestBuilder::fromBytes);
+        parsersByStream.put(propertyResolver.getStringProperty("redis.stream.decrease-executor-amount.name"), decreaseExecutorAmountRequestBuilder::fromBytes);
+        parsersByStream.put(propertyResolver.getStringProperty("redis.stream.reserve-order.name"), reserveOrderRequestBuilder::fromBytes);
+        parsersByStream.put(propertyResolver.getStringProperty("redis.stream.complete-order.name"), completeOrderRequestBuilder::fromBytes);
+    }
+
+    /**
+     * @param streamName     имя логического стрима этапа
+     * @param afterId        идентификатор сообщения, после которого начинается чтение ("0" - с начала стрима)
+     * @param batchSize      максимальный размер пачки
+     * @param resetRetryData обнулять ли счётчик попыток, чтобы сообщение снова прошло все повторы
+     */
+    public CompletionStage<ReplayResult> replay(String streamName, String afterId, int batchSize, boolean resetRetryData) {
+        if (!parsersByStream.containsKey(streamName)) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Неизвестный стрим " + streamName));
+        }
+        var deadLetterStreamKey = deadLetterStream(streamName);
+        return redisClient.range(deadLetterStreamKey, afterId, batchSize)
+                .thenCompose(withMdc(deadLetters -> {
+                    if (deadLetters.isEmpty()) {
+                        return CompletableFuture.completedFuture(new ReplayResult(afterId, 0, 0));
+                    }
+                    var lastId = deadLetters.get(deadLetters.size() - 1).getId();
+                    var ids = new ArrayList<String>(deadLetters.size());
+                    var messages = new ArrayList<OutgoingMessage<GeneratedMessageV3>>(deadLetters.size());
+                    for (var deadLetter : deadLetters) {
+                        var message = toOutgoingMessage(streamName, deadLetter, resetRetryData);
+                        if (message != null) {
+                            ids.add(deadLetter.getId());
+                            messages.add(message);
+                        }
+                    }
+                    var results = redisClient.sendMessages(messages, EnvelopeCodec::body, ProtoUtils::toPrettyString);
+                    return CompletableFuture.allOf(results.stream()
+                                    .map(result -> result.handle((streamMessageId, throwable) -> throwable))
+                                    .toArray(CompletableFuture<?>[]::new))
+                            .thenCompose(v -> {
+                                var replayedIds = new ArrayList<String>(ids.size());
+                                for (int i = 0; i < ids.size(); i++) {
+                                    if (!results.get(i).isCompletedExceptionally()) {
+                                        replayedIds.add(ids.get(i));
+                                    }
+                                }
+                                return redisClient.delete(deadLetterStreamKey, replayedIds.toArray(String[]::new))
+                                        .thenApply(deleted -> new ReplayResult(lastId, deadLetters.size(), replayedIds.size()));
+                            });
+                }));
+    }
+
+    private OutgoingMessage<GeneratedMessageV3> toOutgoingMessage(String streamName,
+                                                                  StreamMessage<String, byte[]> streamMessage,
+                                                                  boolean resetRetryData) {
+        try {
+            var deadLetter = EnvelopeCodec.decode(streamMessage.getBody().get(ENVELOPE_FIELD)).getDeadLetter();
+            var payload = parsersByStream.get(streamName).apply(deadLetter.getPayload().toByteArray());
+            if (resetRetryData) {
+                var retryDataField = payload.getDescriptorForType().findFieldByName(RETRY_DATA_FIELD);
+                payload = (GeneratedMessageV3) payload.toBuilder().clearField(retryDataField).build();
+            }
+            var partitionKey = deadLetter.getPartitionKey();
+            return new OutgoingMessage<>(
+                    streamPartitioner.partition(deadLetter.getOriginStream(), Long.parseLong(partitionKey)),
+                    partitionKey,
+                    deadLetter.getMessageId(),
+                    payload
+            );
+        } catch (InvalidProtocolBufferException | RuntimeException e) {
+            log.error("DeadLetterReplayer.replay.thrown сообщение {} не может быть разобрано и будет пропущено", streamMessage.getId(), e);
+            return null;
+        }
+    }
+
+    /**
+     * @param lastId   идентификатор последнего прочитанного сообщения, с него продолжается чтение
+     * @param read     количество прочитанных сообщений
+     * @param replayed количество сообщений, возвращённых в исходный стрим
+     */
+    public record ReplayResult(String lastId, int read, int replayed) {
+    }
+}
@@ -0,0 +1,116 @@
+package ru.craftysoft.orderingsystem.orderprocessing.service.redis;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.GeneratedMessageV3;
+import com.google.protobuf.InvalidProtocolBufferException;
+import lombok.NoArgsConstructor;
+import lombok.SneakyThrows;
+import ru.craftysoft.orderingsystem.orderprocessing.proto.Envelope;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static lombok.AccessLevel.PRIVATE;
+
+/**
+ * кодирование сообщений стримов в конверт {@link Envelope}: заголовок (версия формата, идентификатор сообщения, ключ
+ * партиции, идентификатор трассировки, время отправки) и тело - одно из сообщений этапов, тип которого определяется
+ * номером поля. тело кодируется отдельно ({@link #body}), т.к. в таком виде хранится в очереди отложенной отправки,
+ * а заголовок дописывается перед ним при отправке ({@link #encode}): конкатенация сообщений protobuf разбирается
+ * как одно сообщение.
+ */
+@NoArgsConstructor(access = PRIVATE)
+public class EnvelopeCodec {
+
+    public static final int VERSION = 1;
+
+    private static final Map<Descriptors.Descriptor, Descriptors.FieldDescriptor> BODY_FIELDS = Envelope.getDescriptor()
+            .getOneofs()
+            .get(0)
+            .getFields()
+            .stream()
+            .collect(Collectors.toMap(Descriptors.FieldDescriptor::getMessageType, Function.identity()));
+
+    /**
+     * @return конверт без заголовка, содержащий только тело
+     */
+    @SneakyThrows
+    public static byte[] body(GeneratedMessageV3 message) {
+        var fieldNumber = bodyField(message).getNumber();
+        var bytes = new byte[CodedOutputStream.computeMessageSize(fieldNumber, message)];
+        var output = CodedOutputStream.newInstance(bytes);
+        output.writeMessage(fieldNumber, message);
+        output.checkNoSpaceLeft();
+        return bytes;
+    }
+
+    /**
+     * @param body тело, полученное через {@link #body}
+     */
+    @SneakyThrows
+    public static byte[] encode(String messageId,
+                                @Nullable String partitionKey,
+                                @Nullable String traceId,
+                                long enqueuedAt,
+                                byte[] body) {
+        var builder = Envelope.newBuilder()
+                .setVersion(VERSION)
+                .setMessageId(messageId)
+                .setEnqueuedAt(enqueuedAt);
+        if (partitionKey != null) {
+            builder.setPartitionKey(partitionKey);
+        }
+        if (traceId != null) {
+            builder.setTraceId(traceId);
+        }
+        var header = builder.build();
+        var headerSize = header.getSerializedSize();
+        var bytes = new byte[headerSize + body.length];
+        var output = CodedOutputStream.newInstance(bytes, 0, headerSize);
+        header.writeTo(output);
+        output.checkNoSpaceLeft();
+        System.arraycopy(body, 0, bytes, headerSize, body.length);
+        return bytes;
+    }
+
+    /**
+     * конверт с телом без сериализации, для передачи сообщения внутри процесса
+     */
+    public static Envelope wrap(String messageId,
+                                @Nullable String partitionKey,
+                                @Nullable String traceId,
+                                long enqueuedAt,
+                                GeneratedMessageV3 message) {
+        var builder = Envelope.newBuilder()
+                .setVersion(VERSION)
+                .setMessageId(messageId)
+                .setEnqueuedAt(enqueuedAt)
+                .setField(bodyField(message), message);
+        if (partitionKey != null) {
+            builder.setPartitionKey(partitionKey);
+        }
+        if (traceId != null) {
+            builder.setTraceId(traceId);
+        }
+        return builder.build();
+    }
+
+    public static Envelope decode(byte[] bytes) throws InvalidProtocolBufferException {
+        var envelope = Envelope.parseFrom(bytes);
+        if (envelope.getVersion() > VERSION) {
+            throw new InvalidProtocolBufferException("Неподдерживаемая версия конверта " + envelope.getVersion());
+        }
+        return envelope;
+    }
+
+    private static Descriptors.FieldDescriptor bodyField(GeneratedMessageV3 message) {
+        var field = BODY_FIELDS.get(message.getDescriptorForType());
+        if (field == null) {
+            throw new IllegalArgumentException("Сообщение " + message.getDescriptorForType().getName() + " не может быть телом конверта");
+        }
+        return field;
+    }
+}
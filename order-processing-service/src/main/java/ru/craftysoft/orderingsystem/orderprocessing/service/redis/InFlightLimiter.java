@@ -0,0 +1,160 @@
+package ru.craftysoft.orderingsystem.orderprocessing.service.redis;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * неблокирующий семафор, ограничивающий количество одновременно обрабатываемых сообщений этапа.
+ * разрешение выдаётся на время обработки одного сообщения, ожидающие разрешения получают его в порядке очереди.
+ * кроме обрабатываемых, этап держит в памяти не более prefetch прочитанных сообщений, ожидающих разрешения.
+ * перед чтением очередной пачки потребитель резервирует место под её сообщения через {@link #reserve}, и чтение
+ * ждёт, пока прочитанных и не обработанных сообщений не станет меньше maxInFlight + prefetch, поэтому при перегрузке
+ * этапа сообщения остаются в стриме, а не в памяти приложения. место освобождается через {@link #unreserve}.
+ * при prefetch > 0 следующая пачка читается, пока обрабатывается предыдущая (см. {@link #isReadAhead}).
+ * ожидающие продолжаются в потоке, освободившем разрешение или место.
+ */
+public class InFlightLimiter {
+
+    private final int maxInFlight;
+    private final int prefetch;
+    private final int capacity;
+    private final Queue<CompletableFuture<Void>> permitWaiters = new ArrayDeque<>();
+    private final Queue<ReadWaiter> readWaiters = new ArrayDeque<>();
+    private int inUse;
+    private int reserved;
+
+    public InFlightLimiter(int maxInFlight) {
+        this(maxInFlight, 0);
+    }
+
+    public InFlightLimiter(int maxInFlight, int prefetch) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight должен быть больше 0");
+        }
+        if (prefetch < 0) {
+            throw new IllegalArgumentException("prefetch не может быть меньше 0");
+        }
+        this.maxInFlight = maxInFlight;
+        this.prefetch = prefetch;
+        this.capacity = (int) Math.min(Integer.MAX_VALUE, (long) maxInFlight + prefetch);
+    }
+
+    public static InFlightLimiter unbounded() {
+        return new InFlightLimiter(Integer.MAX_VALUE);
+    }
+
+    public CompletableFuture<Void> acquire() {
+        synchronized (this) {
+            if (inUse < maxInFlight && permitWaiters.isEmpty()) {
+                inUse++;
+                return CompletableFuture.completedFuture(null);
+            }
+            var waiter = new CompletableFuture<Void>();
+            permitWaiters.add(waiter);
+            return waiter;
+        }
+    }
+
+    public void release() {
+        CompletableFuture<Void> next;
+        synchronized (this) {
+            next = permitWaiters.poll();
+            if (next == null) {
+                inUse--;
+            }
+        }
+        if (next != null) {
+            next.complete(null);
+        }
+    }
+
+    /**
+     * резервирование места под сообщения очередной пачки
+     *
+     * @param max размер пачки
+     * @return количество зарезервированных мест (от 1 до max) на момент, когда появилось хотя бы одно
+     */
+    public CompletableFuture<Integer> reserve(int max) {
+        synchronized (this) {
+            if (reserved < capacity && readWaiters.isEmpty()) {
+                var count = Math.min(max, capacity - reserved);
+                reserved += count;
+                return CompletableFuture.completedFuture(count);
+            }
+            var waiter = new ReadWaiter(max, new CompletableFuture<>());
+            readWaiters.add(waiter);
+            return waiter.future();
+        }
+    }
+
+    /**
+     * освобождение места: сообщение обработано или зарезервированное место не понадобилось
+     *
+     * @param count количество освобождаемых мест, не больше зарезервированных
+     */
+    public void unreserve(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Количество освобождаемых мест не может быть меньше 0 count=" + count);
+        }
+        if (count == 0) {
+            return;
+        }
+        var ready = new ArrayList<ReadWaiter>();
+        var counts = new ArrayList<Integer>();
+        synchronized (this) {
+            if (count > reserved) {
+                throw new IllegalStateException("Освобождается больше мест, чем зарезервировано count=%d reserved=%d".formatted(count, reserved));
+            }
+            reserved -= count;
+            while (reserved < capacity && !readWaiters.isEmpty()) {
+                var waiter = readWaiters.poll();
+                var reservedCount = Math.min(waiter.max(), capacity - reserved);
+                reserved += reservedCount;
+                ready.add(waiter);
+                counts.add(reservedCount);
+            }
+        }
+        for (int i = 0; i < ready.size(); i++) {
+            ready.get(i).future().complete(counts.get(i));
+        }
+    }
+
+    /**
+     * @return true, если следующую пачку можно читать, не дожидаясь обработки текущей
+     */
+    public boolean isReadAhead() {
+        return prefetch > 0;
+    }
+
+    public synchronized int getInUse() {
+        return inUse;
+    }
+
+    /**
+     * @return количество сообщений, ожидающих разрешения
+     */
+    public synchronized int getQueued() {
+        return permitWaiters.size();
+    }
+
+    /**
+     * @return количество прочитанных и не обработанных сообщений вместе с зарезервированными под чтение местами
+     */
+    public synchronized int getReserved() {
+        return reserved;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    private record ReadWaiter(int max, CompletableFuture<Integer> future) {
+    }
+}
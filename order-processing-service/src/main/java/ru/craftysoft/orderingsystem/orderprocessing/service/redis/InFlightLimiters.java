@@ -0,0 +1,80 @@
+package ru.craftysoft.orderingsystem.orderprocessing.service.redis;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.craftysoft.orderingsystem.util.properties.PropertyResolver;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * ограничители одновременной обработки сообщений по этапам.
+ * лимит этапа задаётся в redis.stream.{этап}.max-in-flight и общий для всех потребителей и перехвата сообщений этапа
+ * в экземпляре приложения. для этапов, работающих с БД, лимит не должен превышать размер пула соединений.
+ * сверх лимита этап держит в памяти до redis.stream.{этап}.prefetch прочитанных сообщений, при значении больше 0
+ * следующая пачка читается, пока обрабатывается предыдущая.
+ */
+@Singleton
+@Slf4j
+public class InFlightLimiters {
+
+    private final Map<String, InFlightLimiter> limitersByStream = new LinkedHashMap<>();
+
+    @Inject
+    public InFlightLimiters(PropertyResolver propertyResolver) {
+        Stream.of(
+                "increment-customer-amount",
+                "decrease-customer-amount",
+                "increment-executor-amount",
+                "decrease-executor-amount",
+                "reserve-order",
+                "complete-order"
+        ).forEach(stage -> limitersByStream.put(
+                propertyResolver.getStringProperty("redis.stream." + stage + ".name"),
+                new InFlightLimiter(
+                        propertyResolver.getIntProperty("redis.stream." + stage + ".max-in-flight"),
+                        propertyResolver.getIntProperty("redis.stream." + stage + ".prefetch")
+                )
+        ));
+    }
+
+    /**
+     * @param streamName имя логического стрима этапа
+     */
+    public InFlightLimiter get(String streamName) {
+        return limitersByStream.get(streamName);
+    }
+
+    /**
+     * @return количество сообщений этапа, обрабатываемых в данный момент
+     */
+    public int getInUse(String streamName) {
+        return limitersByStream.get(streamName).getInUse();
+    }
+
+    /**
+     * @return количество прочитанных сообщений этапа, ожидающих начала обработки
+     */
+    public int getQueued(String streamName) {
+        return limitersByStream.get(streamName).getQueued();
+    }
+
+    /**
+     * @return true, если ни один этап не обрабатывает и не читает сообщения
+     */
+    public boolean isIdle() {
+        return limitersByStream.values().stream()
+                .allMatch(limiter -> limiter.getInUse() == 0 && limiter.getReserved() == 0);
+    }
+
+    public void logState() {
+        limitersByStream.forEach((streamName, limiter) -> {
+            if (limiter.getInUse() > 0 || limiter.getReserved() > 0) {
+                log.info("InFlightLimiters.state stream={} inUse={} max={} queued={} reserved={} prefetch={}",
+                        streamName, limiter.getInUse(), limiter.getMaxInFlight(), limiter.getQueued(), limiter.getReserved(), limiter.getPrefetch());
+            }
+        });
+    }
+}
@@ -0,0 +1,24 @@
+package ru.craftysoft.orderingsystem.orderprocessing.service.redis;
+
+import org.slf4j.MDC;
+
+import static ru.craftysoft.orderingsystem.util.mdc.MdcKey.TRACE_ID;
+
+/**
+ * @param partitionKey ключ, по которому выбиралась партиция стрима. сообщения с одинаковым ключом обрабатываются
+ *                     последовательно, может быть null
+ * @param traceId      идентификатор трассировки, передаётся в заголовке конверта, может быть null
+ */
+public record OutgoingMessage<T>(String streamKey,
+                                 String partitionKey,
+                                 String messageId,
+                                 T payload,
+                                 String traceId) {
+
+    /**
+     * идентификатор трассировки берётся из MDC на момент создания сообщения
+     */
+    public OutgoingMessage(String streamKey, String partitionKey, String messageId, T payload) {
+        this(streamKey, partitionKey, messageId, payload, MDC.get(TRACE_ID));
+    }
+}
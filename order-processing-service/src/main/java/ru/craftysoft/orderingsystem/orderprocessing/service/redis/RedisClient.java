@@ -1,25 +1,61 @@
 package ru.craftysoft.orderingsystem.orderprocessing.service.redis;
 
+import com.google.protobuf.ByteString;
 import io.lettuce.core.Consumer;
+import io.lettuce.core.Limit;
+import io.lettuce.core.Range;
+import io.lettuce.core.RedisNoScriptException;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.StreamMessage;
+import io.lettuce.core.XAutoClaimArgs;
+import io.lettuce.core.ZAddArgs;
 import io.lettuce.core.XReadArgs;
+import io.lettuce.core.XTrimArgs;
+import io.lettuce.core.api.async.RedisAsyncCommands;
 import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.models.stream.ClaimedMessages;
+import io.lettuce.core.models.stream.PendingMessages;
 import io.lettuce.core.support.BoundedAsyncPool;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.MDC;
+import ru.craftysoft.orderingsystem.orderprocessing.proto.DeadLetter;
+import ru.craftysoft.orderingsystem.orderprocessing.proto.Envelope;
+import ru.craftysoft.orderingsystem.util.properties.PropertyResolver;
+import ru.craftysoft.orderingsystem.util.proto.ProtoUtils;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
+import static ru.craftysoft.orderingsystem.orderprocessing.error.exception.InvocationExceptionCode.REDIS_ACK;
+import static ru.craftysoft.orderingsystem.orderprocessing.error.exception.InvocationExceptionCode.REDIS_DECODE;
 import static ru.craftysoft.orderingsystem.orderprocessing.error.exception.InvocationExceptionCode.REDIS_SEND;
 import static ru.craftysoft.orderingsystem.orderprocessing.error.exception.InvocationExceptionCode.REDIS_SUBSCRIBE;
+import static ru.craftysoft.orderingsystem.orderprocessing.error.exception.InvocationExceptionCode.REDIS_TRIM;
 import static ru.craftysoft.orderingsystem.orderprocessing.error.operation.ModuleOperationCode.resolve;
+import static ru.craftysoft.orderingsystem.util.error.exception.ExceptionFactory.newInvocationException;
 import static ru.craftysoft.orderingsystem.util.error.exception.ExceptionFactory.newRetryableException;
+import static ru.craftysoft.orderingsystem.util.mdc.MdcKey.TRACE_ID;
 import static ru.craftysoft.orderingsystem.util.mdc.MdcUtils.withMdc;
 
 @Singleton
@@ -28,13 +64,154 @@ public class RedisClient {
 
     private final Consumer<String> applicationConsumer;
     private final BoundedAsyncPool<StatefulRedisConnection<String, byte[]>> redisPool;
+    private final Supplier<StatefulRedisConnection<String, byte[]>> redisConsumerConnectionFactory;
+    private final Map<ConsumerConnectionKey, StatefulRedisConnection<String, byte[]>> consumerConnections = new ConcurrentHashMap<>();
+    private final Set<StreamConsumer> registeredConsumers = ConcurrentHashMap.newKeySet();
+    private final long blockTimeoutMillis;
+    private final int batchSize;
+    private final boolean ackProcessedOnly;
+    private final Duration claimMinIdleTime;
+    private final int claimBatchSize;
+    private final boolean atomicAckForward;
+    private final String ackAndForwardDigest;
+    /**
+     * записи текущих пачек, которые обрабатываются сейчас, по идентификатору вызова обработчика (см. {@link #forward})
+     */
+    private final Map<String, ForwardContext> forwardContexts = new ConcurrentHashMap<>();
+    private final AtomicLong forwardContextSequence = new AtomicLong();
+    /**
+     * соединение для команд сроков саг, см. {@link #setDeadline}
+     */
+    private volatile StatefulRedisConnection<String, byte[]> deadlineConnection;
 
     public static final String REDIS_MESSAGE_ID = "redisMessageId";
+    /**
+     * идентификатор вызова обработчика записи стрима, по нему {@link #forward} находит обрабатываемую запись
+     */
+    public static final String REDIS_FORWARD_CONTEXT_ID = "redisForwardContextId";
+    /**
+     * единственное поле записи стрима, содержит конверт {@link Envelope}
+     */
+    public static final String ENVELOPE_FIELD = "e";
+
+    /**
+     * выдача сообщений очереди отложенной отправки, время отправки которых наступило. KEYS - очередь.
+     * ARGV - текущее время, размер пачки, время окончания аренды. выданные сообщения остаются в очереди с весом,
+     * равным времени окончания аренды, и удаляются только после отправки в стрим
+     */
+    private static final String LEASE_DUE_SCRIPT = """
+            local messages = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, ARGV[2])
+            for i = 1, #messages do
+                redis.call('ZADD', KEYS[1], ARGV[3], messages[i])
+            end
+            return messages
+            """;
+
+    /**
+     * выдача компенсаций саг, срок которых истёк. KEYS - сортированное множество сроков, хеш компенсаций,
+     * сортированное множество саг, компенсация которых выдана.
+     * ARGV - текущее время, новый срок, размер пачки, время, раньше которого выданные компенсации забываются, затем
+     * идентификаторы саг. без идентификаторов берётся пачка просроченных саг из множества. срок выданной саги
+     * переносится на новый, чтобы компенсация была отправлена повторно, если не дойдёт до завершения саги.
+     * возвращает компенсации
+     */
+    private static final String CLAIM_DEADLINES_SCRIPT = """
+            redis.call('ZREMRANGEBYSCORE', KEYS[3], '-inf', '(' .. ARGV[4])
+            local ids = ARGV
+            local first = 5
+            if #ARGV == 4 then
+                ids = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, ARGV[3])
+                first = 1
+            end
+            local compensations = {}
+            for i = first, #ids do
+                local deadline = redis.call('ZSCORE', KEYS[1], ids[i])
+                if deadline and tonumber(deadline) <= tonumber(ARGV[1]) then
+                    local compensation = redis.call('HGET', KEYS[2], ids[i])
+                    if compensation then
+                        redis.call('ZADD', KEYS[1], ARGV[2], ids[i])
+                        redis.call('ZADD', KEYS[3], ARGV[1], ids[i])
+                        compensations[#compensations + 1] = compensation
+                    else
+                        redis.call('ZREM', KEYS[1], ids[i])
+                    end
+                end
+            end
+            return compensations
+            """;
+
+    /**
+     * переход саги к следующему шагу: замена компенсации и срока, если компенсация саги ещё не выдана.
+     * KEYS - сортированное множество сроков, хеш компенсаций, сортированное множество саг, компенсация которых выдана.
+     * ARGV - идентификатор саги, срок, компенсация. возвращает 1, если срок установлен, 0 - если сага уже откатывается
+     */
+    private static final String ADVANCE_DEADLINE_SCRIPT = """
+            if redis.call('ZSCORE', KEYS[3], ARGV[1]) then
+                return 0
+            end
+            redis.call('HSET', KEYS[2], ARGV[1], ARGV[3])
+            redis.call('ZADD', KEYS[1], ARGV[2], ARGV[1])
+            return 1
+            """;
+
+    /**
+     * снятие срока перед последним шагом саги, если компенсация саги ещё не выдана.
+     * KEYS - сортированное множество сроков, хеш компенсаций, сортированное множество саг, компенсация которых выдана.
+     * ARGV - идентификатор саги. возвращает 1, если срок снят, 0 - если сага уже откатывается
+     */
+    private static final String FINISH_DEADLINE_SCRIPT = """
+            if redis.call('ZSCORE', KEYS[3], ARGV[1]) then
+                return 0
+            end
+            redis.call('ZREM', KEYS[1], ARGV[1])
+            redis.call('HDEL', KEYS[2], ARGV[1])
+            return 1
+            """;
+
+    /**
+     * подтверждение сообщений нескольких стримов и отправка сообщений в другие стримы одним вызовом.
+     * KEYS - стримы подтверждаемых сообщений, затем стримы отправляемых сообщений.
+     * ARGV - группа, количество стримов подтверждаемых сообщений, для каждого из них количество идентификаторов
+     * и сами идентификаторы, затем конверты отправляемых сообщений.
+     * если ни одна запись не подтверждена (их уже подтвердил другой обработчик), сообщения не отправляются.
+     * возвращает идентификаторы записей отправленных сообщений
+     */
+    public static final String ACK_AND_FORWARD_SCRIPT = """
+            local group = ARGV[1]
+            local sources = tonumber(ARGV[2])
+            local position = 3
+            local acknowledged = 0
+            for i = 1, sources do
+                local count = tonumber(ARGV[position])
+                acknowledged = acknowledged + redis.call('XACK', KEYS[i], group, unpack(ARGV, position + 1, position + count))
+                position = position + count + 1
+            end
+            if sources > 0 and acknowledged == 0 then
+                return {}
+            end
+            local ids = {}
+            for i = sources + 1, #KEYS do
+                ids[#ids + 1] = redis.call('XADD', KEYS[i], '*', '%s', ARGV[position])
+                position = position + 1
+            end
+            return ids
+            """.formatted(ENVELOPE_FIELD);
 
     @Inject
-    public RedisClient(Consumer<String> applicationConsumer, BoundedAsyncPool<StatefulRedisConnection<String, byte[]>> redisPool) {
+    public RedisClient(Consumer<String> applicationConsumer,
+                       BoundedAsyncPool<StatefulRedisConnection<String, byte[]>> redisPool,
+                       Supplier<StatefulRedisConnection<String, byte[]>> redisConsumerConnectionFactory,
+                       PropertyResolver propertyResolver) {
         this.applicationConsumer = applicationConsumer;
         this.redisPool = redisPool;
+        this.redisConsumerConnectionFactory = redisConsumerConnectionFactory;
+        this.blockTimeoutMillis = propertyResolver.getIntProperty("redis.consumer.block-timeout-millis");
+        this.batchSize = propertyResolver.getIntProperty("redis.consumer.batch-size");
+        this.ackProcessedOnly = propertyResolver.getBooleanProperty("redis.consumer.ack-processed-only");
+        this.claimMinIdleTime = Duration.ofMillis(propertyResolver.getIntProperty("redis.reclaim.min-idle-millis"));
+        this.claimBatchSize = propertyResolver.getIntProperty("redis.reclaim.batch-size");
+        this.atomicAckForward = propertyResolver.getBooleanProperty("redis.consumer.atomic-ack-forward");
+        this.ackAndForwardDigest = sha1(ACK_AND_FORWARD_SCRIPT);
     }
 
     public <T> CompletionStage<String> sendMessage(String streamKey,
@@ -43,78 +220,928 @@ public class RedisClient {
                                                    Function<T, byte[]> mapper,
                                                    Function<T, String> logMapper) {
         try (var ignored = MDC.putCloseable(REDIS_MESSAGE_ID, messageId)) {
-            log.debug("RedisClient.sendMessage.in");
-            return redisPool.acquire()
-                    .thenCompose(connection -> connection.async()
-                            .xadd(
-                                    streamKey,
-                                    "payload", mapper.apply(message),
-                                    REDIS_MESSAGE_ID, messageId.getBytes(StandardCharsets.UTF_8)
-                            )
-                            .whenComplete(withMdc((s, throwable) -> {
-                                if (throwable != null) {
-                                    log.error("RedisClient.sendMessage.thrown {}", throwable.getMessage());
-                                    throw newRetryableException(throwable, resolve(), REDIS_SEND, throwable.getMessage());
-                                }
-                                if (log.isDebugEnabled()) {
-                                    var loggedMessage = logMapper.apply(message);
-                                    log.debug("RedisClient.sendMessage.out stream={} message={}", streamKey, loggedMessage);
-                                }
-                            }))
-                            .thenApply(withMdc(msgId -> {
-                                redisPool.release(connection);
-                                return msgId;
-                            }))
-                    ).exceptionally(withMdc((Function<Throwable, String>) throwable -> {
-                        throw newRetryableException(throwable, resolve(), REDIS_SEND, throwable.getMessage());
-                    }));
+            return sendMessages(List.of(new OutgoingMessage<>(streamKey, null, messageId, message)), mapper, logMapper).get(0);
+        }
+    }
+
+    /**
+     * Отправка пачки сообщений одним конвейером: все XADD записываются в одно соединение без сброса буфера
+     * и отправляются в Redis одним flush.
+     * Сообщение записывается в стрим конвертом {@link Envelope} в поле {@link #ENVELOPE_FIELD}.
+     *
+     * @param mapper кодирование тела конверта (см. {@link EnvelopeCodec#body})
+     * @return результаты отправки в порядке следования сообщений
+     */
+    public <T> List<CompletableFuture<String>> sendMessages(List<OutgoingMessage<T>> messages,
+                                                            Function<T, byte[]> mapper,
+                                                            Function<T, String> logMapper) {
+        var results = messages.stream()
+                .map(message -> new CompletableFuture<String>())
+                .toList();
+        if (messages.isEmpty()) {
+            return results;
         }
+        log.debug("RedisClient.sendMessages.in size={}", messages.size());
+        redisPool.acquire().whenComplete(withMdc((connection, acquireThrowable) -> {
+            if (acquireThrowable != null) {
+                log.error("RedisClient.sendMessages.thrown {}", acquireThrowable.getMessage());
+                var exception = newRetryableException(acquireThrowable, resolve(), REDIS_SEND, acquireThrowable.getMessage());
+                results.forEach(result -> result.completeExceptionally(exception));
+                return;
+            }
+            var commands = connection.async();
+            var futures = new ArrayList<CompletableFuture<String>>(messages.size());
+            var enqueuedAt = System.currentTimeMillis();
+            connection.setAutoFlushCommands(false);
+            try {
+                for (var message : messages) {
+                    try {
+                        var envelope = EnvelopeCodec.encode(
+                                message.messageId(),
+                                message.partitionKey(),
+                                message.traceId(),
+                                enqueuedAt,
+                                mapper.apply(message.payload())
+                        );
+                        futures.add(commands
+                                .xadd(message.streamKey(), Map.of(ENVELOPE_FIELD, envelope))
+                                .toCompletableFuture());
+                    } catch (Exception e) {
+                        futures.add(CompletableFuture.failedFuture(e));
+                    }
+                }
+            } finally {
+                connection.flushCommands();
+                connection.setAutoFlushCommands(true);
+            }
+            for (int i = 0; i < messages.size(); i++) {
+                var message = messages.get(i);
+                var result = results.get(i);
+                futures.get(i).whenComplete(withMdc((streamMessageId, throwable) -> {
+                    if (throwable != null) {
+                        log.error("RedisClient.sendMessage.thrown redisMessageId={} {}", message.messageId(), throwable.getMessage());
+                        result.completeExceptionally(newRetryableException(throwable, resolve(), REDIS_SEND, throwable.getMessage()));
+                        return;
+                    }
+                    if (log.isDebugEnabled()) {
+                        var loggedMessage = logMapper.apply(message.payload());
+                        log.debug("RedisClient.sendMessage.out redisMessageId={} stream={} message={}", message.messageId(), message.streamKey(), loggedMessage);
+                    }
+                    result.complete(streamMessageId);
+                }));
+            }
+            CompletableFuture.allOf(futures.toArray(CompletableFuture<?>[]::new))
+                    .whenComplete((v, throwable) -> redisPool.release(connection));
+        }));
+        return results;
     }
 
+    /**
+     * Чтение очередной пачки сообщений из стрима без обработки.
+     * Сообщения подтверждаются сразу после чтения.
+     */
     public <T> CompletionStage<List<Map.Entry<String, T>>> subscribe(String streamKey,
-                                                                     Function<byte[], T> mapper,
+                                                                     Function<Envelope, T> mapper,
                                                                      Function<T, String> logMapper) {
+        var result = new ArrayList<Map.Entry<String, T>>();
+        return subscribe(streamKey, mapper, logMapper, entry -> {
+            result.add(entry);
+            return CompletableFuture.completedFuture(null);
+        }).thenApply(size -> result);
+    }
+
+    public <T> CompletionStage<Integer> subscribe(String streamKey,
+                                                  Function<Envelope, T> mapper,
+                                                  Function<T, String> logMapper,
+                                                  Function<Map.Entry<String, T>, ? extends CompletionStage<?>> handler) {
+        return subscribe(streamKey, 0, mapper, logMapper, handler);
+    }
+
+    public <T> CompletionStage<Integer> subscribe(String streamKey,
+                                                  int consumerIndex,
+                                                  Function<Envelope, T> mapper,
+                                                  Function<T, String> logMapper,
+                                                  Function<Map.Entry<String, T>, ? extends CompletionStage<?>> handler) {
+        return subscribe(List.of(streamKey), consumerIndex, InFlightLimiter.unbounded(), mapper, logMapper, handler);
+    }
+
+    /**
+     * Чтение очередной пачки сообщений из стримов (партиций одного логического стрима) и передача каждого сообщения
+     * в обработчик.
+     * Чтение выполняется от имени потребителя {имя экземпляра}-{consumerIndex}, что позволяет нескольким потребителям
+     * одного и нескольких экземпляров приложения читать стрим параллельно.
+     * Используется выделенное соединение на каждого потребителя, т.к. XREADGROUP BLOCK занимает соединение
+     * до прихода сообщений или истечения таймаута.
+     * Сообщения с одинаковым ключом партиции из заголовка конверта обрабатываются последовательно в порядке следования в стриме,
+     * остальные - параллельно, но не более, чем позволяет limiter: чтение начинается только при наличии свободного
+     * места в limiter и запрашивает не больше сообщений, чем его зарезервировано, а каждое сообщение занимает разрешение
+     * на время обработки. COUNT в XREADGROUP ограничивает количество сообщений каждого стрима, поэтому
+     * зарезервированные места делятся между стримами поровну, а если мест меньше, чем стримов, за одно чтение
+     * читается по одному сообщению из стольких стримов, сколько мест зарезервировано, начиная со случайного.
+     * Сообщения пачки подтверждаются одним XACK на стрим после завершения всех обработчиков. Если включен признак
+     * redis.consumer.ack-processed-only, то подтверждаются только успешно обработанные сообщения, остальные остаются
+     * в списке ожидающих подтверждения. Сообщения, конверт которых не разбирается, записываются как есть в стрим
+     * недоставленных сообщений этапа и подтверждаются.
+     * Если limiter допускает чтение наперёд ({@link InFlightLimiter#isReadAhead}), результат возвращается сразу после
+     * передачи сообщений в обработку, и следующая пачка читается, пока обрабатывается текущая.
+     *
+     * @return количество прочитанных сообщений
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletionStage<Integer> subscribe(List<String> streamKeys,
+                                                  int consumerIndex,
+                                                  InFlightLimiter limiter,
+                                                  Function<Envelope, T> mapper,
+                                                  Function<T, String> logMapper,
+                                                  Function<Map.Entry<String, T>, ? extends CompletionStage<?>> handler) {
+        if (streamKeys.isEmpty()) {
+            return CompletableFuture.completedFuture(0);
+        }
+        var consumer = Consumer.from(applicationConsumer.getGroup(), applicationConsumer.getName() + "-" + consumerIndex);
+        StatefulRedisConnection<String, byte[]> connection;
+        try {
+            connection = consumerConnections.computeIfAbsent(new ConsumerConnectionKey(streamKeys, consumer.getName()), key -> {
+                streamKeys.forEach(streamKey -> registeredConsumers.add(new StreamConsumer(streamKey, consumer.getName())));
+                return redisConsumerConnectionFactory.get();
+            });
+        } catch (Exception e) {
+            log.error("RedisClient.subscribe.thrown {}", e.getMessage());
+            return CompletableFuture.failedFuture(newRetryableException(e, resolve(), REDIS_SUBSCRIBE, e.getMessage()));
+        }
+        return limiter.reserve(batchSize)
+                .thenCompose(reserved -> {
+                    var streamCount = Math.min(reserved, streamKeys.size());
+                    var from = streamCount == streamKeys.size() ? 0 : ThreadLocalRandom.current().nextInt(streamKeys.size());
+                    var offsets = new XReadArgs.StreamOffset[streamCount];
+                    for (int i = 0; i < streamCount; i++) {
+                        offsets[i] = XReadArgs.StreamOffset.lastConsumed(streamKeys.get((from + i) % streamKeys.size()));
+                    }
+                    var readArgs = XReadArgs.Builder
+                            .block(blockTimeoutMillis)
+                            .count(reserved / streamCount);
+                    return connection.async().xreadgroup(consumer, readArgs, (XReadArgs.StreamOffset<String>[]) offsets)
+                            .whenComplete((messages, throwable) -> limiter.unreserve(messages == null ? reserved : reserved - messages.size()));
+                })
+                .handleAsync(withMdc((messages, throwable) -> {
+                    if (throwable != null) {
+                        log.error("RedisClient.subscribe.thrown {}", throwable.getMessage());
+                        throw newRetryableException(throwable, resolve(), REDIS_SUBSCRIBE, throwable.getMessage());
+                    }
+                    return messages == null
+                            ? List.<StreamMessage<String, byte[]>>of()
+                            : messages;
+                }))
+                .thenCompose(withMdc(messages -> {
+                    return handle(StreamMessage::getStream, messages, limiter, mapper, logMapper, handler);
+                }));
+    }
+
+    /**
+     * Перехват сообщений, которые были выданы потребителям группы, но не подтверждены дольше redis.reclaim.min-idle-millis
+     * (например, потребитель упал во время обработки). Стрим просматривается XAUTOCLAIM пачками до конца списка
+     * ожидающих подтверждения, каждая пачка обрабатывается так же, как при чтении через {@link #subscribe}.
+     *
+     * @return количество перехваченных сообщений
+     */
+    public <T> CompletionStage<Integer> claim(List<String> streamKeys,
+                                              InFlightLimiter limiter,
+                                              Function<Envelope, T> mapper,
+                                              Function<T, String> logMapper,
+                                              Function<Map.Entry<String, T>, ? extends CompletionStage<?>> handler) {
+        CompletionStage<Integer> result = CompletableFuture.completedFuture(0);
+        for (var streamKey : streamKeys) {
+            result = result.thenCompose(claimed -> claim(streamKey, "0-0", claimed, limiter, mapper, logMapper, handler));
+        }
+        return result;
+    }
+
+    private <T> CompletionStage<Integer> claim(String streamKey,
+                                               String startId,
+                                               int claimed,
+                                               InFlightLimiter limiter,
+                                               Function<Envelope, T> mapper,
+                                               Function<T, String> logMapper,
+                                               Function<Map.Entry<String, T>, ? extends CompletionStage<?>> handler) {
+        registeredConsumers.add(new StreamConsumer(streamKey, applicationConsumer.getName()));
+        return limiter.reserve(claimBatchSize)
+                .thenCompose(reserved -> redisPool.acquire()
+                        .thenCompose(connection -> connection.async()
+                                .xautoclaim(streamKey, XAutoClaimArgs.Builder.xautoclaim(applicationConsumer, claimMinIdleTime, startId).count(reserved))
+                                .whenComplete((claimedMessages, throwable) -> redisPool.release(connection))
+                        )
+                        .whenComplete((claimedMessages, throwable) -> limiter.unreserve(throwable != null
+                                ? reserved
+                                : reserved - (int) claimedMessages.getMessages().stream().filter(message -> message.getBody() != null).count()))
+                )
+                .exceptionally(withMdc((Function<Throwable, ClaimedMessages<String, byte[]>>) throwable -> {
+                    log.error("RedisClient.claim.thrown {}", throwable.getMessage());
+                    throw newRetryableException(throwable, resolve(), REDIS_SUBSCRIBE, throwable.getMessage());
+                }))
+                .thenCompose(withMdc(claimedMessages -> {
+                    var messages = claimedMessages.getMessages().stream()
+                            .filter(message -> message.getBody() != null)
+                            .toList();
+                    return handle(message -> streamKey, messages, limiter, mapper, logMapper, handler)
+                            .thenCompose(withMdc(count -> {
+                                var nextId = claimedMessages.getId();
+                                if (nextId == null || "0-0".equals(nextId)) {
+                                    return CompletableFuture.completedFuture(claimed + count);
+                                }
+                                return claim(streamKey, nextId, claimed + count, limiter, mapper, logMapper, handler);
+                            }));
+                }));
+    }
+
+    /**
+     * @return количество сообщений стримов, выданных группе и ещё не подтверждённых
+     */
+    public CompletionStage<Long> pendingCount(List<String> streamKeys) {
+        CompletionStage<Long> result = CompletableFuture.completedFuture(0L);
+        for (var streamKey : streamKeys) {
+            result = result.thenCombine(pendingCount(streamKey), Long::sum);
+        }
+        return result;
+    }
+
+    private CompletionStage<Long> pendingCount(String streamKey) {
+        return redisPool.acquire()
+                .thenCompose(connection -> connection.async()
+                        .xpending(streamKey, applicationConsumer.getGroup())
+                        .whenComplete((pendingMessages, throwable) -> redisPool.release(connection))
+                )
+                .thenApply(PendingMessages::getCount)
+                .exceptionally(withMdc((Function<Throwable, Long>) throwable -> {
+                    log.error("RedisClient.pendingCount.thrown {}", throwable.getMessage());
+                    throw newRetryableException(throwable, resolve(), REDIS_SUBSCRIBE, throwable.getMessage());
+                }));
+    }
+
+    /**
+     * Помещение сообщения в очередь отложенной отправки - сортированное множество, упорядоченное по времени отправки.
+     */
+    public CompletionStage<Long> delay(String delayQueueKey, long dueAt, byte[] message) {
+        return redisPool.acquire()
+                .thenCompose(connection -> connection.async()
+                        .zadd(delayQueueKey, (double) dueAt, message)
+                        .whenComplete((count, throwable) -> redisPool.release(connection))
+                )
+                .exceptionally(withMdc((Function<Throwable, Long>) throwable -> {
+                    log.error("RedisClient.delay.thrown {}", throwable.getMessage());
+                    throw newRetryableException(throwable, resolve(), REDIS_SEND, throwable.getMessage());
+                }));
+    }
+
+    /**
+     * Выдача из очереди отложенной отправки не более limit сообщений, время отправки которых наступило, в аренду
+     * до leaseUntil. Выборка и продление выполняются одним скриптом, поэтому до окончания аренды сообщение не может
+     * быть выдано повторно при работе нескольких экземпляров приложения. Отправленное сообщение удаляется
+     * ({@link #removeDelayed}), иначе после окончания аренды оно будет выдано снова.
+     */
+    public CompletionStage<List<byte[]>> leaseDue(String delayQueueKey, long now, long leaseUntil, int limit) {
+        return redisPool.acquire()
+                .thenCompose(connection -> connection.async()
+                        .<List<byte[]>>eval(
+                                LEASE_DUE_SCRIPT,
+                                ScriptOutputType.MULTI,
+                                new String[]{delayQueueKey},
+                                String.valueOf(now).getBytes(StandardCharsets.UTF_8),
+                                String.valueOf(limit).getBytes(StandardCharsets.UTF_8),
+                                String.valueOf(leaseUntil).getBytes(StandardCharsets.UTF_8)
+                        )
+                        .whenComplete((messages, throwable) -> redisPool.release(connection))
+                )
+                .exceptionally(withMdc((Function<Throwable, List<byte[]>>) throwable -> {
+                    log.error("RedisClient.leaseDue.thrown {}", throwable.getMessage());
+                    throw newRetryableException(throwable, resolve(), REDIS_SUBSCRIBE, throwable.getMessage());
+                }));
+    }
+
+    /**
+     * Удаление сообщений из очереди отложенной отправки.
+     */
+    public CompletionStage<Long> removeDelayed(String delayQueueKey, List<byte[]> messages) {
+        return redisPool.acquire()
+                .thenCompose(connection -> connection.async()
+                        .zrem(delayQueueKey, messages.toArray(byte[][]::new))
+                        .whenComplete((count, throwable) -> redisPool.release(connection))
+                )
+                .exceptionally(withMdc((Function<Throwable, Long>) throwable -> {
+                    log.error("RedisClient.removeDelayed.thrown {}", throwable.getMessage());
+                    throw newRetryableException(throwable, resolve(), REDIS_ACK, throwable.getMessage());
+                }));
+    }
+
+    /**
+     * Установка срока саги: компенсация сохраняется в хеше compensationsKey, срок - в сортированном множестве deadlinesKey.
+     * Команды сроков выполняются через одно соединение в порядке вызова, поэтому снятие срока ({@link #removeDeadline})
+     * не может быть выполнено раньше установки, вызванной до него.
+     */
+    public CompletionStage<Long> setDeadline(String deadlinesKey, String compensationsKey, String sagaId, long deadline, byte[] compensation) {
+        var commands = deadlineConnection().async();
+        var stored = commands.hset(compensationsKey, sagaId, compensation);
+        return stored.thenCombine(commands.zadd(deadlinesKey, (double) deadline, sagaId.getBytes(StandardCharsets.UTF_8)), (isNew, count) -> count)
+                .exceptionally(withMdc((Function<Throwable, Long>) throwable -> {
+                    log.error("RedisClient.setDeadline.thrown {}", throwable.getMessage());
+                    throw newRetryableException(throwable, resolve(), REDIS_SEND, throwable.getMessage());
+                }));
+    }
+
+    /**
+     * Перенос срока саги, если он установлен.
+     */
+    public CompletionStage<Long> extendDeadline(String deadlinesKey, String sagaId, long deadline) {
+        return deadlineConnection().async()
+                .zadd(deadlinesKey, ZAddArgs.Builder.xx(), (double) deadline, sagaId.getBytes(StandardCharsets.UTF_8))
+                .exceptionally(withMdc((Function<Throwable, Long>) throwable -> {
+                    log.error("RedisClient.extendDeadline.thrown {}", throwable.getMessage());
+                    throw newRetryableException(throwable, resolve(), REDIS_SEND, throwable.getMessage());
+                }));
+    }
+
+    /**
+     * Замена компенсации и срока саги, если её компенсация ещё не выдана ({@link #claimDeadlines}). Выполняется одним
+     * скриптом, поэтому из перехода саги к следующему шагу и выдачи её компенсации по истечении срока выполняется
+     * только то, что произошло раньше.
+     *
+     * @return false, если компенсация саги уже выдана
+     */
+    public CompletionStage<Boolean> advanceDeadline(String deadlinesKey,
+                                                    String compensationsKey,
+                                                    String compensatedKey,
+                                                    String sagaId,
+                                                    long deadline,
+                                                    byte[] compensation) {
+        return deadlineConnection().async()
+                .<Long>eval(ADVANCE_DEADLINE_SCRIPT, ScriptOutputType.INTEGER, new String[]{deadlinesKey, compensationsKey, compensatedKey},
+                        sagaId.getBytes(StandardCharsets.UTF_8),
+                        String.valueOf(deadline).getBytes(StandardCharsets.UTF_8),
+                        compensation)
+                .thenApply(result -> result == 1L)
+                .exceptionally(withMdc((Function<Throwable, Boolean>) throwable -> {
+                    log.error("RedisClient.advanceDeadline.thrown {}", throwable.getMessage());
+                    throw newRetryableException(throwable, resolve(), REDIS_SEND, throwable.getMessage());
+                }));
+    }
+
+    /**
+     * Снятие срока саги, если её компенсация ещё не выдана ({@link #claimDeadlines}).
+     *
+     * @return false, если компенсация саги уже выдана
+     */
+    public CompletionStage<Boolean> finishDeadline(String deadlinesKey, String compensationsKey, String compensatedKey, String sagaId) {
+        return deadlineConnection().async()
+                .<Long>eval(FINISH_DEADLINE_SCRIPT, ScriptOutputType.INTEGER, new String[]{deadlinesKey, compensationsKey, compensatedKey},
+                        sagaId.getBytes(StandardCharsets.UTF_8))
+                .thenApply(result -> result == 1L)
+                .exceptionally(withMdc((Function<Throwable, Boolean>) throwable -> {
+                    log.error("RedisClient.finishDeadline.thrown {}", throwable.getMessage());
+                    throw newRetryableException(throwable, resolve(), REDIS_ACK, throwable.getMessage());
+                }));
+    }
+
+    public CompletionStage<Long> removeDeadline(String deadlinesKey, String compensationsKey, String sagaId) {
+        var commands = deadlineConnection().async();
+        var removed = commands.zrem(deadlinesKey, sagaId.getBytes(StandardCharsets.UTF_8));
+        return removed.thenCombine(commands.hdel(compensationsKey, sagaId), (count, ignored) -> count)
+                .exceptionally(withMdc((Function<Throwable, Long>) throwable -> {
+                    log.error("RedisClient.removeDeadline.thrown {}", throwable.getMessage());
+                    throw newRetryableException(throwable, resolve(), REDIS_ACK, throwable.getMessage());
+                }));
+    }
+
+    /**
+     * Выдача компенсаций саг sagaIds, срок которых наступил к now, либо, если sagaIds пуст, не более limit любых
+     * просроченных саг. Срок выданных саг переносится на nextDeadline, сами саги запоминаются в compensatedKey до
+     * forgetBefore, чтобы шаг, завершившийся после выдачи компенсации, не перешёл к следующему
+     * ({@link #advanceDeadline}). Выполняется одним скриптом, поэтому при работе нескольких экземпляров приложения
+     * компенсация выдаётся один раз за срок.
+     */
+    public CompletionStage<List<byte[]>> claimDeadlines(String deadlinesKey,
+                                                        String compensationsKey,
+                                                        String compensatedKey,
+                                                        long now,
+                                                        long nextDeadline,
+                                                        long forgetBefore,
+                                                        int limit,
+                                                        List<String> sagaIds) {
+        var args = new byte[4 + sagaIds.size()][];
+        args[0] = String.valueOf(now).getBytes(StandardCharsets.UTF_8);
+        args[1] = String.valueOf(nextDeadline).getBytes(StandardCharsets.UTF_8);
+        args[2] = String.valueOf(limit).getBytes(StandardCharsets.UTF_8);
+        args[3] = String.valueOf(forgetBefore).getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < sagaIds.size(); i++) {
+            args[4 + i] = sagaIds.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        return redisPool.acquire()
+                .thenCompose(connection -> connection.async()
+                        .<List<byte[]>>eval(CLAIM_DEADLINES_SCRIPT, ScriptOutputType.MULTI, new String[]{deadlinesKey, compensationsKey, compensatedKey}, args)
+                        .whenComplete((compensations, throwable) -> redisPool.release(connection))
+                )
+                .exceptionally(withMdc((Function<Throwable, List<byte[]>>) throwable -> {
+                    log.error("RedisClient.claimDeadlines.thrown {}", throwable.getMessage());
+                    throw newRetryableException(throwable, resolve(), REDIS_SUBSCRIBE, throwable.getMessage());
+                }));
+    }
+
+    /**
+     * Чтение не более count сообщений стрима без участия группы потребителей (XRANGE), начиная со следующего за afterId.
+     */
+    public CompletionStage<List<StreamMessage<String, byte[]>>> range(String streamKey, String afterId, int count) {
+        var range = Range.from(Range.Boundary.excluding(afterId), Range.Boundary.<String>unbounded());
+        return redisPool.acquire()
+                .thenCompose(connection -> connection.async()
+                        .xrange(streamKey, range, Limit.from(count))
+                        .whenComplete((messages, throwable) -> redisPool.release(connection))
+                )
+                .exceptionally(withMdc((Function<Throwable, List<StreamMessage<String, byte[]>>>) throwable -> {
+                    log.error("RedisClient.range.thrown {}", throwable.getMessage());
+                    throw newRetryableException(throwable, resolve(), REDIS_SUBSCRIBE, throwable.getMessage());
+                }));
+    }
+
+    /**
+     * Удаление сообщений из стрима (XDEL).
+     */
+    public CompletionStage<Long> delete(String streamKey, String... ids) {
+        if (ids.length == 0) {
+            return CompletableFuture.completedFuture(0L);
+        }
+        return redisPool.acquire()
+                .thenCompose(connection -> connection.async()
+                        .xdel(streamKey, ids)
+                        .whenComplete((count, throwable) -> redisPool.release(connection))
+                )
+                .exceptionally(withMdc((Function<Throwable, Long>) throwable -> {
+                    log.error("RedisClient.delete.thrown {}", throwable.getMessage());
+                    throw newRetryableException(throwable, resolve(), REDIS_ACK, throwable.getMessage());
+                }));
+    }
+
+    /**
+     * Удаление из стрима сообщений, которые уже обработаны всеми группами потребителей (XTRIM MINID ~).
+     * Граница очистки - наименьший из идентификаторов последнего выданного группе сообщения (last-delivered-id)
+     * и первого неподтверждённого сообщения группы по всем группам стрима, поэтому ещё не выданные и неподтверждённые
+     * сообщения не удаляются никогда. Дополнительно сохраняются сообщения моложе minRetentionMillis.
+     * Стрим без групп не очищается.
+     *
+     * @return количество удалённых сообщений
+     */
+    public CompletionStage<Long> trim(String streamKey, long minRetentionMillis) {
         return redisPool.acquire()
                 .thenCompose(connection -> {
-                    var asyncCommands = connection.async();
-                    return asyncCommands
-                            .xreadgroup(applicationConsumer, XReadArgs.StreamOffset.lastConsumed(streamKey))
-                            .handleAsync(withMdc((messages, throwable) -> {
-                                if (messages != null && !messages.isEmpty()) {
-                                    log.debug("RedisClient.subscribe.in");
-                                    var result = messages.stream()
-                                            .map(message -> {
-                                                asyncCommands.xack(streamKey, applicationConsumer.getGroup(), message.getId());
-                                                try {
-                                                    var resultMessage = mapper.apply(message.getBody().get("payload"));
-                                                    var messageId = new String(message.getBody().get(REDIS_MESSAGE_ID), StandardCharsets.UTF_8);
-                                                    MDC.put(REDIS_MESSAGE_ID, messageId);
-                                                    if (log.isDebugEnabled()) {
-                                                        var loggedMessage = logMapper.apply(resultMessage);
-                                                        log.debug("RedisClient.subscribeMessage stream={} message={}", streamKey, loggedMessage);
-                                                    }
-                                                    return Map.entry(messageId, resultMessage);
-                                                } catch (Exception e) {
-                                                    log.error("RedisClient.subscribeMessage.thrown", e);
-                                                    return null;
-                                                } finally {
-                                                    MDC.remove(REDIS_MESSAGE_ID);
-                                                }
-                                            })
-                                            .filter(Objects::nonNull)
-                                            .toList();
-                                    log.debug("RedisClient.subscribe.out size={}", result.size());
-                                    return result;
+                    var commands = connection.async();
+                    return commands.xinfoGroups(streamKey)
+                            .thenCompose(groups -> safeTrimId(commands, streamKey, groups))
+                            .thenCompose(safeId -> {
+                                if (safeId == null) {
+                                    return CompletableFuture.completedFuture(0L);
                                 }
-                                return List.<Map.Entry<String, T>>of();
-                            }))
-                            .thenApply(withMdc((list) -> {
-                                redisPool.release(connection);
-                                return list;
-                            }));
+                                var retentionId = (System.currentTimeMillis() - minRetentionMillis) + "-0";
+                                var minId = compareIds(safeId, retentionId) <= 0 ? safeId : retentionId;
+                                return commands.xtrim(streamKey, XTrimArgs.Builder.minId(minId).approximateTrimming());
+                            })
+                            .whenComplete((trimmed, throwable) -> redisPool.release(connection));
                 })
-                .exceptionally(withMdc((Function<Throwable, List<Map.Entry<String, T>>>) throwable -> {
-                    throw newRetryableException(throwable, resolve(), REDIS_SUBSCRIBE, throwable.getMessage());
+                .exceptionally(withMdc((Function<Throwable, Long>) throwable -> {
+                    log.error("RedisClient.trim.thrown {}", throwable.getMessage());
+                    throw newRetryableException(throwable, resolve(), REDIS_TRIM, throwable.getMessage());
+                }));
+    }
+
+    /**
+     * @return длина стрима и занимаемая им память в байтах
+     */
+    public CompletionStage<StreamStats> stats(String streamKey) {
+        return redisPool.acquire()
+                .thenCompose(connection -> {
+                    var commands = connection.async();
+                    return commands.xlen(streamKey)
+                            .thenCombine(commands.memoryUsage(streamKey), (length, memory) -> new StreamStats(length, memory == null ? 0 : memory))
+                            .whenComplete((stats, throwable) -> redisPool.release(connection));
+                })
+                .exceptionally(withMdc((Function<Throwable, StreamStats>) throwable -> {
+                    log.error("RedisClient.stats.thrown {}", throwable.getMessage());
+                    throw newRetryableException(throwable, resolve(), REDIS_TRIM, throwable.getMessage());
+                }));
+    }
+
+    private CompletionStage<String> safeTrimId(RedisAsyncCommands<String, byte[]> commands, String streamKey, List<Object> groups) {
+        if (groups.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletionStage<String> result = CompletableFuture.completedFuture(null);
+        for (var group : groups) {
+            var fields = toFields((List<?>) group);
+            var lastDeliveredId = fields.get("last-delivered-id");
+            var pending = Long.parseLong(fields.get("pending"));
+            CompletionStage<String> groupSafeId = pending == 0
+                    ? CompletableFuture.completedFuture(lastDeliveredId)
+                    : commands.xpending(streamKey, fields.get("name"))
+                    .thenApply(pendingMessages -> pendingMessages.getMessageIds().getLower().getValue());
+            result = result.thenCombine(groupSafeId, (current, candidate) -> current == null || compareIds(candidate, current) < 0
+                    ? candidate
+                    : current);
+        }
+        return result;
+    }
+
+    private static Map<String, String> toFields(List<?> values) {
+        var fields = new HashMap<String, String>();
+        for (int i = 0; i + 1 < values.size(); i += 2) {
+            fields.put(toString(values.get(i)), toString(values.get(i + 1)));
+        }
+        return fields;
+    }
+
+    private static String toString(Object value) {
+        return value instanceof byte[] bytes
+                ? new String(bytes, StandardCharsets.UTF_8)
+                : String.valueOf(value);
+    }
+
+    private static int compareIds(String first, String second) {
+        var firstParts = first.split("-");
+        var secondParts = second.split("-");
+        var result = Long.compareUnsigned(Long.parseUnsignedLong(firstParts[0]), Long.parseUnsignedLong(secondParts[0]));
+        if (result != 0) {
+            return result;
+        }
+        return Long.compareUnsigned(Long.parseUnsignedLong(firstParts[1]), Long.parseUnsignedLong(secondParts[1]));
+    }
+
+    private <T> CompletionStage<Integer> handle(Function<StreamMessage<String, byte[]>, String> streamResolver,
+                                                List<StreamMessage<String, byte[]>> messages,
+                                                InFlightLimiter limiter,
+                                                Function<Envelope, T> mapper,
+                                                Function<T, String> logMapper,
+                                                Function<Map.Entry<String, T>, ? extends CompletionStage<?>> handler) {
+        if (messages.isEmpty()) {
+            return CompletableFuture.completedFuture(0);
+        }
+        log.debug("RedisClient.subscribe.in size={}", messages.size());
+        var lastByPartitionKey = new HashMap<String, CompletableFuture<Object>>();
+        var futures = new ArrayList<CompletableFuture<StreamMessage<String, byte[]>>>(messages.size());
+        for (var message : messages) {
+            var streamKey = streamResolver.apply(message);
+            Envelope envelope;
+            try {
+                envelope = EnvelopeCodec.decode(message.getBody().get(ENVELOPE_FIELD));
+            } catch (Exception e) {
+                log.error("RedisClient.subscribeMessage.thrown сообщение {} не может быть разобрано", message.getId(), e);
+                futures.add(deadLetterUndecodable(streamKey, message, e).handle((deadLetterId, throwable) -> {
+                    limiter.unreserve(1);
+                    return throwable == null || !ackProcessedOnly
+                            ? new StreamMessage<>(streamKey, message.getId(), null)
+                            : null;
+                }));
+                continue;
+            }
+            var forwardContext = atomicAckForward
+                    ? new ForwardContext(streamKey, message.getId())
+                    : null;
+            var orderingKey = envelope.getPartitionKey().isEmpty()
+                    ? null
+                    : streamKey + "/" + envelope.getPartitionKey();
+            var previous = orderingKey == null
+                    ? null
+                    : lastByPartitionKey.get(orderingKey);
+            var handled = (previous == null
+                    ? limiter.acquire()
+                    : previous
+                    .handle((result, throwable) -> (Void) null)
+                    .thenCompose(v -> limiter.acquire()))
+                    .thenCompose(withMdc(v -> {
+                        return dispatch(streamKey, envelope, forwardContext, mapper, logMapper, handler)
+                                .whenComplete((result, throwable) -> limiter.release());
+                    }));
+            if (orderingKey != null) {
+                lastByPartitionKey.put(orderingKey, handled);
+            }
+            futures.add(handled.handle((result, throwable) -> {
+                limiter.unreserve(1);
+                if (forwardContext != null && forwardContext.acknowledged) {
+                    return null;
+                }
+                return throwable == null || !ackProcessedOnly
+                        ? new StreamMessage<>(streamKey, message.getId(), null)
+                        : null;
+            }));
+        }
+        var processed = CompletableFuture.allOf(futures.toArray(CompletableFuture<?>[]::new))
+                .thenCompose(withMdc(v -> {
+                    var idsByStream = futures.stream()
+                            .map(CompletableFuture::join)
+                            .filter(Objects::nonNull)
+                            .collect(Collectors.groupingBy(StreamMessage::getStream, Collectors.mapping(StreamMessage::getId, Collectors.toList())));
+                    log.debug("RedisClient.subscribe.out size={} acknowledged={}", messages.size(), idsByStream.values().stream().mapToInt(List::size).sum());
+                    if (atomicAckForward) {
+                        return ackAndForward(idsByStream, List.of()).thenApply(ignored -> messages.size());
+                    }
+                    var acks = idsByStream.entrySet().stream()
+                            .map(entry -> ack(entry.getKey(), entry.getValue().toArray(String[]::new)).toCompletableFuture())
+                            .toArray(CompletableFuture<?>[]::new);
+                    return CompletableFuture.allOf(acks).thenApply(ignored -> messages.size());
+                }));
+        return limiter.isReadAhead()
+                ? CompletableFuture.completedFuture(messages.size())
+                : processed;
+    }
+
+    /**
+     * запись сообщения, конверт которого не разбирается, в стрим недоставленных сообщений этапа как есть, с кодом ошибки
+     * разбора. после записи сообщение подтверждается, а не остаётся в списке ожидающих подтверждения навсегда
+     */
+    private CompletableFuture<String> deadLetterUndecodable(String streamKey, StreamMessage<String, byte[]> message, Exception e) {
+        var streamName = StreamPartitioner.streamName(streamKey);
+        var exception = newInvocationException(e, resolve(), REDIS_DECODE);
+        var body = message.getBody() == null ? null : message.getBody().get(ENVELOPE_FIELD);
+        var deadLetter = DeadLetter.newBuilder()
+                .setOriginStream(streamName)
+                .setMessageId(message.getId())
+                .setPayload(body == null ? ByteString.EMPTY : ByteString.copyFrom(body))
+                .setErrorCode(exception.getFullErrorCode())
+                .setErrorMessage(Objects.requireNonNullElse(e.getMessage(), ""))
+                .setFailedAt(System.currentTimeMillis())
+                .build();
+        var outgoingMessage = new OutgoingMessage<>(RedisClientAdapter.deadLetterStream(streamName), null, message.getId(), deadLetter);
+        return sendMessages(List.of(outgoingMessage), EnvelopeCodec::body, ProtoUtils::toPrettyString).get(0);
+    }
+
+    /**
+     * обработчик вызывается с идентификатором сообщения и идентификатором трассировки из заголовка конверта в MDC.
+     * при redis.consumer.atomic-ack-forward=true в MDC также кладётся идентификатор вызова {@link #REDIS_FORWARD_CONTEXT_ID},
+     * он действителен до завершения обработчика
+     */
+    private <T> CompletableFuture<Object> dispatch(String streamKey,
+                                                   Envelope envelope,
+                                                   @Nullable ForwardContext forwardContext,
+                                                   Function<Envelope, T> mapper,
+                                                   Function<T, String> logMapper,
+                                                   Function<Map.Entry<String, T>, ? extends CompletionStage<?>> handler) {
+        var mdc = Objects.requireNonNullElseGet(MDC.getCopyOfContextMap(), HashMap::new);
+        mdc.put(REDIS_MESSAGE_ID, envelope.getMessageId());
+        if (!envelope.getTraceId().isEmpty()) {
+            mdc.put(TRACE_ID, envelope.getTraceId());
+        }
+        var forwardContextId = forwardContext == null
+                ? null
+                : String.valueOf(forwardContextSequence.incrementAndGet());
+        if (forwardContextId != null) {
+            forwardContexts.put(forwardContextId, forwardContext);
+            mdc.put(REDIS_FORWARD_CONTEXT_ID, forwardContextId);
+        }
+        CompletableFuture<Object> result = withMdc(mdc, () -> {
+            try {
+                var entry = decode(streamKey, envelope, mapper, logMapper);
+                return handler.apply(entry).toCompletableFuture().thenApply(handlerResult -> (Object) handlerResult);
+            } catch (Exception e) {
+                log.error("RedisClient.subscribeMessage.thrown", e);
+                return CompletableFuture.failedFuture(e);
+            }
+        }).get();
+        if (forwardContextId == null) {
+            return result;
+        }
+        return result.whenComplete((handlerResult, throwable) -> forwardContexts.remove(forwardContextId));
+    }
+
+    private <T> Map.Entry<String, T> decode(String streamKey,
+                                            Envelope envelope,
+                                            Function<Envelope, T> mapper,
+                                            Function<T, String> logMapper) {
+        var resultMessage = mapper.apply(envelope);
+        var messageId = envelope.getMessageId();
+        if (log.isDebugEnabled()) {
+            var loggedMessage = logMapper.apply(resultMessage);
+            log.debug("RedisClient.subscribeMessage stream={} message={}", streamKey, loggedMessage);
+        }
+        return Map.entry(messageId, resultMessage);
+    }
+
+    /**
+     * при redis.consumer.atomic-ack-forward=true первое сообщение, которое отправляется при обработке записи стрима
+     * (следующий шаг саги, откат, недоставленное сообщение), записывается в стрим одним скриптом вместе с подтверждением
+     * этой записи (см. {@link #ackAndForward}). так сообщение не теряется и не дублируется, если экземпляр упадёт
+     * между отправкой и подтверждением. запись находится по {@link #REDIS_FORWARD_CONTEXT_ID} из MDC, поэтому
+     * записи одной саги, которые обрабатываются одновременно, не мешают друг другу.
+     * результат завершается после выполнения скрипта идентификатором записи отправленного сообщения или null,
+     * если запись уже подтвердил другой обработчик (например, её дубль, перехваченный у другого потребителя). при ошибке
+     * запись остаётся неподтверждённой, и обработчик может отправить другое сообщение (повтор, откат).
+     * подтверждённая запись не подтверждается повторно вместе с пачкой
+     *
+     * @return null, если вызов происходит не из обработчика записи или запись уже подтверждена,
+     * тогда сообщение нужно отправить обычным способом
+     */
+    @Nullable
+    public <T> CompletableFuture<String> forward(OutgoingMessage<T> message, Function<T, byte[]> mapper) {
+        if (!atomicAckForward) {
+            return null;
+        }
+        var forwardContextId = MDC.get(REDIS_FORWARD_CONTEXT_ID);
+        var context = forwardContextId == null
+                ? null
+                : forwardContexts.get(forwardContextId);
+        if (context == null || !context.forwarding.compareAndSet(false, true)) {
+            return null;
+        }
+        var envelope = EnvelopeCodec.encode(
+                message.messageId(),
+                message.partitionKey(),
+                message.traceId(),
+                System.currentTimeMillis(),
+                mapper.apply(message.payload())
+        );
+        log.debug("RedisClient.forward.in redisMessageId={} source={} sourceId={} stream={}",
+                message.messageId(), context.streamKey, context.entryId, message.streamKey());
+        return ackAndForward(Map.of(context.streamKey, List.of(context.entryId)), List.of(new ForwardedMessage(message.streamKey(), envelope)))
+                .toCompletableFuture()
+                .whenComplete((ids, throwable) -> {
+                    if (throwable == null) {
+                        context.acknowledged = true;
+                    } else {
+                        context.forwarding.set(false);
+                    }
+                })
+                .thenApply(withMdc(ids -> {
+                    if (ids.isEmpty()) {
+                        log.info("RedisClient.forward.out запись {} уже подтверждена, сообщение в {} не отправлено", context.entryId, message.streamKey());
+                        return null;
+                    }
+                    return toString(ids.get(0));
                 }));
     }
+
+    /**
+     * подтверждение записей и отправка сообщений одним вызовом EVALSHA.
+     * скрипт загружается при инициализации консьюмер-групп, если Redis его не знает (например, после перезапуска),
+     * он загружается повторно
+     *
+     * @return идентификаторы записей отправленных сообщений
+     */
+    public CompletionStage<List<Object>> ackAndForward(Map<String, List<String>> idsByStream, List<ForwardedMessage> forwarded) {
+        if (idsByStream.isEmpty() && forwarded.isEmpty()) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+        var keys = new ArrayList<String>(idsByStream.size() + forwarded.size());
+        var args = new ArrayList<byte[]>();
+        args.add(applicationConsumer.getGroup().getBytes(StandardCharsets.UTF_8));
+        args.add(String.valueOf(idsByStream.size()).getBytes(StandardCharsets.UTF_8));
+        idsByStream.forEach((streamKey, ids) -> {
+            keys.add(streamKey);
+            args.add(String.valueOf(ids.size()).getBytes(StandardCharsets.UTF_8));
+            ids.forEach(id -> args.add(id.getBytes(StandardCharsets.UTF_8)));
+        });
+        for (var message : forwarded) {
+            keys.add(message.streamKey());
+            args.add(message.envelope());
+        }
+        var keysArray = keys.toArray(String[]::new);
+        var argsArray = args.toArray(byte[][]::new);
+        return redisPool.acquire()
+                .thenCompose(connection -> evalAckAndForward(connection.async(), keysArray, argsArray)
+                        .whenComplete((ids, throwable) -> redisPool.release(connection))
+                )
+                .exceptionally(withMdc((Function<Throwable, List<Object>>) throwable -> {
+                    log.error("RedisClient.ackAndForward.thrown {}", throwable.getMessage());
+                    throw newRetryableException(throwable, resolve(), REDIS_ACK, throwable.getMessage());
+                }))
+                .thenApply(withMdc(ids -> {
+                    log.debug("RedisClient.ackAndForward.out acknowledged={} forwarded={}",
+                            idsByStream.values().stream().mapToInt(List::size).sum(), ids.size());
+                    return ids;
+                }));
+    }
+
+    private CompletableFuture<List<Object>> evalAckAndForward(RedisAsyncCommands<String, byte[]> commands, String[] keys, byte[][] args) {
+        return commands.<List<Object>>evalsha(ackAndForwardDigest, ScriptOutputType.MULTI, keys, args)
+                .toCompletableFuture()
+                .exceptionallyCompose(throwable -> {
+                    if (!(throwable instanceof RedisNoScriptException) && !(throwable.getCause() instanceof RedisNoScriptException)) {
+                        return CompletableFuture.failedFuture(throwable);
+                    }
+                    log.info("RedisClient.evalAckAndForward скрипт не загружен, загружается повторно");
+                    return commands.scriptLoad(ACK_AND_FORWARD_SCRIPT)
+                            .thenCompose(digest -> commands.<List<Object>>evalsha(digest, ScriptOutputType.MULTI, keys, args))
+                            .toCompletableFuture();
+                });
+    }
+
+    public CompletionStage<Long> ack(String streamKey, String... ids) {
+        if (ids.length == 0) {
+            return CompletableFuture.completedFuture(0L);
+        }
+        return redisPool.acquire()
+                .thenCompose(connection -> connection.async()
+                        .xack(streamKey, applicationConsumer.getGroup(), ids)
+                        .whenComplete((count, throwable) -> redisPool.release(connection))
+                )
+                .exceptionally(withMdc((Function<Throwable, Long>) throwable -> {
+                    log.error("RedisClient.ack.thrown {}", throwable.getMessage());
+                    throw newRetryableException(throwable, resolve(), REDIS_ACK, throwable.getMessage());
+                }));
+    }
+
+    public void close() {
+        consumerConnections.values().forEach(StatefulRedisConnection::close);
+        consumerConnections.clear();
+        var connection = deadlineConnection;
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Удаление из групп всех потребителей, от имени которых работал экземпляр приложения (XGROUP DELCONSUMER).
+     * Потребитель удаляется только при пустом списке ожидающих подтверждения, т.к. вместе с потребителем Redis удаляет
+     * и его записи в этом списке. Неподтверждённые сообщения остаются за потребителем и перехватываются другими экземплярами
+     * через {@link #claim}.
+     */
+    public CompletionStage<Void> deregisterConsumers() {
+        var futures = registeredConsumers.stream()
+                .map(this::deregisterConsumer)
+                .toArray(CompletableFuture<?>[]::new);
+        return CompletableFuture.allOf(futures);
+    }
+
+    private CompletableFuture<Void> deregisterConsumer(StreamConsumer streamConsumer) {
+        var consumer = Consumer.from(applicationConsumer.getGroup(), streamConsumer.consumerName());
+        return redisPool.acquire()
+                .thenCompose(connection -> {
+                    var commands = connection.async();
+                    return commands.xpending(streamConsumer.streamKey(), consumer, Range.unbounded(), Limit.from(1))
+                            .thenCompose(pendingMessages -> {
+                                if (!pendingMessages.isEmpty()) {
+                                    return CompletableFuture.completedFuture(false);
+                                }
+                                return commands.xgroupDelconsumer(streamConsumer.streamKey(), consumer).thenApply(deleted -> true);
+                            })
+                            .whenComplete((deleted, throwable) -> redisPool.release(connection));
+                })
+                .handle((deleted, throwable) -> {
+                    if (throwable != null) {
+                        log.error("RedisClient.deregisterConsumer.thrown stream={} consumer={} {}",
+                                streamConsumer.streamKey(), streamConsumer.consumerName(), throwable.getMessage());
+                    } else if (deleted) {
+                        registeredConsumers.remove(streamConsumer);
+                        log.info("RedisClient.deregisterConsumer.out stream={} consumer={}", streamConsumer.streamKey(), streamConsumer.consumerName());
+                    } else {
+                        log.info("RedisClient.deregisterConsumer.skip stream={} consumer={} есть неподтверждённые сообщения",
+                                streamConsumer.streamKey(), streamConsumer.consumerName());
+                    }
+                    return null;
+                });
+    }
+
+    private StatefulRedisConnection<String, byte[]> deadlineConnection() {
+        var connection = deadlineConnection;
+        if (connection == null) {
+            synchronized (this) {
+                connection = deadlineConnection;
+                if (connection == null) {
+                    connection = redisConsumerConnectionFactory.get();
+                    deadlineConnection = connection;
+                }
+            }
+        }
+        return connection;
+    }
+
+    public record StreamStats(long length, long memoryBytes) {
+    }
+
+    private static String sha1(String script) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(script.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * сообщение, отправка которого отложена до подтверждения пачки
+     */
+    public record ForwardedMessage(String streamKey, byte[] envelope) {
+    }
+
+    private record StreamConsumer(String streamKey, String consumerName) {
+    }
+
+    private record ConsumerConnectionKey(List<String> streamKeys, String consumerName) {
+    }
+
+    /**
+     * обрабатываемая запись стрима. forwarding - сообщение отправляется вместе с подтверждением записи,
+     * acknowledged - запись подтверждена при отправке сообщения
+     */
+    private static final class ForwardContext {
+        private final String streamKey;
+        private final String entryId;
+        private final AtomicBoolean forwarding = new AtomicBoolean();
+        private volatile boolean acknowledged;
+
+        private ForwardContext(String streamKey, String entryId) {
+            this.streamKey = streamKey;
+            this.entryId = entryId;
+        }
+    }
 }
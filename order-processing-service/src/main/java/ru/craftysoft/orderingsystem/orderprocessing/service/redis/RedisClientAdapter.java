@@ -1,30 +1,41 @@
 package ru.craftysoft.orderingsystem.orderprocessing.service.redis;
 
-import com.google.protobuf.AbstractMessageLite;
+import com.google.protobuf.GeneratedMessageV3;
 import lombok.extern.slf4j.Slf4j;
 import ru.craftysoft.orderingsystem.customer.proto.UpdateCustomerBalanceResponse;
 import ru.craftysoft.orderingsystem.orderprocessing.builder.redis.*;
-import ru.craftysoft.orderingsystem.orderprocessing.dto.Order;
+import ru.craftysoft.orderingsystem.orderprocessing.dto.OutboxEntry;
 import ru.craftysoft.orderingsystem.orderprocessing.error.exception.RetryExpiryException;
+import ru.craftysoft.orderingsystem.orderprocessing.error.operation.ModuleOperationCode;
 import ru.craftysoft.orderingsystem.orderprocessing.proto.*;
+import ru.craftysoft.orderingsystem.orderprocessing.service.saga.SagaDeadlineTracker;
+import ru.craftysoft.orderingsystem.orderprocessing.service.transport.MessageTransport;
 import ru.craftysoft.orderingsystem.util.properties.PropertyResolver;
 import ru.craftysoft.orderingsystem.util.proto.ProtoUtils;
-import ru.craftysoft.orderingsystem.util.uuid.UuidUtils;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
+import static ru.craftysoft.orderingsystem.util.error.exception.ExceptionFactory.mapException;
+import static ru.craftysoft.orderingsystem.util.mdc.MdcUtils.withMdc;
+
 @Singleton
 @Slf4j
 public class RedisClientAdapter {
 
-    private final RedisClient client;
+    private final MessageTransport transport;
+    private final StreamPartitioner partitioner;
+    private final RetryBackoff retryBackoff;
+    private final InFlightLimiters inFlightLimiters;
+    private final SagaDeadlineTracker sagaDeadlineTracker;
     private final DecreaseCustomerAmountRequestBuilder decreaseCustomerAmountRequestBuilder;
     private final DecreaseExecutorAmountRequestBuilder decreaseExecutorAmountRequestBuilder;
     private final IncrementExecutorAmountRequestBuilder incrementExecutorAmountRequestBuilder;
@@ -39,8 +50,14 @@ public class RedisClientAdapter {
     private final String completeOrderStream;
     private final int maxRetryCounter;
 
+    public static final String DEAD_LETTER_STREAM_SUFFIX = "_dlq";
+
     @Inject
-    public RedisClientAdapter(RedisClient client,
+    public RedisClientAdapter(MessageTransport transport,
+                              StreamPartitioner partitioner,
+                              RetryBackoff retryBackoff,
+                              InFlightLimiters inFlightLimiters,
+                              SagaDeadlineTracker sagaDeadlineTracker,
                               DecreaseCustomerAmountRequestBuilder decreaseCustomerAmountRequestBuilder,
                               DecreaseExecutorAmountRequestBuilder decreaseExecutorAmountRequestBuilder,
                               IncrementExecutorAmountRequestBuilder incrementExecutorAmountRequestBuilder,
@@ -48,7 +65,11 @@ public class RedisClientAdapter {
                               ReserveOrderRequestBuilder reserveOrderRequestBuilder,
                               CompleteOrderRequestBuilder completeOrderRequestBuilder,
                               PropertyResolver propertyResolver) {
-        this.client = client;
+        this.transport = transport;
+        this.partitioner = partitioner;
+        this.retryBackoff = retryBackoff;
+        this.inFlightLimiters = inFlightLimiters;
+        this.sagaDeadlineTracker = sagaDeadlineTracker;
         this.decreaseCustomerAmountRequestBuilder = decreaseCustomerAmountRequestBuilder;
         this.decreaseExecutorAmountRequestBuilder = decreaseExecutorAmountRequestBuilder;
         this.incrementExecutorAmountRequestBuilder = incrementExecutorAmountRequestBuilder;
@@ -64,93 +85,184 @@ public class RedisClientAdapter {
         this.maxRetryCounter = propertyResolver.getIntProperty("redis.max-retry-counter");
     }
 
-    public CompletionStage<String> sendMessagesToDecreaseCustomerAmountStream(Order order) {
-        var request = decreaseCustomerAmountRequestBuilder.build(order);
-        return client.sendMessage(
-                decreaseCustomerAmountStream, UuidUtils.generateDefaultUuid(), request,
-                AbstractMessageLite::toByteArray, ProtoUtils::toPrettyString
-        );
+    /**
+     * стрим сообщений этапа, обработка которых окончательно завершилась ошибкой
+     */
+    public static String deadLetterStream(String streamName) {
+        return streamName + DEAD_LETTER_STREAM_SUFFIX;
+    }
+
+    /**
+     * идентификатор саги, начатой записью outbox. запись создаётся при каждом извлечении заказа, поэтому повторное
+     * извлечение того же заказа начинает новую сагу
+     */
+    public static String sagaId(OutboxEntry entry) {
+        return "outbox-" + entry.id();
+    }
+
+    /**
+     * начало саг. для каждой саги устанавливается срок с компенсацией - возвратом заказа в резерв
+     * (см. {@link SagaDeadlineTracker}).
+     * идентификатор саги определяется записью outbox ({@link #sagaId}), поэтому запись, отправленная повторно
+     * после сбоя фиксации транзакции outbox, продолжает ту же сагу, а не начинает новую
+     */
+    public List<CompletableFuture<String>> sendMessagesToDecreaseCustomerAmountStream(List<OutboxEntry> entries) {
+        var messages = new ArrayList<OutgoingMessage<GeneratedMessageV3>>(entries.size());
+        for (var entry : entries) {
+            var order = entry.order();
+            var messageId = sagaId(entry);
+            var request = decreaseCustomerAmountRequestBuilder.build(order);
+            var compensation = reserveOrderRequestBuilder.build(request);
+            sagaDeadlineTracker.register(message(reserveOrderStream, compensation.getOrderId(), messageId, compensation));
+            messages.add(message(decreaseCustomerAmountStream, order.customerId(), messageId, request));
+        }
+        return transport.send(messages);
     }
 
+    /**
+     * переход саги к зачислению исполнителю. если срок саги истёк, пока списывались средства заказчика, и возврат заказа
+     * в резерв уже отправлен, вместо перехода средства возвращаются заказчику
+     */
     public CompletionStage<String> sendMessageToIncrementExecutorAmountStream(UpdateCustomerBalanceResponse updateCustomerBalanceResponse,
                                                                               Map.Entry<String, DecreaseCustomerAmountRequest> entry) {
         var request = incrementExecutorAmountRequestBuilder.build(updateCustomerBalanceResponse, entry.getValue());
-        return client.sendMessage(
-                incrementExecutorAmountStream, entry.getKey(), request,
-                AbstractMessageLite::toByteArray, ProtoUtils::toPrettyString
+        var compensation = incrementCustomerAmountRequestBuilder.build(request);
+        return advance(
+                message(incrementExecutorAmountStream, request.getExecutorId(), entry.getKey(), request),
+                message(incrementCustomerAmountStream, compensation.getCustomerId(), entry.getKey(), compensation)
         );
     }
 
     public CompletionStage<String> sendMessageToReserveOrderStream(Map.Entry<String, DecreaseCustomerAmountRequest> entry) {
         var request = reserveOrderRequestBuilder.build(entry.getValue());
-        return client.sendMessage(
-                reserveOrderStream, entry.getKey(), request,
-                AbstractMessageLite::toByteArray, ProtoUtils::toPrettyString
-        );
+        return sendCompensation(reserveOrderStream, request.getOrderId(), entry.getKey(), request);
     }
 
     public CompletionStage<String> sendMessageToIncrementCustomerAmountStream(Map.Entry<String, IncrementExecutorAmountRequest> entry) {
         var request = incrementCustomerAmountRequestBuilder.build(entry.getValue());
-        return client.sendMessage(
-                incrementCustomerAmountStream, entry.getKey(), request,
-                AbstractMessageLite::toByteArray, ProtoUtils::toPrettyString
-        );
+        return sendCompensation(incrementCustomerAmountStream, request.getCustomerId(), entry.getKey(), request);
     }
 
     public CompletionStage<String> sendMessageToIncrementCustomerAmountStreamInRollback(Map.Entry<String, DecreaseExecutorAmountRequest> entry) {
         var request = incrementCustomerAmountRequestBuilder.build(entry.getValue());
-        return client.sendMessage(
-                incrementCustomerAmountStream, entry.getKey(), request,
-                AbstractMessageLite::toByteArray, ProtoUtils::toPrettyString
-        );
+        return sendCompensation(incrementCustomerAmountStream, request.getCustomerId(), entry.getKey(), request);
     }
 
     public CompletionStage<String> sendMessageToDecreaseExecutorAmountStream(Map.Entry<String, CompleteOrderRequest> entry) {
         var request = decreaseExecutorAmountRequestBuilder.build(entry.getValue());
-        return client.sendMessage(
-                decreaseExecutorAmountStream, entry.getKey(), request,
-                AbstractMessageLite::toByteArray, ProtoUtils::toPrettyString
-        );
+        return sendCompensation(decreaseExecutorAmountStream, request.getExecutorId(), entry.getKey(), request);
     }
 
+    /**
+     * переход саги к выполнению заказа. если срок саги истёк, пока выполнялось зачисление, и возврат средств заказчику
+     * уже отправлен, вместо перехода средства списываются с исполнителя
+     */
     public CompletionStage<String> sendMessageToCompleteOrderStream(Map.Entry<String, IncrementExecutorAmountRequest> entry) {
         var request = completeOrderRequestBuilder.build(entry.getValue());
-        return client.sendMessage(
-                completeOrderStream, entry.getKey(), request,
-                AbstractMessageLite::toByteArray, ProtoUtils::toPrettyString
+        var compensation = decreaseExecutorAmountRequestBuilder.build(request);
+        return advance(
+                message(completeOrderStream, request.getOrderId(), entry.getKey(), request),
+                message(decreaseExecutorAmountStream, compensation.getExecutorId(), entry.getKey(), compensation)
         );
     }
 
     public CompletionStage<String> sendMessageToReserveOrderStreamInRollback(Map.Entry<String, IncrementCustomerAmountRequest> entry) {
         var request = reserveOrderRequestBuilder.build(entry.getValue());
-        return client.sendMessage(
-                reserveOrderStream, entry.getKey(), request,
-                AbstractMessageLite::toByteArray, ProtoUtils::toPrettyString
-        );
+        return sendCompensation(reserveOrderStream, request.getOrderId(), entry.getKey(), request);
+    }
+
+    /**
+     * снятие срока саги перед её последним шагом
+     *
+     * @return false - срок саги истёк и её компенсация уже отправлена, последний шаг выполнять нельзя
+     */
+    public CompletionStage<Boolean> finishSaga(String messageId) {
+        return sagaDeadlineTracker.finish(messageId);
     }
 
-    public CompletionStage<List<Map.Entry<String, DecreaseCustomerAmountRequest>>> listenDecreaseCustomerAmountRequestMessages() {
-        return client.subscribe(decreaseCustomerAmountStream, decreaseCustomerAmountRequestBuilder::fromBytes, ProtoUtils::toPrettyString);
+    /**
+     * снятие срока саги при её завершении или окончании отката
+     */
+    public void completeSaga(String messageId) {
+        sagaDeadlineTracker.complete(messageId);
     }
 
-    public CompletionStage<List<Map.Entry<String, IncrementExecutorAmountRequest>>> listenIncrementExecutorAmountRequestMessages() {
-        return client.subscribe(incrementExecutorAmountStream, incrementExecutorAmountRequestBuilder::fromBytes, ProtoUtils::toPrettyString);
+    public CompletionStage<Integer> listenDecreaseCustomerAmountRequestMessages(int consumerIndex, Function<Map.Entry<String, DecreaseCustomerAmountRequest>, ? extends CompletionStage<?>> handler) {
+        return transport.subscribe(partitioner.assignedPartitions(decreaseCustomerAmountStream, consumerIndex), consumerIndex, inFlightLimiters.get(decreaseCustomerAmountStream), decreaseCustomerAmountRequestBuilder::fromEnvelope, ProtoUtils::toPrettyString, handler);
     }
 
-    public CompletionStage<List<Map.Entry<String, ReserveOrderRequest>>> listenReserveOrderRequestMessages() {
-        return client.subscribe(reserveOrderStream, reserveOrderRequestBuilder::fromBytes, ProtoUtils::toPrettyString);
+    public CompletionStage<Integer> listenIncrementExecutorAmountRequestMessages(int consumerIndex, Function<Map.Entry<String, IncrementExecutorAmountRequest>, ? extends CompletionStage<?>> handler) {
+        return transport.subscribe(partitioner.assignedPartitions(incrementExecutorAmountStream, consumerIndex), consumerIndex, inFlightLimiters.get(incrementExecutorAmountStream), incrementExecutorAmountRequestBuilder::fromEnvelope, ProtoUtils::toPrettyString, handler);
     }
 
-    public CompletionStage<List<Map.Entry<String, CompleteOrderRequest>>> listenCompleteOrderRequestMessages() {
-        return client.subscribe(completeOrderStream, completeOrderRequestBuilder::fromBytes, ProtoUtils::toPrettyString);
+    public CompletionStage<Integer> listenReserveOrderRequestMessages(int consumerIndex, Function<Map.Entry<String, ReserveOrderRequest>, ? extends CompletionStage<?>> handler) {
+        return transport.subscribe(partitioner.assignedPartitions(reserveOrderStream, consumerIndex), consumerIndex, inFlightLimiters.get(reserveOrderStream), reserveOrderRequestBuilder::fromEnvelope, ProtoUtils::toPrettyString, handler);
     }
 
-    public CompletionStage<List<Map.Entry<String, DecreaseExecutorAmountRequest>>> listenDecreaseExecutorAmountRequestMessages() {
-        return client.subscribe(decreaseExecutorAmountStream, decreaseExecutorAmountRequestBuilder::fromBytes, ProtoUtils::toPrettyString);
+    public CompletionStage<Integer> listenCompleteOrderRequestMessages(int consumerIndex, Function<Map.Entry<String, CompleteOrderRequest>, ? extends CompletionStage<?>> handler) {
+        return transport.subscribe(partitioner.assignedPartitions(completeOrderStream, consumerIndex), consumerIndex, inFlightLimiters.get(completeOrderStream), completeOrderRequestBuilder::fromEnvelope, ProtoUtils::toPrettyString, handler);
     }
 
-    public CompletionStage<List<Map.Entry<String, IncrementCustomerAmountRequest>>> listenIncrementCustomerAmountRequestMessages() {
-        return client.subscribe(incrementCustomerAmountStream, incrementCustomerAmountRequestBuilder::fromBytes, ProtoUtils::toPrettyString);
+    public CompletionStage<Integer> listenDecreaseExecutorAmountRequestMessages(int consumerIndex, Function<Map.Entry<String, DecreaseExecutorAmountRequest>, ? extends CompletionStage<?>> handler) {
+        return transport.subscribe(partitioner.assignedPartitions(decreaseExecutorAmountStream, consumerIndex), consumerIndex, inFlightLimiters.get(decreaseExecutorAmountStream), decreaseExecutorAmountRequestBuilder::fromEnvelope, ProtoUtils::toPrettyString, handler);
+    }
+
+    public CompletionStage<Integer> listenIncrementCustomerAmountRequestMessages(int consumerIndex, Function<Map.Entry<String, IncrementCustomerAmountRequest>, ? extends CompletionStage<?>> handler) {
+        return transport.subscribe(partitioner.assignedPartitions(incrementCustomerAmountStream, consumerIndex), consumerIndex, inFlightLimiters.get(incrementCustomerAmountStream), incrementCustomerAmountRequestBuilder::fromEnvelope, ProtoUtils::toPrettyString, handler);
+    }
+
+    public CompletionStage<Integer> reclaimDecreaseCustomerAmountRequestMessages(Function<Map.Entry<String, DecreaseCustomerAmountRequest>, ? extends CompletionStage<?>> handler) {
+        return transport.claim(partitioner.partitions(decreaseCustomerAmountStream), inFlightLimiters.get(decreaseCustomerAmountStream), decreaseCustomerAmountRequestBuilder::fromEnvelope, ProtoUtils::toPrettyString, handler);
+    }
+
+    public CompletionStage<Integer> reclaimIncrementExecutorAmountRequestMessages(Function<Map.Entry<String, IncrementExecutorAmountRequest>, ? extends CompletionStage<?>> handler) {
+        return transport.claim(partitioner.partitions(incrementExecutorAmountStream), inFlightLimiters.get(incrementExecutorAmountStream), incrementExecutorAmountRequestBuilder::fromEnvelope, ProtoUtils::toPrettyString, handler);
+    }
+
+    public CompletionStage<Integer> reclaimReserveOrderRequestMessages(Function<Map.Entry<String, ReserveOrderRequest>, ? extends CompletionStage<?>> handler) {
+        return transport.claim(partitioner.partitions(reserveOrderStream), inFlightLimiters.get(reserveOrderStream), reserveOrderRequestBuilder::fromEnvelope, ProtoUtils::toPrettyString, handler);
+    }
+
+    public CompletionStage<Integer> reclaimCompleteOrderRequestMessages(Function<Map.Entry<String, CompleteOrderRequest>, ? extends CompletionStage<?>> handler) {
+        return transport.claim(partitioner.partitions(completeOrderStream), inFlightLimiters.get(completeOrderStream), completeOrderRequestBuilder::fromEnvelope, ProtoUtils::toPrettyString, handler);
+    }
+
+    public CompletionStage<Integer> reclaimDecreaseExecutorAmountRequestMessages(Function<Map.Entry<String, DecreaseExecutorAmountRequest>, ? extends CompletionStage<?>> handler) {
+        return transport.claim(partitioner.partitions(decreaseExecutorAmountStream), inFlightLimiters.get(decreaseExecutorAmountStream), decreaseExecutorAmountRequestBuilder::fromEnvelope, ProtoUtils::toPrettyString, handler);
+    }
+
+    public CompletionStage<Integer> reclaimIncrementCustomerAmountRequestMessages(Function<Map.Entry<String, IncrementCustomerAmountRequest>, ? extends CompletionStage<?>> handler) {
+        return transport.claim(partitioner.partitions(incrementCustomerAmountStream), inFlightLimiters.get(incrementCustomerAmountStream), incrementCustomerAmountRequestBuilder::fromEnvelope, ProtoUtils::toPrettyString, handler);
+    }
+
+    public CompletionStage<String> sendDecreaseCustomerAmountRequestToDeadLetterStream(Map.Entry<String, DecreaseCustomerAmountRequest> entry, Throwable throwable) {
+        var request = entry.getValue();
+        return deadLetter(decreaseCustomerAmountStream, request.getCustomerId(), entry.getKey(), request, request.getRetryData(), throwable);
+    }
+
+    public CompletionStage<String> sendIncrementExecutorAmountRequestToDeadLetterStream(Map.Entry<String, IncrementExecutorAmountRequest> entry, Throwable throwable) {
+        var request = entry.getValue();
+        return deadLetter(incrementExecutorAmountStream, request.getExecutorId(), entry.getKey(), request, request.getRetryData(), throwable);
+    }
+
+    public CompletionStage<String> sendReserveOrderRequestToDeadLetterStream(Map.Entry<String, ReserveOrderRequest> entry, Throwable throwable) {
+        var request = entry.getValue();
+        return deadLetter(reserveOrderStream, request.getOrderId(), entry.getKey(), request, request.getRetryData(), throwable);
+    }
+
+    public CompletionStage<String> sendCompleteOrderRequestToDeadLetterStream(Map.Entry<String, CompleteOrderRequest> entry, Throwable throwable) {
+        var request = entry.getValue();
+        return deadLetter(completeOrderStream, request.getOrderId(), entry.getKey(), request, request.getRetryData(), throwable);
+    }
+
+    public CompletionStage<String> sendDecreaseExecutorAmountRequestToDeadLetterStream(Map.Entry<String, DecreaseExecutorAmountRequest> entry, Throwable throwable) {
+        var request = entry.getValue();
+        return deadLetter(decreaseExecutorAmountStream, request.getExecutorId(), entry.getKey(), request, request.getRetryData(), throwable);
+    }
+
+    public CompletionStage<String> sendIncrementCustomerAmountRequestToDeadLetterStream(Map.Entry<String, IncrementCustomerAmountRequest> entry, Throwable throwable) {
+        var request = entry.getValue();
+        return deadLetter(incrementCustomerAmountStream, request.getCustomerId(), entry.getKey(), request, request.getRetryData(), throwable);
     }
 
     public CompletionStage<String> retryDecreaseCustomerAmountRequestMessage(Map.Entry<String, DecreaseCustomerAmountRequest> entry,
@@ -158,11 +270,9 @@ public class RedisClientAdapter {
         var request = entry.getValue();
         int counter = resolveCounter(request, DecreaseCustomerAmountRequest::hasRetryData, rq -> rq.getRetryData().getCounter());
         if (counter < maxRetryCounter) {
-            var newRequest = decreaseCustomerAmountRequestBuilder.build(request, counter);
-            return client.sendMessage(
-                    decreaseCustomerAmountStream, entry.getKey(), newRequest,
-                    AbstractMessageLite::toByteArray, ProtoUtils::toPrettyString
-            );
+            var nextAttemptAt = retryBackoff.nextAttemptAt(decreaseCustomerAmountStream, counter);
+            var newRequest = decreaseCustomerAmountRequestBuilder.build(request, nextRetryData(request.getRetryData(), counter, nextAttemptAt, throwable));
+            return delay(decreaseCustomerAmountStream, newRequest.getCustomerId(), entry.getKey(), newRequest, nextAttemptAt);
         } else {
             return CompletableFuture.failedFuture(new RetryExpiryException(throwable));
         }
@@ -173,11 +283,9 @@ public class RedisClientAdapter {
         var request = entry.getValue();
         int counter = resolveCounter(request, IncrementExecutorAmountRequest::hasRetryData, rq -> rq.getRetryData().getCounter());
         if (counter < maxRetryCounter) {
-            var newRequest = incrementExecutorAmountRequestBuilder.build(request, counter);
-            return client.sendMessage(
-                    decreaseExecutorAmountStream, entry.getKey(), newRequest,
-                    AbstractMessageLite::toByteArray, ProtoUtils::toPrettyString
-            );
+            var nextAttemptAt = retryBackoff.nextAttemptAt(incrementExecutorAmountStream, counter);
+            var newRequest = incrementExecutorAmountRequestBuilder.build(request, nextRetryData(request.getRetryData(), counter, nextAttemptAt, throwable));
+            return delay(incrementExecutorAmountStream, newRequest.getExecutorId(), entry.getKey(), newRequest, nextAttemptAt);
         } else {
             return CompletableFuture.failedFuture(new RetryExpiryException(throwable));
         }
@@ -188,11 +296,9 @@ public class RedisClientAdapter {
         var request = entry.getValue();
         int counter = resolveCounter(request, ReserveOrderRequest::hasRetryData, rq -> rq.getRetryData().getCounter());
         if (counter < maxRetryCounter) {
-            var newRequest = reserveOrderRequestBuilder.build(request, counter);
-            return client.sendMessage(
-                    reserveOrderStream, entry.getKey(), newRequest,
-                    AbstractMessageLite::toByteArray, ProtoUtils::toPrettyString
-            );
+            var nextAttemptAt = retryBackoff.nextAttemptAt(reserveOrderStream, counter);
+            var newRequest = reserveOrderRequestBuilder.build(request, nextRetryData(request.getRetryData(), counter, nextAttemptAt, throwable));
+            return delay(reserveOrderStream, newRequest.getOrderId(), entry.getKey(), newRequest, nextAttemptAt);
         } else {
             return CompletableFuture.failedFuture(new RetryExpiryException(throwable));
         }
@@ -203,11 +309,9 @@ public class RedisClientAdapter {
         var request = entry.getValue();
         int counter = resolveCounter(request, CompleteOrderRequest::hasRetryData, rq -> rq.getRetryData().getCounter());
         if (counter < maxRetryCounter) {
-            var newRequest = completeOrderRequestBuilder.build(request, counter);
-            return client.sendMessage(
-                    completeOrderStream, entry.getKey(), newRequest,
-                    AbstractMessageLite::toByteArray, ProtoUtils::toPrettyString
-            );
+            var nextAttemptAt = retryBackoff.nextAttemptAt(completeOrderStream, counter);
+            var newRequest = completeOrderRequestBuilder.build(request, nextRetryData(request.getRetryData(), counter, nextAttemptAt, throwable));
+            return delay(completeOrderStream, newRequest.getOrderId(), entry.getKey(), newRequest, nextAttemptAt);
         } else {
             return CompletableFuture.failedFuture(new RetryExpiryException(throwable));
         }
@@ -218,11 +322,9 @@ public class RedisClientAdapter {
         var request = entry.getValue();
         int counter = resolveCounter(request, DecreaseExecutorAmountRequest::hasRetryData, rq -> rq.getRetryData().getCounter());
         if (counter < maxRetryCounter) {
-            var newRequest = decreaseExecutorAmountRequestBuilder.build(request, counter);
-            return client.sendMessage(
-                    decreaseExecutorAmountStream, entry.getKey(), newRequest,
-                    AbstractMessageLite::toByteArray, ProtoUtils::toPrettyString
-            );
+            var nextAttemptAt = retryBackoff.nextAttemptAt(decreaseExecutorAmountStream, counter);
+            var newRequest = decreaseExecutorAmountRequestBuilder.build(request, nextRetryData(request.getRetryData(), counter, nextAttemptAt, throwable));
+            return delay(decreaseExecutorAmountStream, newRequest.getExecutorId(), entry.getKey(), newRequest, nextAttemptAt);
         } else {
             return CompletableFuture.failedFuture(new RetryExpiryException(throwable));
         }
@@ -233,16 +335,86 @@ public class RedisClientAdapter {
         var request = entry.getValue();
         int counter = resolveCounter(request, IncrementCustomerAmountRequest::hasRetryData, rq -> rq.getRetryData().getCounter());
         if (counter < maxRetryCounter) {
-            var newRequest = incrementCustomerAmountRequestBuilder.build(request, counter);
-            return client.sendMessage(
-                    incrementCustomerAmountStream, entry.getKey(), newRequest,
-                    AbstractMessageLite::toByteArray, ProtoUtils::toPrettyString
-            );
+            var nextAttemptAt = retryBackoff.nextAttemptAt(incrementCustomerAmountStream, counter);
+            var newRequest = incrementCustomerAmountRequestBuilder.build(request, nextRetryData(request.getRetryData(), counter, nextAttemptAt, throwable));
+            return delay(incrementCustomerAmountStream, newRequest.getCustomerId(), entry.getKey(), newRequest, nextAttemptAt);
         } else {
             return CompletableFuture.failedFuture(new RetryExpiryException(throwable));
         }
     }
 
+    /**
+     * отправка шага отката. если сообщение потеряется, по истечении срока саги оно будет отправлено повторно
+     */
+    private CompletableFuture<String> sendCompensation(String streamName, long partitionKey, String messageId, GeneratedMessageV3 request) {
+        var message = message(streamName, partitionKey, messageId, request);
+        sagaDeadlineTracker.register(message);
+        return transport.send(message);
+    }
+
+    /**
+     * отправка следующего шага саги с заменой её компенсации на compensation. если компенсация саги уже отправлена
+     * по истечении срока, вместо следующего шага отправляется compensation - откат только что выполненного шага
+     */
+    private CompletionStage<String> advance(OutgoingMessage<GeneratedMessageV3> message, OutgoingMessage<GeneratedMessageV3> compensation) {
+        return sagaDeadlineTracker.advance(compensation)
+                .thenCompose(withMdc(isAdvanced -> {
+                    if (isAdvanced) {
+                        return transport.send(message);
+                    }
+                    log.warn("RedisClientAdapter.advance срок саги истёк, шаг откатывается redisMessageId={} stream={}", compensation.messageId(), compensation.streamKey());
+                    sagaDeadlineTracker.register(compensation);
+                    return transport.send(compensation);
+                }));
+    }
+
+    private OutgoingMessage<GeneratedMessageV3> message(String streamName, long partitionKey, String messageId, GeneratedMessageV3 request) {
+        return new OutgoingMessage<>(partitioner.partition(streamName, partitionKey), String.valueOf(partitionKey), messageId, request);
+    }
+
+    private CompletionStage<String> deadLetter(String streamName,
+                                               long partitionKey,
+                                               String messageId,
+                                               GeneratedMessageV3 request,
+                                               RetryData retryData,
+                                               Throwable throwable) {
+        var cause = throwable instanceof RetryExpiryException && throwable.getCause() != null
+                ? throwable.getCause()
+                : throwable;
+        var exception = mapException(cause, ModuleOperationCode::resolve);
+        var deadLetter = DeadLetter.newBuilder()
+                .setOriginStream(streamName)
+                .setPartitionKey(String.valueOf(partitionKey))
+                .setMessageId(messageId)
+                .setPayload(request.toByteString())
+                .setErrorCode(exception.getFullErrorCode())
+                .setErrorMessage(Objects.requireNonNullElse(exception.getMessage(), ""))
+                .setFailedAt(System.currentTimeMillis())
+                .addAllAttempts(retryData.getAttemptsList())
+                .build();
+        sagaDeadlineTracker.complete(messageId);
+        return transport.send(new OutgoingMessage<>(deadLetterStream(streamName), String.valueOf(partitionKey), messageId, deadLetter));
+    }
+
+    private RetryData nextRetryData(RetryData retryData, int counter, long nextAttemptAt, Throwable throwable) {
+        var exception = mapException(throwable, ModuleOperationCode::resolve);
+        return RetryData.newBuilder(retryData)
+                .setCounter(counter)
+                .setNextAttemptAt(nextAttemptAt)
+                .addAttempts(Attempt.newBuilder()
+                        .setCounter(counter)
+                        .setFailedAt(System.currentTimeMillis())
+                        .setErrorCode(exception.getFullErrorCode())
+                        .setErrorMessage(Objects.requireNonNullElse(exception.getMessage(), ""))
+                        .build())
+                .build();
+    }
+
+    private CompletionStage<String> delay(String streamName, long partitionKey, String messageId, GeneratedMessageV3 request, long nextAttemptAt) {
+        sagaDeadlineTracker.extend(messageId, nextAttemptAt);
+        return transport.schedule(message(streamName, partitionKey, messageId, request), nextAttemptAt);
+    }
+
     private <T> int resolveCounter(T request, Predicate<T> hasRetryData, Function<T, Integer> counterExtractor) {
         if (!hasRetryData.test(request)) {
             return 1;
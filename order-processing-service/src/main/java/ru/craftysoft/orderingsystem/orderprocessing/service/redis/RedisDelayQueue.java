@@ -0,0 +1,146 @@
+package ru.craftysoft.orderingsystem.orderprocessing.service.redis;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.GeneratedMessageV3;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UnsafeByteOperations;
+import lombok.extern.slf4j.Slf4j;
+import ru.craftysoft.orderingsystem.orderprocessing.proto.DelayedMessage;
+import ru.craftysoft.orderingsystem.util.properties.PropertyResolver;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import static ru.craftysoft.orderingsystem.util.mdc.MdcUtils.withMdc;
+
+/**
+ * очередь отложенной отправки сообщений в стримы.
+ * сообщение вместе с целевым стримом хранится в сортированном множестве redis.retry.delay-queue.name с весом, равным
+ * времени отправки, в виде тела конверта ({@link EnvelopeCodec#body}), заголовок добавляется при отправке в стрим.
+ * {@link #moveDue()} берёт в аренду на redis.retry.delay-queue.lease-millis пачку сообщений, время отправки которых
+ * наступило, и отправляет их в целевые стримы одним конвейером. отправленные сообщения удаляются из очереди,
+ * сообщения, которые не удалось отправить, возвращаются в очередь сразу, а потерянные при остановке экземпляра -
+ * по окончании аренды.
+ */
+@Singleton
+@Slf4j
+public class RedisDelayQueue {
+
+    private final RedisClient redisClient;
+    private final String delayQueueKey;
+    private final int batchSize;
+    private final long leaseMillis;
+
+    @Inject
+    public RedisDelayQueue(RedisClient redisClient, PropertyResolver propertyResolver) {
+        this.redisClient = redisClient;
+        this.delayQueueKey = propertyResolver.getStringProperty("redis.retry.delay-queue.name");
+        this.batchSize = propertyResolver.getIntProperty("redis.retry.delay-queue.batch-size");
+        this.leaseMillis = propertyResolver.getIntProperty("redis.retry.delay-queue.lease-millis");
+    }
+
+    /**
+     * @return идентификатор сообщения после помещения в очередь
+     */
+    public CompletionStage<String> schedule(OutgoingMessage<GeneratedMessageV3> message, long dueAt) {
+        var delayedMessage = DelayedMessage.newBuilder()
+                .setStreamKey(message.streamKey())
+                .setPartitionKey(Objects.requireNonNullElse(message.partitionKey(), ""))
+                .setMessageId(message.messageId())
+                .setPayload(UnsafeByteOperations.unsafeWrap(EnvelopeCodec.body(message.payload())))
+                .setTraceId(Objects.requireNonNullElse(message.traceId(), ""))
+                .build();
+        log.debug("RedisDelayQueue.schedule stream={} dueAt={}", message.streamKey(), dueAt);
+        return redisClient.delay(delayQueueKey, dueAt, delayedMessage.toByteArray())
+                .thenApply(count -> message.messageId());
+    }
+
+    /**
+     * @return количество сообщений, извлечённых из очереди
+     */
+    public CompletionStage<Integer> moveDue() {
+        var now = System.currentTimeMillis();
+        return redisClient.leaseDue(delayQueueKey, now, now + leaseMillis, batchSize)
+                .thenCompose(withMdc(members -> {
+                    if (members.isEmpty()) {
+                        return CompletableFuture.completedFuture(0);
+                    }
+                    var messages = new ArrayList<OutgoingMessage<ByteString>>(members.size());
+                    var sentMembers = new ArrayList<byte[]>(members.size());
+                    var corruptMembers = new ArrayList<byte[]>();
+                    for (var member : members) {
+                        try {
+                            var delayedMessage = DelayedMessage.parseFrom(member);
+                            sentMembers.add(member);
+                            messages.add(new OutgoingMessage<>(
+                                    delayedMessage.getStreamKey(),
+                                    delayedMessage.getPartitionKey().isEmpty() ? null : delayedMessage.getPartitionKey(),
+                                    delayedMessage.getMessageId(),
+                                    delayedMessage.getPayload(),
+                                    delayedMessage.getTraceId().isEmpty() ? null : delayedMessage.getTraceId()
+                            ));
+                        } catch (InvalidProtocolBufferException e) {
+                            log.error("RedisDelayQueue.moveDue.thrown сообщение не может быть разобрано и будет удалено", e);
+                            corruptMembers.add(member);
+                        }
+                    }
+                    var results = redisClient.sendMessages(messages, ByteString::toByteArray, payload -> "size=" + payload.size());
+                    return removeSent(messages, sentMembers, corruptMembers, results, now)
+                            .thenApply(removed -> members.size());
+                }));
+    }
+
+    /**
+     * удаление из очереди отправленных и неразбираемых сообщений, возврат в очередь к времени now сообщений,
+     * которые не удалось отправить
+     */
+    private CompletionStage<Void> removeSent(List<OutgoingMessage<ByteString>> messages,
+                                             List<byte[]> members,
+                                             List<byte[]> corruptMembers,
+                                             List<CompletableFuture<String>> results,
+                                             long now) {
+        var sent = new ArrayList<CompletableFuture<byte[]>>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            var message = messages.get(i);
+            var member = members.get(i);
+            sent.add(results.get(i)
+                    .handle((streamMessageId, throwable) -> throwable)
+                    .thenCompose(throwable -> {
+                        if (throwable == null) {
+                            return CompletableFuture.completedFuture(member);
+                        }
+                        return requeue(message, member, now, throwable)
+                                .handle((count, requeueThrowable) -> (byte[]) null);
+                    }));
+        }
+        return CompletableFuture.allOf(sent.toArray(CompletableFuture<?>[]::new))
+                .thenCompose(withMdc(v -> {
+                    var removed = new ArrayList<>(corruptMembers);
+                    sent.stream()
+                            .map(CompletableFuture::join)
+                            .filter(Objects::nonNull)
+                            .forEach(removed::add);
+                    if (removed.isEmpty()) {
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    return redisClient.removeDelayed(delayQueueKey, removed)
+                            .toCompletableFuture()
+                            .handle((count, throwable) -> {
+                                if (throwable != null) {
+                                    log.error("RedisDelayQueue.removeSent.thrown отправленные сообщения будут отправлены повторно по окончании аренды {}", throwable.getMessage());
+                                }
+                                return (Void) null;
+                            });
+                }));
+    }
+
+    private CompletionStage<Long> requeue(OutgoingMessage<ByteString> message, byte[] member, long dueAt, Throwable throwable) {
+        log.error("RedisDelayQueue.requeue stream={} messageId={} {}", message.streamKey(), message.messageId(), throwable.getMessage());
+        return redisClient.delay(delayQueueKey, dueAt, member);
+    }
+}
@@ -0,0 +1,106 @@
+package ru.craftysoft.orderingsystem.orderprocessing.service.redis;
+
+import com.google.protobuf.GeneratedMessageV3;
+import lombok.extern.slf4j.Slf4j;
+import ru.craftysoft.orderingsystem.util.properties.PropertyResolver;
+import ru.craftysoft.orderingsystem.util.proto.ProtoUtils;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * групповая отправка сообщений в стримы.
+ * сообщения, отправленные из разных обработчиков, накапливаются в очереди и уходят в Redis пачками через
+ * {@link RedisClient#sendMessages}. новая пачка формируется сразу, если число отправляемых в данный момент пачек
+ * меньше redis.producer.max-in-flight-batches, иначе сообщения ждут завершения одной из текущих отправок.
+ */
+@Singleton
+@Slf4j
+public class RedisMessageProducer {
+
+    private final RedisClient redisClient;
+    private final int batchSize;
+    private final int maxInFlightBatches;
+    private final Queue<PendingMessage> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger inFlightBatches = new AtomicInteger();
+
+    @Inject
+    public RedisMessageProducer(RedisClient redisClient, PropertyResolver propertyResolver) {
+        this.redisClient = redisClient;
+        this.batchSize = propertyResolver.getIntProperty("redis.producer.batch-size");
+        this.maxInFlightBatches = propertyResolver.getIntProperty("redis.producer.max-in-flight-batches");
+    }
+
+    public CompletableFuture<String> send(String streamKey, String partitionKey, String messageId, GeneratedMessageV3 message) {
+        var result = new CompletableFuture<String>();
+        queue.add(new PendingMessage(new OutgoingMessage<>(streamKey, partitionKey, messageId, message), result));
+        drain();
+        return result;
+    }
+
+    public List<CompletableFuture<String>> send(List<OutgoingMessage<GeneratedMessageV3>> messages) {
+        var results = new ArrayList<CompletableFuture<String>>(messages.size());
+        for (var message : messages) {
+            var result = new CompletableFuture<String>();
+            queue.add(new PendingMessage(message, result));
+            results.add(result);
+        }
+        drain();
+        return results;
+    }
+
+    private void drain() {
+        while (!queue.isEmpty()) {
+            var inFlight = inFlightBatches.get();
+            if (inFlight >= maxInFlightBatches) {
+                return;
+            }
+            if (!inFlightBatches.compareAndSet(inFlight, inFlight + 1)) {
+                continue;
+            }
+            var batch = new ArrayList<PendingMessage>(batchSize);
+            PendingMessage pendingMessage;
+            while (batch.size() < batchSize && (pendingMessage = queue.poll()) != null) {
+                batch.add(pendingMessage);
+            }
+            if (batch.isEmpty()) {
+                inFlightBatches.decrementAndGet();
+                continue;
+            }
+            flush(batch);
+        }
+    }
+
+    private void flush(List<PendingMessage> batch) {
+        log.debug("RedisMessageProducer.flush size={}", batch.size());
+        var results = redisClient.sendMessages(
+                batch.stream().map(PendingMessage::message).toList(),
+                EnvelopeCodec::body, ProtoUtils::toPrettyString
+        );
+        for (int i = 0; i < batch.size(); i++) {
+            var result = batch.get(i).result();
+            results.get(i).whenComplete((streamMessageId, throwable) -> {
+                if (throwable != null) {
+                    result.completeExceptionally(throwable);
+                } else {
+                    result.complete(streamMessageId);
+                }
+            });
+        }
+        CompletableFuture.allOf(results.toArray(CompletableFuture<?>[]::new))
+                .whenComplete((v, throwable) -> {
+                    inFlightBatches.decrementAndGet();
+                    drain();
+                });
+    }
+
+    private record PendingMessage(OutgoingMessage<GeneratedMessageV3> message,
+                                  CompletableFuture<String> result) {
+    }
+}
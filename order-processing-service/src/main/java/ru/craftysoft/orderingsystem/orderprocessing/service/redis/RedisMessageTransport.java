@@ -0,0 +1,79 @@
+package ru.craftysoft.orderingsystem.orderprocessing.service.redis;
+
+import com.google.protobuf.GeneratedMessageV3;
+import ru.craftysoft.orderingsystem.orderprocessing.proto.Envelope;
+import ru.craftysoft.orderingsystem.orderprocessing.service.transport.MessageTransport;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+/**
+ * транспорт саги на стримах Redis: отправка пачками через {@link RedisMessageProducer}, повторы через
+ * {@link RedisDelayQueue}, чтение и подтверждение через консьюмер-группы {@link RedisClient}.
+ */
+@Singleton
+public class RedisMessageTransport implements MessageTransport {
+
+    private final RedisClient client;
+    private final RedisMessageProducer producer;
+    private final RedisDelayQueue delayQueue;
+
+    @Inject
+    public RedisMessageTransport(RedisClient client, RedisMessageProducer producer, RedisDelayQueue delayQueue) {
+        this.client = client;
+        this.producer = producer;
+        this.delayQueue = delayQueue;
+    }
+
+    @Override
+    public List<CompletableFuture<String>> send(List<OutgoingMessage<GeneratedMessageV3>> messages) {
+        return producer.send(messages);
+    }
+
+    /**
+     * сообщение, отправляемое при обработке записи стрима, может быть записано вместе с подтверждением этой записи
+     * (см. {@link RedisClient#forward})
+     */
+    @Override
+    public CompletableFuture<String> send(OutgoingMessage<GeneratedMessageV3> message) {
+        var forwarded = client.forward(message, EnvelopeCodec::body);
+        if (forwarded != null) {
+            return forwarded;
+        }
+        return producer.send(message.streamKey(), message.partitionKey(), message.messageId(), message.payload());
+    }
+
+    @Override
+    public CompletionStage<String> schedule(OutgoingMessage<GeneratedMessageV3> message, long dueAt) {
+        return delayQueue.schedule(message, dueAt);
+    }
+
+    @Override
+    public <T> CompletionStage<Integer> subscribe(List<String> streamKeys,
+                                                  int consumerIndex,
+                                                  InFlightLimiter limiter,
+                                                  Function<Envelope, T> mapper,
+                                                  Function<T, String> logMapper,
+                                                  Function<Map.Entry<String, T>, ? extends CompletionStage<?>> handler) {
+        return client.subscribe(streamKeys, consumerIndex, limiter, mapper, logMapper, handler);
+    }
+
+    @Override
+    public <T> CompletionStage<Integer> claim(List<String> streamKeys,
+                                              InFlightLimiter limiter,
+                                              Function<Envelope, T> mapper,
+                                              Function<T, String> logMapper,
+                                              Function<Map.Entry<String, T>, ? extends CompletionStage<?>> handler) {
+        return client.claim(streamKeys, limiter, mapper, logMapper, handler);
+    }
+
+    @Override
+    public CompletionStage<Long> ack(String streamKey, String... ids) {
+        return client.ack(streamKey, ids);
+    }
+}
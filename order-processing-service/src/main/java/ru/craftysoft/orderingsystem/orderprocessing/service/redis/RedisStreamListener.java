@@ -0,0 +1,105 @@
+package ru.craftysoft.orderingsystem.orderprocessing.service.redis;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.craftysoft.orderingsystem.orderprocessing.service.stage.StageRuntime;
+import ru.craftysoft.orderingsystem.util.properties.PropertyResolver;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntFunction;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * непрерывное чтение стримов.
+ * следующая пачка запрашивается сразу после обработки предыдущей, ожидание новых сообщений происходит
+ * на стороне Redis за счёт XREADGROUP BLOCK. при ошибке чтение возобновляется с задержкой.
+ * каждый стрим читают несколько независимых потребителей, их количество задаётся при подписке.
+ * запросы очередной пачки выполняются в {@link StageRuntime} как задачи этапа с именем подписки.
+ * при остановке сначала прекращается чтение новых пачек, затем не дольше redis.consumer.shutdown-timeout-millis
+ * ожидается обработка прочитанных сообщений (освобождение мест в {@link InFlightLimiters}), после чего закрываются
+ * соединения и потребители удаляются из консьюмер-групп.
+ */
+@Singleton
+@Slf4j
+public class RedisStreamListener {
+
+    private final RedisClient redisClient;
+    private final StageRuntime stageRuntime;
+    private final InFlightLimiters inFlightLimiters;
+    private final long errorDelayMillis;
+    private final long shutdownTimeoutMillis;
+    private final AtomicBoolean isRunning = new AtomicBoolean(true);
+
+    private static final long DRAIN_POLL_MILLIS = 50;
+
+    @Inject
+    public RedisStreamListener(RedisClient redisClient,
+                               StageRuntime stageRuntime,
+                               InFlightLimiters inFlightLimiters,
+                               PropertyResolver propertyResolver) {
+        this.redisClient = redisClient;
+        this.stageRuntime = stageRuntime;
+        this.inFlightLimiters = inFlightLimiters;
+        this.errorDelayMillis = propertyResolver.getIntProperty("redis.consumer.error-delay-millis");
+        this.shutdownTimeoutMillis = propertyResolver.getIntProperty("redis.consumer.shutdown-timeout-millis");
+    }
+
+    /**
+     * @param stageName      имя этапа в {@link StageRuntime}
+     * @param consumers      количество потребителей стрима
+     * @param batchProcessor обработка очередной пачки, принимает номер потребителя
+     */
+    public void listen(String stageName, int consumers, IntFunction<? extends CompletionStage<?>> batchProcessor) {
+        log.info("RedisStreamListener.listen stage={} consumers={}", stageName, consumers);
+        for (int i = 0; i < consumers; i++) {
+            var consumerIndex = i;
+            stageRuntime.execute(stageName, () -> next(stageName, consumerIndex, batchProcessor));
+        }
+    }
+
+    public void stop() {
+        isRunning.set(false);
+        var deadline = System.nanoTime() + MILLISECONDS.toNanos(shutdownTimeoutMillis);
+        try {
+            while (!inFlightLimiters.isIdle() && System.nanoTime() < deadline) {
+                Thread.sleep(DRAIN_POLL_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!inFlightLimiters.isIdle()) {
+            log.warn("RedisStreamListener.stop обработка прочитанных сообщений не завершилась за {} мс", shutdownTimeoutMillis);
+            inFlightLimiters.logState();
+        }
+        redisClient.close();
+        try {
+            redisClient.deregisterConsumers().toCompletableFuture().get(shutdownTimeoutMillis, MILLISECONDS);
+        } catch (Exception e) {
+            log.error("RedisStreamListener.stop.thrown", e);
+        }
+    }
+
+    private void next(String stageName, int consumerIndex, IntFunction<? extends CompletionStage<?>> batchProcessor) {
+        if (!isRunning.get()) {
+            return;
+        }
+        try {
+            batchProcessor.apply(consumerIndex).whenComplete((ignored, throwable) -> {
+                if (!isRunning.get() || !stageRuntime.isRunning()) {
+                    return;
+                }
+                if (throwable != null) {
+                    stageRuntime.schedule(stageName, () -> next(stageName, consumerIndex, batchProcessor), errorDelayMillis);
+                } else {
+                    stageRuntime.execute(stageName, () -> next(stageName, consumerIndex, batchProcessor));
+                }
+            });
+        } catch (Exception e) {
+            log.error("RedisStreamListener.next.thrown stage={} consumerIndex={}", stageName, consumerIndex, e);
+            stageRuntime.schedule(stageName, () -> next(stageName, consumerIndex, batchProcessor), errorDelayMillis);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package ru.craftysoft.orderingsystem.orderprocessing.service.redis;
+
+import ru.craftysoft.orderingsystem.util.properties.PropertyResolver;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+/**
+ * расчёт времени следующей попытки обработки сообщения.
+ * задержка растёт экспоненциально от redis.stream.{этап}.retry.base-delay-millis до redis.stream.{этап}.retry.max-delay-millis,
+ * фактическая задержка выбирается случайно в интервале [задержка / 2, задержка], чтобы повторы сообщений, упавших
+ * одновременно, не приходили в сервисы одной волной.
+ */
+@Singleton
+public class RetryBackoff {
+
+    private final Map<String, Delay> delaysByStream = new HashMap<>();
+
+    @Inject
+    public RetryBackoff(PropertyResolver propertyResolver) {
+        Stream.of(
+                "increment-customer-amount",
+                "decrease-customer-amount",
+                "increment-executor-amount",
+                "decrease-executor-amount",
+                "reserve-order",
+                "complete-order"
+        ).forEach(stage -> delaysByStream.put(
+                propertyResolver.getStringProperty("redis.stream." + stage + ".name"),
+                new Delay(
+                        propertyResolver.getIntProperty("redis.stream." + stage + ".retry.base-delay-millis"),
+                        propertyResolver.getIntProperty("redis.stream." + stage + ".retry.max-delay-millis")
+                )
+        ));
+    }
+
+    /**
+     * @param streamName имя логического стрима этапа
+     * @param counter    номер попытки, начиная с 1
+     * @return время следующей попытки, мс с начала эпохи
+     */
+    public long nextAttemptAt(String streamName, int counter) {
+        return System.currentTimeMillis() + delayMillis(streamName, counter);
+    }
+
+    private long delayMillis(String streamName, int counter) {
+        var delay = delaysByStream.get(streamName);
+        var exponent = Math.min(Math.max(counter - 1, 0), 30);
+        var maxDelay = Math.min(delay.maxMillis(), delay.baseMillis() << exponent);
+        if (maxDelay <= 0) {
+            return 0;
+        }
+        var halfDelay = maxDelay / 2;
+        return halfDelay + ThreadLocalRandom.current().nextLong(maxDelay - halfDelay + 1);
+    }
+
+    private record Delay(long baseMillis, long maxMillis) {
+    }
+}
@@ -0,0 +1,160 @@
+package ru.craftysoft.orderingsystem.orderprocessing.service.redis;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.craftysoft.orderingsystem.util.properties.PropertyResolver;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * разбиение логического стрима на redis.stream.partitions физических стримов {имя}.{номер партиции}.
+ * сообщение попадает в партицию по хэшу ключа (идентификатора клиента, исполнителя или заказа), поэтому все сообщения
+ * одного ключа проходят через одну партицию.
+ * партиции статически распределяются между экземплярами приложения (номер партиции по модулю
+ * redis.stream.partition-assignment.instance-count равен номеру экземпляра), а внутри экземпляра - между потребителями
+ * стрима. каждую партицию читает ровно один потребитель, что сохраняет порядок обработки сообщений одного ключа,
+ * поэтому потребителей стрима в экземпляре не больше, чем назначенных ему партиций.
+ * номер экземпляра redis.stream.partition-assignment.instance-index должен быть уникальным среди экземпляров и меньше
+ * их количества, иначе одну партицию будут читать несколько экземпляров, а часть партиций никто не будет читать.
+ * значение auto берёт номер из порядкового суффикса имени хоста (name-0, name-1 в StatefulSet).
+ * партиций должно быть не меньше, чем экземпляров, чтобы каждому экземпляру досталась хотя бы одна. при нарушении
+ * этих условий приложение не запускается.
+ * при redis.stream.partitions=1 разбиение отключено: используется исходное имя стрима, которое читают все потребители
+ * всех экземпляров, а порядок обработки сохраняется только внутри пачки.
+ */
+@Singleton
+@Slf4j
+public class StreamPartitioner {
+
+    private final int partitions;
+    private final int instanceIndex;
+    private final int instanceCount;
+    private final Map<String, Integer> consumersByStream = new HashMap<>();
+
+    @Inject
+    public StreamPartitioner(PropertyResolver propertyResolver, @Named("instanceId") String instanceId) {
+        this.partitions = propertyResolver.getIntProperty("redis.stream.partitions");
+        this.instanceCount = propertyResolver.getIntProperty("redis.stream.partition-assignment.instance-count");
+        if (partitions < 1) {
+            throw new IllegalArgumentException("redis.stream.partitions должно быть больше 0 partitions=" + partitions);
+        }
+        if (instanceCount < 1) {
+            throw new IllegalArgumentException("redis.stream.partition-assignment.instance-count должно быть больше 0 instanceCount=" + instanceCount);
+        }
+        this.instanceIndex = resolveInstanceIndex(propertyResolver.getStringProperty("redis.stream.partition-assignment.instance-index"), instanceId);
+        if (instanceIndex < 0 || instanceIndex >= instanceCount) {
+            throw new IllegalArgumentException("Номер экземпляра должен быть от 0 до redis.stream.partition-assignment.instance-count - 1 instanceIndex=%d instanceCount=%d"
+                    .formatted(instanceIndex, instanceCount));
+        }
+        if (partitions > 1 && partitions < instanceCount) {
+            throw new IllegalArgumentException("Партиций меньше, чем экземпляров, часть экземпляров не будет читать стримы partitions=%d instanceCount=%d"
+                    .formatted(partitions, instanceCount));
+        }
+        Stream.of(
+                "increment-customer-amount",
+                "decrease-customer-amount",
+                "increment-executor-amount",
+                "decrease-executor-amount",
+                "reserve-order",
+                "complete-order"
+        ).forEach(stage -> {
+            var streamName = propertyResolver.getStringProperty("redis.stream." + stage + ".name");
+            var consumers = propertyResolver.getIntProperty("redis.stream." + stage + ".consumers");
+            var ownedPartitions = ownedPartitions().size();
+            if (partitions > 1 && consumers > ownedPartitions) {
+                log.warn("StreamPartitioner потребителей больше, чем партиций экземпляра, лишние потребители не запускаются stream={} consumers={} ownedPartitions={}",
+                        streamName, consumers, ownedPartitions);
+            }
+            consumersByStream.put(streamName, consumers);
+        });
+        log.info("StreamPartitioner partitions={} instanceIndex={} instanceCount={}", partitions, instanceIndex, instanceCount);
+    }
+
+    public String partition(String streamName, long key) {
+        if (partitions == 1) {
+            return streamName;
+        }
+        return streamName + "." + Math.floorMod(Long.hashCode(key * 0x9E3779B97F4A7C15L), partitions);
+    }
+
+    /**
+     * @return имя логического стрима по имени его партиции
+     */
+    public static String streamName(String partition) {
+        var separator = partition.lastIndexOf('.');
+        return separator > 0 && separator < partition.length() - 1 && partition.substring(separator + 1).chars().allMatch(Character::isDigit)
+                ? partition.substring(0, separator)
+                : partition;
+    }
+
+    public List<String> partitions(String streamName) {
+        if (partitions == 1) {
+            return List.of(streamName);
+        }
+        return IntStream.range(0, partitions)
+                .mapToObj(partition -> streamName + "." + partition)
+                .toList();
+    }
+
+    /**
+     * @return количество потребителей стрима в экземпляре: при разбиении - не больше, чем назначенных экземпляру партиций
+     */
+    public int consumers(String streamName) {
+        var consumers = consumersByStream.get(streamName);
+        return partitions == 1 ? consumers : Math.min(consumers, ownedPartitions().size());
+    }
+
+    /**
+     * @return партиции стрима, которые читает потребитель с номером consumerIndex
+     */
+    public List<String> assignedPartitions(String streamName, int consumerIndex) {
+        if (partitions == 1) {
+            return List.of(streamName);
+        }
+        var consumers = consumers(streamName);
+        var owned = ownedPartitions();
+        var allPartitions = partitions(streamName);
+        return IntStream.range(0, owned.size())
+                .filter(i -> i % consumers == consumerIndex)
+                .mapToObj(i -> allPartitions.get(owned.get(i)))
+                .toList();
+    }
+
+    private List<Integer> ownedPartitions() {
+        return IntStream.range(0, partitions)
+                .filter(partition -> partition % instanceCount == instanceIndex)
+                .boxed()
+                .toList();
+    }
+
+    /**
+     * значение auto означает номер экземпляра из суффикса имени хоста (name-0, name-1 в StatefulSet)
+     *
+     * @param instanceId {имя хоста}-{pid}
+     */
+    private static int resolveInstanceIndex(String instanceIndex, String instanceId) {
+        if (!"auto".equals(instanceIndex)) {
+            try {
+                return Integer.parseInt(instanceIndex);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("redis.stream.partition-assignment.instance-index должно быть числом или auto instanceIndex=" + instanceIndex);
+            }
+        }
+        var host = instanceId.substring(0, Math.max(instanceId.lastIndexOf('-'), 0));
+        var ordinal = host.substring(host.lastIndexOf('-') + 1);
+        if (ordinal.isEmpty() || !ordinal.chars().allMatch(Character::isDigit)) {
+            throw new IllegalArgumentException("Имя хоста не заканчивается порядковым номером, задайте redis.stream.partition-assignment.instance-index явно host=" + host);
+        }
+        try {
+            return Integer.parseInt(ordinal);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Порядковый номер в имени хоста слишком велик host=" + host);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package ru.craftysoft.orderingsystem.orderprocessing.service.redis;
+
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.ToByteBufEncoder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * кодек для ключей-строк и значений-массивов байт (сериализованных protobuf-сообщений).
+ * при отправке команды ключи и значения записываются сразу в буфер команды из пула netty через
+ * {@link ToByteBufEncoder}, без промежуточных {@link ByteBuffer}.
+ * при чтении значение копируется в массив один раз: буфер ответа переиспользуется после декодирования,
+ * а тип сообщения становится известен только обработчику стрима.
+ */
+public class StringBytesRedisCodec implements RedisCodec<String, byte[]>, ToByteBufEncoder<String, byte[]> {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    @Override
+    public String decodeKey(ByteBuffer bytes) {
+        return Unpooled.wrappedBuffer(bytes).toString(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public byte[] decodeValue(ByteBuffer buffer) {
+        int remaining = buffer.remaining();
+        if (remaining == 0) {
+            return EMPTY;
+        }
+        byte[] b = new byte[remaining];
+        buffer.get(b);
+        return b;
+    }
+
+    @Override
+    public ByteBuffer encodeKey(String key) {
+        return key == null
+                ? ByteBuffer.wrap(EMPTY)
+                : ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public ByteBuffer encodeValue(byte[] value) {
+        return value == null
+                ? ByteBuffer.wrap(EMPTY)
+                : ByteBuffer.wrap(value);
+    }
+
+    @Override
+    public void encodeKey(String key, ByteBuf target) {
+        if (key != null) {
+            ByteBufUtil.writeUtf8(target, key);
+        }
+    }
+
+    @Override
+    public void encodeValue(byte[] value, ByteBuf target) {
+        if (value != null) {
+            target.writeBytes(value);
+        }
+    }
+
+    @Override
+    public int estimateSize(Object keyOrValue) {
+        if (keyOrValue instanceof String key) {
+            return ByteBufUtil.utf8MaxBytes(key);
+        }
+        if (keyOrValue instanceof byte[] value) {
+            return value.length;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,141 @@
+package ru.craftysoft.orderingsystem.orderprocessing.service.saga;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * хешированное колесо таймеров. время делится на интервалы tickMillis, таймер попадает в ячейку колеса по номеру
+ * интервала, в котором он срабатывает, а таймер, срабатывающий через несколько оборотов колеса, хранит количество
+ * оставшихся оборотов. ячейки - двусвязные списки, узлы таймеров находятся по ключу, поэтому добавление, перенос
+ * и отмена таймера выполняются за O(1). {@link #advance} обходит ячейки интервалов, наступивших с предыдущего вызова.
+ * на ключ приходится не больше одного таймера.
+ */
+public class HashedTimingWheel<K> {
+
+    private final long tickMillis;
+    private final long startedAt;
+    private final int mask;
+    private final Node<K>[] buckets;
+    private final Map<K, Node<K>> nodes = new HashMap<>();
+    /**
+     * номер следующего необработанного интервала
+     */
+    private long tick;
+
+    /**
+     * @param wheelSize  количество ячеек колеса, степень двойки
+     * @param tickMillis длительность интервала
+     * @param now        начало отсчёта интервалов, мс с начала эпохи
+     */
+    @SuppressWarnings("unchecked")
+    public HashedTimingWheel(int wheelSize, long tickMillis, long now) {
+        if (wheelSize <= 0 || Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("Размер колеса должен быть степенью двойки wheelSize=" + wheelSize);
+        }
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("Длительность интервала должна быть положительной tickMillis=" + tickMillis);
+        }
+        this.tickMillis = tickMillis;
+        this.startedAt = now;
+        this.mask = wheelSize - 1;
+        this.buckets = (Node<K>[]) new Node[wheelSize];
+    }
+
+    /**
+     * установка таймера ключа. ранее установленный таймер этого ключа переносится
+     *
+     * @param deadline время срабатывания, мс с начала эпохи. прошедшее время срабатывает в ближайшем необработанном интервале
+     */
+    public synchronized void schedule(K key, long deadline) {
+        var node = nodes.get(key);
+        if (node != null) {
+            unlink(node);
+        } else {
+            node = new Node<>(key);
+            nodes.put(key, node);
+        }
+        var expirationTick = Math.max(Math.floorDiv(deadline - startedAt + tickMillis - 1, tickMillis), tick);
+        node.rounds = (expirationTick - tick) / buckets.length;
+        link(node, (int) (expirationTick & mask));
+    }
+
+    /**
+     * @return true, если таймер ключа был установлен
+     */
+    public synchronized boolean cancel(K key) {
+        var node = nodes.remove(key);
+        if (node == null) {
+            return false;
+        }
+        unlink(node);
+        return true;
+    }
+
+    /**
+     * обработка интервалов, закончившихся к моменту now
+     *
+     * @return ключи сработавших таймеров
+     */
+    public synchronized List<K> advance(long now) {
+        var lastTick = Math.floorDiv(now - startedAt, tickMillis);
+        var expired = new ArrayList<K>();
+        for (; tick <= lastTick; tick++) {
+            var node = buckets[(int) (tick & mask)];
+            while (node != null) {
+                var next = node.next;
+                if (node.rounds <= 0) {
+                    unlink(node);
+                    nodes.remove(node.key);
+                    expired.add(node.key);
+                } else {
+                    node.rounds--;
+                }
+                node = next;
+            }
+        }
+        return expired;
+    }
+
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    private void link(Node<K> node, int bucket) {
+        var head = buckets[bucket];
+        node.bucket = bucket;
+        node.prev = null;
+        node.next = head;
+        if (head != null) {
+            head.prev = node;
+        }
+        buckets[bucket] = node;
+    }
+
+    private void unlink(Node<K> node) {
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else {
+            buckets[node.bucket] = node.next;
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+    }
+
+    private static class Node<K> {
+
+        private final K key;
+        private int bucket;
+        private long rounds;
+        private Node<K> prev;
+        private Node<K> next;
+
+        private Node(K key) {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package ru.craftysoft.orderingsystem.orderprocessing.service.saga;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.GeneratedMessageV3;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UnsafeByteOperations;
+import lombok.extern.slf4j.Slf4j;
+import ru.craftysoft.orderingsystem.orderprocessing.proto.DelayedMessage;
+import ru.craftysoft.orderingsystem.orderprocessing.service.redis.EnvelopeCodec;
+import ru.craftysoft.orderingsystem.orderprocessing.service.redis.OutgoingMessage;
+import ru.craftysoft.orderingsystem.orderprocessing.service.redis.RedisClient;
+import ru.craftysoft.orderingsystem.util.properties.PropertyResolver;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import static ru.craftysoft.orderingsystem.util.error.logging.ExceptionLoggerHelper.logError;
+import static ru.craftysoft.orderingsystem.util.mdc.MdcUtils.withMdc;
+
+/**
+ * сроки саг. при отправке каждого шага саги ({@link #register}) запоминается компенсация - сообщение, которое нужно
+ * отправить, если сага не завершится за saga.deadline.timeout-millis: до списания с заказчика - возврат заказа
+ * в резерв, после списания - возврат средств заказчику, после зачисления исполнителю - списание с исполнителя.
+ * при завершении или откате саги срок снимается ({@link #complete}), при отложенном повторе шага - переносится
+ * ({@link #extend}).
+ * таймеры саг хранятся в {@link HashedTimingWheel}, компенсации и сроки - в хеше redis.saga-deadline.compensations.name
+ * и сортированном множестве redis.saga-deadline.deadlines.name, поэтому шаг саги, обработанный другим экземпляром
+ * приложения, переносит срок и для этого экземпляра. сработавшие таймеры проверяются по Redis и отправляются пачками
+ * ({@link #expire}), саги, таймеры которых потеряны при остановке экземпляра, забираются из Redis
+ * ({@link #claimOverdue}). отправленная компенсация получает новый срок и отправляется повторно, пока сага не
+ * завершится.
+ * сага, компенсация которой отправлена, запоминается в сортированном множестве redis.saga-deadline.compensated.name
+ * на saga.deadline.compensated-retention-millis. шаг саги, завершившийся позже, не переходит к следующему
+ * ({@link #advance}, {@link #finish}), поэтому медленный шаг не может выполниться одновременно с откатом саги.
+ * сроки отслеживаются только при transport.type=redis.
+ */
+@Singleton
+@Slf4j
+public class SagaDeadlineTracker {
+
+    private final RedisClient redisClient;
+    private final HashedTimingWheel<String> wheel;
+    private final boolean isEnabled;
+    private final String deadlinesKey;
+    private final String compensationsKey;
+    private final String compensatedKey;
+    private final long timeoutMillis;
+    private final long compensatedRetentionMillis;
+    private final int batchSize;
+
+    @Inject
+    public SagaDeadlineTracker(RedisClient redisClient, PropertyResolver propertyResolver) {
+        this.redisClient = redisClient;
+        this.isEnabled = "redis".equals(propertyResolver.getStringProperty("transport.type"))
+                && propertyResolver.getBooleanProperty("saga.deadline.enabled");
+        this.deadlinesKey = propertyResolver.getStringProperty("redis.saga-deadline.deadlines.name");
+        this.compensationsKey = propertyResolver.getStringProperty("redis.saga-deadline.compensations.name");
+        this.compensatedKey = propertyResolver.getStringProperty("redis.saga-deadline.compensated.name");
+        this.timeoutMillis = propertyResolver.getIntProperty("saga.deadline.timeout-millis");
+        this.compensatedRetentionMillis = propertyResolver.getIntProperty("saga.deadline.compensated-retention-millis");
+        this.batchSize = propertyResolver.getIntProperty("saga.deadline.batch-size");
+        this.wheel = new HashedTimingWheel<>(
+                propertyResolver.getIntProperty("saga.deadline.wheel-size"),
+                propertyResolver.getIntProperty("saga.deadline.tick-millis"),
+                System.currentTimeMillis()
+        );
+    }
+
+    public boolean isEnabled() {
+        return isEnabled;
+    }
+
+    /**
+     * установка срока саги compensation.messageId() через saga.deadline.timeout-millis с заменой компенсации
+     */
+    public void register(OutgoingMessage<GeneratedMessageV3> compensation) {
+        if (!isEnabled) {
+            return;
+        }
+        var deadline = System.currentTimeMillis() + timeoutMillis;
+        wheel.schedule(compensation.messageId(), deadline);
+        redisClient.setDeadline(deadlinesKey, compensationsKey, compensation.messageId(), deadline, toDelayedMessage(compensation).toByteArray())
+                .whenComplete(withMdc((count, throwable) -> {
+                    if (throwable != null) {
+                        logError(log, "SagaDeadlineTracker.register", throwable);
+                    }
+                }));
+    }
+
+    /**
+     * переход саги к следующему шагу: установка срока и компенсации, как в {@link #register}, если компенсация саги
+     * ещё не отправлена
+     *
+     * @return false - компенсация саги уже отправлена, шаг не должен переходить к следующему
+     */
+    public CompletionStage<Boolean> advance(OutgoingMessage<GeneratedMessageV3> compensation) {
+        if (!isEnabled) {
+            return CompletableFuture.completedFuture(true);
+        }
+        var deadline = System.currentTimeMillis() + timeoutMillis;
+        wheel.schedule(compensation.messageId(), deadline);
+        return redisClient.advanceDeadline(deadlinesKey, compensationsKey, compensatedKey, compensation.messageId(), deadline, toDelayedMessage(compensation).toByteArray());
+    }
+
+    /**
+     * снятие срока перед последним шагом саги, если компенсация саги ещё не отправлена
+     *
+     * @return false - компенсация саги уже отправлена, последний шаг не должен выполняться
+     */
+    public CompletionStage<Boolean> finish(String sagaId) {
+        if (!isEnabled) {
+            return CompletableFuture.completedFuture(true);
+        }
+        wheel.cancel(sagaId);
+        return redisClient.finishDeadline(deadlinesKey, compensationsKey, compensatedKey, sagaId);
+    }
+
+    /**
+     * перенос срока саги на saga.deadline.timeout-millis после notBefore, компенсация не меняется
+     *
+     * @param notBefore время, до которого шаг саги не будет выполнен, мс с начала эпохи
+     */
+    public void extend(String sagaId, long notBefore) {
+        if (!isEnabled) {
+            return;
+        }
+        var deadline = notBefore + timeoutMillis;
+        wheel.schedule(sagaId, deadline);
+        redisClient.extendDeadline(deadlinesKey, sagaId, deadline)
+                .whenComplete(withMdc((count, throwable) -> {
+                    if (throwable != null) {
+                        logError(log, "SagaDeadlineTracker.extend", throwable);
+                    }
+                }));
+    }
+
+    public void complete(String sagaId) {
+        if (!isEnabled) {
+            return;
+        }
+        wheel.cancel(sagaId);
+        redisClient.removeDeadline(deadlinesKey, compensationsKey, sagaId)
+                .whenComplete(withMdc((count, throwable) -> {
+                    if (throwable != null) {
+                        logError(log, "SagaDeadlineTracker.complete", throwable);
+                    }
+                }));
+    }
+
+    /**
+     * отправка компенсаций саг, таймеры которых сработали, пачками до saga.deadline.batch-size
+     *
+     * @return количество компенсаций, переданных на отправку
+     */
+    public CompletionStage<Integer> expire() {
+        if (!isEnabled) {
+            return CompletableFuture.completedFuture(0);
+        }
+        var expired = wheel.advance(System.currentTimeMillis());
+        if (expired.isEmpty()) {
+            return CompletableFuture.completedFuture(0);
+        }
+        var batches = new ArrayList<CompletableFuture<Integer>>();
+        for (int from = 0; from < expired.size(); from += batchSize) {
+            var batch = expired.subList(from, Math.min(from + batchSize, expired.size()));
+            batches.add(compensate(batch).toCompletableFuture());
+        }
+        return CompletableFuture.allOf(batches.toArray(CompletableFuture<?>[]::new))
+                .thenApply(v -> batches.stream()
+                        .mapToInt(CompletableFuture::join)
+                        .sum());
+    }
+
+    /**
+     * отправка компенсаций не более saga.deadline.batch-size просроченных саг, в том числе тех, таймеры которых
+     * были установлены остановленными экземплярами приложения
+     *
+     * @return количество забранных саг
+     */
+    public CompletionStage<Integer> claimOverdue() {
+        if (!isEnabled) {
+            return CompletableFuture.completedFuture(0);
+        }
+        return compensate(List.of());
+    }
+
+    private CompletionStage<Integer> compensate(List<String> sagaIds) {
+        var now = System.currentTimeMillis();
+        var nextDeadline = now + timeoutMillis;
+        return redisClient.claimDeadlines(deadlinesKey, compensationsKey, compensatedKey, now, nextDeadline, now - compensatedRetentionMillis, batchSize, sagaIds)
+                .thenCompose(withMdc(compensations -> {
+                    if (compensations.isEmpty()) {
+                        return CompletableFuture.completedFuture(0);
+                    }
+                    var messages = new ArrayList<OutgoingMessage<ByteString>>(compensations.size());
+                    for (var compensation : compensations) {
+                        try {
+                            var delayedMessage = DelayedMessage.parseFrom(compensation);
+                            wheel.schedule(delayedMessage.getMessageId(), nextDeadline);
+                            messages.add(new OutgoingMessage<>(
+                                    delayedMessage.getStreamKey(),
+                                    delayedMessage.getPartitionKey().isEmpty() ? null : delayedMessage.getPartitionKey(),
+                                    delayedMessage.getMessageId(),
+                                    delayedMessage.getPayload(),
+                                    delayedMessage.getTraceId().isEmpty() ? null : delayedMessage.getTraceId()
+                            ));
+                        } catch (InvalidProtocolBufferException e) {
+                            log.error("SagaDeadlineTracker.compensate.thrown компенсация не может быть разобрана", e);
+                        }
+                    }
+                    var results = redisClient.sendMessages(messages, ByteString::toByteArray, payload -> "size=" + payload.size());
+                    for (int i = 0; i < messages.size(); i++) {
+                        var message = messages.get(i);
+                        results.get(i).whenComplete(withMdc((streamMessageId, throwable) -> {
+                            if (throwable != null) {
+                                logError(log, "SagaDeadlineTracker.compensate", throwable);
+                            } else {
+                                log.warn("SagaDeadlineTracker.compensate срок саги истёк redisMessageId={} stream={}", message.messageId(), message.streamKey());
+                            }
+                        }));
+                    }
+                    return CompletableFuture.allOf(results.toArray(CompletableFuture<?>[]::new))
+                            .handle((v, throwable) -> compensations.size());
+                }));
+    }
+
+    private static DelayedMessage toDelayedMessage(OutgoingMessage<GeneratedMessageV3> compensation) {
+        return DelayedMessage.newBuilder()
+                .setStreamKey(compensation.streamKey())
+                .setPartitionKey(Objects.requireNonNullElse(compensation.partitionKey(), ""))
+                .setMessageId(compensation.messageId())
+                .setPayload(UnsafeByteOperations.unsafeWrap(EnvelopeCodec.body(compensation.payload())))
+                .setTraceId(Objects.requireNonNullElse(compensation.traceId(), ""))
+                .build();
+    }
+}
@@ -0,0 +1,173 @@
+package ru.craftysoft.orderingsystem.orderprocessing.service.stage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import static ru.craftysoft.orderingsystem.util.mdc.MdcUtils.withMdc;
+
+/**
+ * объединение одиночных запросов, выполняемых одновременно, в пачки для одного вызова.
+ * пачка отправляется, когда в ней набирается maxBatchSize запросов или через lingerMillis после первого запроса,
+ * отложенная отправка выполняется в очереди этапа stage.
+ * вызов выполняется с MDC первого запроса пачки, результат по каждому запросу возвращается в порядке добавления,
+ * ошибка вызова возвращается по всем запросам пачки.
+ * если задан {@link Netting}, запросы с одним ключом в пачке сворачиваются в один запрос (например, изменения
+ * баланса одного счёта - в одно изменение на итоговую сумму), результат которого возвращается по каждому исходному
+ * запросу. если свёрнутый запрос не применён, исходные запросы ставятся в очередь этапа stage и отправляются повторно
+ * без свёртки, чтобы каждый был применён или отклонён отдельно. повтор выполняется не больше одного раза, т.к.
+ * повторные запросы не сворачиваются, а результат несвёрнутого запроса возвращается как есть.
+ *
+ * @param <T> запрос
+ * @param <R> результат запроса
+ */
+@Slf4j
+public class RequestBatcher<T, R> {
+
+    private final String stage;
+    private final StageRuntime stageRuntime;
+    private final int maxBatchSize;
+    private final long lingerMillis;
+    private final Function<List<T>, CompletableFuture<List<R>>> batchCall;
+    @Nullable
+    private final Netting<T, R> netting;
+    private List<Item<T, R>> pending = new ArrayList<>();
+
+    public RequestBatcher(String stage,
+                          StageRuntime stageRuntime,
+                          int maxBatchSize,
+                          long lingerMillis,
+                          Function<List<T>, CompletableFuture<List<R>>> batchCall,
+                          @Nullable Netting<T, R> netting) {
+        this.stage = stage;
+        this.stageRuntime = stageRuntime;
+        this.maxBatchSize = maxBatchSize;
+        this.lingerMillis = lingerMillis;
+        this.batchCall = batchCall;
+        this.netting = netting;
+    }
+
+    public CompletableFuture<R> submit(T request) {
+        return submit(request, true);
+    }
+
+    /**
+     * @param isNettable false - запрос не сворачивается с другими запросами с тем же ключом
+     */
+    public CompletableFuture<R> submit(T request, boolean isNettable) {
+        var result = new CompletableFuture<R>();
+        add(new Item<>(request, MDC.getCopyOfContextMap(), result, netting != null && isNettable));
+        return result;
+    }
+
+    private void add(Item<T, R> item) {
+        List<Item<T, R>> batch = null;
+        boolean isFirst;
+        synchronized (this) {
+            pending.add(item);
+            isFirst = pending.size() == 1;
+            if (pending.size() >= maxBatchSize) {
+                batch = pending;
+                pending = new ArrayList<>();
+            }
+        }
+        if (batch != null) {
+            send(batch);
+        } else if (isFirst) {
+            stageRuntime.schedule(stage, this::flush, lingerMillis);
+        }
+    }
+
+    private void flush() {
+        List<Item<T, R>> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new ArrayList<>();
+        }
+        send(batch);
+    }
+
+    private void send(List<Item<T, R>> batch) {
+        var groups = group(batch);
+        var requests = groups.stream()
+                .map(group -> group.size() == 1
+                        ? group.get(0).request()
+                        : netting.merge(group.stream().map(Item::request).toList()))
+                .toList();
+        if (requests.size() < batch.size()) {
+            log.debug("RequestBatcher.send stage={} items={} requests={}", stage, batch.size(), requests.size());
+        }
+        CompletableFuture<List<R>> results;
+        try {
+            results = withMdc(batch.get(0).mdc(), () -> batchCall.apply(requests)).get();
+        } catch (Exception e) {
+            results = CompletableFuture.failedFuture(e);
+        }
+        results.whenComplete((values, throwable) -> {
+            var error = throwable == null && values.size() != requests.size()
+                    ? new IllegalStateException("expected %d results, received %d".formatted(requests.size(), values.size()))
+                    : throwable;
+            for (int i = 0; i < groups.size(); i++) {
+                var group = groups.get(i);
+                if (error != null) {
+                    group.forEach(item -> item.result().completeExceptionally(error));
+                } else if (group.size() == 1) {
+                    group.get(0).result().complete(values.get(i));
+                } else if (netting.isApplied(values.get(i))) {
+                    var value = values.get(i);
+                    group.forEach(item -> item.result().complete(netting.result(value, item.request())));
+                } else {
+                    stageRuntime.execute(stage, () -> group.forEach(item -> add(new Item<>(item.request(), item.mdc(), item.result(), false))));
+                }
+            }
+        });
+    }
+
+    /**
+     * @return запросы пачки, сгруппированные по ключу свёртки в порядке первого появления ключа
+     */
+    private List<List<Item<T, R>>> group(List<Item<T, R>> batch) {
+        var groups = new LinkedHashMap<Object, List<Item<T, R>>>();
+        for (var item : batch) {
+            var key = item.isNettable() ? netting.key(item.request()) : item;
+            groups.computeIfAbsent(key, k -> new ArrayList<>()).add(item);
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    /**
+     * свёртка запросов с одним ключом
+     */
+    public interface Netting<T, R> {
+
+        /**
+         * @return ключ, по которому сворачиваются запросы
+         */
+        Object key(T request);
+
+        /**
+         * @return запрос, заменяющий запросы с одним ключом
+         */
+        T merge(List<T> requests);
+
+        boolean isApplied(R result);
+
+        /**
+         * @return результат исходного запроса по результату свёрнутого
+         */
+        R result(R mergedResult, T request);
+    }
+
+    private record Item<T, R>(T request, Map<String, String> mdc, CompletableFuture<R> result, boolean isNettable) {
+    }
+}
@@ -0,0 +1,258 @@
+package ru.craftysoft.orderingsystem.orderprocessing.service.stage;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import ru.craftysoft.orderingsystem.util.properties.PropertyResolver;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * общий пул потоков для всех этапов обработки: циклов чтения стримов и периодических операций.
+ * количество рабочих потоков задаётся в stage-runtime.worker-threads и не зависит от количества этапов и партиций.
+ * у каждого этапа своя очередь задач, рабочие потоки выбирают задачи из очередей по взвешенному циклическому
+ * алгоритму: за один проход этап получает не больше stage-runtime.{этап}.weight задач подряд, поэтому этап с большим
+ * весом получает пропорционально большую долю потоков, но не может занять их все.
+ * отложенные задачи ставятся в очередь этапа отдельным потоком таймера, который сам задачи не выполняет.
+ * по каждому этапу учитывается время ожидания задач в очереди.
+ * потоки пула - демоны и не удерживают процесс, если запуск приложения прервался исключением, поэтому основной поток
+ * приложения после запуска ждёт остановки пула ({@link #awaitTermination()}).
+ */
+@Singleton
+@Slf4j
+public class StageRuntime {
+
+    private final PropertyResolver propertyResolver;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition hasTasks = lock.newCondition();
+    private final List<Stage> stages = new ArrayList<>();
+    private final Map<String, Stage> stagesByName = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+    private final List<Thread> workers = new ArrayList<>();
+    private int cursor;
+    private volatile boolean isRunning = true;
+
+    @Inject
+    public StageRuntime(PropertyResolver propertyResolver) {
+        this.propertyResolver = propertyResolver;
+        this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("stage-timer-thread-%d").setDaemon(true).build());
+        var workerThreads = propertyResolver.getIntProperty("stage-runtime.worker-threads");
+        var threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat("stage-worker-thread-%d")
+                .setDaemon(true)
+                .build();
+        for (int i = 0; i < workerThreads; i++) {
+            var worker = threadFactory.newThread(this::work);
+            workers.add(worker);
+            worker.start();
+        }
+        log.info("StageRuntime workerThreads={}", workerThreads);
+    }
+
+    /**
+     * @return исполнитель, ставящий задачи в очередь этапа
+     */
+    public Executor executor(String stageName) {
+        var stage = stage(stageName);
+        return task -> submit(stage, task);
+    }
+
+    public void execute(String stageName, Runnable task) {
+        submit(stage(stageName), task);
+    }
+
+    public void schedule(String stageName, Runnable task, long delayMillis) {
+        var stage = stage(stageName);
+        timer.schedule(() -> submit(stage, task), delayMillis, MILLISECONDS);
+    }
+
+    /**
+     * задача ставится в очередь повторно через delayMillis после завершения предыдущего выполнения
+     */
+    public void scheduleWithFixedDelay(String stageName, Runnable task, long initialDelayMillis, long delayMillis) {
+        var stage = stage(stageName);
+        Runnable repeated = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    if (isRunning) {
+                        timer.schedule(() -> submit(stage, this), delayMillis, MILLISECONDS);
+                    }
+                }
+            }
+        };
+        timer.schedule(() -> submit(stage, repeated), initialDelayMillis, MILLISECONDS);
+    }
+
+    public boolean isRunning() {
+        return isRunning;
+    }
+
+    public void shutdown() {
+        isRunning = false;
+        timer.shutdownNow();
+        lock.lock();
+        try {
+            hasTasks.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        workers.forEach(Thread::interrupt);
+    }
+
+    /**
+     * ожидание завершения рабочих потоков после {@link #shutdown()}
+     */
+    public void awaitTermination() throws InterruptedException {
+        for (var worker : workers) {
+            worker.join();
+        }
+    }
+
+    /**
+     * @return количество задач этапа, ожидающих выполнения
+     */
+    public int getQueued(String stageName) {
+        var stage = stage(stageName);
+        lock.lock();
+        try {
+            return stage.queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return среднее время ожидания задач этапа в очереди с начала работы, мс
+     */
+    public double getAverageQueueTimeMillis(String stageName) {
+        var stage = stage(stageName);
+        var executed = stage.executed.get();
+        return executed == 0 ? 0 : (double) NANOSECONDS.toMicros(stage.queueTimeNanos.get()) / executed / 1000;
+    }
+
+    public void logState() {
+        stagesByName.values().forEach(stage -> {
+            var maxQueueTimeNanos = stage.maxQueueTimeNanos.getAndSet(0);
+            log.info("StageRuntime.state stage={} weight={} queued={} executed={} avgQueueTimeMillis={} maxQueueTimeMillis={}",
+                    stage.name, stage.weight, getQueued(stage.name), stage.executed.get(),
+                    String.format("%.3f", getAverageQueueTimeMillis(stage.name)), NANOSECONDS.toMillis(maxQueueTimeNanos));
+        });
+    }
+
+    private Stage stage(String stageName) {
+        return stagesByName.computeIfAbsent(stageName, name -> {
+            var stage = new Stage(name, propertyResolver.getIntProperty("stage-runtime." + name + ".weight"));
+            lock.lock();
+            try {
+                stages.add(stage);
+            } finally {
+                lock.unlock();
+            }
+            return stage;
+        });
+    }
+
+    private void submit(Stage stage, Runnable task) {
+        if (!isRunning) {
+            return;
+        }
+        lock.lock();
+        try {
+            stage.queue.add(new Task(task, System.nanoTime()));
+            hasTasks.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void work() {
+        while (isRunning) {
+            StageTask stageTask;
+            lock.lock();
+            try {
+                while ((stageTask = poll()) == null) {
+                    if (!isRunning) {
+                        return;
+                    }
+                    hasTasks.await();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+            var queueTimeNanos = System.nanoTime() - stageTask.task.enqueuedAt();
+            var stage = stageTask.stage;
+            stage.queueTimeNanos.addAndGet(queueTimeNanos);
+            stage.maxQueueTimeNanos.accumulateAndGet(queueTimeNanos, Math::max);
+            stage.executed.incrementAndGet();
+            try {
+                stageTask.task.runnable().run();
+            } catch (Exception e) {
+                log.error("StageRuntime.work.thrown stage={}", stage.name, e);
+            }
+        }
+    }
+
+    /**
+     * выбор следующей задачи, вызывается под блокировкой.
+     * этап с задачами обслуживается, пока не израсходует свой вес, после чего вес восстанавливается, а очередь
+     * переходит к следующему этапу. двух проходов достаточно, чтобы найти задачу, если она есть.
+     */
+    private StageTask poll() {
+        var size = stages.size();
+        for (int i = 0; i < size * 2; i++) {
+            var stage = stages.get(cursor);
+            if (!stage.queue.isEmpty()) {
+                if (stage.credit > 0) {
+                    stage.credit--;
+                    return new StageTask(stage, stage.queue.poll());
+                }
+                stage.credit = stage.weight;
+            }
+            cursor = (cursor + 1) % size;
+        }
+        return null;
+    }
+
+    private static class Stage {
+        private final String name;
+        private final int weight;
+        private final Queue<Task> queue = new ArrayDeque<>();
+        private final AtomicLong queueTimeNanos = new AtomicLong();
+        private final AtomicLong maxQueueTimeNanos = new AtomicLong();
+        private final AtomicLong executed = new AtomicLong();
+        private int credit;
+
+        private Stage(String name, int weight) {
+            this.name = name;
+            this.weight = weight;
+            this.credit = weight;
+        }
+    }
+
+    private record Task(Runnable runnable, long enqueuedAt) {
+    }
+
+    private record StageTask(Stage stage, Task task) {
+    }
+}
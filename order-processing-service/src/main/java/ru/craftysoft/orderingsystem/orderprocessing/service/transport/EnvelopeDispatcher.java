@@ -0,0 +1,117 @@
+package ru.craftysoft.orderingsystem.orderprocessing.service.transport;
+
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
+import ru.craftysoft.orderingsystem.orderprocessing.proto.Envelope;
+import ru.craftysoft.orderingsystem.orderprocessing.service.redis.InFlightLimiter;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+import static lombok.AccessLevel.PRIVATE;
+import static ru.craftysoft.orderingsystem.orderprocessing.service.redis.RedisClient.REDIS_MESSAGE_ID;
+import static ru.craftysoft.orderingsystem.util.mdc.MdcKey.TRACE_ID;
+import static ru.craftysoft.orderingsystem.util.mdc.MdcUtils.withMdc;
+
+/**
+ * передача прочитанной из транспорта пачки конвертов в обработчик так же, как при чтении стримов Redis:
+ * конверты с одинаковым ключом партиции в пределах стрима обрабатываются последовательно, остальные - параллельно,
+ * каждый занимает разрешение limiter на время обработки и освобождает место в limiter после неё.
+ */
+@Slf4j
+@NoArgsConstructor(access = PRIVATE)
+final class EnvelopeDispatcher {
+
+    /**
+     * @param id       идентификатор сообщения в транспорте
+     * @param envelope null, если конверт не удалось разобрать
+     */
+    record Delivery<I>(I id, String stream, @Nullable Envelope envelope) {
+    }
+
+    /**
+     * @param ackProcessedOnly возвращать только успешно обработанные сообщения
+     * @return идентификаторы сообщений, которые нужно подтвердить
+     */
+    static <I, T> CompletableFuture<List<I>> dispatch(List<Delivery<I>> deliveries,
+                                                      InFlightLimiter limiter,
+                                                      boolean ackProcessedOnly,
+                                                      Function<Envelope, T> mapper,
+                                                      Function<T, String> logMapper,
+                                                      Function<Map.Entry<String, T>, ? extends CompletionStage<?>> handler) {
+        var lastByPartitionKey = new HashMap<String, CompletableFuture<Object>>();
+        var futures = new ArrayList<CompletableFuture<I>>(deliveries.size());
+        for (var delivery : deliveries) {
+            var envelope = delivery.envelope();
+            if (envelope == null) {
+                limiter.unreserve(1);
+                futures.add(CompletableFuture.completedFuture(ackProcessedOnly ? null : delivery.id()));
+                continue;
+            }
+            var orderingKey = envelope.getPartitionKey().isEmpty()
+                    ? null
+                    : delivery.stream() + "/" + envelope.getPartitionKey();
+            var previous = orderingKey == null
+                    ? null
+                    : lastByPartitionKey.get(orderingKey);
+            var handled = (previous == null
+                    ? limiter.acquire()
+                    : previous
+                    .handle((result, throwable) -> (Void) null)
+                    .thenCompose(v -> limiter.acquire()))
+                    .thenCompose(withMdc(v -> {
+                        return handle(delivery.stream(), envelope, mapper, logMapper, handler)
+                                .whenComplete((result, throwable) -> limiter.release());
+                    }));
+            if (orderingKey != null) {
+                lastByPartitionKey.put(orderingKey, handled);
+            }
+            futures.add(handled.handle((result, throwable) -> {
+                limiter.unreserve(1);
+                return throwable == null || !ackProcessedOnly
+                        ? delivery.id()
+                        : null;
+            }));
+        }
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture<?>[]::new))
+                .thenApply(v -> futures.stream()
+                        .map(CompletableFuture::join)
+                        .filter(Objects::nonNull)
+                        .toList());
+    }
+
+    /**
+     * обработчик вызывается с идентификатором сообщения и идентификатором трассировки из заголовка конверта в MDC
+     */
+    private static <T> CompletableFuture<Object> handle(String streamKey,
+                                                        Envelope envelope,
+                                                        Function<Envelope, T> mapper,
+                                                        Function<T, String> logMapper,
+                                                        Function<Map.Entry<String, T>, ? extends CompletionStage<?>> handler) {
+        var mdc = Objects.requireNonNullElseGet(MDC.getCopyOfContextMap(), HashMap::new);
+        mdc.put(REDIS_MESSAGE_ID, envelope.getMessageId());
+        if (!envelope.getTraceId().isEmpty()) {
+            mdc.put(TRACE_ID, envelope.getTraceId());
+        }
+        return withMdc(mdc, () -> {
+            try {
+                var resultMessage = mapper.apply(envelope);
+                if (log.isDebugEnabled()) {
+                    log.debug("EnvelopeDispatcher.handle stream={} message={}", streamKey, logMapper.apply(resultMessage));
+                }
+                return handler.apply(Map.entry(envelope.getMessageId(), resultMessage)).toCompletableFuture().thenApply(result -> (Object) result);
+            } catch (Exception e) {
+                log.error("EnvelopeDispatcher.handle.thrown", e);
+                return CompletableFuture.failedFuture(e);
+            }
+        }).get();
+    }
+}
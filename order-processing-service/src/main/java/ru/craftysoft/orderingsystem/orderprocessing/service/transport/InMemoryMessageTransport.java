@@ -0,0 +1,242 @@
+package ru.craftysoft.orderingsystem.orderprocessing.service.transport;
+
+import com.google.protobuf.GeneratedMessageV3;
+import lombok.extern.slf4j.Slf4j;
+import ru.craftysoft.orderingsystem.orderprocessing.proto.Envelope;
+import ru.craftysoft.orderingsystem.orderprocessing.service.redis.EnvelopeCodec;
+import ru.craftysoft.orderingsystem.orderprocessing.service.redis.InFlightLimiter;
+import ru.craftysoft.orderingsystem.orderprocessing.service.redis.OutgoingMessage;
+import ru.craftysoft.orderingsystem.orderprocessing.service.stage.StageRuntime;
+import ru.craftysoft.orderingsystem.util.properties.PropertyResolver;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static ru.craftysoft.orderingsystem.orderprocessing.error.exception.InvocationExceptionCode.MEMORY_QUEUE_FULL;
+import static ru.craftysoft.orderingsystem.orderprocessing.error.operation.ModuleOperationCode.resolve;
+import static ru.craftysoft.orderingsystem.util.error.exception.ExceptionFactory.newRetryableException;
+import static ru.craftysoft.orderingsystem.util.mdc.MdcUtils.withMdc;
+
+/**
+ * транспорт сообщений саги внутри процесса, для запуска всех этапов в одном экземпляре без Redis и БД очереди
+ * и для замера производительности самой саги. каждый стрим - кольцевой буфер {@link RingBuffer} размером
+ * transport.memory.ring-size, в который передаётся конверт с телом-объектом без сериализации (см. {@link EnvelopeCodec#wrap}).
+ * если буфер заполнен, отправка завершается {@link ru.craftysoft.orderingsystem.util.error.exception.RetryableException}.
+ * отложенные сообщения ждут в этапе {@link #DELAY_STAGE}.
+ * без журнала сообщения хранятся только в памяти и теряются при остановке, а сообщение, обработка которого
+ * завершилась ошибкой, повторно не выдаётся. при transport.memory.wal.enabled=true отправки и подтверждения
+ * дописываются в журнал transport.memory.wal.path (см. {@link WriteAheadLog}), и при запуске неподтверждённые сообщения,
+ * в том числе отложенные, возвращаются в стримы.
+ */
+@Singleton
+@Slf4j
+public class InMemoryMessageTransport implements MessageTransport {
+
+    public static final String DELAY_STAGE = "memory-queue-delay";
+
+    private final StageRuntime stageRuntime;
+    private final Map<String, RingBuffer<QueuedEnvelope>> rings = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger rotation = new AtomicInteger();
+    private final int ringSize;
+    private final int batchSize;
+    private final boolean ackProcessedOnly;
+    private final long retryDelayMillis;
+    @Nullable
+    private final WriteAheadLog writeAheadLog;
+
+    @Inject
+    public InMemoryMessageTransport(StageRuntime stageRuntime, PropertyResolver propertyResolver) {
+        this.stageRuntime = stageRuntime;
+        this.ringSize = propertyResolver.getIntProperty("transport.memory.ring-size");
+        this.batchSize = propertyResolver.getIntProperty("transport.memory.batch-size");
+        this.ackProcessedOnly = propertyResolver.getBooleanProperty("transport.memory.ack-processed-only");
+        this.retryDelayMillis = propertyResolver.getIntProperty("transport.memory.retry-delay-millis");
+        if (propertyResolver.getBooleanProperty("transport.memory.wal.enabled")) {
+            this.writeAheadLog = new WriteAheadLog(
+                    Path.of(propertyResolver.getStringProperty("transport.memory.wal.path")),
+                    propertyResolver.getBooleanProperty("transport.memory.wal.fsync")
+            );
+            recover(writeAheadLog);
+        } else {
+            this.writeAheadLog = null;
+        }
+    }
+
+    @Override
+    public List<CompletableFuture<String>> send(List<OutgoingMessage<GeneratedMessageV3>> messages) {
+        var enqueuedAt = System.currentTimeMillis();
+        var queued = messages.stream()
+                .map(message -> queued(message, enqueuedAt))
+                .toList();
+        try {
+            log(queued);
+        } catch (IOException e) {
+            log.error("InMemoryMessageTransport.send.thrown {}", e.getMessage());
+            var failed = CompletableFuture.<String>failedFuture(e);
+            return queued.stream().map(ignored -> failed).toList();
+        }
+        return queued.stream()
+                .map(this::publish)
+                .toList();
+    }
+
+    @Override
+    public CompletionStage<String> schedule(OutgoingMessage<GeneratedMessageV3> message, long dueAt) {
+        var now = System.currentTimeMillis();
+        var queued = queued(message, now);
+        try {
+            log(List.of(queued));
+        } catch (IOException e) {
+            log.error("InMemoryMessageTransport.schedule.thrown {}", e.getMessage());
+            return CompletableFuture.failedFuture(e);
+        }
+        stageRuntime.schedule(DELAY_STAGE, withMdc(() -> publishDelayed(queued)), Math.max(0, dueAt - now));
+        return CompletableFuture.completedFuture(String.valueOf(queued.id()));
+    }
+
+    @Override
+    public <T> CompletionStage<Integer> subscribe(List<String> streamKeys,
+                                                  int consumerIndex,
+                                                  InFlightLimiter limiter,
+                                                  Function<Envelope, T> mapper,
+                                                  Function<T, String> logMapper,
+                                                  Function<Map.Entry<String, T>, ? extends CompletionStage<?>> handler) {
+        if (streamKeys.isEmpty()) {
+            return CompletableFuture.completedFuture(0);
+        }
+        var streamRings = streamKeys.stream()
+                .map(this::ring)
+                .toList();
+        return limiter.reserve(batchSize)
+                .thenCompose(withMdc(reserved -> {
+                    var queued = new ArrayList<QueuedEnvelope>(reserved);
+                    var start = Math.floorMod(rotation.getAndIncrement(), streamRings.size());
+                    for (int i = 0; i < streamRings.size() && queued.size() < reserved; i++) {
+                        streamRings.get((start + i) % streamRings.size()).drainTo(queued, reserved - queued.size());
+                    }
+                    limiter.unreserve(reserved - queued.size());
+                    if (queued.isEmpty()) {
+                        // следующее чтение начнётся, когда в одном из стримов появится сообщение
+                        return CompletableFuture.anyOf(streamRings.stream().map(RingBuffer::whenNotEmpty).toArray(CompletableFuture<?>[]::new))
+                                .thenApply(ignored -> 0);
+                    }
+                    return handle(queued, limiter, mapper, logMapper, handler);
+                }));
+    }
+
+    /**
+     * сообщения, выданные потребителю, из стрима удаляются, поэтому перехватывать нечего
+     */
+    @Override
+    public <T> CompletionStage<Integer> claim(List<String> streamKeys,
+                                              InFlightLimiter limiter,
+                                              Function<Envelope, T> mapper,
+                                              Function<T, String> logMapper,
+                                              Function<Map.Entry<String, T>, ? extends CompletionStage<?>> handler) {
+        return CompletableFuture.completedFuture(0);
+    }
+
+    @Override
+    public CompletionStage<Long> ack(String streamKey, String... ids) {
+        if (writeAheadLog != null && ids.length > 0) {
+            try {
+                writeAheadLog.ack(Arrays.stream(ids).mapToLong(Long::parseLong).toArray());
+            } catch (IOException e) {
+                log.error("InMemoryMessageTransport.ack.thrown {}", e.getMessage());
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        return CompletableFuture.completedFuture((long) ids.length);
+    }
+
+    private <T> CompletableFuture<Integer> handle(List<QueuedEnvelope> queued,
+                                                  InFlightLimiter limiter,
+                                                  Function<Envelope, T> mapper,
+                                                  Function<T, String> logMapper,
+                                                  Function<Map.Entry<String, T>, ? extends CompletionStage<?>> handler) {
+        log.debug("InMemoryMessageTransport.subscribe.in size={}", queued.size());
+        var deliveries = queued.stream()
+                .map(message -> new EnvelopeDispatcher.Delivery<>(message.id(), message.stream(), message.envelope()))
+                .toList();
+        var processed = EnvelopeDispatcher.dispatch(deliveries, limiter, ackProcessedOnly, mapper, logMapper, handler)
+                .thenCompose(withMdc(acknowledged -> {
+                    log.debug("InMemoryMessageTransport.subscribe.out size={} acknowledged={}", queued.size(), acknowledged.size());
+                    var ids = acknowledged.stream()
+                            .map(String::valueOf)
+                            .toArray(String[]::new);
+                    return ack(null, ids).thenApply(count -> queued.size());
+                }));
+        return limiter.isReadAhead()
+                ? CompletableFuture.completedFuture(queued.size())
+                : processed;
+    }
+
+    private CompletableFuture<String> publish(QueuedEnvelope queued) {
+        if (!ring(queued.stream()).offer(queued)) {
+            log.error("InMemoryMessageTransport.publish стрим {} заполнен", queued.stream());
+            return CompletableFuture.failedFuture(newRetryableException(resolve(), MEMORY_QUEUE_FULL));
+        }
+        return CompletableFuture.completedFuture(String.valueOf(queued.id()));
+    }
+
+    private void publishDelayed(QueuedEnvelope queued) {
+        if (!ring(queued.stream()).offer(queued)) {
+            log.warn("InMemoryMessageTransport.publishDelayed стрим {} заполнен, повтор через {} мс", queued.stream(), retryDelayMillis);
+            stageRuntime.schedule(DELAY_STAGE, withMdc(() -> publishDelayed(queued)), retryDelayMillis);
+        }
+    }
+
+    private RingBuffer<QueuedEnvelope> ring(String streamKey) {
+        return rings.computeIfAbsent(streamKey, key -> new RingBuffer<>(ringSize));
+    }
+
+    private QueuedEnvelope queued(OutgoingMessage<GeneratedMessageV3> message, long enqueuedAt) {
+        var envelope = EnvelopeCodec.wrap(message.messageId(), message.partitionKey(), message.traceId(), enqueuedAt, message.payload());
+        return new QueuedEnvelope(sequence.incrementAndGet(), message.streamKey(), envelope);
+    }
+
+    private void log(List<QueuedEnvelope> queued) throws IOException {
+        if (writeAheadLog == null) {
+            return;
+        }
+        var entries = queued.stream()
+                .map(message -> new WriteAheadLog.Entry(message.id(), message.stream(), message.envelope().toByteArray()))
+                .toList();
+        writeAheadLog.append(entries);
+    }
+
+    /**
+     * неподтверждённые сообщения журнала возвращаются в стримы, отложенные выдаются сразу
+     */
+    private void recover(WriteAheadLog writeAheadLog) {
+        try {
+            for (var entry : writeAheadLog.recover()) {
+                sequence.accumulateAndGet(entry.id(), Math::max);
+                var queued = new QueuedEnvelope(entry.id(), entry.stream(), EnvelopeCodec.decode(entry.envelope()));
+                if (!ring(queued.stream()).offer(queued)) {
+                    throw new IllegalStateException("Стрим " + queued.stream() + " заполнен при восстановлении из журнала");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private record QueuedEnvelope(long id, String stream, Envelope envelope) {
+    }
+}
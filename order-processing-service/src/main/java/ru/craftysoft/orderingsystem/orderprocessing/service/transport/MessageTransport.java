@@ -0,0 +1,70 @@
+package ru.craftysoft.orderingsystem.orderprocessing.service.transport;
+
+import com.google.protobuf.GeneratedMessageV3;
+import ru.craftysoft.orderingsystem.orderprocessing.proto.Envelope;
+import ru.craftysoft.orderingsystem.orderprocessing.service.redis.InFlightLimiter;
+import ru.craftysoft.orderingsystem.orderprocessing.service.redis.OutgoingMessage;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+/**
+ * транспорт сообщений саги между этапами. реализация выбирается в transport.type:
+ * redis - стримы Redis ({@link ru.craftysoft.orderingsystem.orderprocessing.service.redis.RedisMessageTransport}),
+ * postgres - таблица очереди в БД заказов ({@link PgMessageTransport}),
+ * memory - кольцевые буферы внутри процесса ({@link InMemoryMessageTransport}).
+ * сообщения передаются в конверте {@link Envelope}, стримы и их партиции адресуются по имени одинаково
+ * во всех реализациях.
+ */
+public interface MessageTransport {
+
+    /**
+     * @return результаты отправки в порядке следования сообщений
+     */
+    List<CompletableFuture<String>> send(List<OutgoingMessage<GeneratedMessageV3>> messages);
+
+    default CompletableFuture<String> send(OutgoingMessage<GeneratedMessageV3> message) {
+        return send(List.of(message)).get(0);
+    }
+
+    /**
+     * отправка сообщения не раньше dueAt, используется для повторов
+     *
+     * @param dueAt время отправки, мс с начала эпохи
+     */
+    CompletionStage<String> schedule(OutgoingMessage<GeneratedMessageV3> message, long dueAt);
+
+    /**
+     * чтение очередной пачки сообщений стримов и передача каждого сообщения в обработчик.
+     * сообщения с одинаковым ключом партиции обрабатываются последовательно, остальные - параллельно в пределах
+     * limiter. после обработки сообщения подтверждаются ({@link #ack})
+     *
+     * @return количество прочитанных сообщений
+     */
+    <T> CompletionStage<Integer> subscribe(List<String> streamKeys,
+                                           int consumerIndex,
+                                           InFlightLimiter limiter,
+                                           Function<Envelope, T> mapper,
+                                           Function<T, String> logMapper,
+                                           Function<Map.Entry<String, T>, ? extends CompletionStage<?>> handler);
+
+    /**
+     * повторная обработка сообщений, которые были выданы потребителям, но не подтверждены
+     *
+     * @return количество перехваченных сообщений
+     */
+    <T> CompletionStage<Integer> claim(List<String> streamKeys,
+                                       InFlightLimiter limiter,
+                                       Function<Envelope, T> mapper,
+                                       Function<T, String> logMapper,
+                                       Function<Map.Entry<String, T>, ? extends CompletionStage<?>> handler);
+
+    /**
+     * @param ids идентификаторы сообщений в транспорте
+     * @return количество подтверждённых сообщений
+     */
+    CompletionStage<Long> ack(String streamKey, String... ids);
+}
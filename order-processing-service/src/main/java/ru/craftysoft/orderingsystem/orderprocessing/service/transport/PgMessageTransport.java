@@ -0,0 +1,198 @@
+package ru.craftysoft.orderingsystem.orderprocessing.service.transport;
+
+import com.google.protobuf.GeneratedMessageV3;
+import io.lettuce.core.Consumer;
+import lombok.extern.slf4j.Slf4j;
+import ru.craftysoft.orderingsystem.orderprocessing.dto.QueuedMessage;
+import ru.craftysoft.orderingsystem.orderprocessing.proto.Envelope;
+import ru.craftysoft.orderingsystem.orderprocessing.service.dao.MessageQueueDao;
+import ru.craftysoft.orderingsystem.orderprocessing.service.redis.EnvelopeCodec;
+import ru.craftysoft.orderingsystem.orderprocessing.service.redis.InFlightLimiter;
+import ru.craftysoft.orderingsystem.orderprocessing.service.redis.OutgoingMessage;
+import ru.craftysoft.orderingsystem.orderprocessing.service.stage.RequestBatcher;
+import ru.craftysoft.orderingsystem.orderprocessing.service.stage.StageRuntime;
+import ru.craftysoft.orderingsystem.util.properties.PropertyResolver;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static ru.craftysoft.orderingsystem.util.mdc.MdcUtils.withMdc;
+
+/**
+ * транспорт сообщений саги через таблицу orders.message_queue в БД заказов (см. {@link MessageQueueDao}).
+ * отправляемые одновременно сообщения объединяются в пачки и записываются одним INSERT (см. {@link RequestBatcher}),
+ * размер пачки и время её накопления задаются в transport.postgres.send.max-batch-size
+ * и transport.postgres.send.linger-millis. отложенное сообщение записывается сразу со временем выдачи, отдельная
+ * очередь отложенной отправки не нужна.
+ * потребитель выбирает сообщения с FOR UPDATE SKIP LOCKED и арендует их на transport.postgres.lease-millis,
+ * обработанные сообщения удаляются. сообщение, не подтверждённое до окончания аренды, выдаётся повторно при следующем
+ * чтении, поэтому {@link #claim} ничего не делает. если сообщений нет, следующее чтение выполняется через
+ * transport.postgres.poll-interval-millis.
+ */
+@Singleton
+@Slf4j
+public class PgMessageTransport implements MessageTransport {
+
+    public static final String SEND_STAGE = "pg-queue-send";
+
+    private final MessageQueueDao dao;
+    private final Executor dbExecutor;
+    private final Consumer<String> applicationConsumer;
+    private final RequestBatcher<PendingMessage, String> batcher;
+    private final int batchSize;
+    private final long leaseMillis;
+    private final long pollIntervalMillis;
+    private final boolean ackProcessedOnly;
+
+    @Inject
+    public PgMessageTransport(MessageQueueDao dao,
+                              @Named("dbExecutor") Executor dbExecutor,
+                              Consumer<String> applicationConsumer,
+                              StageRuntime stageRuntime,
+                              PropertyResolver propertyResolver) {
+        this.dao = dao;
+        this.dbExecutor = dbExecutor;
+        this.applicationConsumer = applicationConsumer;
+        this.batchSize = propertyResolver.getIntProperty("transport.postgres.batch-size");
+        this.leaseMillis = propertyResolver.getIntProperty("transport.postgres.lease-millis");
+        this.pollIntervalMillis = propertyResolver.getIntProperty("transport.postgres.poll-interval-millis");
+        this.ackProcessedOnly = propertyResolver.getBooleanProperty("transport.postgres.ack-processed-only");
+        this.batcher = new RequestBatcher<>(
+                SEND_STAGE,
+                stageRuntime,
+                propertyResolver.getIntProperty("transport.postgres.send.max-batch-size"),
+                propertyResolver.getIntProperty("transport.postgres.send.linger-millis"),
+                this::enqueue,
+                null
+        );
+    }
+
+    @Override
+    public List<CompletableFuture<String>> send(List<OutgoingMessage<GeneratedMessageV3>> messages) {
+        var enqueuedAt = System.currentTimeMillis();
+        return messages.stream()
+                .map(message -> batcher.submit(pending(message, EnvelopeCodec.body(message.payload()), enqueuedAt, 0)))
+                .toList();
+    }
+
+    @Override
+    public CompletionStage<String> schedule(OutgoingMessage<GeneratedMessageV3> message, long dueAt) {
+        var now = System.currentTimeMillis();
+        return batcher.submit(pending(message, EnvelopeCodec.body(message.payload()), now, Math.max(0, dueAt - now)));
+    }
+
+    @Override
+    public <T> CompletionStage<Integer> subscribe(List<String> streamKeys,
+                                                  int consumerIndex,
+                                                  InFlightLimiter limiter,
+                                                  Function<Envelope, T> mapper,
+                                                  Function<T, String> logMapper,
+                                                  Function<Map.Entry<String, T>, ? extends CompletionStage<?>> handler) {
+        if (streamKeys.isEmpty()) {
+            return CompletableFuture.completedFuture(0);
+        }
+        var streams = streamKeys.toArray(String[]::new);
+        var consumer = applicationConsumer.getName() + "-" + consumerIndex;
+        return limiter.reserve(batchSize)
+                .thenApplyAsync(withMdc(reserved -> {
+                    try {
+                        var messages = dao.dequeue(streams, consumer, leaseMillis, reserved);
+                        limiter.unreserve(reserved - messages.size());
+                        return messages;
+                    } catch (RuntimeException e) {
+                        limiter.unreserve(reserved);
+                        throw e;
+                    }
+                }), dbExecutor)
+                .thenCompose(withMdc(messages -> {
+                    if (messages.isEmpty()) {
+                        return CompletableFuture.supplyAsync(() -> 0, CompletableFuture.delayedExecutor(pollIntervalMillis, TimeUnit.MILLISECONDS));
+                    }
+                    return handle(messages, limiter, mapper, logMapper, handler);
+                }));
+    }
+
+    @Override
+    public <T> CompletionStage<Integer> claim(List<String> streamKeys,
+                                              InFlightLimiter limiter,
+                                              Function<Envelope, T> mapper,
+                                              Function<T, String> logMapper,
+                                              Function<Map.Entry<String, T>, ? extends CompletionStage<?>> handler) {
+        return CompletableFuture.completedFuture(0);
+    }
+
+    @Override
+    public CompletionStage<Long> ack(String streamKey, String... ids) {
+        if (ids.length == 0) {
+            return CompletableFuture.completedFuture(0L);
+        }
+        var rowIds = Arrays.stream(ids).mapToLong(Long::parseLong).toArray();
+        return CompletableFuture.supplyAsync(withMdc(() -> (long) dao.delete(rowIds)), dbExecutor);
+    }
+
+    private CompletableFuture<List<String>> enqueue(List<PendingMessage> messages) {
+        return CompletableFuture.supplyAsync(withMdc(() -> {
+            var streams = new ArrayList<String>(messages.size());
+            var envelopes = new ArrayList<byte[]>(messages.size());
+            var delaysMillis = new long[messages.size()];
+            for (int i = 0; i < messages.size(); i++) {
+                var message = messages.get(i);
+                streams.add(message.stream());
+                envelopes.add(message.envelope());
+                delaysMillis[i] = message.delayMillis();
+            }
+            return dao.enqueue(streams, envelopes, delaysMillis).stream()
+                    .map(String::valueOf)
+                    .toList();
+        }), dbExecutor);
+    }
+
+    private <T> CompletableFuture<Integer> handle(List<QueuedMessage> messages,
+                                                  InFlightLimiter limiter,
+                                                  Function<Envelope, T> mapper,
+                                                  Function<T, String> logMapper,
+                                                  Function<Map.Entry<String, T>, ? extends CompletionStage<?>> handler) {
+        log.debug("PgMessageTransport.subscribe.in size={}", messages.size());
+        var deliveries = new ArrayList<EnvelopeDispatcher.Delivery<Long>>(messages.size());
+        for (var message : messages) {
+            Envelope envelope = null;
+            try {
+                envelope = EnvelopeCodec.decode(message.envelope());
+            } catch (Exception e) {
+                log.error("PgMessageTransport.subscribeMessage.thrown сообщение {} не может быть разобрано", message.id(), e);
+            }
+            deliveries.add(new EnvelopeDispatcher.Delivery<>(message.id(), message.stream(), envelope));
+        }
+        var processed = EnvelopeDispatcher.dispatch(deliveries, limiter, ackProcessedOnly, mapper, logMapper, handler)
+                .thenCompose(withMdc(acknowledged -> {
+                    log.debug("PgMessageTransport.subscribe.out size={} acknowledged={}", messages.size(), acknowledged.size());
+                    if (acknowledged.isEmpty()) {
+                        return CompletableFuture.completedFuture(messages.size());
+                    }
+                    var ids = acknowledged.stream().mapToLong(Long::longValue).toArray();
+                    return CompletableFuture.supplyAsync(withMdc(() -> dao.delete(ids)), dbExecutor)
+                            .thenApply(deleted -> messages.size());
+                }));
+        return limiter.isReadAhead()
+                ? CompletableFuture.completedFuture(messages.size())
+                : processed;
+    }
+
+    private static PendingMessage pending(OutgoingMessage<GeneratedMessageV3> message, byte[] body, long enqueuedAt, long delayMillis) {
+        var envelope = EnvelopeCodec.encode(message.messageId(), message.partitionKey(), message.traceId(), enqueuedAt, body);
+        return new PendingMessage(message.streamKey(), envelope, delayMillis);
+    }
+
+    private record PendingMessage(String stream, byte[] envelope, long delayMillis) {
+    }
+}
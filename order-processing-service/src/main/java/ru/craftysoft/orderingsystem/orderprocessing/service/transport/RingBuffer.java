@@ -0,0 +1,143 @@
+package ru.craftysoft.orderingsystem.orderprocessing.service.transport;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * ограниченная очередь без блокировок на кольцевом буфере для нескольких производителей и потребителей.
+ * ячейки выделяются при создании, у каждой ячейки есть номер последовательности: производитель захватывает позицию
+ * записи через CAS, записывает элемент и публикует его, выставляя номер ячейки, потребитель так же захватывает
+ * позицию чтения и освобождает ячейку для следующего круга. при заполнении буфера {@link #offer} возвращает false.
+ */
+final class RingBuffer<E> {
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicReference<CompletableFuture<Void>> notEmpty = new AtomicReference<>();
+
+    /**
+     * @param capacity степень двойки
+     */
+    RingBuffer(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Размер кольцевого буфера должен быть степенью двойки: " + capacity);
+        }
+        this.mask = capacity - 1;
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.elements = new AtomicReferenceArray<>(capacity);
+    }
+
+    boolean offer(E element) {
+        var position = tail.get();
+        while (true) {
+            var index = (int) (position & mask);
+            var difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.set(index, element);
+                    sequences.set(index, position + 1);
+                    signal();
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    @Nullable
+    E poll() {
+        var position = head.get();
+        while (true) {
+            var index = (int) (position & mask);
+            var difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    var element = elements.get(index);
+                    elements.set(index, null);
+                    sequences.set(index, position + mask + 1);
+                    return element;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    /**
+     * @return количество перенесённых элементов
+     */
+    int drainTo(List<? super E> target, int limit) {
+        var count = 0;
+        while (count < limit) {
+            var element = poll();
+            if (element == null) {
+                break;
+            }
+            target.add(element);
+            count++;
+        }
+        return count;
+    }
+
+    boolean isEmpty() {
+        var position = head.get();
+        return sequences.get((int) (position & mask)) != position + 1;
+    }
+
+    /**
+     * приблизительное количество элементов, для логирования
+     */
+    int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    /**
+     * @return завершается, когда в буфере появится элемент, сразу - если он не пуст
+     */
+    CompletableFuture<Void> whenNotEmpty() {
+        CompletableFuture<Void> future;
+        while (true) {
+            var current = notEmpty.get();
+            if (current != null && !current.isDone()) {
+                future = current;
+                break;
+            }
+            var created = new CompletableFuture<Void>();
+            if (notEmpty.compareAndSet(current, created)) {
+                future = created;
+                break;
+            }
+        }
+        if (!isEmpty()) {
+            future.complete(null);
+        }
+        return future;
+    }
+
+    private void signal() {
+        if (notEmpty.get() != null) {
+            var future = notEmpty.getAndSet(null);
+            if (future != null) {
+                future.complete(null);
+            }
+        }
+    }
+}
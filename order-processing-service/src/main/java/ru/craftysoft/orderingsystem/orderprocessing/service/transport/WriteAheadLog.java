@@ -0,0 +1,120 @@
+package ru.craftysoft.orderingsystem.orderprocessing.service.transport;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * журнал транспорта в памяти: отправленные сообщения и подтверждения дописываются в конец файла.
+ * при запуске неподтверждённые сообщения читаются из журнала ({@link #recover}), и журнал перезаписывается только ими.
+ * если включен признак fsync, каждая запись сбрасывается на диск, иначе - только в кэш ОС.
+ */
+@Slf4j
+final class WriteAheadLog {
+
+    private static final byte MESSAGE = 1;
+    private static final byte ACK = 2;
+
+    private final Path path;
+    private final boolean fsync;
+    private FileOutputStream file;
+    private DataOutputStream output;
+
+    record Entry(long id, String stream, byte[] envelope) {
+    }
+
+    WriteAheadLog(Path path, boolean fsync) {
+        this.path = path;
+        this.fsync = fsync;
+    }
+
+    /**
+     * @return неподтверждённые сообщения в порядке записи
+     */
+    synchronized List<Entry> recover() throws IOException {
+        var pending = new LinkedHashMap<Long, Entry>();
+        if (Files.exists(path)) {
+            try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                while (true) {
+                    byte type;
+                    try {
+                        type = input.readByte();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    try {
+                        if (type == MESSAGE) {
+                            var id = input.readLong();
+                            var stream = input.readUTF();
+                            var envelope = new byte[input.readInt()];
+                            input.readFully(envelope);
+                            pending.put(id, new Entry(id, stream, envelope));
+                        } else if (type == ACK) {
+                            pending.remove(input.readLong());
+                        } else {
+                            throw new IOException("Неизвестный тип записи журнала " + type);
+                        }
+                    } catch (EOFException e) {
+                        log.warn("WriteAheadLog.recover последняя запись журнала {} не дописана", path);
+                        break;
+                    }
+                }
+            }
+        }
+        var compacted = path.resolveSibling(path.getFileName() + ".tmp");
+        try (var compactedOutput = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(compacted)))) {
+            for (var entry : pending.values()) {
+                writeMessage(compactedOutput, entry);
+            }
+        }
+        Files.move(compacted, path, REPLACE_EXISTING, ATOMIC_MOVE);
+        file = new FileOutputStream(path.toFile(), true);
+        output = new DataOutputStream(new BufferedOutputStream(file));
+        log.info("WriteAheadLog.recover path={} pending={}", path, pending.size());
+        return new ArrayList<>(pending.values());
+    }
+
+    synchronized void append(List<Entry> entries) throws IOException {
+        for (var entry : entries) {
+            writeMessage(output, entry);
+        }
+        flush();
+    }
+
+    synchronized void ack(long[] ids) throws IOException {
+        for (var id : ids) {
+            output.writeByte(ACK);
+            output.writeLong(id);
+        }
+        flush();
+    }
+
+    private void flush() throws IOException {
+        output.flush();
+        if (fsync) {
+            file.getChannel().force(false);
+        }
+    }
+
+    private static void writeMessage(DataOutputStream output, Entry entry) throws IOException {
+        output.writeByte(MESSAGE);
+        output.writeLong(entry.id());
+        output.writeUTF(entry.stream());
+        output.writeInt(entry.envelope().length);
+        output.write(entry.envelope());
+    }
+}
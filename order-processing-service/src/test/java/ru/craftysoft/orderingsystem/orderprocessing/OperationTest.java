@@ -5,6 +5,7 @@ import io.grpc.Server;
 import io.grpc.ServerBuilder;
 import io.lettuce.core.Consumer;
 import io.lettuce.core.api.StatefulRedisConnection;
+import ru.craftysoft.orderingsystem.orderprocessing.logic.MoveDelayedMessagesOperation;
 import ru.craftysoft.orderingsystem.orderprocessing.logic.RedisConsumerGroupInitOperation;
 import ru.craftysoft.orderingsystem.orderprocessing.service.redis.RedisClient;
 import ru.craftysoft.orderingsystem.orderprocessing.testcontainer.DbContainer;
@@ -31,6 +32,8 @@ public class OperationTest {
     protected Consumer<String> applicationConsumer;
     @Inject
     protected RedisClient redisClient;
+    @Inject
+    protected MoveDelayedMessagesOperation moveDelayedMessagesOperation;
 
     protected static final String SERVICE_CODE = "005";
 
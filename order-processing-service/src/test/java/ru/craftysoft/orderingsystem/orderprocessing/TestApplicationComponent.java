@@ -4,6 +4,7 @@ import dagger.Component;
 import ru.craftysoft.orderingsystem.orderprocessing.logic.ExtractOrderOperationTest;
 import ru.craftysoft.orderingsystem.orderprocessing.logic.messagedriven.CompleteOrderOperationTest;
 import ru.craftysoft.orderingsystem.orderprocessing.module.*;
+import ru.craftysoft.orderingsystem.orderprocessing.service.dao.OrderDaoTest;
 
 import javax.inject.Singleton;
 
@@ -13,6 +14,8 @@ import javax.inject.Singleton;
         TestRedisModule.class,
 
         ExecutorModule.class,
+        InstanceModule.class,
+        TransportModule.class,
         GrpcClientModule.class,
 })
 @Singleton
@@ -22,4 +25,6 @@ public interface TestApplicationComponent {
 
     void inject(CompleteOrderOperationTest operationTest);
 
+    void inject(OrderDaoTest operationTest);
+
 }
@@ -14,6 +14,8 @@ import javax.inject.Singleton;
         TestDbNopModule.class,
 
         ExecutorModule.class,
+        InstanceModule.class,
+        TransportModule.class,
         GrpcClientModule.class,
 })
 @Singleton
@@ -20,6 +20,7 @@ import static org.junit.jupiter.api.Assertions.*;
 import static ru.craftysoft.orderingsystem.orderprocessing.error.exception.InvocationExceptionCode.DB;
 import static ru.craftysoft.orderingsystem.orderprocessing.error.exception.InvocationExceptionCode.REDIS_SEND;
 import static ru.craftysoft.orderingsystem.orderprocessing.error.operation.ModuleOperationCode.EXTRACT_ORDER;
+import static ru.craftysoft.orderingsystem.orderprocessing.error.operation.ModuleOperationCode.RELAY_OUTBOX;
 import static ru.craftysoft.orderingsystem.orderprocessing.util.StackTraceHelper.listAppender;
 import static ru.craftysoft.orderingsystem.orderprocessing.util.StackTraceHelper.thenErrorStacktrace;
 import static ru.craftysoft.orderingsystem.util.error.type.ExceptionType.RETRYABLE;
@@ -30,6 +31,8 @@ public class ExtractOrderOperationTest extends OperationTest {
     @Inject
     ExtractOrderOperation operation;
     @Inject
+    OutboxRelayOperation outboxRelayOperation;
+    @Inject
     DbHelper dbHelper;
     @Inject
     DecreaseCustomerAmountRequestBuilder decreaseCustomerAmountRequestBuilder;
@@ -45,7 +48,9 @@ public class ExtractOrderOperationTest extends OperationTest {
         var reservedOrderId = reserveOrder();
         redisConsumerGroupInitOperation.process();
 
-        operation.process().get();
+        assertEquals(1, operation.process().get());
+        assertEquals(1, outboxSize());
+        assertEquals(1, outboxRelayOperation.process());
 
         var order = dbHelper.selectOne(
                 connectionFactory().get(),
@@ -63,8 +68,9 @@ public class ExtractOrderOperationTest extends OperationTest {
                 reservedOrderId
         );
         assertEquals("in_processing", order.status());
+        assertEquals(0, outboxSize());
         var streamKey = propertyResolver.getStringProperty("redis.stream.decrease-customer-amount.name");
-        var entries = redisClient.subscribe(streamKey, decreaseCustomerAmountRequestBuilder::fromBytes, ProtoUtils::toPrettyString)
+        var entries = redisClient.subscribe(streamKey, decreaseCustomerAmountRequestBuilder::fromEnvelope, ProtoUtils::toPrettyString)
                 .toCompletableFuture()
                 .get();
         assertEquals(1, entries.size());
@@ -86,11 +92,13 @@ public class ExtractOrderOperationTest extends OperationTest {
         var component = DaggerTestApplicationComponent.builder().build();
         component.inject(this);
         var reservedOrderId = reserveOrder();
-        var listAppender = listAppender(ExtractOrderOperation.class);
+        var listAppender = listAppender(OutboxRelayOperation.class);
 
         operation.process().get();
+        var relayed = outboxRelayOperation.process();
 
-        var fullErrorCode = fullErrorCode(EXTRACT_ORDER, RETRYABLE, REDIS_SEND);
+        assertEquals(0, relayed);
+        var fullErrorCode = fullErrorCode(RELAY_OUTBOX, RETRYABLE, REDIS_SEND);
         thenErrorStacktrace(listAppender, fullErrorCode, REDIS_SEND);
         listAppender.stop();
         var order = dbHelper.selectOne(
@@ -108,7 +116,8 @@ public class ExtractOrderOperationTest extends OperationTest {
                 ),
                 reservedOrderId
         );
-        assertEquals("reserved", order.status());
+        assertEquals("in_processing", order.status());
+        assertEquals(1, outboxSize());
     }
 
     @Test
@@ -122,6 +131,14 @@ public class ExtractOrderOperationTest extends OperationTest {
         assertEquals(fullErrorCode, exception.getFullErrorCode());
     }
 
+    @SneakyThrows
+    protected int outboxSize() {
+        var sql = """
+                SELECT count(*) AS count
+                FROM orders.outbox""";
+        return dbHelper.selectOne(connectionFactory().get(), sql, resultSet -> resultSet.getInt("count"));
+    }
+
     @SneakyThrows
     protected long reserveOrder() {
         var sql = """
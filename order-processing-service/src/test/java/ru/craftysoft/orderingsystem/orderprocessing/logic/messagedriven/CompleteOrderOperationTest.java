@@ -14,19 +14,26 @@ import ru.craftysoft.orderingsystem.orderprocessing.extension.DbExtension;
 import ru.craftysoft.orderingsystem.orderprocessing.extension.RedisExtension;
 import ru.craftysoft.orderingsystem.orderprocessing.proto.CompleteOrderRequest;
 import ru.craftysoft.orderingsystem.orderprocessing.proto.RetryData;
+import ru.craftysoft.orderingsystem.orderprocessing.service.redis.EnvelopeCodec;
 import ru.craftysoft.orderingsystem.util.db.DbHelper;
 import ru.craftysoft.orderingsystem.util.proto.ProtoUtils;
 
 import javax.inject.Inject;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static ru.craftysoft.orderingsystem.orderprocessing.error.exception.BusinessExceptionCode.ORDER_HAS_NOT_BEEN_COMPLETED;
 import static ru.craftysoft.orderingsystem.orderprocessing.error.exception.InvocationExceptionCode.DB;
+import static ru.craftysoft.orderingsystem.orderprocessing.error.exception.InvocationExceptionCode.REDIS_DECODE;
 import static ru.craftysoft.orderingsystem.orderprocessing.error.operation.ModuleOperationCode.COMPLETE_ORDER;
+import static ru.craftysoft.orderingsystem.orderprocessing.service.redis.RedisClient.ENVELOPE_FIELD;
+import static ru.craftysoft.orderingsystem.orderprocessing.service.redis.RedisClientAdapter.deadLetterStream;
 import static ru.craftysoft.orderingsystem.orderprocessing.util.StackTraceHelper.listAppender;
 import static ru.craftysoft.orderingsystem.orderprocessing.util.StackTraceHelper.thenErrorStacktrace;
 import static ru.craftysoft.orderingsystem.util.error.type.ExceptionType.BUSINESS;
+import static ru.craftysoft.orderingsystem.util.error.type.ExceptionType.INVOCATION;
 import static ru.craftysoft.orderingsystem.util.error.type.ExceptionType.RETRYABLE;
 import static ru.craftysoft.orderingsystem.util.proto.ProtoUtils.moneyToBigDecimal;
 
@@ -65,7 +72,7 @@ public class CompleteOrderOperationTest extends OperationTest {
         redisConsumerGroupInitOperation.process();
         var completeOrderRequest = givenCompleteOrderRequest(processingOrderId);
         var streamKey = propertyResolver.getStringProperty("redis.stream.complete-order.name");
-        redisClient.sendMessage(streamKey, MESSAGE_ID, completeOrderRequest, CompleteOrderRequest::toByteArray, ProtoUtils::toPrettyString)
+        redisClient.sendMessage(streamKey, MESSAGE_ID, completeOrderRequest, EnvelopeCodec::body, ProtoUtils::toPrettyString)
                 .toCompletableFuture()
                 .get();
 
@@ -91,7 +98,7 @@ public class CompleteOrderOperationTest extends OperationTest {
         redisConsumerGroupInitOperation.process();
         var completeOrderRequest = givenCompleteOrderRequest(processingOrderId);
         var streamKey = propertyResolver.getStringProperty("redis.stream.complete-order.name");
-        redisClient.sendMessage(streamKey, MESSAGE_ID, completeOrderRequest, CompleteOrderRequest::toByteArray, ProtoUtils::toPrettyString)
+        redisClient.sendMessage(streamKey, MESSAGE_ID, completeOrderRequest, EnvelopeCodec::body, ProtoUtils::toPrettyString)
                 .toCompletableFuture()
                 .get();
         var listAppender = listAppender(CompleteOrderOperation.class);
@@ -113,7 +120,7 @@ public class CompleteOrderOperationTest extends OperationTest {
         redisConsumerGroupInitOperation.process();
         var completeOrderRequest = givenCompleteOrderRequest(1L);
         var streamKey = propertyResolver.getStringProperty("redis.stream.complete-order.name");
-        redisClient.sendMessage(streamKey, MESSAGE_ID, completeOrderRequest, CompleteOrderRequest::toByteArray, ProtoUtils::toPrettyString)
+        redisClient.sendMessage(streamKey, MESSAGE_ID, completeOrderRequest, EnvelopeCodec::body, ProtoUtils::toPrettyString)
                 .toCompletableFuture()
                 .get();
         var listAppender = listAppender(CompleteOrderOperation.class);
@@ -123,7 +130,8 @@ public class CompleteOrderOperationTest extends OperationTest {
         var fullErrorCode = fullErrorCode(COMPLETE_ORDER, RETRYABLE, DB);
         thenErrorStacktrace(listAppender, fullErrorCode, DB);
         listAppender.stop();
-        var entries = redisClient.subscribe(streamKey, completeOrderRequestBuilder::fromBytes, ProtoUtils::toPrettyString)
+        moveDelayedMessagesOperation.process();
+        var entries = redisClient.subscribe(streamKey, completeOrderRequestBuilder::fromEnvelope, ProtoUtils::toPrettyString)
                 .toCompletableFuture()
                 .get();
         assertEquals(1, entries.size());
@@ -137,6 +145,8 @@ public class CompleteOrderOperationTest extends OperationTest {
         assertEquals(completeOrderRequest.getCustomerBalance(), retryableCompleteOrderRequest.getCustomerBalance());
         assertTrue(retryableCompleteOrderRequest.hasRetryData());
         assertEquals(1, retryableCompleteOrderRequest.getRetryData().getCounter());
+        assertTrue(retryableCompleteOrderRequest.getRetryData().getNextAttemptAt() > 0);
+        assertEquals(1, retryableCompleteOrderRequest.getRetryData().getAttemptsCount());
     }
 
     @Test
@@ -153,7 +163,7 @@ public class CompleteOrderOperationTest extends OperationTest {
                         .build())
                 .build();
         var streamKey = propertyResolver.getStringProperty("redis.stream.complete-order.name");
-        redisClient.sendMessage(streamKey, MESSAGE_ID, completeOrderRequest, CompleteOrderRequest::toByteArray, ProtoUtils::toPrettyString)
+        redisClient.sendMessage(streamKey, MESSAGE_ID, completeOrderRequest, EnvelopeCodec::body, ProtoUtils::toPrettyString)
                 .toCompletableFuture()
                 .get();
         var listAppender = listAppender(CompleteOrderOperation.class);
@@ -164,7 +174,7 @@ public class CompleteOrderOperationTest extends OperationTest {
         thenErrorStacktrace(listAppender, fullErrorCode, DB);
         listAppender.stop();
         var responseStreamKey = propertyResolver.getStringProperty("redis.stream.decrease-executor-amount.name");
-        var entries = redisClient.subscribe(responseStreamKey, decreaseExecutorAmountRequestBuilder::fromBytes, ProtoUtils::toPrettyString)
+        var entries = redisClient.subscribe(responseStreamKey, decreaseExecutorAmountRequestBuilder::fromEnvelope, ProtoUtils::toPrettyString)
                 .toCompletableFuture()
                 .get();
         assertEquals(1, entries.size());
@@ -177,6 +187,36 @@ public class CompleteOrderOperationTest extends OperationTest {
         assertEquals(completeOrderRequest.getAmount(), decreaseExecutorAmountRequest.getAmount());
     }
 
+    @Test
+    @ExtendWith({
+            RedisExtension.class,
+    })
+    void processCorruptEnvelope() throws Exception {
+        var component = DaggerTestWithoutDbApplicationComponent.builder().build();
+        component.inject(this);
+        redisConsumerGroupInitOperation.process();
+        var streamKey = propertyResolver.getStringProperty("redis.stream.complete-order.name");
+        var corruptEnvelope = "not an envelope";
+        try (var connection = redisConnectionFactory.get()) {
+            connection.sync().xadd(streamKey, Map.of(ENVELOPE_FIELD, corruptEnvelope));
+        }
+
+        operation.process().toCompletableFuture().get();
+
+        var deadLetters = redisClient.range(deadLetterStream(streamKey), "0", 10)
+                .toCompletableFuture()
+                .get();
+        assertEquals(1, deadLetters.size());
+        var deadLetter = EnvelopeCodec.decode(deadLetters.get(0).getBody().get(ENVELOPE_FIELD)).getDeadLetter();
+        assertEquals(streamKey, deadLetter.getOriginStream());
+        assertEquals(corruptEnvelope, deadLetter.getPayload().toStringUtf8());
+        assertEquals(fullErrorCode(COMPLETE_ORDER, INVOCATION, REDIS_DECODE), deadLetter.getErrorCode());
+        var pendingCount = redisClient.pendingCount(List.of(streamKey))
+                .toCompletableFuture()
+                .get();
+        assertEquals(0L, pendingCount);
+    }
+
     private CompleteOrderRequest givenCompleteOrderRequest(long orderId) {
         return CompleteOrderRequest.newBuilder()
                 .setOrderId(orderId)
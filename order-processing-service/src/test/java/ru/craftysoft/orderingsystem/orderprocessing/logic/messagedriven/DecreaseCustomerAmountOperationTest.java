@@ -15,6 +15,7 @@ import ru.craftysoft.orderingsystem.orderprocessing.builder.redis.ReserveOrderRe
 import ru.craftysoft.orderingsystem.orderprocessing.extension.RedisExtension;
 import ru.craftysoft.orderingsystem.orderprocessing.proto.DecreaseCustomerAmountRequest;
 import ru.craftysoft.orderingsystem.orderprocessing.proto.RetryData;
+import ru.craftysoft.orderingsystem.orderprocessing.service.redis.EnvelopeCodec;
 import ru.craftysoft.orderingsystem.util.grpc.ExceptionHelper;
 import ru.craftysoft.orderingsystem.util.properties.PropertyResolver;
 import ru.craftysoft.orderingsystem.util.proto.ProtoUtils;
@@ -63,7 +64,7 @@ public class DecreaseCustomerAmountOperationTest extends OperationTest {
         redisConsumerGroupInitOperation.process();
         var decreaseCustomerAmountRequest = givenRequest();
         var streamKey = propertyResolver.getStringProperty("redis.stream.decrease-customer-amount.name");
-        redisClient.sendMessage(streamKey, MESSAGE_ID, decreaseCustomerAmountRequest, DecreaseCustomerAmountRequest::toByteArray, ProtoUtils::toPrettyString)
+        redisClient.sendMessage(streamKey, MESSAGE_ID, decreaseCustomerAmountRequest, EnvelopeCodec::body, ProtoUtils::toPrettyString)
                 .toCompletableFuture()
                 .get();
         var server = customerServiceSuccessServer(propertyResolver);
@@ -72,7 +73,7 @@ public class DecreaseCustomerAmountOperationTest extends OperationTest {
         operation.process().toCompletableFuture().get();
 
         var responseStreamKey = propertyResolver.getStringProperty("redis.stream.increment-executor-amount.name");
-        var entries = redisClient.subscribe(responseStreamKey, incrementExecutorAmountRequestBuilder::fromBytes, ProtoUtils::toPrettyString)
+        var entries = redisClient.subscribe(responseStreamKey, incrementExecutorAmountRequestBuilder::fromEnvelope, ProtoUtils::toPrettyString)
                 .toCompletableFuture()
                 .get();
         assertEquals(1, entries.size());
@@ -94,7 +95,7 @@ public class DecreaseCustomerAmountOperationTest extends OperationTest {
         redisConsumerGroupInitOperation.process();
         var decreaseCustomerAmountRequest = givenRequest();
         var streamKey = propertyResolver.getStringProperty("redis.stream.decrease-customer-amount.name");
-        redisClient.sendMessage(streamKey, MESSAGE_ID, decreaseCustomerAmountRequest, DecreaseCustomerAmountRequest::toByteArray, ProtoUtils::toPrettyString)
+        redisClient.sendMessage(streamKey, MESSAGE_ID, decreaseCustomerAmountRequest, EnvelopeCodec::body, ProtoUtils::toPrettyString)
                 .toCompletableFuture()
                 .get();
         var server = customerServiceWarningServer(propertyResolver);
@@ -107,7 +108,7 @@ public class DecreaseCustomerAmountOperationTest extends OperationTest {
         thenErrorStacktrace(listAppender, fullErrorCode, CUSTOMER_BALANCE_HAS_NOT_BEEN_DECREASED);
         listAppender.stop();
         var responseStreamKey = propertyResolver.getStringProperty("redis.stream.reserve-order.name");
-        var entries = redisClient.subscribe(responseStreamKey, reserveOrderRequestBuilder::fromBytes, ProtoUtils::toPrettyString)
+        var entries = redisClient.subscribe(responseStreamKey, reserveOrderRequestBuilder::fromEnvelope, ProtoUtils::toPrettyString)
                 .toCompletableFuture()
                 .get();
         assertEquals(1, entries.size());
@@ -125,7 +126,7 @@ public class DecreaseCustomerAmountOperationTest extends OperationTest {
         redisConsumerGroupInitOperation.process();
         var decreaseCustomerAmountRequest = givenRequest();
         var streamKey = propertyResolver.getStringProperty("redis.stream.decrease-customer-amount.name");
-        redisClient.sendMessage(streamKey, MESSAGE_ID, decreaseCustomerAmountRequest, DecreaseCustomerAmountRequest::toByteArray, ProtoUtils::toPrettyString)
+        redisClient.sendMessage(streamKey, MESSAGE_ID, decreaseCustomerAmountRequest, EnvelopeCodec::body, ProtoUtils::toPrettyString)
                 .toCompletableFuture()
                 .get();
         var server = customerServiceErrorServer(propertyResolver);
@@ -138,7 +139,7 @@ public class DecreaseCustomerAmountOperationTest extends OperationTest {
         thenErrorStacktrace(listAppender, fullErrorCode, CUSTOMER_SERVICE);
         listAppender.stop();
         var responseStreamKey = propertyResolver.getStringProperty("redis.stream.reserve-order.name");
-        var entries = redisClient.subscribe(responseStreamKey, reserveOrderRequestBuilder::fromBytes, ProtoUtils::toPrettyString)
+        var entries = redisClient.subscribe(responseStreamKey, reserveOrderRequestBuilder::fromEnvelope, ProtoUtils::toPrettyString)
                 .toCompletableFuture()
                 .get();
         assertEquals(1, entries.size());
@@ -156,7 +157,7 @@ public class DecreaseCustomerAmountOperationTest extends OperationTest {
         redisConsumerGroupInitOperation.process();
         var decreaseCustomerAmountRequest = givenRequest();
         var streamKey = propertyResolver.getStringProperty("redis.stream.decrease-customer-amount.name");
-        redisClient.sendMessage(streamKey, MESSAGE_ID, decreaseCustomerAmountRequest, DecreaseCustomerAmountRequest::toByteArray, ProtoUtils::toPrettyString)
+        redisClient.sendMessage(streamKey, MESSAGE_ID, decreaseCustomerAmountRequest, EnvelopeCodec::body, ProtoUtils::toPrettyString)
                 .toCompletableFuture()
                 .get();
         var listAppender = listAppender(DecreaseCustomerAmountOperation.class);
@@ -166,7 +167,8 @@ public class DecreaseCustomerAmountOperationTest extends OperationTest {
         var fullErrorCode = fullErrorCode(DECREASE_CUSTOMER_AMOUNT, RETRYABLE, CUSTOMER_SERVICE);
         thenErrorStacktrace(listAppender, fullErrorCode, CUSTOMER_SERVICE);
         listAppender.stop();
-        var entries = redisClient.subscribe(streamKey, decreaseCustomerAmountRequestBuilder::fromBytes, ProtoUtils::toPrettyString)
+        moveDelayedMessagesOperation.process();
+        var entries = redisClient.subscribe(streamKey, decreaseCustomerAmountRequestBuilder::fromEnvelope, ProtoUtils::toPrettyString)
                 .toCompletableFuture()
                 .get();
         assertEquals(1, entries.size());
@@ -179,6 +181,7 @@ public class DecreaseCustomerAmountOperationTest extends OperationTest {
         assertEquals(decreaseCustomerAmountRequest.getAmount(), retryableDecreaseCustomerAmountRequest.getAmount());
         assertTrue(retryableDecreaseCustomerAmountRequest.hasRetryData());
         assertEquals(1, retryableDecreaseCustomerAmountRequest.getRetryData().getCounter());
+        assertTrue(retryableDecreaseCustomerAmountRequest.getRetryData().getNextAttemptAt() > 0);
     }
 
     @Test
@@ -192,7 +195,7 @@ public class DecreaseCustomerAmountOperationTest extends OperationTest {
                 )
                 .build();
         var streamKey = propertyResolver.getStringProperty("redis.stream.decrease-customer-amount.name");
-        redisClient.sendMessage(streamKey, MESSAGE_ID, decreaseCustomerAmountRequest, DecreaseCustomerAmountRequest::toByteArray, ProtoUtils::toPrettyString)
+        redisClient.sendMessage(streamKey, MESSAGE_ID, decreaseCustomerAmountRequest, EnvelopeCodec::body, ProtoUtils::toPrettyString)
                 .toCompletableFuture()
                 .get();
         var listAppender = listAppender(DecreaseCustomerAmountOperation.class);
@@ -203,7 +206,7 @@ public class DecreaseCustomerAmountOperationTest extends OperationTest {
         thenErrorStacktrace(listAppender, fullErrorCode, CUSTOMER_SERVICE);
         listAppender.stop();
         var responseStreamKey = propertyResolver.getStringProperty("redis.stream.reserve-order.name");
-        var entries = redisClient.subscribe(responseStreamKey, reserveOrderRequestBuilder::fromBytes, ProtoUtils::toPrettyString)
+        var entries = redisClient.subscribe(responseStreamKey, reserveOrderRequestBuilder::fromEnvelope, ProtoUtils::toPrettyString)
                 .toCompletableFuture()
                 .get();
         assertEquals(1, entries.size());
@@ -269,6 +272,18 @@ public class DecreaseCustomerAmountOperationTest extends OperationTest {
                         .build();
                 responseObserver.onError(ExceptionHelper.messageToException(errorResponse));
             }
+
+            @Override
+            public void updateBalances(UpdateCustomerBalancesRequest request, StreamObserver<UpdateCustomerBalancesResponse> responseObserver) {
+                var errorResponse = UpdateCustomerBalancesResponse.newBuilder()
+                        .setError(Error.newBuilder()
+                                .setCode(ERROR_CODE)
+                                .setMessage(ERROR_MESSAGE)
+                                .build()
+                        )
+                        .build();
+                responseObserver.onError(ExceptionHelper.messageToException(errorResponse));
+            }
         };
         return grpcServer(propertyResolver.getIntProperty("grpc.customer-service.port"), controller);
     }
@@ -280,6 +295,19 @@ public class DecreaseCustomerAmountOperationTest extends OperationTest {
                 responseObserver.onNext(responseBuilder.get());
                 responseObserver.onCompleted();
             }
+
+            @Override
+            public void updateBalances(UpdateCustomerBalancesRequest request, StreamObserver<UpdateCustomerBalancesResponse> responseObserver) {
+                var data = UpdateCustomerBalancesResponseData.newBuilder();
+                request.getUpdatesList().forEach(update -> data.addResults(CustomerBalanceUpdateResult.newBuilder()
+                        .setOperationId(update.getOperationId())
+                        .setData(responseBuilder.get().getUpdateCustomerBalanceResponseData())
+                ));
+                responseObserver.onNext(UpdateCustomerBalancesResponse.newBuilder()
+                        .setUpdateCustomerBalancesResponseData(data)
+                        .build());
+                responseObserver.onCompleted();
+            }
         };
         return grpcServer(propertyResolver.getIntProperty("grpc.customer-service.port"), controller);
     }
@@ -4,10 +4,12 @@ import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 import dagger.Module;
 import dagger.Provides;
+import org.postgresql.ds.PGSimpleDataSource;
 import ru.craftysoft.orderingsystem.orderprocessing.testcontainer.DbContainer;
 import ru.craftysoft.orderingsystem.util.db.DbHelper;
 import ru.craftysoft.orderingsystem.util.properties.PropertyResolver;
 
+import javax.inject.Named;
 import javax.inject.Singleton;
 import javax.sql.DataSource;
 
@@ -25,6 +27,17 @@ public class TestDbModule {
         return new HikariDataSource(config);
     }
 
+    @Provides
+    @Singleton
+    @Named("dbNotificationDataSource")
+    static DataSource dbNotificationDataSource() {
+        var dataSource = new PGSimpleDataSource();
+        dataSource.setURL(DbContainer.INSTANCE.getUrl());
+        dataSource.setUser(DbContainer.INSTANCE.getUsername());
+        dataSource.setPassword(DbContainer.INSTANCE.getPassword());
+        return dataSource;
+    }
+
     @Provides
     @Singleton
     static DbHelper dbHelper(DataSource dataSource) {
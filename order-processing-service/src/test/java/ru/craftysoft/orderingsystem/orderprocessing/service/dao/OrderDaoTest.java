@@ -0,0 +1,144 @@
+package ru.craftysoft.orderingsystem.orderprocessing.service.dao;
+
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import ru.craftysoft.orderingsystem.orderprocessing.DaggerTestApplicationComponent;
+import ru.craftysoft.orderingsystem.orderprocessing.OperationTest;
+import ru.craftysoft.orderingsystem.orderprocessing.extension.DbExtension;
+import ru.craftysoft.orderingsystem.util.db.DbHelper;
+
+import javax.inject.Inject;
+import java.math.BigDecimal;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class OrderDaoTest extends OperationTest {
+
+    @Inject
+    OrderDao orderDao;
+    @Inject
+    DbHelper dbHelper;
+
+    private static final long MISSING_ORDER_ID = 999_999L;
+
+    @Test
+    @ExtendWith({
+            DbExtension.class,
+    })
+    void completeOrders() {
+        var component = DaggerTestApplicationComponent.builder().build();
+        component.inject(this);
+        var customerId = addCustomer(new BigDecimal("200"));
+        var otherCustomerId = addCustomer(new BigDecimal("10"));
+        var executorId = addExecutor(BigDecimal.ZERO);
+        var firstOrderId = addOrder("in_processing", new BigDecimal("100"), customerId, executorId);
+        var secondOrderId = addOrder("in_processing", new BigDecimal("50"), customerId, executorId);
+        var completedOrderId = addOrder("complete", new BigDecimal("10"), otherCustomerId, executorId);
+        var expensiveActiveOrderId = addOrder("active", new BigDecimal("80"), customerId, executorId);
+        var cheapActiveOrderId = addOrder("active", new BigDecimal("20"), customerId, executorId);
+
+        var completed = orderDao.completeOrders(
+                new long[]{firstOrderId, completedOrderId, MISSING_ORDER_ID, secondOrderId},
+                new long[]{customerId, otherCustomerId, otherCustomerId, customerId},
+                new BigDecimal[]{new BigDecimal("200"), new BigDecimal("10"), new BigDecimal("10"), new BigDecimal("30")}
+        );
+
+        assertEquals(Set.of(firstOrderId, secondOrderId, completedOrderId), completed);
+        assertEquals("complete", orderStatus(firstOrderId));
+        assertEquals("complete", orderStatus(secondOrderId));
+        assertEquals("complete", orderStatus(completedOrderId));
+        assertEquals("unavailable", orderStatus(expensiveActiveOrderId));
+        assertEquals("active", orderStatus(cheapActiveOrderId));
+    }
+
+    @Test
+    @ExtendWith({
+            DbExtension.class,
+    })
+    void settleOrders() {
+        var component = DaggerTestApplicationComponent.builder().build();
+        component.inject(this);
+        var customerId = addCustomer(new BigDecimal("150"));
+        var executorId = addExecutor(BigDecimal.ZERO);
+        var settledOrderId = addOrder("in_processing", new BigDecimal("100"), customerId, executorId);
+        var unpaidOrderId = addOrder("in_processing", new BigDecimal("100"), customerId, executorId);
+        var completedOrderId = addOrder("complete", new BigDecimal("10"), customerId, executorId);
+        var activeOrderId = addOrder("active", new BigDecimal("60"), customerId, executorId);
+
+        var settled = orderDao.settleOrders(
+                new long[]{unpaidOrderId, completedOrderId, MISSING_ORDER_ID, settledOrderId},
+                new BigDecimal("0.9")
+        );
+
+        assertEquals(Set.of(settledOrderId), settled);
+        assertEquals("complete", orderStatus(settledOrderId));
+        assertEquals("reserved", orderStatus(unpaidOrderId));
+        assertEquals("complete", orderStatus(completedOrderId));
+        assertEquals("unavailable", orderStatus(activeOrderId));
+        assertEquals(new BigDecimal("50.00"), balance("customers.customers", customerId));
+        assertEquals(new BigDecimal("90.00"), balance("executors.executors", executorId));
+    }
+
+    @Test
+    @ExtendWith({
+            DbExtension.class,
+    })
+    void updateOrderStatus() {
+        var component = DaggerTestApplicationComponent.builder().build();
+        component.inject(this);
+        var customerId = addCustomer(new BigDecimal("100"));
+        var executorId = addExecutor(BigDecimal.ZERO);
+        var inProcessingOrderId = addOrder("in_processing", new BigDecimal("10"), customerId, executorId);
+        var completedOrderId = addOrder("complete", new BigDecimal("10"), customerId, executorId);
+
+        assertEquals(1, orderDao.updateOrderStatus(inProcessingOrderId, "in_processing", "reserved"));
+        assertEquals(0, orderDao.updateOrderStatus(inProcessingOrderId, "in_processing", "reserved"));
+        assertEquals(0, orderDao.updateOrderStatus(completedOrderId, "in_processing", "reserved"));
+        assertEquals("reserved", orderStatus(inProcessingOrderId));
+        assertEquals("complete", orderStatus(completedOrderId));
+    }
+
+    @SneakyThrows
+    private long addCustomer(BigDecimal balance) {
+        var sql = """
+                INSERT INTO customers.customers (user_id, balance)
+                VALUES (0, ?)
+                RETURNING id""";
+        return (long) dbHelper.insert(connectionFactory().get(), sql, balance);
+    }
+
+    @SneakyThrows
+    private long addExecutor(BigDecimal balance) {
+        var sql = """
+                INSERT INTO executors.executors (user_id, balance)
+                VALUES (0, ?)
+                RETURNING id""";
+        return (long) dbHelper.insert(connectionFactory().get(), sql, balance);
+    }
+
+    @SneakyThrows
+    private long addOrder(String status, BigDecimal price, long customerId, long executorId) {
+        var sql = """
+                INSERT INTO orders.orders (name, price, customer_id, executor_id, status)
+                VALUES ('test order', ?, ?, ?, ?::orders.order_status)
+                RETURNING id""";
+        return (long) dbHelper.insert(connectionFactory().get(), sql, price, customerId, executorId, status);
+    }
+
+    @SneakyThrows
+    private String orderStatus(long id) {
+        var sql = """
+                SELECT status
+                FROM orders.orders
+                WHERE id = ?""";
+        return dbHelper.selectOne(connectionFactory().get(), sql, resultSet -> resultSet.getString("status"), id);
+    }
+
+    @SneakyThrows
+    private BigDecimal balance(String table, long id) {
+        var sql = "SELECT balance FROM " + table + " WHERE id = ?";
+        return dbHelper.selectOne(connectionFactory().get(), sql, resultSet -> resultSet.getBigDecimal("balance"), id);
+    }
+}
@@ -0,0 +1,111 @@
+package ru.craftysoft.orderingsystem.orderprocessing.service.redis;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InFlightLimiterTest {
+
+    @Test
+    void acquireWaitsForRelease() {
+        var limiter = new InFlightLimiter(2);
+
+        var first = limiter.acquire();
+        var second = limiter.acquire();
+        var third = limiter.acquire();
+        var fourth = limiter.acquire();
+
+        assertTrue(first.isDone());
+        assertTrue(second.isDone());
+        assertFalse(third.isDone());
+        assertEquals(2, limiter.getInUse());
+        assertEquals(2, limiter.getQueued());
+
+        limiter.release();
+
+        assertTrue(third.isDone());
+        assertFalse(fourth.isDone());
+        assertEquals(2, limiter.getInUse());
+
+        limiter.release();
+        limiter.release();
+        limiter.release();
+
+        assertTrue(fourth.isDone());
+        assertEquals(0, limiter.getInUse());
+        assertEquals(0, limiter.getQueued());
+    }
+
+    @Test
+    void reserveLimitedByMaxInFlight() {
+        var limiter = new InFlightLimiter(10);
+
+        var first = limiter.reserve(8);
+        var second = limiter.reserve(8);
+        var third = limiter.reserve(8);
+
+        assertEquals(8, first.join());
+        assertEquals(2, second.join());
+        assertFalse(third.isDone());
+        assertEquals(10, limiter.getReserved());
+        assertFalse(limiter.isReadAhead());
+
+        limiter.unreserve(3);
+
+        assertEquals(3, third.join());
+        assertEquals(10, limiter.getReserved());
+    }
+
+    @Test
+    void reserveWithPrefetch() {
+        var limiter = new InFlightLimiter(4, 6);
+
+        var first = limiter.reserve(8);
+        var second = limiter.reserve(8);
+
+        assertTrue(limiter.isReadAhead());
+        assertEquals(8, first.join());
+        assertEquals(2, second.join());
+        assertEquals(10, limiter.getReserved());
+    }
+
+    @Test
+    void unreserveCompletesWaitersInOrder() {
+        var limiter = new InFlightLimiter(4);
+        limiter.reserve(4).join();
+
+        var first = limiter.reserve(3);
+        var second = limiter.reserve(3);
+
+        limiter.unreserve(2);
+
+        assertEquals(2, first.join());
+        assertFalse(second.isDone());
+
+        limiter.unreserve(4);
+
+        assertEquals(3, second.join());
+        assertEquals(3, limiter.getReserved());
+    }
+
+    @Test
+    void unreserveNegative() {
+        var limiter = new InFlightLimiter(4);
+        limiter.reserve(4).join();
+
+        assertThrows(IllegalArgumentException.class, () -> limiter.unreserve(-1));
+        assertEquals(4, limiter.getReserved());
+    }
+
+    @Test
+    void unreserveMoreThanReserved() {
+        var limiter = new InFlightLimiter(4);
+        limiter.reserve(2).join();
+
+        assertThrows(IllegalStateException.class, () -> limiter.unreserve(3));
+        assertEquals(2, limiter.getReserved());
+    }
+}
@@ -0,0 +1,93 @@
+package ru.craftysoft.orderingsystem.orderprocessing.service.redis;
+
+import org.junit.jupiter.api.Test;
+import ru.craftysoft.orderingsystem.util.properties.PropertyResolver;
+
+import java.nio.file.Files;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StreamPartitionerTest {
+
+    private static final String STREAM = "complete_order";
+
+    @Test
+    void assignedPartitions() throws Exception {
+        var partitioner = partitioner(8, 2, "1", 3, "host-7");
+
+        assertEquals(3, partitioner.consumers(STREAM));
+        assertEquals(List.of("complete_order.1", "complete_order.7"), partitioner.assignedPartitions(STREAM, 0));
+        assertEquals(List.of("complete_order.3"), partitioner.assignedPartitions(STREAM, 1));
+        assertEquals(List.of("complete_order.5"), partitioner.assignedPartitions(STREAM, 2));
+    }
+
+    @Test
+    void consumersLimitedByOwnedPartitions() throws Exception {
+        var partitioner = partitioner(4, 2, "0", 5, "host-7");
+
+        assertEquals(2, partitioner.consumers(STREAM));
+    }
+
+    @Test
+    void consumersWithoutPartitioning() throws Exception {
+        var partitioner = partitioner(1, 1, "0", 3, "host-7");
+
+        assertEquals(3, partitioner.consumers(STREAM));
+        assertEquals(List.of(STREAM), partitioner.assignedPartitions(STREAM, 2));
+    }
+
+    @Test
+    void instanceIndexAuto() throws Exception {
+        var partitioner = partitioner(4, 4, "auto", 1, "order-processing-2-4242");
+
+        assertEquals(List.of("complete_order.2"), partitioner.assignedPartitions(STREAM, 0));
+    }
+
+    @Test
+    void instanceIndexAutoWithoutOrdinal() {
+        assertThrows(IllegalArgumentException.class, () -> partitioner(4, 2, "auto", 1, "localhost-4242"));
+    }
+
+    @Test
+    void instanceIndexOutOfRange() {
+        assertThrows(IllegalArgumentException.class, () -> partitioner(4, 2, "2", 1, "host-7"));
+        assertThrows(IllegalArgumentException.class, () -> partitioner(4, 2, "auto", 1, "order-processing-3-4242"));
+    }
+
+    @Test
+    void fewerPartitionsThanInstances() {
+        assertThrows(IllegalArgumentException.class, () -> partitioner(2, 3, "0", 1, "host-7"));
+    }
+
+    private StreamPartitioner partitioner(int partitions, int instanceCount, String instanceIndex, int consumers, String instanceId) throws Exception {
+        var stages = Stream.of(
+                "increment-customer-amount",
+                "decrease-customer-amount",
+                "increment-executor-amount",
+                "decrease-executor-amount",
+                "reserve-order",
+                "complete-order"
+        );
+        var properties = stages
+                .map(stage -> """
+                        redis.stream.%1$s.name=%2$s
+                        redis.stream.%1$s.consumers=%3$d
+                        """.formatted(stage, stage.replace('-', '_'), consumers))
+                .collect(Collectors.joining("", """
+                        redis.stream.partitions=%d
+                        redis.stream.partition-assignment.instance-count=%d
+                        redis.stream.partition-assignment.instance-index=%s
+                        """.formatted(partitions, instanceCount, instanceIndex), ""));
+        var file = Files.createTempFile("stream-partitioner", ".properties");
+        try {
+            Files.writeString(file, properties);
+            return new StreamPartitioner(new PropertyResolver(file.toString()), instanceId);
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package ru.craftysoft.orderingsystem.orderprocessing.service.saga;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HashedTimingWheelTest {
+
+    private static final long STARTED_AT = 1_000_000L;
+
+    @Test
+    void advanceFiresAfterDeadline() {
+        var wheel = new HashedTimingWheel<String>(8, 10, STARTED_AT);
+        wheel.schedule("a", STARTED_AT + 25);
+
+        assertEquals(List.of(), wheel.advance(STARTED_AT + 24));
+        assertEquals(List.of("a"), wheel.advance(STARTED_AT + 30));
+        assertEquals(List.of(), wheel.advance(STARTED_AT + 100));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void advanceFiresPastDeadline() {
+        var wheel = new HashedTimingWheel<String>(8, 10, STARTED_AT);
+        wheel.advance(STARTED_AT + 50);
+        wheel.schedule("a", STARTED_AT + 20);
+
+        assertEquals(List.of(), wheel.advance(STARTED_AT + 55));
+        assertEquals(List.of("a"), wheel.advance(STARTED_AT + 60));
+    }
+
+    @Test
+    void advanceMultiRoundTimer() {
+        var wheel = new HashedTimingWheel<String>(4, 10, STARTED_AT);
+        wheel.schedule("a", STARTED_AT + 95);
+        wheel.schedule("b", STARTED_AT + 15);
+
+        assertEquals(List.of("b"), wheel.advance(STARTED_AT + 20));
+        for (long now = STARTED_AT + 30; now < STARTED_AT + 100; now += 10) {
+            assertEquals(List.of(), wheel.advance(now));
+        }
+        assertEquals(List.of("a"), wheel.advance(STARTED_AT + 100));
+    }
+
+    @Test
+    void advanceAcrossWrap() {
+        var wheel = new HashedTimingWheel<String>(4, 10, STARTED_AT);
+        wheel.schedule("a", STARTED_AT + 35);
+        wheel.schedule("b", STARTED_AT + 95);
+        wheel.schedule("c", STARTED_AT + 250);
+
+        assertEquals(Set.of("a", "b"), Set.copyOf(wheel.advance(STARTED_AT + 200)));
+        assertEquals(1, wheel.size());
+
+        wheel.schedule("d", STARTED_AT + 215);
+
+        assertEquals(List.of("d"), wheel.advance(STARTED_AT + 220));
+        assertEquals(List.of("c"), wheel.advance(STARTED_AT + 250));
+    }
+
+    @Test
+    void scheduleReschedulesTimer() {
+        var wheel = new HashedTimingWheel<String>(8, 10, STARTED_AT);
+        wheel.schedule("a", STARTED_AT + 20);
+        wheel.schedule("a", STARTED_AT + 200);
+
+        assertEquals(1, wheel.size());
+        assertEquals(List.of(), wheel.advance(STARTED_AT + 190));
+        assertEquals(List.of("a"), wheel.advance(STARTED_AT + 200));
+
+        wheel.schedule("b", STARTED_AT + 500);
+        wheel.schedule("b", STARTED_AT + 210);
+
+        assertEquals(List.of("b"), wheel.advance(STARTED_AT + 210));
+        assertEquals(List.of(), wheel.advance(STARTED_AT + 500));
+    }
+
+    @Test
+    void cancel() {
+        var wheel = new HashedTimingWheel<String>(8, 10, STARTED_AT);
+        wheel.schedule("a", STARTED_AT + 20);
+        wheel.schedule("b", STARTED_AT + 20);
+        wheel.schedule("c", STARTED_AT + 20);
+
+        assertTrue(wheel.cancel("b"));
+        assertFalse(wheel.cancel("b"));
+        assertFalse(wheel.cancel("d"));
+        assertEquals(2, wheel.size());
+        assertEquals(Set.of("a", "c"), Set.copyOf(wheel.advance(STARTED_AT + 20)));
+        assertFalse(wheel.cancel("a"));
+    }
+
+    @Test
+    void invalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new HashedTimingWheel<String>(6, 10, STARTED_AT));
+        assertThrows(IllegalArgumentException.class, () -> new HashedTimingWheel<String>(0, 10, STARTED_AT));
+        assertThrows(IllegalArgumentException.class, () -> new HashedTimingWheel<String>(8, 0, STARTED_AT));
+    }
+}
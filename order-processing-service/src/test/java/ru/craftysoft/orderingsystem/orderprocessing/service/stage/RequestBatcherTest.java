@@ -0,0 +1,146 @@
+package ru.craftysoft.orderingsystem.orderprocessing.service.stage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.craftysoft.orderingsystem.util.properties.PropertyResolver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestBatcherTest {
+
+    private static final String STAGE = "complete-order-batch";
+
+    private StageRuntime stageRuntime;
+    private final List<List<Delta>> calls = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeEach
+    void setUp() {
+        stageRuntime = new StageRuntime(new PropertyResolver("classpath:/application-test.properties"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        stageRuntime.shutdown();
+    }
+
+    @Test
+    void submitNettingApplied() throws Exception {
+        var batcher = batcher(3, requests -> requests.stream()
+                .map(Delta::amount)
+                .toList());
+
+        var first = batcher.submit(new Delta("a", 10));
+        var second = batcher.submit(new Delta("b", 1));
+        var third = batcher.submit(new Delta("a", 5));
+
+        assertEquals(15, first.get(5, SECONDS));
+        assertEquals(1, second.get(5, SECONDS));
+        assertEquals(15, third.get(5, SECONDS));
+        assertEquals(List.of(List.of(new Delta("a", 15), new Delta("b", 1))), calls);
+    }
+
+    @Test
+    void submitNettingNotApplied() throws Exception {
+        var batcher = batcher(2, requests -> requests.stream()
+                .map(request -> request.amount() > 12 ? null : request.amount())
+                .toList());
+
+        var first = batcher.submit(new Delta("a", 10));
+        var second = batcher.submit(new Delta("a", 5));
+
+        assertEquals(10, first.get(5, SECONDS));
+        assertEquals(5, second.get(5, SECONDS));
+        assertEquals(List.of(
+                List.of(new Delta("a", 15)),
+                List.of(new Delta("a", 10), new Delta("a", 5))
+        ), calls);
+    }
+
+    @Test
+    void submitNettingNotAppliedRejectsOnlyItsOwnRequest() throws Exception {
+        var batcher = batcher(2, requests -> requests.stream()
+                .map(request -> request.amount() < 0 ? null : request.amount())
+                .toList());
+
+        var first = batcher.submit(new Delta("a", 10));
+        var second = batcher.submit(new Delta("a", -20));
+
+        assertEquals(10, first.get(5, SECONDS));
+        assertNull(second.get(5, SECONDS));
+        assertEquals(2, calls.size());
+    }
+
+    @Test
+    void submitNotNettable() throws Exception {
+        var batcher = batcher(3, requests -> requests.stream()
+                .map(Delta::amount)
+                .toList());
+
+        var first = batcher.submit(new Delta("a", 10));
+        var second = batcher.submit(new Delta("a", 5), false);
+        var third = batcher.submit(new Delta("a", 1));
+
+        assertEquals(11, first.get(5, SECONDS));
+        assertEquals(5, second.get(5, SECONDS));
+        assertEquals(11, third.get(5, SECONDS));
+        assertEquals(List.of(List.of(new Delta("a", 11), new Delta("a", 5))), calls);
+    }
+
+    @Test
+    void submitResultsCountMismatch() {
+        var batcher = batcher(2, requests -> List.of(1));
+
+        var first = batcher.submit(new Delta("a", 10));
+        var second = batcher.submit(new Delta("b", 5));
+
+        var exception = assertThrows(ExecutionException.class, () -> first.get(5, SECONDS));
+        assertTrue(exception.getCause() instanceof IllegalStateException);
+        assertEquals("expected 2 results, received 1", exception.getCause().getMessage());
+        assertThrows(ExecutionException.class, () -> second.get(5, SECONDS));
+    }
+
+    private RequestBatcher<Delta, Integer> batcher(int maxBatchSize, Function<List<Delta>, List<Integer>> results) {
+        return new RequestBatcher<>(STAGE, stageRuntime, maxBatchSize, 5, requests -> {
+            calls.add(List.copyOf(requests));
+            return CompletableFuture.completedFuture(results.apply(requests));
+        }, new DeltaNetting());
+    }
+
+    private record Delta(String account, int amount) {
+    }
+
+    private static class DeltaNetting implements RequestBatcher.Netting<Delta, Integer> {
+
+        @Override
+        public Object key(Delta request) {
+            return request.account();
+        }
+
+        @Override
+        public Delta merge(List<Delta> requests) {
+            return new Delta(requests.get(0).account(), requests.stream().mapToInt(Delta::amount).sum());
+        }
+
+        @Override
+        public boolean isApplied(Integer result) {
+            return result != null;
+        }
+
+        @Override
+        public Integer result(Integer mergedResult, Delta request) {
+            return mergedResult;
+        }
+    }
+}
@@ -138,4 +138,21 @@ public class DbHelper {
         }
     }
 
+    /**
+     * выполнение действий в одной транзакции: при успехе транзакция фиксируется, при любой ошибке откатывается
+     */
+    public <T> T executeInTransaction(TransactionCallback<T> callback) throws SQLException {
+        try (var connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                var result = callback.execute(connection);
+                connection.commit();
+                return result;
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
 }
@@ -0,0 +1,15 @@
+package ru.craftysoft.orderingsystem.util.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Обёртка для действий, выполняемых в одной транзакции, позволяющая не обрабатывать явно {@link SQLException}
+ *
+ * @param <T>
+ */
+public interface TransactionCallback<T> {
+
+    T execute(Connection connection) throws SQLException;
+
+}
@@ -36,6 +36,10 @@ public class PropertyResolver {
         return getProperty(key, Integer::parseInt);
     }
 
+    public boolean getBooleanProperty(String key) {
+        return getProperty(key, Boolean::parseBoolean);
+    }
+
     private <T> T getProperty(String key, Function<String, T> transformer) {
         try {
             requireNonNull(key);